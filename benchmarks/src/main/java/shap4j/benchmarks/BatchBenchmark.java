@@ -0,0 +1,87 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.Engine;
+import shap4j.ShapSummary;
+import shap4j.TreeExplainer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of explaining batches of feature vectors, end to end (marshalling, native kernel and copy-out). Divide
+ * the reported throughput by <code>numRows</code> to get the number of rows explained per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+    @Param({"boston", "t100d6"})
+    public String model;
+
+    @Param({"1", "100", "10000"})
+    public int numRows;
+
+    @Param({"1"})
+    public int numThreads;
+
+    @Param({"false"})
+    public boolean compiled;
+
+    @Param({"NATIVE"})
+    public Engine engine;
+
+    private TreeExplainer explainer;
+    private double[][] matrix;
+    private float[][] floatMatrix;
+
+    @Setup
+    public void setUp() {
+        BenchmarkModel benchmarkModel = BenchmarkModel.load(model);
+        explainer = new TreeExplainer(benchmarkModel.getData(), engine);
+        if (compiled) {
+            explainer.compile();
+        }
+        explainer.setNumThreads(numThreads);
+        matrix = benchmarkModel.randomMatrix(numRows, 42);
+        floatMatrix = new float[numRows][];
+        for (int i = 0; i < numRows; ++i) {
+            floatMatrix[i] = new float[matrix[i].length];
+            for (int j = 0; j < matrix[i].length; ++j) {
+                floatMatrix[i][j] = (float) matrix[i][j];
+            }
+        }
+    }
+
+    @Benchmark
+    public double[][] exact() {
+        return explainer.shapValues(matrix, false, false);
+    }
+
+    @Benchmark
+    public double[][] saabas() {
+        return explainer.shapValues(matrix, true, false);
+    }
+
+    @Benchmark
+    public float[][] exactFloat() {
+        return explainer.shapValues(floatMatrix, false, false);
+    }
+
+    @Benchmark
+    public float[][] saabasFloat() {
+        return explainer.shapValues(floatMatrix, true, false);
+    }
+
+    @Benchmark
+    public ShapSummary exactSummary() {
+        return explainer.summarize(matrix, false, false);
+    }
+
+    @Benchmark
+    public ShapSummary saabasSummary() {
+        return explainer.summarize(matrix, true, false);
+    }
+}
@@ -0,0 +1,103 @@
+package shap4j.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A model used by the benchmarks, referred to by name in the <code>model</code> parameter of a benchmark:
+ * <ul>
+ *     <li><code>boston</code>: the Boston housing model used by the unit tests of shap4j (100 trees of depth 6).</li>
+ *     <li><code>t&lt;trees&gt;d&lt;depth&gt;</code>, e.g. <code>t1000d8</code>: a synthetic model with the given number
+ *     of trees of (at most) the given depth, over {@link #SYNTHETIC_NUM_FEATURES} features.</li>
+ * </ul>
+ */
+public final class BenchmarkModel {
+    public static final int SYNTHETIC_NUM_FEATURES = 32;
+
+    private static final Pattern SYNTHETIC_NAME = Pattern.compile("t(\\d+)d(\\d+)");
+
+    // a feature vector of the Boston housing dataset, around which random feature vectors are generated
+    private static final double[] BOSTON_ROW = {
+            6.320e-03, 1.800e+01, 2.310e+00, 0.000e+00, 5.380e-01, 6.575e+00,
+            6.520e+01, 4.090e+00, 1.000e+00, 2.960e+02, 1.530e+01, 3.969e+02,
+            4.980e+00
+    };
+
+    private final String name;
+    private final byte[] data;
+    private final int numFeatures;
+
+    private BenchmarkModel(String name, byte[] data, int numFeatures) {
+        this.name = name;
+        this.data = data;
+        this.numFeatures = numFeatures;
+    }
+
+    public static BenchmarkModel load(String name) {
+        if (name.equals("boston")) {
+            return new BenchmarkModel(name, readResource("/boston.shap4j"), BOSTON_ROW.length);
+        }
+
+        Matcher matcher = SYNTHETIC_NAME.matcher(name);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unknown benchmark model: " + name);
+        }
+
+        int numTrees = Integer.parseInt(matcher.group(1));
+        int maxDepth = Integer.parseInt(matcher.group(2));
+        byte[] data = SyntheticModels.generate(numTrees, maxDepth, SYNTHETIC_NUM_FEATURES, name.hashCode());
+
+        return new BenchmarkModel(name, data, SYNTHETIC_NUM_FEATURES);
+    }
+
+    /**
+     * @return The model in the <code>.shap4j</code> format.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * Generate random feature vectors for this model.
+     * @param numRows The number of feature vectors.
+     * @param seed The seed of the random number generator.
+     * @return A matrix of <code>numRows</code> feature vectors.
+     */
+    public double[][] randomMatrix(int numRows, long seed) {
+        if (!name.equals("boston")) {
+            return SyntheticModels.randomMatrix(numRows, numFeatures, seed);
+        }
+
+        Random random = new Random(seed);
+        double[][] matrix = new double[numRows][numFeatures];
+        for (double[] row : matrix) {
+            for (int j = 0; j < numFeatures; ++j) {
+                row[j] = BOSTON_ROW[j] * (0.5 + random.nextDouble());
+            }
+        }
+        return matrix;
+    }
+
+    private static byte[] readResource(String resource) {
+        try (InputStream is = BenchmarkModel.class.getResourceAsStream(resource)) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 16];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                os.write(buffer, 0, bytesRead);
+            }
+            return os.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
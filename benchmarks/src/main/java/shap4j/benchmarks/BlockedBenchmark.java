@@ -0,0 +1,57 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.TreeExplainer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of explaining batches of feature vectors row-major (a block size of <code>0x0</code>) or tree-major in
+ * tiles of <code>&lt;rows&gt;x&lt;trees&gt;</code> (see {@link TreeExplainer#setBlockSize(int, int)}), on models of
+ * increasing size: the nodes of <code>t2000d8</code> do not fit in the L2 cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockedBenchmark {
+    @Param({"boston", "t500d8", "t2000d8"})
+    public String model;
+
+    @Param({"1000"})
+    public int numRows;
+
+    @Param({"0x0", "64x16", "64x64", "256x64"})
+    public String blockSize;
+
+    @Param({"false", "true"})
+    public boolean compiled;
+
+    private TreeExplainer explainer;
+    private double[][] matrix;
+
+    @Setup
+    public void setUp() {
+        BenchmarkModel benchmarkModel = BenchmarkModel.load(model);
+        explainer = new TreeExplainer(benchmarkModel.getData());
+        if (compiled) {
+            explainer.compile();
+        }
+
+        String[] tile = blockSize.split("x");
+        explainer.setBlockSize(Integer.parseInt(tile[0]), Integer.parseInt(tile[1]));
+        matrix = benchmarkModel.randomMatrix(numRows, 42);
+    }
+
+    @Benchmark
+    public double[][] saabas() {
+        return explainer.shapValues(matrix, true, false);
+    }
+
+    @Benchmark
+    public double[][] exact() {
+        return explainer.shapValues(matrix, false, false);
+    }
+}
@@ -0,0 +1,56 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.TreeExplainer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of explaining batches of bucketed feature vectors, where each feature takes one of
+ * <code>numBuckets</code> values, with or without a {@link shap4j.shap.ContributionCache} (which is warmed up by the
+ * warmup iterations).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContributionCacheBenchmark {
+    @Param({"t100d6", "t1000d8"})
+    public String model;
+
+    @Param({"1000"})
+    public int numRows;
+
+    @Param({"2", "8"})
+    public int numBuckets;
+
+    @Param({"0", "1000000"})
+    public long cacheCapacity;
+
+    private TreeExplainer explainer;
+    private double[][] matrix;
+
+    @Setup
+    public void setUp() {
+        BenchmarkModel benchmarkModel = BenchmarkModel.load(model);
+        explainer = new TreeExplainer(benchmarkModel.getData());
+        explainer.setContributionCache(cacheCapacity);
+
+        double[][] buckets = benchmarkModel.randomMatrix(numBuckets, 42);
+        Random random = new Random(42);
+        matrix = new double[numRows][benchmarkModel.getNumFeatures()];
+        for (double[] row : matrix) {
+            for (int j = 0; j < row.length; ++j) {
+                row[j] = buckets[random.nextInt(numBuckets)][j];
+            }
+        }
+    }
+
+    @Benchmark
+    public double[][] exact() {
+        return explainer.shapValues(matrix, false, false);
+    }
+}
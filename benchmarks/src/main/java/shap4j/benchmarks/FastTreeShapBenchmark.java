@@ -0,0 +1,57 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.TreeExplainer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the exact tree path dependent algorithm on batches of feature vectors, with the default recursion, a
+ * compiled ensemble, or FastTreeSHAP without (<code>v1</code>, a memory budget of 0) or with precomputed tables
+ * (<code>v2</code>, an unbounded memory budget).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FastTreeShapBenchmark {
+    @Param({"t100d6", "t1000d8"})
+    public String model;
+
+    @Param({"1000"})
+    public int numRows;
+
+    @Param({"recursive", "compiled", "v1", "v2"})
+    public String algorithm;
+
+    private TreeExplainer explainer;
+    private double[][] matrix;
+
+    @Setup
+    public void setUp() {
+        BenchmarkModel benchmarkModel = BenchmarkModel.load(model);
+        explainer = new TreeExplainer(benchmarkModel.getData());
+        switch (algorithm) {
+            case "compiled":
+                explainer.compile();
+                break;
+            case "v1":
+                explainer.compileFastTreeShap(0);
+                break;
+            case "v2":
+                explainer.compileFastTreeShap(Long.MAX_VALUE);
+                break;
+            default:
+                break;
+        }
+
+        matrix = benchmarkModel.randomMatrix(numRows, 42);
+    }
+
+    @Benchmark
+    public double[][] exact() {
+        return explainer.shapValues(matrix, false, false);
+    }
+}
@@ -0,0 +1,54 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.FeatureDependence;
+import shap4j.TreeExplainer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of computing interventional SHAP values against a background dataset, which is marshalled once in the
+ * setup. The cost is linear in both <code>numRows</code> and <code>numBackgroundRows</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndependentBenchmark {
+    @Param({"boston", "t100d6"})
+    public String model;
+
+    @Param({"1", "100"})
+    public int numRows;
+
+    @Param({"100"})
+    public int numBackgroundRows;
+
+    @Param({"1"})
+    public int numThreads;
+
+    private TreeExplainer explainer;
+    private double[][] matrix;
+
+    @Setup
+    public void setUp() {
+        BenchmarkModel benchmarkModel = BenchmarkModel.load(model);
+        explainer = new TreeExplainer(benchmarkModel.getData());
+        explainer.setNumThreads(numThreads);
+        explainer.setFeatureDependence(FeatureDependence.INDEPENDENT);
+        explainer.setBackground(benchmarkModel.randomMatrix(numBackgroundRows, 7), false);
+        matrix = benchmarkModel.randomMatrix(numRows, 42);
+    }
+
+    @TearDown
+    public void tearDown() {
+        explainer.setBackground(null, false);
+    }
+
+    @Benchmark
+    public double[][] independent() {
+        return explainer.shapValues(matrix, false, false);
+    }
+}
@@ -0,0 +1,43 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.TreeExplainer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of computing SHAP interaction values, end to end. With fewer rows than threads, the features on which the
+ * interactions are conditioned are split across the threads instead of the rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InteractionBenchmark {
+    @Param({"boston", "t100d6"})
+    public String model;
+
+    @Param({"1", "64"})
+    public int numRows;
+
+    @Param({"1"})
+    public int numThreads;
+
+    private TreeExplainer explainer;
+    private double[][] matrix;
+
+    @Setup
+    public void setUp() {
+        BenchmarkModel benchmarkModel = BenchmarkModel.load(model);
+        explainer = new TreeExplainer(benchmarkModel.getData());
+        explainer.setNumThreads(numThreads);
+        matrix = benchmarkModel.randomMatrix(numRows, 42);
+    }
+
+    @Benchmark
+    public double[] interactions() {
+        return explainer.shapInteractionValues(matrix, false);
+    }
+}
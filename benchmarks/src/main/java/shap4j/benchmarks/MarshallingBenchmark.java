@@ -0,0 +1,79 @@
+package shap4j.benchmarks;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.openjdk.jmh.annotations.*;
+import shap4j.TreeExplainer;
+import shap4j.shap.ExplanationDataset;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of marshalling feature vectors to native memory (<code>ExplanationDataset.fromMatrix</code>), or of wrapping
+ * them in place in a direct buffer (<code>ExplanationDataset.wrap</code>), measured apart from the native kernel,
+ * which is measured on its own on a dataset marshalled beforehand.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarshallingBenchmark {
+    @Param({"boston"})
+    public String model;
+
+    @Param({"1", "100", "10000"})
+    public int numRows;
+
+    @Param({"false", "true"})
+    public boolean checkMissing;
+
+    private TreeExplainer explainer;
+    private double[][] matrix;
+    private DoubleBuffer buffer;
+    private ExplanationDataset dataset;
+    private DoublePointer phi;
+
+    @Setup
+    public void setUp() {
+        BenchmarkModel benchmarkModel = BenchmarkModel.load(model);
+        explainer = new TreeExplainer(benchmarkModel.getData());
+        matrix = benchmarkModel.randomMatrix(numRows, 42);
+        dataset = ExplanationDataset.fromMatrix(matrix, checkMissing);
+
+        buffer = ByteBuffer.allocateDirect(numRows * matrix[0].length * 8).order(ByteOrder.nativeOrder())
+                .asDoubleBuffer();
+        for (double[] row : matrix) {
+            buffer.put(row);
+        }
+        buffer.flip();
+        phi = new DoublePointer(explainer.getOutputSize(dataset));
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataset.close();
+        phi.close();
+    }
+
+    @Benchmark
+    public void fromMatrix() {
+        ExplanationDataset marshalled = ExplanationDataset.fromMatrix(matrix, checkMissing);
+        marshalled.close();
+    }
+
+    @Benchmark
+    public void wrap() {
+        ExplanationDataset wrapped = ExplanationDataset.wrap(buffer, numRows, matrix[0].length, checkMissing);
+        wrapped.close();
+    }
+
+    @Benchmark
+    public DoublePointer kernelOnly() {
+        explainer.shapValues(dataset, false, phi);
+        return phi;
+    }
+}
@@ -0,0 +1,62 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.CompactModel;
+import shap4j.TreeExplainer;
+import shap4j.shap.TreeEnsemble;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load a model from its <code>.shap4j</code> representation into native memory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelLoadBenchmark {
+    @Param({"boston", "t100d6", "t1000d8"})
+    public String model;
+
+    // the version of the .shap4j format: 1 (padded) or 2 (compact)
+    @Param({"1", "2"})
+    public int version;
+
+    private byte[] data;
+    private Path path;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = BenchmarkModel.load(model).getData();
+        if (version == CompactModel.VERSION) {
+            data = CompactModel.fromPadded(data);
+        }
+        path = Files.createTempFile(model, ".shap4j");
+        Files.write(path, data);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public TreeEnsemble fromBytes() {
+        return TreeEnsemble.fromBytes(data);
+    }
+
+    @Benchmark
+    public TreeExplainer fromFile() throws IOException {
+        return TreeExplainer.fromFile(path.toString());
+    }
+
+    @Benchmark
+    public TreeExplainer fromPath() throws IOException {
+        return TreeExplainer.fromPath(path);
+    }
+}
@@ -0,0 +1,65 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.ExplanationScheduler;
+import shap4j.TreeExplainer;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of many threads explaining single feature vectors, each calling the explainer directly, or submitting to
+ * an {@link ExplanationScheduler} coalescing them into batches.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Threads(16)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulerBenchmark {
+    @Param({"boston", "t100d6"})
+    public String model;
+
+    @Param({"false", "true"})
+    public boolean approximate;
+
+    @Param({"64"})
+    public int maxBatchSize;
+
+    @Param({"100"})
+    public int maxWaitMicros;
+
+    private TreeExplainer explainer;
+    private ExplanationScheduler scheduler;
+    private double[][] rows;
+
+    @Setup
+    public void setUp() {
+        BenchmarkModel benchmarkModel = BenchmarkModel.load(model);
+        explainer = new TreeExplainer(benchmarkModel.getData());
+        scheduler = new ExplanationScheduler(explainer, approximate, false, maxBatchSize, maxWaitMicros,
+                TimeUnit.MICROSECONDS, 1, 64 * maxBatchSize);
+        rows = benchmarkModel.randomMatrix(1024, 42);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    private double[] nextRow() {
+        return rows[ThreadLocalRandom.current().nextInt(rows.length)];
+    }
+
+    @Benchmark
+    public double[] direct() {
+        return explainer.shapValues(nextRow(), approximate, false);
+    }
+
+    @Benchmark
+    public double[] scheduled() {
+        return scheduler.explainAsync(nextRow()).join();
+    }
+}
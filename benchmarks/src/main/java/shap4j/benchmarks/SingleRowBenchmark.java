@@ -0,0 +1,74 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.ExplanationSession;
+import shap4j.TreeExplainer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of explaining a single feature vector, with percentiles reported by the sampling mode.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SingleRowBenchmark {
+    @Param({"boston", "t100d6", "t1000d8"})
+    public String model;
+
+    @Param({"false"})
+    public boolean compiled;
+
+    private TreeExplainer explainer;
+    private ExplanationSession session;
+    private double[][] rows;
+    private double[] out;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        BenchmarkModel benchmarkModel = BenchmarkModel.load(model);
+        explainer = new TreeExplainer(benchmarkModel.getData());
+        if (compiled) {
+            explainer.compile();
+        }
+        session = explainer.newSession(benchmarkModel.getNumFeatures());
+        rows = benchmarkModel.randomMatrix(1024, 42);
+        out = new double[session.getOutputSize()];
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+    }
+
+    private double[] nextRow() {
+        next = (next + 1) & (rows.length - 1);
+        return rows[next];
+    }
+
+    @Benchmark
+    public double[] exact() {
+        return explainer.shapValues(nextRow(), false, false);
+    }
+
+    @Benchmark
+    public double[] saabas() {
+        return explainer.shapValues(nextRow(), true, false);
+    }
+
+    @Benchmark
+    public double[] exactSession() {
+        session.shapValues(nextRow(), false, false, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public double[] saabasSession() {
+        session.shapValues(nextRow(), true, false, out, 0);
+        return out;
+    }
+}
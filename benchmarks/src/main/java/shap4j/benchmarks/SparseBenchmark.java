@@ -0,0 +1,82 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.SparseExplanationDataset;
+import shap4j.SparseShapValues;
+import shap4j.TreeExplainer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of explaining wide, sparse feature vectors (with <code>numNonZeros</code> non-zero entries out of
+ * <code>numFeatures</code>), end to end, either as a dense matrix or as a sparse (CSR) dataset with a dense or sparse
+ * output.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SparseBenchmark {
+    @Param({"50000"})
+    public int numFeatures;
+
+    @Param({"100"})
+    public int numNonZeros;
+
+    @Param({"1", "100"})
+    public int numRows;
+
+    private TreeExplainer explainer;
+    private double[][] matrix;
+    private int[] indptr;
+    private int[] indices;
+    private double[] values;
+
+    @Setup
+    public void setUp() {
+        explainer = new TreeExplainer(SyntheticModels.generate(100, 6, numFeatures, 42));
+
+        Random random = new Random(42);
+        matrix = new double[numRows][numFeatures];
+        indptr = new int[numRows + 1];
+        indices = new int[numRows * numNonZeros];
+        values = new double[numRows * numNonZeros];
+        for (int i = 0; i < numRows; ++i) {
+            // distinct sorted features, drawn by selection sampling
+            int n = indptr[i];
+            for (int j = 0; j < numFeatures && n < indptr[i] + numNonZeros; ++j) {
+                if (random.nextInt(numFeatures - j) < indptr[i] + numNonZeros - n) {
+                    indices[n] = j;
+                    values[n] = random.nextDouble();
+                    matrix[i][j] = values[n];
+                    ++n;
+                }
+            }
+            indptr[i + 1] = n;
+        }
+    }
+
+    @Benchmark
+    public double[][] dense() {
+        return explainer.shapValues(matrix, false, false);
+    }
+
+    @Benchmark
+    public double[] sparse() {
+        try (SparseExplanationDataset dataset = SparseExplanationDataset.fromCsr(numFeatures, indptr, indices, values,
+                false)) {
+            return explainer.shapValues(dataset, false);
+        }
+    }
+
+    @Benchmark
+    public SparseShapValues sparseOutput() {
+        try (SparseExplanationDataset dataset = SparseExplanationDataset.fromCsr(numFeatures, indptr, indices, values,
+                false)) {
+            return explainer.sparseShapValues(dataset, false);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import shap4j.Explanation;
+import shap4j.ModelTransform;
+import shap4j.TreeExplainer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of explaining <code>numRows</code> rows either as a single batch, or as a stream of chunks of
+ * <code>chunkRows</code> rows, whose copy to the native memory overlaps with the kernel on the previous chunk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamBenchmark {
+    @Param({"boston"})
+    public String model;
+
+    @Param({"10000"})
+    public int numRows;
+
+    @Param({"256"})
+    public int chunkRows;
+
+    @Param({"true", "false"})
+    public boolean approximate;
+
+    private TreeExplainer explainer;
+    private double[][] matrix;
+
+    @Setup
+    public void setUp() {
+        BenchmarkModel benchmarkModel = BenchmarkModel.load(model);
+        explainer = new TreeExplainer(benchmarkModel.getData());
+        matrix = benchmarkModel.randomMatrix(numRows, 42);
+    }
+
+    @Benchmark
+    public Explanation batch() {
+        return explainer.explain(matrix, approximate, ModelTransform.IDENTITY, false);
+    }
+
+    @Benchmark
+    public long stream(Blackhole blackhole) {
+        return explainer.explainStream(Arrays.stream(matrix), matrix[0].length, chunkRows, approximate,
+                ModelTransform.IDENTITY, false, (chunk, rowOffset) -> blackhole.consume(chunk));
+    }
+}
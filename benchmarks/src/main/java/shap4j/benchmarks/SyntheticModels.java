@@ -0,0 +1,182 @@
+package shap4j.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * Generator of random tree ensembles in the <code>.shap4j</code> (version 1) format, used to benchmark models of
+ * arbitrary sizes.
+ */
+public final class SyntheticModels {
+    private static final int HEADER_SIZE = 48;
+
+    // probability of turning an internal node (other than the root) into a leaf, so that trees are not all complete
+    private static final double EARLY_LEAF_PROBABILITY = 0.1;
+
+    private SyntheticModels() {}
+
+    /**
+     * Generate a random regression model with a single output.
+     * @param numTrees The number of trees.
+     * @param maxDepth The maximum depth of each tree.
+     * @param numFeatures The number of features; feature values are expected to be uniform over <code>[0, 1)</code>.
+     * @param seed The seed of the random number generator.
+     * @return The model in the <code>.shap4j</code> format.
+     */
+    public static byte[] generate(int numTrees, int maxDepth, int numFeatures, long seed) {
+        Random random = new Random(seed);
+        Tree[] trees = new Tree[numTrees];
+        int maxNodes = 0;
+        for (int t = 0; t < numTrees; ++t) {
+            trees[t] = randomTree(maxDepth, numFeatures, random);
+            maxNodes = Math.max(maxNodes, trees[t].numNodes);
+        }
+
+        int numElements = numTrees * maxNodes;
+        int offsetIntArrays = HEADER_SIZE;
+        int offsetDoubleArrays = offsetIntArrays + 4 * 4 * numElements;
+        int size = offsetDoubleArrays + 3 * 8 * numElements;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        buffer.put("SHAP".getBytes());
+        buffer.putInt(1);
+        buffer.putInt(numTrees);
+        buffer.putInt(maxDepth);
+        buffer.putInt(maxNodes);
+        buffer.putInt(1);
+        buffer.putInt(offsetIntArrays);
+        buffer.putInt(offsetDoubleArrays);
+        buffer.putDouble(0.5);
+
+        buffer.position(offsetIntArrays);
+        for (Tree tree : trees) putPadded(buffer, tree.childrenLeft, maxNodes);
+        for (Tree tree : trees) putPadded(buffer, tree.childrenRight, maxNodes);
+        for (Tree tree : trees) putPadded(buffer, tree.childrenDefault, maxNodes);
+        for (Tree tree : trees) putPadded(buffer, tree.features, maxNodes);
+        for (Tree tree : trees) putPadded(buffer, tree.thresholds, maxNodes);
+        for (Tree tree : trees) putPadded(buffer, tree.values, maxNodes);
+        for (Tree tree : trees) putPadded(buffer, tree.nodeSampleWeights, maxNodes);
+
+        return buffer.array();
+    }
+
+    /**
+     * Generate random feature vectors for a synthetic model.
+     * @param numRows The number of feature vectors.
+     * @param numFeatures The number of features.
+     * @param seed The seed of the random number generator.
+     * @return A matrix of feature values uniform over <code>[0, 1)</code>.
+     */
+    public static double[][] randomMatrix(int numRows, int numFeatures, long seed) {
+        Random random = new Random(seed);
+        double[][] matrix = new double[numRows][numFeatures];
+        for (double[] row : matrix) {
+            for (int j = 0; j < numFeatures; ++j) {
+                row[j] = random.nextDouble();
+            }
+        }
+        return matrix;
+    }
+
+    private static void putPadded(ByteBuffer buffer, int[] values, int maxNodes) {
+        for (int i = 0; i < maxNodes; ++i) {
+            buffer.putInt(i < values.length ? values[i] : -1);
+        }
+    }
+
+    private static void putPadded(ByteBuffer buffer, double[] values, int maxNodes) {
+        for (int i = 0; i < maxNodes; ++i) {
+            buffer.putDouble(i < values.length ? values[i] : 0);
+        }
+    }
+
+    private static Tree randomTree(int maxDepth, int numFeatures, Random random) {
+        int capacity = (1 << (maxDepth + 1)) - 1;
+        Tree tree = new Tree(capacity);
+        int[] depths = new int[capacity];
+
+        // grow the tree breadth first, with the root at node 0
+        Deque<Integer> queue = new ArrayDeque<>();
+        tree.numNodes = 1;
+        tree.nodeSampleWeights[0] = 1000;
+        queue.add(0);
+
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            boolean isLeaf = depths[node] == maxDepth || (node > 0 && random.nextDouble() < EARLY_LEAF_PROBABILITY);
+
+            if (isLeaf) {
+                tree.childrenLeft[node] = -1;
+                tree.childrenRight[node] = -1;
+                tree.childrenDefault[node] = -1;
+                tree.features[node] = 0;
+                tree.values[node] = random.nextGaussian() * 0.1;
+                continue;
+            }
+
+            int left = tree.numNodes++;
+            int right = tree.numNodes++;
+            double leftFraction = 0.1 + 0.8 * random.nextDouble();
+
+            tree.childrenLeft[node] = left;
+            tree.childrenRight[node] = right;
+            tree.childrenDefault[node] = random.nextBoolean() ? left : right;
+            tree.features[node] = random.nextInt(numFeatures);
+            tree.thresholds[node] = random.nextDouble();
+            tree.nodeSampleWeights[left] = tree.nodeSampleWeights[node] * leftFraction;
+            tree.nodeSampleWeights[right] = tree.nodeSampleWeights[node] - tree.nodeSampleWeights[left];
+            depths[left] = depths[node] + 1;
+            depths[right] = depths[node] + 1;
+            queue.add(left);
+            queue.add(right);
+        }
+
+        // the value of an internal node is the expected value of its children; children always have larger indices
+        for (int node = tree.numNodes - 1; node >= 0; --node) {
+            if (tree.childrenLeft[node] >= 0) {
+                int left = tree.childrenLeft[node];
+                int right = tree.childrenRight[node];
+                tree.values[node] = (tree.values[left] * tree.nodeSampleWeights[left]
+                        + tree.values[right] * tree.nodeSampleWeights[right]) / tree.nodeSampleWeights[node];
+            }
+        }
+
+        return tree.trim();
+    }
+
+    private static final class Tree {
+        int numNodes;
+        int[] childrenLeft;
+        int[] childrenRight;
+        int[] childrenDefault;
+        int[] features;
+        double[] thresholds;
+        double[] values;
+        double[] nodeSampleWeights;
+
+        Tree(int capacity) {
+            childrenLeft = new int[capacity];
+            childrenRight = new int[capacity];
+            childrenDefault = new int[capacity];
+            features = new int[capacity];
+            thresholds = new double[capacity];
+            values = new double[capacity];
+            nodeSampleWeights = new double[capacity];
+        }
+
+        Tree trim() {
+            childrenLeft = Arrays.copyOf(childrenLeft, numNodes);
+            childrenRight = Arrays.copyOf(childrenRight, numNodes);
+            childrenDefault = Arrays.copyOf(childrenDefault, numNodes);
+            features = Arrays.copyOf(features, numNodes);
+            thresholds = Arrays.copyOf(thresholds, numNodes);
+            values = Arrays.copyOf(values, numNodes);
+            nodeSampleWeights = Arrays.copyOf(nodeSampleWeights, numNodes);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.TopKShapValues;
+import shap4j.TreeExplainer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of returning the <code>k</code> top contributing features of each of <code>numRows</code> rows of a wide
+ * model, either by copying all the SHAP values and sorting each row in Java, or with the native top-k selection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TopKBenchmark {
+    @Param({"2000"})
+    public int numFeatures;
+
+    @Param({"100"})
+    public int numRows;
+
+    @Param({"10"})
+    public int k;
+
+    @Param({"true", "false"})
+    public boolean approximate;
+
+    private TreeExplainer explainer;
+    private double[][] matrix;
+
+    @Setup
+    public void setUp() {
+        explainer = new TreeExplainer(SyntheticModels.generate(100, 6, numFeatures, 42));
+        matrix = SyntheticModels.randomMatrix(numRows, numFeatures, 42);
+    }
+
+    @Benchmark
+    public int[][] fullThenSort() {
+        double[][] values = explainer.shapValues(matrix, approximate, false);
+        int[][] top = new int[numRows][];
+        for (int i = 0; i < numRows; ++i) {
+            double[] row = values[i];
+            Integer[] features = new Integer[numFeatures];
+            for (int j = 0; j < numFeatures; ++j) features[j] = j;
+            Arrays.sort(features, (a, b) -> Double.compare(Math.abs(row[b]), Math.abs(row[a])));
+
+            top[i] = new int[k];
+            for (int n = 0; n < k; ++n) top[i][n] = features[n];
+        }
+        return top;
+    }
+
+    @Benchmark
+    public TopKShapValues topK() {
+        return explainer.topKShapValues(matrix, approximate, false, k, 0);
+    }
+}
@@ -0,0 +1,65 @@
+package shap4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shap4j.IncrementalExplanation;
+import shap4j.TreeExplainer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of re-explaining a feature vector after changing one of its features, either from scratch or incrementally
+ * over the trees splitting on the changed feature.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WhatIfBenchmark {
+    @Param({"boston", "t1000d4", "t1000d8"})
+    public String model;
+
+    private TreeExplainer explainer;
+    private IncrementalExplanation explanation;
+    private double[] vector;
+    private double[] values;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        BenchmarkModel benchmarkModel = BenchmarkModel.load(model);
+        explainer = new TreeExplainer(benchmarkModel.getData());
+        double[][] rows = benchmarkModel.randomMatrix(2, 42);
+        vector = rows[0];
+        values = rows[1];
+        explanation = explainer.explainIncrementally(vector, false, false);
+    }
+
+    private int nextFeature() {
+        next = (next + 1) % vector.length;
+        return next;
+    }
+
+    @Benchmark
+    public IncrementalExplanation fromScratch() {
+        double[] changed = vector.clone();
+        int feature = nextFeature();
+        changed[feature] = values[feature];
+        return explainer.explainIncrementally(changed, false, false);
+    }
+
+    @Benchmark
+    public double[] shapValues() {
+        double[] changed = vector.clone();
+        int feature = nextFeature();
+        changed[feature] = values[feature];
+        return explainer.shapValues(changed, false, false);
+    }
+
+    @Benchmark
+    public IncrementalExplanation reexplain() {
+        int feature = nextFeature();
+        return explainer.reexplain(explanation, new int[] {feature}, new double[] {values[feature]});
+    }
+}
@@ -0,0 +1,407 @@
+package shap4j;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * A tree ensemble in the compact (version 2) <code>.shap4j</code> format, whose trees are stored without padding.
+ *
+ * The version 1 format stores each array as <code>numTrees * maxNodes</code> elements, i.e. pads every tree to the
+ * size of the largest one. The version 2 format stores the nodes of all trees back to back, with an index of the
+ * first node of each tree, and stores the children and features as unsigned 16-bit integers when they all fit (with
+ * <code>0xFFFF</code> standing for <code>-1</code>), so that a model of unbalanced trees takes a fraction of the size.
+ * The index also allows loading only a range of trees, without decoding the others.
+ *
+ * <pre>
+ *  0  "SHAP"                  4  version (2)             8  numTrees              12  maxDepth
+ * 16  maxNodes               20  numOutputs             24  offsetIntArrays       28  offsetDoubleArrays
+ * 32  baseOffset (double)                               40  flags                 44  offsetIndex
+ * offsetIndex:        numTrees + 1 node offsets, then numTrees depths (int32)
+ * offsetIntArrays:    childrenLeft, childrenRight, childrenDefault, features (int32, or uint16 with FLAG_INDEX16)
+ * offsetDoubleArrays: thresholds, values (numOutputs per node), nodeSampleWeights (double, or float with FLAG_FLOAT32)
+ * </pre>
+ *
+ * Children are indexed relatively to the root of their tree, as in version 1. The native code explains trees in the
+ * padded layout, so loading a compact model expands it, padding the trees to the largest tree loaded.
+ *
+ * This class does not use the native library.
+ */
+public final class CompactModel {
+    public static final int VERSION = 2;
+
+    /**
+     * The flag set in the header of a compact model whose children and features are stored as unsigned 16-bit
+     * integers.
+     */
+    public static final int FLAG_INDEX16 = 2;
+
+    // see TreeEnsemble.FLAG_FLOAT32, which is not referenced so that the native library is never loaded
+    private static final int FLAG_FLOAT32 = 1;
+    private static final int HEADER_SIZE = 48;
+    private static final int NARROW_NONE = 0xFFFF;
+
+    private final ByteBuffer buffer;
+    private final int numTrees;
+    private final int maxDepth;
+    private final int maxNodes;
+    private final int numOutputs;
+    private final double baseOffset;
+    private final int flags;
+    private final int offsetIntArrays;
+    private final int offsetDoubleArrays;
+    private final int[] nodeOffsets;
+    private final int[] depths;
+
+    private CompactModel(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.numTrees = buffer.getInt(8);
+        this.maxDepth = buffer.getInt(12);
+        this.maxNodes = buffer.getInt(16);
+        this.numOutputs = buffer.getInt(20);
+        this.offsetIntArrays = buffer.getInt(24);
+        this.offsetDoubleArrays = buffer.getInt(28);
+        this.baseOffset = buffer.getDouble(32);
+        this.flags = buffer.getInt(40);
+
+        int offsetIndex = buffer.getInt(44);
+        this.nodeOffsets = new int[numTrees + 1];
+        this.depths = new int[numTrees];
+        ByteBuffer index = buffer.duplicate().order(buffer.order());
+        index.position(offsetIndex);
+        index.asIntBuffer().get(nodeOffsets).get(depths);
+    }
+
+    /**
+     * Read the header and the tree index of a compact model. The trees themselves are only decoded by
+     * {@link #expand}, so the buffer is referenced by the model, and must not be modified while it is in use.
+     * @param buffer A buffer holding the content of a version 2 <code>.shap4j</code> file from index 0.
+     * @return The compact model.
+     * @throws IllegalArgumentException If the buffer does not hold a version 2 model, or is truncated.
+     */
+    public static CompactModel wrap(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.nativeOrder());
+        if (getVersion(view) != VERSION) {
+            throw new IllegalArgumentException("Not a .shap4j version 2 model: version " + getVersion(view));
+        }
+
+        CompactModel model = new CompactModel(view);
+        int numNodes = model.nodeOffsets[model.numTrees];
+        long requiredSize = model.offsetDoubleArrays
+                + (model.isFloat32() ? 4L : 8L) * numNodes * (2 + model.numOutputs);
+        if (view.capacity() < requiredSize) {
+            throw new IllegalArgumentException(
+                    "Truncated .shap4j data: " + view.capacity() + " bytes, expecting " + requiredSize
+            );
+        }
+        return model;
+    }
+
+    /**
+     * @param buffer A buffer holding the content of a <code>.shap4j</code> file from index 0.
+     * @return The version of its format, 1 (padded) or 2 (compact).
+     * @throws IllegalArgumentException If the buffer does not hold a <code>.shap4j</code> file.
+     */
+    public static int getVersion(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE || buffer.get(0) != 'S' || buffer.get(1) != 'H' || buffer.get(2) != 'A'
+                || buffer.get(3) != 'P') {
+            throw new IllegalArgumentException("Not a .shap4j model");
+        }
+        return buffer.duplicate().order(ByteOrder.nativeOrder()).getInt(4);
+    }
+
+    /**
+     * Convert a model from the padded (version 1) <code>.shap4j</code> format into the compact (version 2) format.
+     * The nodes of each tree past the last one reachable from its root are padding, and are dropped. The precision of
+     * the thresholds, values and node sample weights is kept.
+     * @param rawData The content of a version 1 <code>.shap4j</code> file.
+     * @return The content of the equivalent version 2 <code>.shap4j</code> file.
+     */
+    public static byte[] fromPadded(byte[] rawData) {
+        ByteBuffer in = ByteBuffer.wrap(rawData).order(ByteOrder.nativeOrder());
+        if (getVersion(in) != 1) {
+            throw new IllegalArgumentException("Not a .shap4j version 1 model: version " + getVersion(in));
+        }
+
+        int numTrees = in.getInt(8);
+        int paddedNodes = in.getInt(16);
+        int numOutputs = in.getInt(20);
+        int offsetIntArrays = in.getInt(24);
+        int inDoubleArrays = in.getInt(28);
+        // byte 40 may already hold the first children of a version 1 file without flags
+        int flags = offsetIntArrays >= 44 ? in.getInt(40) & FLAG_FLOAT32 : 0;
+        boolean float32 = flags != 0;
+        int numElements = numTrees * paddedNodes;
+
+        long requiredSize = inDoubleArrays + (float32 ? 4L : 8L) * numElements * (2 + numOutputs);
+        if (rawData.length < requiredSize) {
+            throw new IllegalArgumentException(
+                    "Truncated .shap4j data: " + rawData.length + " bytes, expecting " + requiredSize
+            );
+        }
+
+        int[][] ints = new int[4][numElements];
+        in.position(offsetIntArrays);
+        IntBuffer intBuffer = in.asIntBuffer();
+        for (int[] array : ints) {
+            intBuffer.get(array);
+        }
+        int[] childrenLeft = ints[0];
+        int[] childrenRight = ints[1];
+
+        // find the size and depth of each tree by walking it from its root
+        int[] nodeOffsets = new int[numTrees + 1];
+        int[] depths = new int[numTrees];
+        int[] nodeDepths = new int[paddedNodes];
+        int[] stack = new int[paddedNodes];
+        int maxNodes = 0;
+        int maxDepth = 0;
+        boolean narrow = true;
+        for (int t = 0; t < numTrees; ++t) {
+            int root = t * paddedNodes;
+            int numNodes = 1;
+            int size = 0;
+            stack[size++] = 0;
+            nodeDepths[0] = 0;
+            while (size > 0) {
+                int node = stack[--size];
+                depths[t] = Math.max(depths[t], nodeDepths[node]);
+                int left = childrenLeft[root + node];
+                int right = childrenRight[root + node];
+                if (left < 0) continue;
+
+                nodeDepths[left] = nodeDepths[node] + 1;
+                nodeDepths[right] = nodeDepths[node] + 1;
+                numNodes = Math.max(numNodes, Math.max(left, right) + 1);
+                stack[size++] = left;
+                stack[size++] = right;
+            }
+
+            nodeOffsets[t + 1] = nodeOffsets[t] + numNodes;
+            maxNodes = Math.max(maxNodes, numNodes);
+            maxDepth = Math.max(maxDepth, depths[t]);
+            for (int[] array : ints) {
+                for (int i = root; i < root + numNodes; ++i) {
+                    narrow &= array[i] >= -1 && array[i] < NARROW_NONE;
+                }
+            }
+        }
+        if (narrow) {
+            flags |= FLAG_INDEX16;
+        }
+
+        int numNodes = nodeOffsets[numTrees];
+        int offsetIndex = HEADER_SIZE;
+        int outIntArrays = offsetIndex + 4 * (2 * numTrees + 1);
+        int outDoubleArrays = align(outIntArrays + (narrow ? 2 : 4) * 4 * numNodes);
+        int valueSize = float32 ? 4 : 8;
+        int size = outDoubleArrays + valueSize * numNodes * (2 + numOutputs);
+
+        ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        out.put(rawData, 0, 4);
+        out.putInt(VERSION);
+        out.putInt(numTrees);
+        out.putInt(maxDepth);
+        out.putInt(maxNodes);
+        out.putInt(numOutputs);
+        out.putInt(outIntArrays);
+        out.putInt(outDoubleArrays);
+        out.putDouble(in.getDouble(32));
+        out.putInt(flags);
+        out.putInt(offsetIndex);
+
+        out.asIntBuffer().put(nodeOffsets).put(depths);
+        out.position(outIntArrays);
+        for (int[] array : ints) {
+            for (int t = 0; t < numTrees; ++t) {
+                int root = t * paddedNodes;
+                for (int i = root; i < root + nodeOffsets[t + 1] - nodeOffsets[t]; ++i) {
+                    if (narrow) {
+                        out.putShort((short) array[i]);
+                    } else {
+                        out.putInt(array[i]);
+                    }
+                }
+            }
+        }
+
+        // copy the thresholds, values and node sample weights of the nodes kept, as raw bytes to keep their precision
+        out.position(outDoubleArrays);
+        int position = inDoubleArrays;
+        for (int width : new int[] {1, numOutputs, 1}) {
+            for (int t = 0; t < numTrees; ++t) {
+                int length = (nodeOffsets[t + 1] - nodeOffsets[t]) * width * valueSize;
+                out.put(rawData, position + t * paddedNodes * width * valueSize, length);
+            }
+            position += numElements * width * valueSize;
+        }
+
+        return out.array();
+    }
+
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    public int getNumTrees() {
+        return numTrees;
+    }
+
+    /**
+     * @return The depth of the deepest tree.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return The number of nodes of the largest tree.
+     */
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    public int getNumOutputs() {
+        return numOutputs;
+    }
+
+    public double getBaseOffset() {
+        return baseOffset;
+    }
+
+    /**
+     * @return Whether the thresholds, values and node sample weights are stored in single precision.
+     */
+    public boolean isFloat32() {
+        return (flags & FLAG_FLOAT32) != 0;
+    }
+
+    /**
+     * @return Whether the children and features are stored as 16-bit integers.
+     */
+    public boolean isIndex16() {
+        return (flags & FLAG_INDEX16) != 0;
+    }
+
+    /**
+     * @param tree The index of a tree.
+     * @return The number of nodes of the tree.
+     */
+    public int getNumNodes(int tree) {
+        checkRange(tree, tree + 1);
+        return nodeOffsets[tree + 1] - nodeOffsets[tree];
+    }
+
+    /**
+     * @return The number of nodes of the trees in <code>[fromTree, toTree)</code>, without padding.
+     */
+    public int getNumNodes(int fromTree, int toTree) {
+        checkRange(fromTree, toTree);
+        return nodeOffsets[toTree] - nodeOffsets[fromTree];
+    }
+
+    /**
+     * @return The number of nodes of the largest tree in <code>[fromTree, toTree)</code>.
+     */
+    public int getMaxNodes(int fromTree, int toTree) {
+        checkRange(fromTree, toTree);
+        int nodes = 0;
+        for (int t = fromTree; t < toTree; ++t) {
+            nodes = Math.max(nodes, nodeOffsets[t + 1] - nodeOffsets[t]);
+        }
+        return nodes;
+    }
+
+    /**
+     * @return The depth of the deepest tree in <code>[fromTree, toTree)</code>.
+     */
+    public int getMaxDepth(int fromTree, int toTree) {
+        checkRange(fromTree, toTree);
+        int depth = 0;
+        for (int t = fromTree; t < toTree; ++t) {
+            depth = Math.max(depth, depths[t]);
+        }
+        return depth;
+    }
+
+    /**
+     * Decode the trees in <code>[fromTree, toTree)</code> into the padded layout of the version 1 format, where the
+     * nodes of the <code>t</code>-th decoded tree are stored at indices
+     * <code>[t * maxNodes, (t + 1) * maxNodes)</code>, with <code>maxNodes = getMaxNodes(fromTree, toTree)</code>
+     * (and the values of a node at <code>numOutputs</code> times its index). The padding nodes are set to
+     * <code>-1</code> and <code>0</code>. Each target buffer is written from its current position, which is left
+     * unchanged.
+     */
+    public void expand(int fromTree, int toTree, IntBuffer childrenLeft, IntBuffer childrenRight,
+                       IntBuffer childrenDefault, IntBuffer features, DoubleBuffer thresholds, DoubleBuffer values,
+                       DoubleBuffer nodeSampleWeights) {
+        int paddedNodes = getMaxNodes(fromTree, toTree);
+        int numNodes = nodeOffsets[numTrees];
+
+        // copy the trees one at a time through a scratch array, which holds the padding after the nodes of the tree
+        IntBuffer[] intTargets = {childrenLeft, childrenRight, childrenDefault, features};
+        int[] ints = new int[paddedNodes];
+        short[] shorts = isIndex16() ? new short[paddedNodes] : null;
+        for (int a = 0; a < intTargets.length; ++a) {
+            IntBuffer target = intTargets[a].duplicate();
+            int position = offsetIntArrays + (isIndex16() ? 2 : 4) * a * numNodes;
+            for (int t = fromTree; t < toTree; ++t) {
+                int size = nodeOffsets[t + 1] - nodeOffsets[t];
+                if (isIndex16()) {
+                    view(position + 2 * nodeOffsets[t]).asShortBuffer().get(shorts, 0, size);
+                    for (int i = 0; i < size; ++i) {
+                        int index = Short.toUnsignedInt(shorts[i]);
+                        ints[i] = index == NARROW_NONE ? -1 : index;
+                    }
+                } else {
+                    view(position + 4 * nodeOffsets[t]).asIntBuffer().get(ints, 0, size);
+                }
+                Arrays.fill(ints, size, paddedNodes, -1);
+                target.put(ints);
+            }
+        }
+
+        DoubleBuffer[] doubleTargets = {thresholds, values, nodeSampleWeights};
+        int[] widths = {1, numOutputs, 1};
+        double[] doubles = new double[paddedNodes * numOutputs];
+        float[] floats = isFloat32() ? new float[paddedNodes * numOutputs] : null;
+        int position = offsetDoubleArrays;
+        for (int a = 0; a < doubleTargets.length; ++a) {
+            DoubleBuffer target = doubleTargets[a].duplicate();
+            int width = widths[a];
+            for (int t = fromTree; t < toTree; ++t) {
+                int size = (nodeOffsets[t + 1] - nodeOffsets[t]) * width;
+                if (isFloat32()) {
+                    view(position + 4 * nodeOffsets[t] * width).asFloatBuffer().get(floats, 0, size);
+                    for (int i = 0; i < size; ++i) {
+                        doubles[i] = floats[i];
+                    }
+                } else {
+                    view(position + 8 * nodeOffsets[t] * width).asDoubleBuffer().get(doubles, 0, size);
+                }
+                Arrays.fill(doubles, size, paddedNodes * width, 0);
+                target.put(doubles, 0, paddedNodes * width);
+            }
+            position += (isFloat32() ? 4 : 8) * numNodes * width;
+        }
+    }
+
+    /**
+     * @return A view of the buffer of this model from <code>position</code>.
+     */
+    private ByteBuffer view(int position) {
+        ByteBuffer view = buffer.duplicate().order(buffer.order());
+        view.position(position);
+        return view;
+    }
+
+    private void checkRange(int fromTree, int toTree) {
+        if (fromTree < 0 || toTree > numTrees || fromTree >= toTree) {
+            throw new IndexOutOfBoundsException(
+                    "Trees [" + fromTree + ", " + toTree + ") out of range [0, " + numTrees + ")"
+            );
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package shap4j;
+
+/**
+ * The implementation of the Tree SHAP algorithms used by a {@link TreeExplainer}.
+ *
+ * @see TreeExplainer#TreeExplainer(byte[], Engine)
+ */
+public enum Engine {
+    /**
+     * The native kernels of <code>tree_shap.h</code>, called through JavaCPP. This is the default, and supports every
+     * feature of {@link TreeExplainer}.
+     */
+    NATIVE,
+
+    /**
+     * A pure-Java port of the path dependent Tree SHAP and Saabas algorithms (see {@link shap4j.jvm.JavaTreeShap}),
+     * which needs no native library and avoids copying the feature vectors to the native memory. It only supports the
+     * methods taking Java arrays, with {@link FeatureDependence#TREE_PATH_DEPENDENT}.
+     */
+    JAVA
+}
@@ -0,0 +1,76 @@
+package shap4j;
+
+import java.util.Arrays;
+
+/**
+ * The predictions and the SHAP values of a set of feature vectors, computed together by
+ * {@link TreeExplainer#explain(double[][], boolean, ModelTransform, boolean)}.
+ *
+ * Both are stored in flat, row-major arrays: the prediction for output <code>k</code> of row <code>i</code> is
+ * stored at <code>i * K + k</code>, and the SHAP value of feature <code>j</code> for output <code>k</code> of row
+ * <code>i</code> is stored at <code>(i * (M + 1) + j) * K + k</code>, where <code>M</code> is the number of features
+ * and <code>K</code> the number of outputs of the model. The bias term is stored as feature <code>M</code>.
+ */
+public class Explanation {
+    private final int numRows;
+    private final int numFeatures;
+    private final int numOutputs;
+    private final double[] predictions;
+    private final double[] shapValues;
+
+    Explanation(int numRows, int numFeatures, int numOutputs, double[] predictions, double[] shapValues) {
+        this.numRows = numRows;
+        this.numFeatures = numFeatures;
+        this.numOutputs = numOutputs;
+        this.predictions = predictions;
+        this.shapValues = shapValues;
+    }
+
+    /**
+     * @return The number of explained feature vectors.
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return The number of features <code>M</code> of the explained feature vectors.
+     */
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * @return The number of outputs <code>K</code> of the model.
+     */
+    public int getNumOutputs() {
+        return numOutputs;
+    }
+
+    /**
+     * @return The predictions of all rows, <code>K</code> values per row.
+     */
+    public double[] getPredictions() {
+        return predictions;
+    }
+
+    /**
+     * @return The SHAP values of all rows, including the bias terms, <code>(M + 1) * K</code> values per row.
+     */
+    public double[] getShapValues() {
+        return shapValues;
+    }
+
+    /**
+     * @param row The index of a row.
+     * @return A copy of the <code>(M + 1) * K</code> SHAP values of the row, including the bias term.
+     */
+    public double[] getShapValues(int row) {
+        if (row < 0 || row >= numRows) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of range [0, " + numRows + ")");
+        }
+
+        int rowSize = (numFeatures + 1) * numOutputs;
+        return Arrays.copyOfRange(shapValues, row * rowSize, (row + 1) * rowSize);
+    }
+}
@@ -0,0 +1,18 @@
+package shap4j;
+
+/**
+ * A listener notified by a {@link TreeExplainer} after each batch of feature vectors is explained, with the timings of
+ * its phases and the native memory it used, e.g. to export performance metrics (see {@link TreeExplainerMetrics}).
+ *
+ * The listener is called synchronously on the thread which explained the batch, and should therefore return quickly.
+ *
+ * @see TreeExplainer#setListener(ExplanationListener)
+ */
+@FunctionalInterface
+public interface ExplanationListener {
+    /**
+     * Called after a batch of feature vectors is explained.
+     * @param metrics The metrics of the batch.
+     */
+    void onExplained(ExplanationMetrics metrics);
+}
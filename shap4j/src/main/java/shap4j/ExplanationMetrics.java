@@ -0,0 +1,120 @@
+package shap4j;
+
+/**
+ * The metrics of a batch of feature vectors explained by a {@link TreeExplainer}, reported to its
+ * {@link ExplanationListener}.
+ *
+ * A batch goes through three phases: the marshalling of the feature vectors to the native memory (which is skipped
+ * when explaining an <code>ExplanationDataset</code>), the native kernel, and the copy of the results back to the JVM.
+ * The numbers of visited nodes are estimated from the shape of the trees, as counting the nodes actually visited would
+ * slow down the kernels, see {@link #getNodesVisited()}. The other metrics are measured.
+ */
+public class ExplanationMetrics {
+    private final String operation;
+    private final int numRows;
+    private final long marshalNanos;
+    private final long kernelNanos;
+    private final long copyNanos;
+    private final long treesVisited;
+    private final long nodesVisited;
+    private final long nativeBytesAllocated;
+    private final long nativeBytesFreed;
+
+    ExplanationMetrics(String operation, int numRows, long marshalNanos, long kernelNanos, long copyNanos,
+                       long treesVisited, long nodesVisited, long nativeBytesAllocated, long nativeBytesFreed) {
+        this.operation = operation;
+        this.numRows = numRows;
+        this.marshalNanos = marshalNanos;
+        this.kernelNanos = kernelNanos;
+        this.copyNanos = copyNanos;
+        this.treesVisited = treesVisited;
+        this.nodesVisited = nodesVisited;
+        this.nativeBytesAllocated = nativeBytesAllocated;
+        this.nativeBytesFreed = nativeBytesFreed;
+    }
+
+    /**
+     * @return The name of the method of {@link TreeExplainer} which explained the batch, e.g. <code>"shapValues"</code>
+     *         or <code>"explain"</code>.
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return The number of explained feature vectors.
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return The time spent copying the feature vectors to the native memory, in nanoseconds.
+     */
+    public long getMarshalNanos() {
+        return marshalNanos;
+    }
+
+    /**
+     * @return The time spent in the native kernel, in nanoseconds.
+     */
+    public long getKernelNanos() {
+        return kernelNanos;
+    }
+
+    /**
+     * @return The time spent copying the results back to the JVM, in nanoseconds.
+     */
+    public long getCopyNanos() {
+        return copyNanos;
+    }
+
+    /**
+     * @return The total time of the three phases, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return marshalNanos + kernelNanos + copyNanos;
+    }
+
+    /**
+     * @return The number of explained feature vectors per second, over the three phases.
+     */
+    public double getRowsPerSecond() {
+        long totalNanos = getTotalNanos();
+        return totalNanos == 0 ? 0 : numRows * 1e9 / totalNanos;
+    }
+
+    /**
+     * @return The number of trees visited, i.e. the number of rows times the number of trees.
+     */
+    public long getTreesVisited() {
+        return treesVisited;
+    }
+
+    /**
+     * @return An upper bound of the number of tree nodes visited by the recursive algorithms: every node of every tree
+     *         for the exact algorithm (times the number of background rows for {@link FeatureDependence#INDEPENDENT}),
+     *         and a path of the maximum depth of the ensemble per tree for the Saabas algorithm. The bound is exact for
+     *         the tree path dependent algorithm without contribution cache, but the Saabas algorithm stops at the
+     *         leaf of each tree, the contribution cache skips the trees of the rows it hits, and the independent
+     *         algorithm only follows the paths of each row and background row.
+     */
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    /**
+     * @return The native memory allocated for the batch (feature vectors and results), in bytes. The feature vectors of
+     *         an <code>ExplanationDataset</code> created by the caller are not counted.
+     */
+    public long getNativeBytesAllocated() {
+        return nativeBytesAllocated;
+    }
+
+    /**
+     * @return The native memory released after the batch, in bytes.
+     */
+    public long getNativeBytesFreed() {
+        return nativeBytesFreed;
+    }
+}
@@ -0,0 +1,380 @@
+package shap4j;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent single-row explanations into batches, so that many small requests pay the setup of a single
+ * batch explanation and a single crossing to the native code.
+ *
+ * Feature vectors submitted by {@link #explainAsync(double[])} wait in a bounded queue. A dispatcher thread takes them
+ * as soon as a worker is free, gathering up to <code>maxBatchSize</code> vectors for at most <code>maxWait</code> after
+ * the first one, and hands the batch to the worker, which explains it with
+ * {@link TreeExplainer#shapValues(double[][], boolean, boolean)} and completes the future of each vector. While all
+ * the workers are busy, vectors accumulate in the queue, so the batches grow with the load; once the queue is full,
+ * new vectors are rejected rather than queued without bound.
+ *
+ * The queue and the batches can be monitored through {@link ExplanationSchedulerMBean}, e.g. after
+ * {@link #register(String)}.
+ */
+public class ExplanationScheduler implements ExplanationSchedulerMBean, AutoCloseable {
+    private final TreeExplainer explainer;
+    private final boolean approximate;
+    private final boolean checkMissing;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final int numWorkers;
+
+    private final BlockingQueue<Request> queue;
+    // one permit per idle worker: a batch is only gathered once a worker can explain it
+    private final Semaphore idleWorkers;
+    private final ExecutorService workers;
+    private final Thread dispatcher;
+    private volatile boolean closed = false;
+    // set by the dispatcher once it no longer takes feature vectors from the queue
+    private volatile boolean terminated = false;
+    private volatile ObjectName objectName = null;
+
+    private final AtomicInteger activeBatches = new AtomicInteger();
+    private final LongAdder submittedRows = new LongAdder();
+    private final LongAdder rejectedRows = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder explainedRows = new LongAdder();
+    private final LongAdder failedRows = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+
+    /**
+     * Create a scheduler explaining batches with the exact algorithm on a single worker, checking missing values, and
+     * queuing up to <code>64 * maxBatchSize</code> feature vectors.
+     * @param explainer The explainer of a model with a single output.
+     * @param maxBatchSize The maximum number of feature vectors per batch.
+     * @param maxWait The maximum time to wait for more feature vectors after the first one of a batch.
+     * @param unit The unit of <code>maxWait</code>.
+     */
+    public ExplanationScheduler(TreeExplainer explainer, int maxBatchSize, long maxWait, TimeUnit unit) {
+        this(explainer, false, true, maxBatchSize, maxWait, unit, 1, 64 * maxBatchSize);
+    }
+
+    /**
+     * Create a scheduler, and start its dispatcher thread.
+     * @param explainer The explainer of a model with a single output.
+     * @param approximate Whether to run the approximate Saabas algorithm.
+     * @param checkMissing Whether to check missing values in the feature vectors.
+     * @param maxBatchSize The maximum number of feature vectors per batch.
+     * @param maxWait The maximum time to wait for more feature vectors after the first one of a batch. Under load, the
+     *                batches are usually complete (or limited by the queued vectors) before this delay.
+     * @param unit The unit of <code>maxWait</code>.
+     * @param numWorkers The number of batches explained concurrently, each of which may itself be explained by the
+     *                   threads of the explainer, see {@link TreeExplainer#setNumThreads(int)}.
+     * @param queueCapacity The maximum number of feature vectors waiting to be batched.
+     * @throws IllegalArgumentException If the model of the explainer has multiple outputs.
+     */
+    public ExplanationScheduler(TreeExplainer explainer, boolean approximate, boolean checkMissing, int maxBatchSize,
+                                long maxWait, TimeUnit unit, int numWorkers, int queueCapacity) {
+        if (maxBatchSize < 1 || numWorkers < 1 || queueCapacity < 1 || maxWait < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid batching: maxBatchSize " + maxBatchSize + ", maxWait " + maxWait + ", numWorkers "
+                            + numWorkers + ", queueCapacity " + queueCapacity
+            );
+        }
+        if (explainer.getNumOutputs() != 1) {
+            throw new IllegalArgumentException(
+                    "Expecting a model with a single output, got " + explainer.getNumOutputs() + " outputs"
+            );
+        }
+
+        this.explainer = explainer;
+        this.approximate = approximate;
+        this.checkMissing = checkMissing;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.numWorkers = numWorkers;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.idleWorkers = new Semaphore(numWorkers);
+        this.workers = Executors.newFixedThreadPool(numWorkers, runnable -> {
+            Thread thread = new Thread(runnable, "shap4j-scheduler-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.dispatcher = new Thread(this::dispatch, "shap4j-scheduler-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Explain a feature vector in the next batch.
+     * @param vector A feature vector, which must not be modified until the returned future is completed.
+     * @return A future completed with the SHAP values of the feature vector, as returned by
+     *         {@link TreeExplainer#shapValues(double[], boolean, boolean)}, or completed exceptionally with a
+     *         <code>RejectedExecutionException</code> if the queue is full, or with the exception thrown by the
+     *         explainer, e.g. an <code>IllegalArgumentException</code> if the vector does not have as many features as
+     *         the first vector of its batch.
+     */
+    public CompletableFuture<double[]> explainAsync(double[] vector) {
+        CompletableFuture<double[]> future = new CompletableFuture<>();
+        Request request = new Request(vector, future);
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("This scheduler is closed"));
+        } else if (queue.offer(request)) {
+            submittedRows.increment();
+            // the scheduler may have been closed meanwhile, after the dispatcher drained the queue for the last time
+            if (terminated && queue.remove(request)) {
+                future.completeExceptionally(new IllegalStateException("This scheduler is closed"));
+            }
+        } else {
+            rejectedRows.increment();
+            future.completeExceptionally(new RejectedExecutionException(
+                    "The queue of the scheduler is full: " + queue.size() + " feature vectors"
+            ));
+        }
+        return future;
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                idleWorkers.acquire();
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    idleWorkers.release();
+                    continue;
+                }
+
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    // take whatever is already queued, then wait for more until the deadline
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                long now = System.nanoTime();
+                long waitNanos = 0;
+                for (Request request : batch) {
+                    waitNanos += now - request.submitNanos;
+                }
+                Request[] requests = batch.toArray(new Request[0]);
+                long batchWaitNanos = waitNanos;
+                batch.clear();
+                activeBatches.incrementAndGet();
+                workers.execute(() -> explain(requests, batchWaitNanos));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        terminated = true;
+        for (Request request; (request = queue.poll()) != null; ) {
+            request.future.completeExceptionally(new IllegalStateException("This scheduler is closed"));
+        }
+    }
+
+    private void explain(Request[] requests, long waitNanos) {
+        // vectors of the wrong size fail on their own, rather than failing the whole batch
+        int numFeatures = requests[0].vector.length;
+        List<Request> valid = new ArrayList<>(requests.length);
+        List<Request> invalid = new ArrayList<>();
+        double[][] values = null;
+        RuntimeException failure = null;
+        try {
+            for (Request request : requests) {
+                (request.vector.length == numFeatures ? valid : invalid).add(request);
+            }
+
+            double[][] matrix = new double[valid.size()][];
+            for (int i = 0; i < matrix.length; ++i) {
+                matrix[i] = valid.get(i).vector;
+            }
+            values = explainer.shapValues(matrix, approximate, checkMissing);
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            // update the metrics before completing the futures, so that they are up to date for the callers
+            batches.increment();
+            int explained = failure == null ? valid.size() : 0;
+            explainedRows.add(explained);
+            failedRows.add(requests.length - explained);
+            queueNanos.add(waitNanos);
+            activeBatches.decrementAndGet();
+            idleWorkers.release();
+        }
+
+        for (Request request : invalid) {
+            request.future.completeExceptionally(new IllegalArgumentException(
+                    "Expecting " + numFeatures + " features, got " + request.vector.length
+            ));
+        }
+        for (int i = 0; i < valid.size(); ++i) {
+            if (failure == null) {
+                valid.get(i).future.complete(values[i]);
+            } else {
+                valid.get(i).future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Stop accepting feature vectors, explain those already queued, and wait for all the batches to be explained.
+     * The explainer is not closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            dispatcher.join();
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dispatcher.interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Register this scheduler with the platform MBean server under the name
+     * <code>shap4j:type=ExplanationScheduler,name=&lt;name&gt;</code>.
+     * @param name The name of the scheduler in the MBean name, e.g. the name of its model.
+     * @return This scheduler.
+     * @throws IllegalArgumentException If the name is invalid or already registered.
+     */
+    public ExplanationScheduler register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("shap4j:type=ExplanationScheduler,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Failed to register the scheduler " + name, e);
+        }
+        return this;
+    }
+
+    /**
+     * Unregister this scheduler from the platform MBean server, if registered by {@link #register(String)}.
+     */
+    public void unregister() {
+        ObjectName name = objectName;
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                throw new IllegalStateException("Failed to unregister " + name, e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * @return The name under which this scheduler is registered, or <code>null</code> if it is not.
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    public TreeExplainer getExplainer() {
+        return explainer;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return The maximum time to wait for more feature vectors after the first one of a batch, in nanoseconds.
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    @Override
+    public int getActiveBatches() {
+        return activeBatches.get();
+    }
+
+    @Override
+    public long getSubmittedRows() {
+        return submittedRows.sum();
+    }
+
+    @Override
+    public long getRejectedRows() {
+        return rejectedRows.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getExplainedRows() {
+        return explainedRows.sum();
+    }
+
+    @Override
+    public long getFailedRows() {
+        return failedRows.sum();
+    }
+
+    @Override
+    public double getMeanBatchSize() {
+        long numBatches = batches.sum();
+        return numBatches == 0 ? 0 : (double) explainedRows.sum() / numBatches;
+    }
+
+    @Override
+    public double getMeanQueueNanos() {
+        long numRows = explainedRows.sum() + failedRows.sum();
+        return numRows == 0 ? 0 : (double) queueNanos.sum() / numRows;
+    }
+
+    /**
+     * A feature vector waiting to be explained.
+     */
+    private static final class Request {
+        private final double[] vector;
+        private final CompletableFuture<double[]> future;
+        private final long submitNanos = System.nanoTime();
+
+        private Request(double[] vector, CompletableFuture<double[]> future) {
+            this.vector = vector;
+            this.future = future;
+        }
+    }
+}
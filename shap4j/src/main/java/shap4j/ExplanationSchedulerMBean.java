@@ -0,0 +1,59 @@
+package shap4j;
+
+/**
+ * The JMX interface of {@link ExplanationScheduler}.
+ */
+public interface ExplanationSchedulerMBean {
+    /**
+     * @return The number of feature vectors waiting to be batched.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return The maximum number of feature vectors waiting to be batched, above which new ones are rejected.
+     */
+    int getQueueCapacity();
+
+    /**
+     * @return The number of batches being explained by the workers.
+     */
+    int getActiveBatches();
+
+    /**
+     * @return The number of feature vectors accepted by {@link ExplanationScheduler#explainAsync(double[])}.
+     */
+    long getSubmittedRows();
+
+    /**
+     * @return The number of feature vectors rejected because the queue was full.
+     */
+    long getRejectedRows();
+
+    /**
+     * @return The number of explained batches.
+     */
+    long getBatches();
+
+    /**
+     * @return The number of feature vectors whose SHAP values were computed.
+     */
+    long getExplainedRows();
+
+    /**
+     * @return The number of feature vectors dispatched in a batch whose explanation failed, e.g. because they do not
+     *         have as many features as the first vector of their batch.
+     */
+    long getFailedRows();
+
+    /**
+     * @return The mean number of feature vectors whose SHAP values were computed per batch, or 0 before the first
+     *         batch.
+     */
+    double getMeanBatchSize();
+
+    /**
+     * @return The mean time from the submission of a feature vector to the dispatch of its batch, in nanoseconds, or
+     *         0 before the first batch.
+     */
+    double getMeanQueueNanos();
+}
@@ -0,0 +1,208 @@
+package shap4j;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import shap4j.shap.CompiledTreeEnsemble;
+import shap4j.shap.ContributionCache;
+import shap4j.shap.ExplanationDataset;
+import shap4j.shap.FastTreeShapEnsemble;
+import shap4j.shap.PathElement;
+import shap4j.shap.TreeEnsemble;
+import shap4j.shap.TreeShap;
+
+import java.util.Arrays;
+
+/**
+ * A session explaining one feature vector at a time, with low latency.
+ *
+ * A session owns all the native buffers needed to explain a single feature vector (the input vector, its missing
+ * value flags, the SHAP values and the scratch space of the Tree SHAP algorithm), which are allocated once and reused
+ * across calls. Each call therefore boils down to a copy of the feature vector to the native memory, the native
+ * kernel, and a copy of the SHAP values back to the JVM.
+ *
+ * A session is not thread-safe: use one session per thread. Sessions must be closed to release their native memory.
+ * A session uses the trees of the explainer which created it, so it throws an <code>IllegalStateException</code> once
+ * the explainer is closed.
+ *
+ * @see TreeExplainer#newSession(int)
+ */
+public class ExplanationSession implements AutoCloseable {
+    private final TreeExplainer explainer;
+    private final TreeEnsemble treeEnsemble;
+    private final CompiledTreeEnsemble compiledEnsemble;
+    private final FastTreeShapEnsemble fastEnsemble;
+    private final ContributionCache contributionCache;
+    private final int numFeatures;
+    private final int outputSize;
+
+    private final ExplanationDataset dataset;
+    private final DoublePointer phi;
+    private final PathElement uniquePath;
+
+    // the native outputs of topKShapValues, grown to the largest k requested so far, and the bias and remainder terms
+    private int topKCapacity = 0;
+    private IntPointer topIndices = null;
+    private DoublePointer topValues = null;
+    private final DoublePointer topTerms = new DoublePointer(2);
+
+    ExplanationSession(TreeExplainer explainer, TreeEnsemble treeEnsemble, CompiledTreeEnsemble compiledEnsemble,
+                       FastTreeShapEnsemble fastEnsemble, ContributionCache contributionCache, int numFeatures) {
+        if (numFeatures < 1) {
+            throw new IllegalArgumentException("numFeatures must be positive, got " + numFeatures);
+        }
+
+        this.explainer = explainer;
+        this.treeEnsemble = treeEnsemble;
+        this.compiledEnsemble = compiledEnsemble;
+        this.fastEnsemble = fastEnsemble;
+        this.contributionCache = contributionCache;
+        this.numFeatures = numFeatures;
+        this.outputSize = (numFeatures + 1) * treeEnsemble.num_outputs();
+
+        this.dataset = ExplanationDataset.empty(1, numFeatures);
+        this.phi = new DoublePointer(outputSize);
+        this.uniquePath = new PathElement(treeEnsemble);
+    }
+
+    /**
+     * Compute the SHAP values for a feature vector: <code>vector</code>, writing them into <code>out</code> starting
+     * from index <code>offset</code>. No memory is allocated by this method.
+     *
+     * The SHAP value of feature <code>j</code> for output <code>k</code> is written at <code>out[offset + j * K + k]</code>,
+     * where <code>K</code> is the number of outputs of the model, followed by the bias terms as feature <code>M</code>,
+     * where <code>M</code> is the number of features. For models with a single output, this simplifies to
+     * <code>out[offset + j]</code>.
+     *
+     * @param vector A feature vector compatible with the tree ensemble model.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param checkMissing Whether to check missing values in the feature vector (<code>NaN</code>'s)
+     * @param out The array receiving the SHAP values, which must have at least {@link #getOutputSize()} values from
+     *            <code>offset</code>.
+     * @param offset The index in <code>out</code> at which the SHAP values are written.
+     */
+    public void shapValues(double[] vector, boolean approximate, boolean checkMissing, double[] out, int offset) {
+        explainer.checkOpen();
+        if (offset < 0 || out.length - offset < outputSize) {
+            throw new IllegalArgumentException(
+                    "Output array has " + (out.length - offset) + " values remaining, " + outputSize + " required"
+            );
+        }
+
+        explain(vector, approximate, checkMissing);
+        phi.get(out, offset, outputSize);
+    }
+
+    /**
+     * Compute the <code>k</code> largest SHAP values (in absolute value) of a feature vector: <code>vector</code> for
+     * one output of the model, selected natively, so that only these values are copied back to the JVM.
+     * @param vector A feature vector compatible with the tree ensemble model.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param checkMissing Whether to check missing values in the feature vector (<code>NaN</code>'s)
+     * @param k The number of features selected, which is capped by the number of features.
+     * @param output The output of the model whose SHAP values are selected, i.e. 0 for models with a single output.
+     * @return The top SHAP values of the feature vector, as a single row.
+     * @see TreeExplainer#topKShapValues(double[][], boolean, boolean, int, int)
+     */
+    public TopKShapValues topKShapValues(double[] vector, boolean approximate, boolean checkMissing, int k,
+                                         int output) {
+        explainer.checkOpen();
+        int numOutputs = treeEnsemble.num_outputs();
+        TreeExplainer.checkTopK(k, output, numOutputs);
+        int topK = Math.min(k, numFeatures);
+
+        if (topK > topKCapacity) {
+            if (topIndices != null) {
+                topIndices.close();
+                topValues.close();
+            }
+            topIndices = new IntPointer(topK);
+            topValues = new DoublePointer(topK);
+            topKCapacity = topK;
+        }
+
+        explain(vector, approximate, checkMissing);
+        TreeShap.dense_tree_top_k(phi, 1, numFeatures, numOutputs, output, topK, topIndices, topValues, topTerms,
+                topTerms.getPointer(1));
+
+        TopKShapValues top = new TopKShapValues(1, numFeatures, output, topK);
+        topIndices.get(top.getFeatureIndex(), 0, topK);
+        topValues.get(top.getValues(), 0, topK);
+        top.getBias()[0] = topTerms.get(0);
+        top.getRemainder()[0] = topTerms.get(1);
+        return top;
+    }
+
+    /**
+     * Compute the SHAP values of <code>vector</code> into <code>phi</code>.
+     */
+    private void explain(double[] vector, boolean approximate, boolean checkMissing) {
+        dataset.setRow(0, vector, checkMissing);
+        // set initial values for the SHAP values to zero, as tree_shap_recursive adds to these values.
+        phi.zero();
+
+        if (approximate) {
+            TreeShap.dense_tree_saabas(phi, treeEnsemble, dataset, checkMissing);
+        } else if (contributionCache != null) {
+            TreeShap.dense_tree_shap_cached(treeEnsemble, contributionCache, dataset, phi, uniquePath, checkMissing);
+        } else if (fastEnsemble != null) {
+            TreeShap.dense_tree_shap_fast(fastEnsemble, dataset, phi, uniquePath, checkMissing);
+        } else if (compiledEnsemble != null) {
+            TreeShap.dense_tree_shap_compiled(compiledEnsemble, dataset, phi, uniquePath, checkMissing);
+        } else {
+            TreeShap.dense_tree_path_dependent_scratch(treeEnsemble, dataset, phi, uniquePath, checkMissing);
+        }
+    }
+
+    /**
+     * Compute the SHAP values for a feature vector: <code>vector</code>.
+     * @param vector A feature vector compatible with the tree ensemble model.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param checkMissing Whether to check missing values in the feature vector (<code>NaN</code>'s)
+     * @return An array containing SHAP values, which is of the same length of the input <code>vector</code>.
+     * @throws IllegalArgumentException If the model has multiple outputs, see
+     *         {@link #shapValues(double[], boolean, boolean, double[], int)} instead.
+     */
+    public double[] shapValues(double[] vector, boolean approximate, boolean checkMissing) {
+        explainer.checkOpen();
+        if (treeEnsemble.num_outputs() != 1) {
+            throw new IllegalArgumentException(
+                    "Expecting a model with a single output, got " + treeEnsemble.num_outputs() + " outputs"
+            );
+        }
+
+        double[] values = new double[outputSize];
+        shapValues(vector, approximate, checkMissing, values, 0);
+
+        return Arrays.copyOf(values, numFeatures);
+    }
+
+    /**
+     * @return The number of features of the feature vectors explained by this session.
+     */
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * @return The number of SHAP values computed per feature vector, including the bias term, i.e.
+     *         <code>(M + 1)</code> for each output of the model.
+     */
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * Release the native memory owned by this session.
+     */
+    @Override
+    public void close() {
+        dataset.close();
+        phi.close();
+        uniquePath.close();
+        topTerms.close();
+        if (topIndices != null) {
+            topIndices.close();
+            topValues.close();
+        }
+    }
+}
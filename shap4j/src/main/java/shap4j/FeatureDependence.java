@@ -0,0 +1,43 @@
+package shap4j;
+
+/**
+ * The assumption made by the exact Tree SHAP algorithms about the dependence between features, i.e. how the effect of
+ * "missing" features is estimated.
+ *
+ * @see TreeExplainer#setFeatureDependence(FeatureDependence)
+ * @see <a href="https://github.com/slundberg/shap/blob/master/shap/explainers/tree.py">Python interface for TreeExplainer</a>
+ */
+public enum FeatureDependence {
+    /**
+     * Break the dependencies between features (interventional Tree SHAP): missing features take the values of each row
+     * of a background dataset in turn, and the results are averaged over the background rows. The cost is linear in
+     * the number of background rows.
+     */
+    INDEPENDENT(0),
+
+    /**
+     * Follow the trees and use the number of training examples that went down each leaf to represent the background
+     * distribution. This does not require a background dataset, and is the default.
+     */
+    TREE_PATH_DEPENDENT(1);
+
+    private final int code;
+
+    FeatureDependence(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return The value of the corresponding <code>FEATURE_DEPENDENCE</code> constant of the native library.
+     */
+    int getCode() {
+        return code;
+    }
+
+    /**
+     * @return Whether a background dataset is required.
+     */
+    boolean requiresBackground() {
+        return this == INDEPENDENT;
+    }
+}
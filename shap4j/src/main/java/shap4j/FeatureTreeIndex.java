@@ -0,0 +1,106 @@
+package shap4j;
+
+import org.bytedeco.javacpp.IntPointer;
+import shap4j.shap.TreeEnsemble;
+import shap4j.shap.TreeShap;
+
+import java.util.Arrays;
+
+/**
+ * The inverted index from each feature to the trees splitting on it. Since the contributions of a tree to the SHAP
+ * values of a feature vector only depend on the features the tree splits on, changing some features of a vector only
+ * changes the contributions of the trees indexed under these features.
+ */
+public final class FeatureTreeIndex {
+    private final int numFeatures;
+    private final int numTrees;
+    // the trees splitting on feature j are treeIds[indptr[j], indptr[j + 1]), in increasing order
+    private final int[] indptr;
+    private final int[] treeIds;
+
+    private FeatureTreeIndex(int numFeatures, int numTrees, int[] indptr, int[] treeIds) {
+        this.numFeatures = numFeatures;
+        this.numTrees = numTrees;
+        this.indptr = indptr;
+        this.treeIds = treeIds;
+    }
+
+    /**
+     * Build the index of the trees of an ensemble, by visiting the nodes reachable from their roots.
+     * @param ensemble The tree ensemble.
+     * @param numFeatures The number of features <code>M</code> of the feature vectors explained; the splits on other
+     *                    features are ignored.
+     * @return The index.
+     */
+    public static FeatureTreeIndex build(TreeEnsemble ensemble, int numFeatures) {
+        if (numFeatures < 1) {
+            throw new IllegalArgumentException("numFeatures must be positive, got " + numFeatures);
+        }
+
+        int[] indptr = new int[numFeatures + 1];
+        int[] treeIds;
+        try (IntPointer ptrIndptr = new IntPointer(numFeatures + 1)) {
+            TreeShap.feature_tree_index(ensemble, numFeatures, ptrIndptr, null);
+            ptrIndptr.get(indptr);
+
+            try (IntPointer ptrTreeIds = new IntPointer(Math.max(indptr[numFeatures], 1))) {
+                TreeShap.feature_tree_index(ensemble, numFeatures, ptrIndptr, ptrTreeIds);
+                treeIds = new int[indptr[numFeatures]];
+                ptrTreeIds.get(treeIds);
+            }
+        }
+
+        return new FeatureTreeIndex(numFeatures, ensemble.tree_limit(), indptr, treeIds);
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    public int getNumTrees() {
+        return numTrees;
+    }
+
+    /**
+     * @param feature The index of a feature.
+     * @return The trees splitting on the feature, in increasing order.
+     */
+    public int[] getTrees(int feature) {
+        checkFeature(feature);
+        return Arrays.copyOfRange(treeIds, indptr[feature], indptr[feature + 1]);
+    }
+
+    /**
+     * @param features The indices of some features.
+     * @return The trees splitting on any of the features, in increasing order.
+     */
+    public int[] getTrees(int[] features) {
+        if (features.length == 1) {
+            return getTrees(features[0]);
+        }
+
+        boolean[] selected = new boolean[numTrees];
+        int count = 0;
+        for (int feature : features) {
+            checkFeature(feature);
+            for (int n = indptr[feature]; n < indptr[feature + 1]; ++n) {
+                if (!selected[treeIds[n]]) {
+                    selected[treeIds[n]] = true;
+                    ++count;
+                }
+            }
+        }
+
+        int[] trees = new int[count];
+        for (int t = 0, n = 0; n < count; ++t) {
+            if (selected[t]) trees[n++] = t;
+        }
+        return trees;
+    }
+
+    private void checkFeature(int feature) {
+        if (feature < 0 || feature >= numFeatures) {
+            throw new IndexOutOfBoundsException("Feature " + feature + " out of range [0, " + numFeatures + ")");
+        }
+    }
+}
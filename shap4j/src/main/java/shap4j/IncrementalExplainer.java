@@ -0,0 +1,166 @@
+package shap4j;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import shap4j.shap.ExplanationDataset;
+import shap4j.shap.PathElement;
+import shap4j.shap.TreeEnsemble;
+import shap4j.shap.TreeShap;
+
+import java.util.Arrays;
+
+/**
+ * The incremental explanations of a {@link TreeExplainer}, which delegates its incremental entry points to this
+ * class, along with the index of the trees splitting on each feature.
+ */
+final class IncrementalExplainer {
+    private final TreeExplainer explainer;
+    // the index of the trees splitting on each feature, built by the first incremental re-explanation
+    private volatile FeatureTreeIndex featureTreeIndex = null;
+
+    IncrementalExplainer(TreeExplainer explainer) {
+        this.explainer = explainer;
+    }
+
+    /**
+     * @see TreeExplainer#explainIncrementally(double[], boolean, boolean)
+     */
+    IncrementalExplanation explainIncrementally(double[] vector, boolean approximate, boolean checkMissing) {
+        checkSupported(approximate);
+
+        int[] trees = new int[explainer.getNumTrees()];
+        for (int t = 0; t < trees.length; ++t) {
+            trees[t] = t;
+        }
+        double[] contributions = computeTreeContributions(vector, approximate, checkMissing, trees);
+
+        return new IncrementalExplanation(vector.clone(), approximate, checkMissing, explainer.getNumOutputs(),
+                sumTreeContributions(contributions, vector.length), contributions, trees.length);
+    }
+
+    /**
+     * @see TreeExplainer#reexplain(IncrementalExplanation, int[], double[])
+     */
+    IncrementalExplanation reexplain(IncrementalExplanation previous, int[] features, double[] values) {
+        checkSupported(previous.isApproximate());
+        if (features.length != values.length) {
+            throw new IllegalArgumentException(
+                    features.length + " features changed, but " + values.length + " values given"
+            );
+        }
+        if (previous.getNumTrees() != explainer.getNumTrees()
+                || previous.getNumOutputs() != explainer.getNumOutputs()) {
+            throw new IllegalArgumentException("The previous explanation was not computed by this explainer");
+        }
+
+        int numFeatures = previous.getNumFeatures();
+        double[] vector = previous.vector().clone();
+        for (int n = 0; n < features.length; ++n) {
+            if (features[n] < 0 || features[n] >= numFeatures) {
+                throw new IndexOutOfBoundsException(
+                        "Feature " + features[n] + " out of range [0, " + numFeatures + ")"
+                );
+            }
+            vector[features[n]] = values[n];
+        }
+
+        int[] trees = getFeatureTreeIndex(numFeatures).getTrees(features);
+        double[] contributions = previous.treeContributions().clone();
+        if (trees.length > 0) {
+            int rowSize = (numFeatures + 1) * explainer.getNumOutputs();
+            double[] updated = computeTreeContributions(vector, previous.isApproximate(), previous.isCheckMissing(),
+                    trees);
+            for (int n = 0; n < trees.length; ++n) {
+                System.arraycopy(updated, n * rowSize, contributions, trees[n] * rowSize, rowSize);
+            }
+        }
+
+        // sum up the contributions of all the trees again, rather than updating the previous SHAP values, so that the
+        // rounding errors do not accumulate over successive re-explanations
+        return new IncrementalExplanation(vector, previous.isApproximate(), previous.isCheckMissing(),
+                explainer.getNumOutputs(), sumTreeContributions(contributions, numFeatures), contributions,
+                trees.length);
+    }
+
+    /**
+     * @see TreeExplainer#reexplain(IncrementalExplanation, double[])
+     */
+    IncrementalExplanation reexplain(IncrementalExplanation previous, double[] vector) {
+        double[] previousVector = previous.vector();
+        if (vector.length != previousVector.length) {
+            throw new IllegalArgumentException(
+                    "Expecting " + previousVector.length + " features, got " + vector.length
+            );
+        }
+
+        int[] features = new int[vector.length];
+        int numChanged = 0;
+        for (int j = 0; j < vector.length; ++j) {
+            if (Double.doubleToLongBits(vector[j]) != Double.doubleToLongBits(previousVector[j])) {
+                features[numChanged++] = j;
+            }
+        }
+        features = Arrays.copyOf(features, numChanged);
+
+        double[] values = new double[numChanged];
+        for (int n = 0; n < numChanged; ++n) {
+            values[n] = vector[features[n]];
+        }
+        return reexplain(previous, features, values);
+    }
+
+    /**
+     * @see TreeExplainer#getFeatureTreeIndex(int)
+     */
+    FeatureTreeIndex getFeatureTreeIndex(int numFeatures) {
+        explainer.requireNativeEngine();
+        FeatureTreeIndex index = featureTreeIndex;
+        if (index == null || index.getNumFeatures() != numFeatures) {
+            index = FeatureTreeIndex.build(explainer.getTreeEnsemble(), numFeatures);
+            featureTreeIndex = index;
+        }
+        return index;
+    }
+
+    private void checkSupported(boolean approximate) {
+        explainer.requireNativeEngine();
+        explainer.requireTreePathDependent(approximate, "incremental explanations");
+    }
+
+    /**
+     * @return The contributions of the given trees to the SHAP values of <code>vector</code>, one row per tree.
+     */
+    private double[] computeTreeContributions(double[] vector, boolean approximate, boolean checkMissing,
+                                              int[] trees) {
+        int rowSize = (vector.length + 1) * explainer.getNumOutputs();
+        double[] contributions = new double[trees.length * rowSize];
+        try (ExplanationDataset dataset = ExplanationDataset.fromMatrix(new double[][] {vector}, checkMissing);
+             IntPointer treeIds = new IntPointer(trees);
+             DoublePointer out = new DoublePointer((long) trees.length * rowSize);
+             PathElement uniquePath = new PathElement(explainer.getTreeEnsemble())) {
+            TreeShap.tree_shap_per_tree(explainer.doubleEnsemble(), dataset, treeIds, trees.length, approximate, out,
+                    uniquePath, checkMissing);
+            out.get(contributions);
+        }
+        return contributions;
+    }
+
+    /**
+     * @return The SHAP values summing up the contributions of the trees, plus the base offset in the bias term.
+     */
+    private double[] sumTreeContributions(double[] contributions, int numFeatures) {
+        TreeEnsemble ensemble = explainer.getTreeEnsemble();
+        int numOutputs = ensemble.num_outputs();
+        int rowSize = (numFeatures + 1) * numOutputs;
+        double[] shapValues = new double[rowSize];
+        for (int offset = 0; offset < contributions.length; offset += rowSize) {
+            for (int j = 0; j < rowSize; ++j) {
+                shapValues[j] += contributions[offset + j];
+            }
+        }
+        for (int k = 0; k < numOutputs; ++k) {
+            shapValues[numFeatures * numOutputs + k] += ensemble.getBaseOffset(k);
+        }
+        return shapValues;
+    }
+}
@@ -0,0 +1,129 @@
+package shap4j;
+
+import java.util.Arrays;
+
+/**
+ * The SHAP values of a feature vector together with the contributions of each tree to them, computed by
+ * {@link TreeExplainer#explainIncrementally(double[], boolean, boolean)}, so that the vector can be re-explained after
+ * changing a few of its features by recomputing only the trees splitting on these features, see
+ * {@link TreeExplainer#reexplain(IncrementalExplanation, int[], double[])}.
+ *
+ * The SHAP values (including the bias term as feature <code>M</code>) and the contributions of each tree are laid out
+ * as in {@link ExplanationSession#shapValues(double[], boolean, boolean, double[], int)}; the contributions of the
+ * trees sum up to the SHAP values, except for the base offset of the model, which is only added to the bias term of
+ * the SHAP values. An incremental explanation is immutable: re-explaining it creates a new one.
+ */
+public class IncrementalExplanation {
+    private final double[] vector;
+    private final boolean approximate;
+    private final boolean checkMissing;
+    private final int numOutputs;
+    private final int numTrees;
+    private final double[] shapValues;
+    private final double[] treeContributions;
+    private final int numRecomputedTrees;
+
+    IncrementalExplanation(double[] vector, boolean approximate, boolean checkMissing, int numOutputs,
+                           double[] shapValues, double[] treeContributions, int numRecomputedTrees) {
+        this.vector = vector;
+        this.approximate = approximate;
+        this.checkMissing = checkMissing;
+        this.numOutputs = numOutputs;
+        this.numTrees = treeContributions.length / shapValues.length;
+        this.shapValues = shapValues;
+        this.treeContributions = treeContributions;
+        this.numRecomputedTrees = numRecomputedTrees;
+    }
+
+    /**
+     * @return A copy of the explained feature vector.
+     */
+    public double[] getVector() {
+        return vector.clone();
+    }
+
+    /**
+     * @return Whether the contributions were computed with the approximate Saabas algorithm.
+     */
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    /**
+     * @return Whether missing values were checked in the feature vector.
+     */
+    public boolean isCheckMissing() {
+        return checkMissing;
+    }
+
+    /**
+     * @return The number of features <code>M</code> of the explained feature vector.
+     */
+    public int getNumFeatures() {
+        return vector.length;
+    }
+
+    /**
+     * @return The number of outputs <code>K</code> of the model.
+     */
+    public int getNumOutputs() {
+        return numOutputs;
+    }
+
+    public int getNumTrees() {
+        return numTrees;
+    }
+
+    /**
+     * @return The number of trees explained to compute this explanation: all the trees for an explanation computed
+     *         from scratch, or the trees splitting on the changed features for a re-explanation.
+     */
+    public int getNumRecomputedTrees() {
+        return numRecomputedTrees;
+    }
+
+    /**
+     * @return A copy of the <code>(M + 1) * K</code> SHAP values, including the bias term.
+     */
+    public double[] getShapValues() {
+        return shapValues.clone();
+    }
+
+    /**
+     * @param feature The index of a feature, or <code>M</code> for the bias term.
+     * @param output The index of an output of the model.
+     * @return The SHAP value of the feature for the output.
+     */
+    public double getShapValue(int feature, int output) {
+        if (feature < 0 || feature > vector.length || output < 0 || output >= numOutputs) {
+            throw new IndexOutOfBoundsException(
+                    "Feature " + feature + " and output " + output + " out of range [0, " + vector.length + "] x [0, "
+                            + numOutputs + ")"
+            );
+        }
+        return shapValues[feature * numOutputs + output];
+    }
+
+    /**
+     * @param tree The index of a tree.
+     * @return A copy of the <code>(M + 1) * K</code> contributions of the tree to the SHAP values.
+     */
+    public double[] getTreeContributions(int tree) {
+        if (tree < 0 || tree >= numTrees) {
+            throw new IndexOutOfBoundsException("Tree " + tree + " out of range [0, " + numTrees + ")");
+        }
+        return Arrays.copyOfRange(treeContributions, tree * shapValues.length, (tree + 1) * shapValues.length);
+    }
+
+    double[] vector() {
+        return vector;
+    }
+
+    double[] shapValues() {
+        return shapValues;
+    }
+
+    double[] treeContributions() {
+        return treeContributions;
+    }
+}
@@ -0,0 +1,387 @@
+package shap4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A registry of named models, e.g. one per tenant, whose versions can be deployed under load.
+ *
+ * New versions are loaded in the background, and then swapped in atomically: each request acquires a {@link Lease} on
+ * the current version of a model, which it keeps using even if a new version is deployed in the meantime. The
+ * explainers are reference-counted by the names they are deployed under and by their leases, and are closed (releasing
+ * their native memory) as soon as they are neither deployed nor leased. Identical models (by SHA-256 of their
+ * <code>.shap4j</code> data) deployed under several names share a single explainer.
+ *
+ * <pre>{@code
+ * registry.deploy("tenant-a", Paths.get("model-v2.shap4j"));
+ * try (ModelRegistry.Lease lease = registry.acquire("tenant-a")) {
+ *     double[][] values = lease.getExplainer().shapValues(matrix, false, true);
+ * }
+ * }</pre>
+ *
+ * All methods are thread-safe.
+ */
+public class ModelRegistry implements AutoCloseable {
+    // the size of the chunks in which the files deployed are read to compute their digests
+    private static final int DIGEST_BUFFER_SIZE = 1 << 16;
+
+    private final Engine engine;
+    private final Consumer<TreeExplainer> configurator;
+    // a single thread loads the models, so that loading never competes with the explainers for more than one core
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "shap4j-model-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, AtomicReference<Model>> deployed = new ConcurrentHashMap<>();
+    // the loaded models by digest, guarded by this registry, for deduplication
+    private final Map<String, Model> models = new HashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Create a registry of models explained with the native engine.
+     */
+    public ModelRegistry() {
+        this(Engine.NATIVE, explainer -> { });
+    }
+
+    /**
+     * Create a registry of models explained with the given engine.
+     * @param engine The engine of the explainers.
+     * @param configurator Configures each new explainer before it is deployed, e.g. by calling
+     *                     {@link TreeExplainer#compile()} or {@link TreeExplainer#setNumThreads(int)}. It runs on the
+     *                     loading thread, and must configure all the explainers identically, since identical models
+     *                     share a single explainer.
+     */
+    public ModelRegistry(Engine engine, Consumer<TreeExplainer> configurator) {
+        this.engine = engine;
+        this.configurator = configurator;
+    }
+
+    /**
+     * Load a model in the background, and then make it the current version of <code>name</code>. The previous version,
+     * if any, is closed once the leases acquired on it are closed.
+     * @param name The name of the model.
+     * @param rawData The content of a <code>.shap4j</code> file, which must not be modified afterwards.
+     * @return A future completed once the model is deployed, or completed exceptionally if it failed to load, in
+     *         which case the previous version remains deployed.
+     */
+    public CompletableFuture<Void> deploy(String name, byte[] rawData) {
+        checkOpen();
+        return CompletableFuture.runAsync(() -> {
+            checkOpen();
+            swap(name, retain(digest(rawData), () -> new TreeExplainer(rawData, engine)));
+        }, loader);
+    }
+
+    /**
+     * Load a <code>.shap4j</code> file in the background, and then make it the current version of <code>name</code>.
+     * The file is memory-mapped rather than read to the heap, see {@link TreeExplainer#fromPath(Path, Engine)}, and
+     * its digest is computed by streaming it, so that deploying a large model does not copy it to the heap.
+     * @param name The name of the model.
+     * @param path The path to the <code>.shap4j</code> file.
+     * @return A future completed once the model is deployed, or completed exceptionally if it failed to load.
+     * @see #deploy(String, byte[])
+     */
+    public CompletableFuture<Void> deploy(String name, Path path) {
+        checkOpen();
+        return CompletableFuture.runAsync(() -> {
+            checkOpen();
+            swap(name, retain(digest(path), () -> TreeExplainer.fromPath(path, engine)));
+        }, loader);
+    }
+
+    /**
+     * Acquire a lease on the current version of a model, which remains usable until the lease is closed, even if
+     * another version is deployed in the meantime.
+     * @param name The name of the model.
+     * @return A lease, which must be closed after use.
+     * @throws IllegalArgumentException If no model is deployed under this name.
+     */
+    public Lease acquire(String name) {
+        checkOpen();
+        AtomicReference<Model> current = deployed.get(name);
+        while (current != null) {
+            Model model = current.get();
+            if (model == null) {
+                break;
+            }
+            // the model may be released between the read and the retain, in which case a newer version is deployed
+            if (model.tryRetain()) {
+                return new Lease(name, model);
+            }
+        }
+        throw new IllegalArgumentException("No model deployed under " + name);
+    }
+
+    /**
+     * Remove a model from this registry. Its explainer is closed once the leases acquired on it are closed.
+     * @param name The name of the model.
+     * @return Whether a model was deployed under this name.
+     */
+    public boolean remove(String name) {
+        AtomicReference<Model> current = deployed.get(name);
+        Model model = current == null ? null : current.getAndSet(null);
+        if (model == null) {
+            return false;
+        }
+
+        release(model);
+        return true;
+    }
+
+    /**
+     * @return The names under which a model is deployed.
+     */
+    public Set<String> getNames() {
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        deployed.forEach((name, current) -> {
+            if (current.get() != null) names.add(name);
+        });
+        return names;
+    }
+
+    /**
+     * @return The number of distinct models loaded, whether deployed or only leased.
+     */
+    public synchronized int getNumLoadedModels() {
+        return models.size();
+    }
+
+    /**
+     * Remove all the models, and stop loading new ones. The model being loaded, if any, is waited for and then
+     * dropped, and the deployments still queued fail with an <code>IllegalStateException</code>, so that no model is
+     * deployed once this method returns. The explainers still leased are closed once their leases are closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        loader.shutdown();
+        try {
+            while (!loader.awaitTermination(1, TimeUnit.MINUTES)) {
+                // a large model is still loading
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (String name : deployed.keySet()) {
+            remove(name);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("This registry is closed");
+        }
+    }
+
+    /**
+     * Make <code>model</code>, retained by the caller, the current version of <code>name</code>.
+     */
+    private void swap(String name, Model model) {
+        if (closed) {
+            release(model);
+            throw new IllegalStateException("This registry is closed");
+        }
+
+        Model previous = deployed.computeIfAbsent(name, key -> new AtomicReference<>()).getAndSet(model);
+        if (previous != null) {
+            release(previous);
+        }
+
+        // close() may have removed all the names between the check above and the swap, in which case the model must
+        // not outlive the registry; if close() removes it as well, only one of the two releases it
+        if (closed) {
+            remove(name);
+            throw new IllegalStateException("This registry is closed");
+        }
+    }
+
+    /**
+     * @return The model of the given digest, loaded unless an identical model is already loaded, retained once for the
+     *         caller.
+     */
+    private Model retain(String digest, Loader load) {
+        synchronized (this) {
+            Model model = models.get(digest);
+            if (model != null && model.tryRetain()) {
+                return model;
+            }
+        }
+
+        // load outside the lock; if another thread loads the same model meanwhile, one of the two copies is dropped
+        TreeExplainer explainer;
+        try {
+            explainer = load.load();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            configurator.accept(explainer);
+        } catch (RuntimeException e) {
+            explainer.close();
+            throw e;
+        }
+
+        synchronized (this) {
+            Model model = models.get(digest);
+            if (model != null && model.tryRetain()) {
+                explainer.close();
+                return model;
+            }
+
+            model = new Model(digest, explainer);
+            models.put(digest, model);
+            return model;
+        }
+    }
+
+    private void release(Model model) {
+        if (model.references.decrementAndGet() == 0) {
+            synchronized (this) {
+                models.remove(model.digest, model);
+            }
+            model.explainer.close();
+        }
+    }
+
+    private static String digest(byte[] rawData) {
+        MessageDigest digest = sha256();
+        digest.update(rawData);
+        return toHex(digest.digest());
+    }
+
+    private static String digest(Path path) {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(DIGEST_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder builder = new StringBuilder(2 * hash.length);
+        for (byte b : hash) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Loads the explainer of a model which is not loaded yet.
+     */
+    private interface Loader {
+        TreeExplainer load() throws IOException;
+    }
+
+    /**
+     * A loaded model, referenced by the names it is deployed under and by its leases.
+     */
+    private static final class Model {
+        private final String digest;
+        private final TreeExplainer explainer;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Model(String digest, TreeExplainer explainer) {
+            this.digest = digest;
+            this.explainer = explainer;
+        }
+
+        /**
+         * Add a reference to this model, unless it has already been released by all its references.
+         */
+        private boolean tryRetain() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * A lease on a version of a model, which keeps its explainer open until the lease is closed. A lease may be used
+     * by several threads, but must be closed exactly once, after all of them are done.
+     */
+    public final class Lease implements AutoCloseable {
+        private final String name;
+        private final Model model;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Lease(String name, Model model) {
+            this.name = name;
+            this.model = model;
+        }
+
+        /**
+         * @return The name of the model.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The explainer of the leased version of the model, which must not be closed nor used after the
+         *         lease is closed.
+         */
+        public TreeExplainer getExplainer() {
+            if (closed.get()) {
+                throw new IllegalStateException("This lease is closed");
+            }
+            return model.explainer;
+        }
+
+        /**
+         * @return The SHA-256 digest of the <code>.shap4j</code> data of the leased version, in hexadecimal.
+         */
+        public String getDigest() {
+            return model.digest;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(model);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package shap4j;
+
+/**
+ * The transform applied to the raw output (margin) of a tree ensemble model when making predictions.
+ *
+ * @see TreeExplainer#predict(double[][], ModelTransform, boolean)
+ */
+public enum ModelTransform {
+    /**
+     * The raw output of the model, i.e. the sum of the leaf values and the base offset.
+     */
+    IDENTITY(0),
+
+    /**
+     * The logistic (sigmoid) function of the raw output, e.g. the probability predicted by a binary classifier.
+     */
+    LOGISTIC(1);
+
+    private final int code;
+
+    ModelTransform(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return The value of the corresponding <code>MODEL_TRANSFORM</code> constant of the native library.
+     */
+    int getCode() {
+        return code;
+    }
+
+    /**
+     * Apply the transform to a raw output of the model, as the native library does.
+     * @param margin The raw output of the model.
+     * @return The transformed output.
+     */
+    double apply(double margin) {
+        return this == LOGISTIC ? 1 / (1 + Math.exp(-margin)) : margin;
+    }
+}
@@ -0,0 +1,117 @@
+package shap4j;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.LongPointer;
+import shap4j.jvm.JavaTreeShap;
+import shap4j.shap.ExplanationDataset;
+import shap4j.shap.TreeShap;
+
+/**
+ * The {@link ShapSummary}s of a {@link TreeExplainer}, which delegates its <code>summarize</code> entry points to this
+ * class.
+ */
+final class ShapSummarizer {
+    // the number of rows whose SHAP values are held at once by dense_tree_shap_summary
+    private static final int SUMMARY_CHUNK_ROWS = 64;
+
+    private final TreeExplainer explainer;
+
+    ShapSummarizer(TreeExplainer explainer) {
+        this.explainer = explainer;
+    }
+
+    /**
+     * @see TreeExplainer#summarize(ExplanationDataset, boolean, ShapSummary)
+     */
+    void summarize(ExplanationDataset dataset, boolean approximate, ShapSummary summary) {
+        explainer.requireNativeEngine();
+        checkSummaryShape(summary, dataset.getNumCols(), explainer.getNumOutputs());
+
+        int rowSize = summary.getRowSize();
+        int numBins = summary.getNumBins();
+        FeatureDependence dependence = approximate
+                ? FeatureDependence.TREE_PATH_DEPENDENT : explainer.getFeatureDependence();
+        ExplanationDataset data = explainer.attachBackground(dataset, dependence);
+
+        try {
+            explainer.forEachSlice(data, (slice, rowOffset) -> {
+                // the native statistics are added to, and therefore start from zero
+                try (DoublePointer stats = new DoublePointer(3L * rowSize);
+                     LongPointer histogram = new LongPointer(Math.max((long) rowSize * numBins, 1))) {
+                    stats.zero();
+                    histogram.zero();
+
+                    // with blocking, each chunk is a tile of rows
+                    int rows = explainer.getRowBlock();
+                    TreeShap.dense_tree_shap_summary(explainer.doubleEnsemble(), explainer.getCompiledEnsemble(),
+                            explainer.getFastTreeShapEnsemble(), explainer.getContributionCache(), slice,
+                            slice.isCheckMissing(), dependence.getCode(), approximate,
+                            rows > 0 ? rows : SUMMARY_CHUNK_ROWS,
+                            rows > 0 ? explainer.getTreeBlock() : 0, stats, numBins, summary.getHistogramLower(),
+                            summary.getHistogramUpper(), histogram);
+
+                    double[] sums = new double[rowSize];
+                    double[] absSums = new double[rowSize];
+                    double[] squareSums = new double[rowSize];
+                    long[] counts = new long[rowSize * numBins];
+                    stats.position(0).get(sums);
+                    stats.position(rowSize).get(absSums);
+                    stats.position(2L * rowSize).get(squareSums);
+                    histogram.get(counts);
+
+                    summary.add(slice.getNumRows(), sums, absSums, squareSums, counts);
+                }
+            });
+        } finally {
+            if (data != dataset) data.close();
+        }
+    }
+
+    /**
+     * @see TreeExplainer#summarize(double[][], boolean, boolean, ShapSummary)
+     */
+    void summarize(double[][] matrix, boolean approximate, boolean checkMissing, ShapSummary summary) {
+        assert matrix.length > 0;
+
+        if (explainer.getEngine() == Engine.JAVA) {
+            explainer.requireTreePathDependent(approximate, "the JAVA engine");
+            checkSummaryShape(summary, matrix[0].length, explainer.getNumOutputs());
+
+            explainer.forEachRange(matrix.length, (begin, end) -> {
+                JavaTreeShap kernel = explainer.getJavaKernel();
+                ShapSummary partial = summary.emptyCopy();
+                double[] phi = new double[summary.getRowSize()];
+
+                for (int i = begin; i < end; ++i) {
+                    if (matrix[i].length != matrix[0].length) {
+                        throw new IllegalArgumentException(
+                                "Row " + i + " has " + matrix[i].length + " features, expecting " + matrix[0].length
+                        );
+                    }
+
+                    if (approximate) {
+                        kernel.saabasValues(matrix[i], checkMissing, phi, 0);
+                    } else {
+                        kernel.shapValues(matrix[i], checkMissing, phi, 0);
+                    }
+                    partial.add(phi, 0);
+                }
+                summary.merge(partial);
+            });
+            return;
+        }
+
+        try (ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, checkMissing)) {
+            summarize(dataset, approximate, summary);
+        }
+    }
+
+    private static void checkSummaryShape(ShapSummary summary, int numFeatures, int numOutputs) {
+        if (summary.getNumFeatures() != numFeatures || summary.getNumOutputs() != numOutputs) {
+            throw new IllegalArgumentException(
+                    "Summary of " + summary.getNumFeatures() + " features and " + summary.getNumOutputs()
+                            + " outputs, expecting " + numFeatures + " features and " + numOutputs + " outputs"
+            );
+        }
+    }
+}
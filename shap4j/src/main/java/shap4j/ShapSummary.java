@@ -0,0 +1,304 @@
+package shap4j;
+
+import java.util.Arrays;
+
+/**
+ * Running statistics of the SHAP values of a stream of feature vectors, e.g. for global feature importance, computed
+ * by {@link TreeExplainer#summarize(double[][], boolean, boolean, ShapSummary)} without materializing the SHAP values
+ * of each row.
+ *
+ * For each feature <code>j</code> (including the bias term as feature <code>M</code>) and each output <code>k</code>
+ * of the model, a summary holds the sum, the sum of absolute values and the sum of squares of the SHAP values, and
+ * optionally a histogram of the SHAP values with bins of equal width over a fixed range. Its size is therefore
+ * independent of the number of rows.
+ *
+ * Summaries of the same shape can be merged, e.g. across threads or batches of rows. All methods are thread-safe.
+ */
+public class ShapSummary {
+    private final int numFeatures;
+    private final int numOutputs;
+    private final int numBins;
+    private final double histogramLower;
+    private final double histogramUpper;
+
+    private long count = 0;
+    private final double[] sums;
+    private final double[] absSums;
+    private final double[] squareSums;
+    private final long[] histogram;
+
+    /**
+     * Create an empty summary, without histogram.
+     * @param numFeatures The number of features <code>M</code> of the summarized feature vectors.
+     * @param numOutputs The number of outputs <code>K</code> of the model.
+     */
+    public ShapSummary(int numFeatures, int numOutputs) {
+        this(numFeatures, numOutputs, 0, 0, 0);
+    }
+
+    /**
+     * Create an empty summary, with a histogram of <code>numBins</code> bins of equal width over
+     * <code>[lower, upper)</code> per feature and output. The first and last bins also count the SHAP values out of
+     * this range.
+     * @param numFeatures The number of features <code>M</code> of the summarized feature vectors.
+     * @param numOutputs The number of outputs <code>K</code> of the model.
+     * @param numBins The number of bins of the histograms, or 0 for no histogram.
+     * @param lower The lower bound of the range of the histograms.
+     * @param upper The upper bound of the range of the histograms.
+     */
+    public ShapSummary(int numFeatures, int numOutputs, int numBins, double lower, double upper) {
+        if (numFeatures < 1 || numOutputs < 1) {
+            throw new IllegalArgumentException(
+                    "numFeatures and numOutputs must be positive, got " + numFeatures + " and " + numOutputs
+            );
+        }
+        if (numBins < 0 || (numBins > 0 && !(lower < upper))) {
+            throw new IllegalArgumentException(
+                    "Invalid histogram: " + numBins + " bins over [" + lower + ", " + upper + ")"
+            );
+        }
+
+        this.numFeatures = numFeatures;
+        this.numOutputs = numOutputs;
+        this.numBins = numBins;
+        this.histogramLower = lower;
+        this.histogramUpper = upper;
+
+        int size = getRowSize();
+        this.sums = new double[size];
+        this.absSums = new double[size];
+        this.squareSums = new double[size];
+        this.histogram = new long[size * numBins];
+    }
+
+    /**
+     * @return An empty summary of the same shape as this summary, which can be merged into it.
+     */
+    public ShapSummary emptyCopy() {
+        return new ShapSummary(numFeatures, numOutputs, numBins, histogramLower, histogramUpper);
+    }
+
+    /**
+     * Add the SHAP values of a single row to this summary.
+     * @param shapValues The SHAP values, including the bias term, in the layout of
+     *                   {@link ExplanationSession#shapValues(double[], boolean, boolean, double[], int)}.
+     * @param offset The index of the first SHAP value in <code>shapValues</code>.
+     */
+    public synchronized void add(double[] shapValues, int offset) {
+        int size = getRowSize();
+        if (offset < 0 || shapValues.length - offset < size) {
+            throw new IllegalArgumentException(
+                    "Array has " + (shapValues.length - offset) + " values remaining, " + size + " required"
+            );
+        }
+
+        for (int j = 0; j < size; ++j) {
+            double value = shapValues[offset + j];
+            sums[j] += value;
+            absSums[j] += Math.abs(value);
+            squareSums[j] += value * value;
+            if (numBins > 0) {
+                ++histogram[j * numBins + bin(value)];
+            }
+        }
+        ++count;
+    }
+
+    /**
+     * Merge the statistics of <code>other</code> into this summary.
+     * @param other A summary of the same shape, which is left unchanged.
+     * @return This summary.
+     * @throws IllegalArgumentException If the summaries do not have the same shape and histogram range.
+     */
+    public ShapSummary merge(ShapSummary other) {
+        if (other.numFeatures != numFeatures || other.numOutputs != numOutputs || other.numBins != numBins
+                || other.histogramLower != histogramLower || other.histogramUpper != histogramUpper) {
+            throw new IllegalArgumentException("Cannot merge summaries of different shapes");
+        }
+
+        // copy the statistics of other first, so that both summaries are never locked at once
+        long otherCount;
+        double[] otherSums;
+        double[] otherAbsSums;
+        double[] otherSquareSums;
+        long[] otherHistogram;
+        synchronized (other) {
+            otherCount = other.count;
+            otherSums = other.sums.clone();
+            otherAbsSums = other.absSums.clone();
+            otherSquareSums = other.squareSums.clone();
+            otherHistogram = other.histogram.clone();
+        }
+
+        add(otherCount, otherSums, otherAbsSums, otherSquareSums, otherHistogram);
+        return this;
+    }
+
+    /**
+     * Add statistics laid out as in this summary, e.g. computed natively.
+     */
+    synchronized void add(long count, double[] sums, double[] absSums, double[] squareSums, long[] histogram) {
+        for (int j = 0; j < this.sums.length; ++j) {
+            this.sums[j] += sums[j];
+            this.absSums[j] += absSums[j];
+            this.squareSums[j] += squareSums[j];
+        }
+        for (int j = 0; j < this.histogram.length; ++j) {
+            this.histogram[j] += histogram[j];
+        }
+        this.count += count;
+    }
+
+    private int bin(double value) {
+        double position = (value - histogramLower) * numBins / (histogramUpper - histogramLower);
+        if (position >= numBins) {
+            return numBins - 1;
+        }
+        return position > 0 ? (int) position : 0;
+    }
+
+    private int index(int feature, int output) {
+        if (feature < 0 || feature > numFeatures || output < 0 || output >= numOutputs) {
+            throw new IndexOutOfBoundsException(
+                    "Feature " + feature + " and output " + output + " out of range [0, " + numFeatures + "] x [0, "
+                            + numOutputs + ")"
+            );
+        }
+        return feature * numOutputs + output;
+    }
+
+    /**
+     * @return The number of features <code>M</code> of the summarized feature vectors.
+     */
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * @return The number of outputs <code>K</code> of the model.
+     */
+    public int getNumOutputs() {
+        return numOutputs;
+    }
+
+    /**
+     * @return The number of SHAP values summarized per row, including the bias term, i.e. <code>(M + 1) * K</code>.
+     */
+    public int getRowSize() {
+        return (numFeatures + 1) * numOutputs;
+    }
+
+    /**
+     * @return The number of bins of the histograms, or 0 if this summary has no histogram.
+     */
+    public int getNumBins() {
+        return numBins;
+    }
+
+    /**
+     * @return The lower bound of the range of the histograms.
+     */
+    public double getHistogramLower() {
+        return histogramLower;
+    }
+
+    /**
+     * @return The upper bound of the range of the histograms.
+     */
+    public double getHistogramUpper() {
+        return histogramUpper;
+    }
+
+    /**
+     * @return The number of summarized rows.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @param feature The index of a feature, or <code>M</code> for the bias term.
+     * @param output The index of an output of the model.
+     * @return The sum of the SHAP values of the feature for the output.
+     */
+    public synchronized double getSum(int feature, int output) {
+        return sums[index(feature, output)];
+    }
+
+    /**
+     * @param feature The index of a feature, or <code>M</code> for the bias term.
+     * @param output The index of an output of the model.
+     * @return The sum of the absolute SHAP values of the feature for the output.
+     */
+    public synchronized double getAbsSum(int feature, int output) {
+        return absSums[index(feature, output)];
+    }
+
+    /**
+     * @param feature The index of a feature, or <code>M</code> for the bias term.
+     * @param output The index of an output of the model.
+     * @return The sum of the squared SHAP values of the feature for the output.
+     */
+    public synchronized double getSquareSum(int feature, int output) {
+        return squareSums[index(feature, output)];
+    }
+
+    /**
+     * @param feature The index of a feature, or <code>M</code> for the bias term.
+     * @param output The index of an output of the model.
+     * @return The mean SHAP value of the feature for the output, or <code>NaN</code> if no row was summarized.
+     */
+    public synchronized double getMean(int feature, int output) {
+        return sums[index(feature, output)] / count;
+    }
+
+    /**
+     * @param feature The index of a feature, or <code>M</code> for the bias term.
+     * @param output The index of an output of the model.
+     * @return The mean absolute SHAP value of the feature for the output, which is the usual global importance of
+     *         the feature, or <code>NaN</code> if no row was summarized.
+     */
+    public synchronized double getMeanAbs(int feature, int output) {
+        return absSums[index(feature, output)] / count;
+    }
+
+    /**
+     * @param feature The index of a feature, or <code>M</code> for the bias term.
+     * @param output The index of an output of the model.
+     * @return The (population) variance of the SHAP values of the feature for the output, or <code>NaN</code> if no
+     *         row was summarized.
+     */
+    public synchronized double getVariance(int feature, int output) {
+        int j = index(feature, output);
+        double mean = sums[j] / count;
+        return Math.max(squareSums[j] / count - mean * mean, 0);
+    }
+
+    /**
+     * @param output The index of an output of the model.
+     * @return The mean absolute SHAP values of the <code>M</code> features (without the bias term) for the output.
+     */
+    public synchronized double[] getFeatureImportance(int output) {
+        double[] importance = new double[numFeatures];
+        for (int j = 0; j < numFeatures; ++j) {
+            importance[j] = absSums[index(j, output)] / count;
+        }
+        return importance;
+    }
+
+    /**
+     * @param feature The index of a feature, or <code>M</code> for the bias term.
+     * @param output The index of an output of the model.
+     * @return A copy of the <code>numBins</code> counts of the histogram of the SHAP values of the feature for the
+     *         output.
+     * @throws IllegalStateException If this summary has no histogram.
+     */
+    public synchronized long[] getHistogram(int feature, int output) {
+        if (numBins == 0) {
+            throw new IllegalStateException("This summary has no histogram");
+        }
+
+        int j = index(feature, output);
+        return Arrays.copyOfRange(histogram, j * numBins, (j + 1) * numBins);
+    }
+}
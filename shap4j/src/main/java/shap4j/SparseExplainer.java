@@ -0,0 +1,145 @@
+package shap4j;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import shap4j.shap.CompiledTreeEnsemble;
+import shap4j.shap.TreeShap;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The explanations of {@link SparseExplanationDataset}s by a {@link TreeExplainer}, which delegates its sparse entry
+ * points to this class.
+ */
+final class SparseExplainer {
+    // the number of rows whose sparse SHAP values are gathered by each native call
+    private static final int SPARSE_OUTPUT_CHUNK_ROWS = 64;
+
+    private final TreeExplainer explainer;
+
+    SparseExplainer(TreeExplainer explainer) {
+        this.explainer = explainer;
+    }
+
+    /**
+     * @see TreeExplainer#shapValues(SparseExplanationDataset, boolean)
+     */
+    double[] shapValues(SparseExplanationDataset dataset, boolean approximate) {
+        checkSupported(approximate);
+
+        int nRows = dataset.getNumRows();
+        int numCols = dataset.getNumCols();
+        long rowStride = (long) (numCols + 1) * explainer.getNumOutputs();
+        if (nRows * rowStride > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    nRows * rowStride + " SHAP values do not fit in an array, use sparseShapValues() instead"
+            );
+        }
+
+        CompiledTreeEnsemble compiled = explainer.getCompiledEnsemble();
+        try (DoublePointer phi = new DoublePointer(nRows * rowStride)) {
+            // the kernel zero-initializes its output
+            explainer.forEachRange(nRows, (begin, end) ->
+                    TreeShap.sparse_tree_shap(explainer.doubleEnsemble(), compiled, dataset.indptr().getPointer(begin),
+                            dataset.indices(), dataset.values(), end - begin, numCols, dataset.isAbsentAsMissing(),
+                            approximate, phi.getPointer(begin * rowStride))
+            );
+
+            double[] values = new double[(int) (nRows * rowStride)];
+            phi.get(values);
+            return values;
+        }
+    }
+
+    /**
+     * @see TreeExplainer#sparseShapValues(SparseExplanationDataset, boolean)
+     */
+    SparseShapValues sparseShapValues(SparseExplanationDataset dataset, boolean approximate) {
+        checkSupported(approximate);
+
+        int nRows = dataset.getNumRows();
+        int numCols = dataset.getNumCols();
+        int numOutputs = explainer.getNumOutputs();
+        // the maximum number of entries of a row: the features split on by the trees, and the bias term
+        int rowCapacity = TreeShap.num_used_features(explainer.getTreeEnsemble(), numCols) + 1;
+        int chunkRows = Math.min(SPARSE_OUTPUT_CHUNK_ROWS, nRows);
+
+        // the number of entries of each row at indptr[i + 1], which is then turned into offsets. each range of rows
+        // gathers its entries in chunks on its own, and the ranges are concatenated in order afterwards
+        int[] indptr = new int[nRows + 1];
+        Map<Integer, SparseEntries> ranges = new ConcurrentSkipListMap<>();
+        CompiledTreeEnsemble compiled = explainer.getCompiledEnsemble();
+
+        explainer.forEachRange(nRows, (begin, end) -> {
+            SparseEntries entries = new SparseEntries(numOutputs);
+            try (IntPointer outIndptr = new IntPointer(chunkRows + 1);
+                 IntPointer outIndices = new IntPointer((long) chunkRows * rowCapacity);
+                 DoublePointer outValues = new DoublePointer((long) chunkRows * rowCapacity * numOutputs)) {
+                int[] chunkIndptr = new int[chunkRows + 1];
+
+                for (int row = begin; row < end; ) {
+                    int rows = TreeShap.sparse_tree_shap_sparse_output(explainer.doubleEnsemble(), compiled,
+                            dataset.indptr().getPointer(row), dataset.indices(), dataset.values(),
+                            Math.min(chunkRows, end - row), numCols, dataset.isAbsentAsMissing(), approximate,
+                            outIndptr, outIndices, outValues, chunkRows * rowCapacity);
+
+                    outIndptr.get(chunkIndptr, 0, rows + 1);
+                    for (int r = 0; r < rows; ++r) {
+                        indptr[row + r + 1] = chunkIndptr[r + 1] - chunkIndptr[r];
+                    }
+                    entries.append(outIndices, outValues, chunkIndptr[rows]);
+                    row += rows;
+                }
+            }
+            ranges.put(begin, entries);
+        });
+
+        for (int i = 0; i < nRows; ++i) {
+            indptr[i + 1] += indptr[i];
+        }
+
+        int[] indices = new int[indptr[nRows]];
+        double[] values = new double[indptr[nRows] * numOutputs];
+        int offset = 0;
+        for (SparseEntries entries : ranges.values()) {
+            System.arraycopy(entries.indices, 0, indices, offset, entries.size);
+            System.arraycopy(entries.values, 0, values, offset * numOutputs, entries.size * numOutputs);
+            offset += entries.size;
+        }
+
+        return new SparseShapValues(nRows, numCols, numOutputs, indptr, indices, values);
+    }
+
+    private void checkSupported(boolean approximate) {
+        explainer.requireNativeEngine();
+        explainer.requireTreePathDependent(approximate, "sparse datasets");
+    }
+
+    /**
+     * The sparse SHAP values gathered by a range of rows, in growable arrays.
+     */
+    private static final class SparseEntries {
+        private final int numOutputs;
+        private int[] indices = new int[16];
+        private double[] values;
+        private int size = 0;
+
+        SparseEntries(int numOutputs) {
+            this.numOutputs = numOutputs;
+            this.values = new double[indices.length * numOutputs];
+        }
+
+        void append(IntPointer chunkIndices, DoublePointer chunkValues, int count) {
+            if (size + count > indices.length) {
+                int capacity = Math.max(2 * indices.length, size + count);
+                indices = Arrays.copyOf(indices, capacity);
+                values = Arrays.copyOf(values, capacity * numOutputs);
+            }
+            chunkIndices.get(indices, size, count);
+            chunkValues.get(values, size * numOutputs, count * numOutputs);
+            size += count;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package shap4j;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import shap4j.shap.ExplanationDataset;
+
+/**
+ * A dataset of sparse feature vectors, stored in native memory in the CSR (compressed sparse row) format: the
+ * non-zero entries of row <code>i</code> have the features <code>indices[indptr[i]:indptr[i + 1]]</code>, and the
+ * values <code>values[indptr[i]:indptr[i + 1]]</code>.
+ *
+ * Unlike {@link ExplanationDataset}, only the non-zero entries are copied to the native memory, and the native kernels
+ * scatter each row into a dense scratch vector right before explaining it. The entries absent from a row are either
+ * missing values or zeros, and explicit <code>NaN</code> entries are always missing values.
+ */
+public class SparseExplanationDataset implements AutoCloseable {
+    private final int numRows;
+    private final int numCols;
+    private final boolean absentAsMissing;
+
+    private final IntPointer indptr;
+    private final IntPointer indices;
+    private final DoublePointer values;
+
+    private SparseExplanationDataset(int numRows, int numCols, boolean absentAsMissing, IntPointer indptr,
+                                     IntPointer indices, DoublePointer values) {
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.absentAsMissing = absentAsMissing;
+        this.indptr = indptr;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Create a sparse dataset from arrays in the CSR format, which are copied to the native memory.
+     * @param numCols The number of features <code>M</code> of the feature vectors.
+     * @param indptr The offsets of the entries of each row in <code>indices</code> and <code>values</code>, i.e.
+     *               <code>numRows + 1</code> non-decreasing values starting from 0.
+     * @param indices The features of the entries, in <code>[0, M)</code>.
+     * @param values The values of the entries.
+     * @param absentAsMissing Whether the entries absent from a row are missing values (e.g. features which are not
+     *                        set), rather than zeros.
+     * @return The sparse dataset, which must be closed to release its native memory.
+     */
+    public static SparseExplanationDataset fromCsr(int numCols, int[] indptr, int[] indices, double[] values,
+                                                   boolean absentAsMissing) {
+        if (indptr.length < 2 || indptr[0] != 0) {
+            throw new IllegalArgumentException("indptr must start from 0 and have at least 2 values");
+        }
+        int numEntries = indptr[indptr.length - 1];
+        if (indices.length < numEntries || values.length < numEntries) {
+            throw new IllegalArgumentException(
+                    "indptr has " + numEntries + " entries, got " + indices.length + " indices and "
+                            + values.length + " values"
+            );
+        }
+        for (int i = 1; i < indptr.length; ++i) {
+            if (indptr[i] < indptr[i - 1]) {
+                throw new IllegalArgumentException("indptr must be non-decreasing, got " + indptr[i] + " at " + i);
+            }
+        }
+        for (int n = 0; n < numEntries; ++n) {
+            if (indices[n] < 0 || indices[n] >= numCols) {
+                throw new IllegalArgumentException("Feature " + indices[n] + " out of range [0, " + numCols + ")");
+            }
+        }
+
+        IntPointer indptrPtr = new IntPointer(indptr);
+        IntPointer indicesPtr = new IntPointer(Math.max(numEntries, 1));
+        DoublePointer valuesPtr = new DoublePointer(Math.max(numEntries, 1));
+        indicesPtr.put(indices, 0, numEntries);
+        valuesPtr.put(values, 0, numEntries);
+
+        return new SparseExplanationDataset(indptr.length - 1, numCols, absentAsMissing, indptrPtr, indicesPtr,
+                valuesPtr);
+    }
+
+    /**
+     * @return The number of rows (feature vectors).
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return The number of features of the feature vectors.
+     */
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * @return The number of (non-zero) entries stored.
+     */
+    public int getNumEntries() {
+        return indptr.get(numRows);
+    }
+
+    /**
+     * @return Whether the entries absent from a row are missing values, rather than zeros.
+     */
+    public boolean isAbsentAsMissing() {
+        return absentAsMissing;
+    }
+
+    /**
+     * @return The native <code>numRows + 1</code> offsets of the rows.
+     */
+    public IntPointer indptr() {
+        return indptr;
+    }
+
+    /**
+     * @return The native features of the entries.
+     */
+    public IntPointer indices() {
+        return indices;
+    }
+
+    /**
+     * @return The native values of the entries.
+     */
+    public DoublePointer values() {
+        return values;
+    }
+
+    /**
+     * Release the native memory owned by this dataset.
+     */
+    @Override
+    public void close() {
+        indptr.close();
+        indices.close();
+        values.close();
+    }
+}
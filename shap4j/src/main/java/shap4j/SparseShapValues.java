@@ -0,0 +1,88 @@
+package shap4j;
+
+/**
+ * The SHAP values of a set of feature vectors in a sparse (CSR) format, computed by
+ * {@link TreeExplainer#sparseShapValues(SparseExplanationDataset, boolean)}: only the features with a
+ * non-zero SHAP value (for at least one output) are stored, followed by the bias term, stored as feature
+ * <code>M</code>, where <code>M</code> is the number of features.
+ *
+ * The entries of row <code>i</code> are stored in <code>[indptr[i], indptr[i + 1])</code>: entry <code>n</code> has
+ * the feature <code>indices[n]</code>, in increasing order, and the SHAP value
+ * <code>values[n * K + k]</code> for output <code>k</code>, where <code>K</code> is the number of outputs of the model.
+ */
+public class SparseShapValues {
+    private final int numRows;
+    private final int numFeatures;
+    private final int numOutputs;
+    private final int[] indptr;
+    private final int[] indices;
+    private final double[] values;
+
+    SparseShapValues(int numRows, int numFeatures, int numOutputs, int[] indptr, int[] indices, double[] values) {
+        this.numRows = numRows;
+        this.numFeatures = numFeatures;
+        this.numOutputs = numOutputs;
+        this.indptr = indptr;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * @return The number of explained feature vectors.
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return The number of features <code>M</code> of the explained feature vectors.
+     */
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * @return The number of outputs <code>K</code> of the model.
+     */
+    public int getNumOutputs() {
+        return numOutputs;
+    }
+
+    /**
+     * @return The <code>numRows + 1</code> offsets of the entries of each row.
+     */
+    public int[] getIndptr() {
+        return indptr;
+    }
+
+    /**
+     * @return The features of the entries.
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return The SHAP values of the entries, <code>K</code> values per entry.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @param row The index of a row.
+     * @return The SHAP values of the row in the dense layout of {@link Explanation#getShapValues(int)}, i.e.
+     *         <code>(M + 1) * K</code> values including the bias term.
+     */
+    public double[] getShapValues(int row) {
+        if (row < 0 || row >= numRows) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of range [0, " + numRows + ")");
+        }
+
+        double[] dense = new double[(numFeatures + 1) * numOutputs];
+        for (int n = indptr[row]; n < indptr[row + 1]; ++n) {
+            System.arraycopy(values, n * numOutputs, dense, indices[n] * numOutputs, numOutputs);
+        }
+        return dense;
+    }
+}
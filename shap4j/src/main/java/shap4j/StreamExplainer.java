@@ -0,0 +1,142 @@
+package shap4j;
+
+import shap4j.shap.ExplanationDataset;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * The explanations of streams of feature vectors by a {@link TreeExplainer}, which delegates its
+ * <code>explainStream</code> entry points to this class.
+ */
+final class StreamExplainer {
+    private final TreeExplainer explainer;
+
+    StreamExplainer(TreeExplainer explainer) {
+        this.explainer = explainer;
+    }
+
+    /**
+     * @see TreeExplainer#explainStream(Iterator, int, int, boolean, ModelTransform, boolean, ObjLongConsumer)
+     */
+    long explainStream(Iterator<double[]> rows, int numFeatures, int chunkRows, boolean approximate,
+                       ModelTransform transform, boolean checkMissing, ObjLongConsumer<Explanation> consumer) {
+        if (numFeatures < 1 || chunkRows < 1) {
+            throw new IllegalArgumentException(
+                    "numFeatures and chunkRows must be positive, got " + numFeatures + " and " + chunkRows
+            );
+        }
+
+        if (explainer.getEngine() == Engine.JAVA) {
+            // the pure-Java engine reads the rows from the heap, so there is nothing to overlap with the kernel
+            long rowOffset = 0;
+            while (rows.hasNext()) {
+                List<double[]> chunk = new ArrayList<>(chunkRows);
+                while (chunk.size() < chunkRows && rows.hasNext()) {
+                    double[] row = rows.next();
+                    if (row.length != numFeatures) {
+                        throw new IllegalArgumentException("Expecting " + numFeatures + " features, got " + row.length);
+                    }
+                    chunk.add(row);
+                }
+
+                consumer.accept(explainer.explain(chunk.toArray(new double[0][]), approximate, transform, checkMissing),
+                        rowOffset);
+                rowOffset += chunk.size();
+            }
+            return rowOffset;
+        }
+
+        ExecutorService marshaller = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shap4j-stream-marshaller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExplanationDataset[] buffers = new ExplanationDataset[2];
+        Future<Integer> next = null;
+
+        try {
+            buffers[0] = ExplanationDataset.empty(chunkRows, numFeatures);
+            buffers[1] = ExplanationDataset.empty(chunkRows, numFeatures);
+
+            long rowOffset = 0;
+            int current = 0;
+            next = marshaller.submit(() -> fillChunk(buffers[0], rows, checkMissing));
+            for (int numRows = await(next); numRows > 0; numRows = await(next)) {
+                // copy the next chunk into the other buffer while this chunk is explained
+                final ExplanationDataset nextBuffer = buffers[1 - current];
+                next = numRows < chunkRows ? null : marshaller.submit(() -> fillChunk(nextBuffer, rows, checkMissing));
+
+                Explanation explanation;
+                if (numRows < chunkRows) {
+                    try (ExplanationDataset chunk = buffers[current].slice(0, numRows)) {
+                        explanation = explainer.explain(chunk, approximate, transform);
+                    }
+                } else {
+                    explanation = explainer.explain(buffers[current], approximate, transform);
+                }
+                consumer.accept(explanation, rowOffset);
+
+                rowOffset += numRows;
+                current = 1 - current;
+            }
+            return rowOffset;
+        } finally {
+            // the buffers can only be released once the background thread is done with them; if interrupted, they
+            // are left to the garbage collector, which only releases them once the background thread is gone
+            if (next != null) {
+                next.cancel(false);
+            }
+            marshaller.shutdown();
+            try {
+                marshaller.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                for (ExplanationDataset buffer : buffers) {
+                    if (buffer != null) buffer.close();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Copy the next rows of <code>rows</code> into <code>buffer</code>, until either is exhausted.
+     * @return The number of rows copied.
+     */
+    private static int fillChunk(ExplanationDataset buffer, Iterator<double[]> rows, boolean checkMissing) {
+        int numRows = 0;
+        while (numRows < buffer.getNumRows() && rows.hasNext()) {
+            buffer.setRow(numRows++, rows.next(), checkMissing);
+        }
+        return numRows;
+    }
+
+    /**
+     * Wait for the chunk copied by <code>future</code>, if any, rethrowing the exceptions raised while copying it.
+     * @return The number of rows of the chunk, or 0 if there is none.
+     */
+    private static int await(Future<Integer> future) {
+        if (future == null) {
+            return 0;
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading the stream", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to read the stream", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package shap4j;
+
+import java.util.Arrays;
+
+/**
+ * The <code>k</code> largest SHAP values (in absolute value) of each of a set of feature vectors for one output of the
+ * model, computed by {@link TreeExplainer#topKShapValues(double[][], boolean, boolean, int, int)}, e.g. to return the
+ * top contributing features of each prediction.
+ *
+ * The features of row <code>i</code> are stored in <code>featureIndex[i * k, (i + 1) * k)</code>, in decreasing order
+ * of absolute SHAP value (and of feature index for ties), and their SHAP values at the same indices of
+ * <code>values</code>. The bias term of each row, and the sum of the SHAP values of the features which are not
+ * selected (the remainder), are stored separately, so that the bias, the selected values and the remainder of a row
+ * sum up to its raw prediction.
+ */
+public class TopKShapValues {
+    private final int numRows;
+    private final int numFeatures;
+    private final int output;
+    private final int k;
+    private final int[] featureIndex;
+    private final double[] values;
+    private final double[] bias;
+    private final double[] remainder;
+
+    TopKShapValues(int numRows, int numFeatures, int output, int k) {
+        this.numRows = numRows;
+        this.numFeatures = numFeatures;
+        this.output = output;
+        this.k = k;
+        this.featureIndex = new int[numRows * k];
+        this.values = new double[numRows * k];
+        this.bias = new double[numRows];
+        this.remainder = new double[numRows];
+    }
+
+    /**
+     * Select the top features of row <code>row</code> from its SHAP values, laid out as in
+     * {@link ExplanationSession#shapValues(double[], boolean, boolean, double[], int)} from <code>offset</code> with
+     * <code>numOutputs</code> outputs, with the same order as the native <code>dense_tree_top_k</code>.
+     */
+    void setRow(int row, double[] phi, int offset, int numOutputs) {
+        int begin = row * k;
+        int size = 0;
+        double total = 0;
+
+        // insert each feature into the sorted top features, which are few
+        for (int j = 0; j < numFeatures; ++j) {
+            double value = phi[offset + j * numOutputs + output];
+            total += value;
+
+            int n = size;
+            while (n > 0 && Math.abs(value) > Math.abs(values[begin + n - 1])) {
+                --n;
+            }
+            if (n < k) {
+                int moved = Math.min(size, k - 1) - n;
+                System.arraycopy(featureIndex, begin + n, featureIndex, begin + n + 1, moved);
+                System.arraycopy(values, begin + n, values, begin + n + 1, moved);
+                featureIndex[begin + n] = j;
+                values[begin + n] = value;
+                size = Math.min(size + 1, k);
+            }
+        }
+
+        double selected = 0;
+        for (int n = begin; n < begin + k; ++n) {
+            selected += values[n];
+        }
+        bias[row] = phi[offset + numFeatures * numOutputs + output];
+        remainder[row] = total - selected;
+    }
+
+    /**
+     * @return The number of explained feature vectors.
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return The number of features <code>M</code> of the explained feature vectors.
+     */
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * @return The output of the model whose SHAP values are selected.
+     */
+    public int getOutput() {
+        return output;
+    }
+
+    /**
+     * @return The number <code>k</code> of features selected per row.
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return The selected features of all rows, <code>k</code> per row.
+     */
+    public int[] getFeatureIndex() {
+        return featureIndex;
+    }
+
+    /**
+     * @return The SHAP values of the selected features of all rows, <code>k</code> per row.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return The bias terms of all rows.
+     */
+    public double[] getBias() {
+        return bias;
+    }
+
+    /**
+     * @return The sums of the SHAP values of the features which are not selected, for all rows.
+     */
+    public double[] getRemainder() {
+        return remainder;
+    }
+
+    /**
+     * @param row The index of a row.
+     * @return A copy of the <code>k</code> selected features of the row.
+     */
+    public int[] getFeatureIndex(int row) {
+        checkRow(row);
+        return Arrays.copyOfRange(featureIndex, row * k, (row + 1) * k);
+    }
+
+    /**
+     * @param row The index of a row.
+     * @return A copy of the SHAP values of the <code>k</code> selected features of the row.
+     */
+    public double[] getValues(int row) {
+        checkRow(row);
+        return Arrays.copyOfRange(values, row * k, (row + 1) * k);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= numRows) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of range [0, " + numRows + ")");
+        }
+    }
+}
@@ -2,30 +2,103 @@ package shap4j;
 
 import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.IntPointer;
+import shap4j.jvm.JavaTreeEnsemble;
+import shap4j.jvm.JavaTreeShap;
+import shap4j.shap.CompiledTreeEnsemble;
+import shap4j.shap.ContributionCache;
 import shap4j.shap.ExplanationDataset;
+import shap4j.shap.FastTreeShapEnsemble;
+import shap4j.shap.FloatTreeEnsemble;
 import shap4j.shap.TreeEnsemble;
 import shap4j.shap.TreeShap;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
 
 /**
  * A SHAP explainer using Tree SHAP algorithms to explain the output of tree ensemble models.
  *
+ * An explainer holds the native memory of its model, which is released by {@link #close()} (or eventually by the
+ * garbage collector otherwise). To swap models under load, see {@link ModelRegistry}.
+ *
  * @see <a href="https://github.com/slundberg/shap/blob/master/shap/explainers/tree.py">Python interface for TreeExplainer</a>
  */
-public class TreeExplainer {
+public class TreeExplainer implements AutoCloseable {
     private static final int TREE_PATH_DEPENDENT_FEATURE = 1;
     private static final int IDENTITY_TRANSFORM = 0;
 
+    // per-thread native buffer backing the double[] output overloads, grown on demand up to SCRATCH_PHI_CAPACITY
+    // values and reused across calls. Larger outputs are written into a buffer allocated for the call, so that pooled
+    // threads, which are not tied to any explainer, never pin more than SCRATCH_PHI_CAPACITY values each
+    private static final ThreadLocal<DoublePointer> scratchPhi = new ThreadLocal<>();
+    private static final long SCRATCH_PHI_CAPACITY = 1 << 16;
+
+    private final Engine engine;
+    // exactly one of the two ensembles is set, depending on the engine
     private TreeEnsemble treeEnsemble;
+    private JavaTreeEnsemble javaEnsemble = null;
+    // per-thread kernels of the pure-Java engine, owning their scratch space
+    private final ThreadLocal<JavaTreeShap> javaKernels =
+            ThreadLocal.withInitial(() -> new JavaTreeShap(javaEnsemble));
+    // the ensemble repacked for the exact tree path dependent algorithm, if compile() has been called
+    private volatile CompiledTreeEnsemble compiledEnsemble = null;
+    private volatile ContributionCache contributionCache = null;
+    private volatile FastTreeShapEnsemble fastEnsemble = null;
+    // the ensemble compiled in single precision, created by the first call taking float feature vectors
+    private FloatTreeEnsemble floatEnsemble = null;
+
+    private int numThreads = 1;
+    private ForkJoinPool pool = null;
+    // the tiles of rows by trees of the blocked kernels, or 0 for the row-major kernels
+    private volatile int rowBlock = 0;
+    private volatile int treeBlock = 0;
+
+    private volatile FeatureDependence featureDependence = FeatureDependence.TREE_PATH_DEPENDENT;
+    // the background dataset of the interventional algorithms, marshalled once and shared by all explained datasets
+    private volatile ExplanationDataset background = null;
+
+    // the listener notified after each explained batch, or null for no instrumentation at all
+    private volatile ExplanationListener listener = null;
+    // the number of nodes reachable from the roots of the trees, counted by the first instrumented batch
+    private volatile long numTreeNodes = -1;
+    // the entry points delegated to collaborators, which use the state of this explainer
+    private final SparseExplainer sparseExplainer = new SparseExplainer(this);
+    private final IncrementalExplainer incrementalExplainer = new IncrementalExplainer(this);
+    private final ShapSummarizer summarizer = new ShapSummarizer(this);
+    private final StreamExplainer streamExplainer = new StreamExplainer(this);
+
+    private volatile boolean closed = false;
 
     private TreeExplainer(TreeEnsemble ensemble) {
+        this.engine = Engine.NATIVE;
         this.treeEnsemble = ensemble;
     }
 
+    private TreeExplainer(JavaTreeEnsemble ensemble) {
+        this.engine = Engine.JAVA;
+        this.javaEnsemble = ensemble;
+    }
+
     /**
      * Create a instance of <code>TreeExplainer</code> from binary data: <code>rawData</code>.
      * @see <a href="https://github.com/xydrolase/shap4j-data-converter/">shap4j-data-converter for creating the data</a>
@@ -33,7 +106,30 @@ public class TreeExplainer {
      *                based.
      */
     public TreeExplainer(byte[] rawData) {
-        this.treeEnsemble = TreeEnsemble.fromBytes(rawData);
+        this(rawData, Engine.NATIVE);
+    }
+
+    /**
+     * Create a instance of <code>TreeExplainer</code> from binary data: <code>rawData</code>, running the Tree SHAP
+     * algorithms with the given engine.
+     *
+     * With {@link Engine#JAVA}, the native library is not used at all: only the methods taking Java arrays (e.g.
+     * {@link #shapValues(double[][], boolean, boolean)}, {@link #predict(double[][], ModelTransform, boolean)} or
+     * {@link #explain(double[][], boolean, ModelTransform, boolean)}) are supported, with
+     * {@link FeatureDependence#TREE_PATH_DEPENDENT}; the other methods throw an
+     * <code>UnsupportedOperationException</code>. The single precision methods (e.g.
+     * {@link #shapValues(float[][], boolean, boolean)}) are also supported, but explain in double precision.
+     *
+     * @param rawData The binary raw data representing a tree ensemble model.
+     * @param engine The implementation of the Tree SHAP algorithms.
+     */
+    public TreeExplainer(byte[] rawData, Engine engine) {
+        this.engine = engine;
+        if (engine == Engine.JAVA) {
+            this.javaEnsemble = JavaTreeEnsemble.fromBytes(rawData);
+        } else {
+            this.treeEnsemble = TreeEnsemble.fromBytes(rawData);
+        }
     }
 
     /**
@@ -44,8 +140,24 @@ public class TreeExplainer {
      *                    ordering. See https://github.com/slundberg/shap/edit/master/shap/explainers/tree.py for
      *                    more details.
      * @return The SHAP values in a 2d array, which is of the same shape as <code>dataset.X()</code>.
+     * @throws IllegalArgumentException If the model has multiple outputs, see
+     *         {@link #shapValuesByOutput(ExplanationDataset, boolean)} instead.
      */
     public double[][] shapValues(ExplanationDataset dataset, boolean approximate) {
+        return shapValues(dataset, approximate, 0, 0);
+    }
+
+    /**
+     * Same as {@link #shapValues(ExplanationDataset, boolean)}, reporting to the listener the time and memory taken by
+     * the caller to marshal <code>dataset</code>, if any.
+     */
+    private double[][] shapValues(ExplanationDataset dataset, boolean approximate, long marshalNanos,
+                                  long marshalBytes) {
+        requireNativeEngine();
+        checkSingleOutput();
+        ExplanationListener listener = this.listener;
+        long start = listener == null ? 0 : System.nanoTime();
+
         int nRows = dataset.getNumRows();
         // the SHAP values, or phi, has an extra column
         int nCols = dataset.getNumCols() + 1;
@@ -54,13 +166,8 @@ public class TreeExplainer {
         // set initial values for the SHAP values to zero, as tree_shap_recursive adds to these values.
         BytePointer.memset(phi, 0, nRows  * nCols * 8);
 
-        if (approximate) {
-            TreeShap.dense_tree_saabas(phi, treeEnsemble, dataset);
-        } else {
-            TreeShap.dense_tree_shap(treeEnsemble, dataset, phi,
-                    TREE_PATH_DEPENDENT_FEATURE, IDENTITY_TRANSFORM, false
-            );
-        }
+        computeShapValues(dataset, approximate, phi);
+        long kernelEnd = listener == null ? 0 : System.nanoTime();
 
         double[][] values = new double[nRows][nCols - 1];
         int offset = 0;
@@ -68,12 +175,146 @@ public class TreeExplainer {
             phi.position(offset).limit(offset + nCols).asBuffer().get(values[i], 0, nCols - 1);
         }
 
+        long datasetBytes = listener == null ? 0 : dataset.getNativeBytes();
         dataset.close();
         phi.close();
 
+        if (listener != null) {
+            long phiBytes = (long) nRows * nCols * Double.BYTES;
+            report(listener, "shapValues", nRows, approximate, marshalNanos, kernelEnd - start,
+                    System.nanoTime() - kernelEnd, marshalBytes + phiBytes, datasetBytes + phiBytes);
+        }
         return values;
     }
 
+    /**
+     * Compute the SHAP values for a given <code>ExplanationDataset</code>, writing them into the native buffer
+     * <code>out</code> without any intermediate copy.
+     *
+     * The values are laid out row-major: the SHAP value of feature <code>j</code> for output <code>k</code> of row
+     * <code>i</code> is stored at <code>out[(i * (M + 1) + j) * K + k]</code>, where <code>M = dataset.getNumCols()</code>
+     * and <code>K</code> is the number of outputs of the model, and the bias term is stored as feature <code>M</code>.
+     * For models with a single output, this simplifies to <code>out[i * (M + 1) + j]</code>. The buffer is written
+     * starting from its current position; any previous content of the written region is overwritten.
+     *
+     * Unlike {@link #shapValues(ExplanationDataset, boolean)}, <code>dataset</code> is not closed, so both the dataset
+     * and <code>out</code> can be reused across calls.
+     *
+     * @param dataset An instance of <code>ExplanationDataset</code>.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param out The native buffer receiving the SHAP values, which must hold at least
+     *            {@link #getOutputSize(ExplanationDataset)} values from its position.
+     */
+    public void shapValues(ExplanationDataset dataset, boolean approximate, DoublePointer out) {
+        requireNativeEngine();
+        long size = getOutputSize(dataset);
+        if (out.capacity() > 0 && out.capacity() - out.position() < size) {
+            throw new IllegalArgumentException(
+                    "Output buffer has " + (out.capacity() - out.position()) + " values remaining, " + size + " required"
+            );
+        }
+
+        // set initial values for the SHAP values to zero, as tree_shap_recursive adds to these values. zero() is
+        // used instead of memset() since it takes the position of the (typed) pointer into account.
+        long limit = out.limit();
+        out.limit(out.position() + size).zero();
+        out.limit(limit);
+
+        computeShapValues(dataset, approximate, out);
+    }
+
+    /**
+     * Compute the SHAP values for a given <code>ExplanationDataset</code>, writing them into <code>out</code>
+     * starting from its current position, using the layout described in
+     * {@link #shapValues(ExplanationDataset, boolean, DoublePointer)}. The position of <code>out</code> is not
+     * modified.
+     *
+     * A direct buffer is written in place without any intermediate copy, and must therefore be in the native byte
+     * order; a heap buffer is written through its backing array as in
+     * {@link #shapValues(ExplanationDataset, boolean, double[], int)}.
+     *
+     * @param dataset An instance of <code>ExplanationDataset</code>, which is not closed by this method.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param out The buffer receiving the SHAP values, which must have at least
+     *            {@link #getOutputSize(ExplanationDataset)} values remaining.
+     */
+    public void shapValues(ExplanationDataset dataset, boolean approximate, DoubleBuffer out) {
+        long size = getOutputSize(dataset);
+        if (out.remaining() < size) {
+            throw new IllegalArgumentException(
+                    "Output buffer has " + out.remaining() + " values remaining, " + size + " required"
+            );
+        }
+
+        if (out.isDirect()) {
+            // the native kernels write doubles in the native byte order, whatever the order of the buffer
+            if (out.order() != ByteOrder.nativeOrder()) {
+                throw new IllegalArgumentException(
+                        "Expecting an output buffer in the native byte order " + ByteOrder.nativeOrder() + ", got "
+                                + out.order()
+                );
+            }
+            // wrap the address of the direct buffer; slice() starts the view at the position of out, as
+            // DoublePointer(DoubleBuffer) does not handle non-zero positions reliably
+            shapValues(dataset, approximate, new DoublePointer(out.slice()));
+        } else if (out.hasArray()) {
+            shapValues(dataset, approximate, out.array(), out.arrayOffset() + out.position());
+        } else {
+            throw new IllegalArgumentException("Output buffer must either be direct or backed by an array");
+        }
+    }
+
+    /**
+     * Compute the SHAP values for a given <code>ExplanationDataset</code>, writing them into <code>out</code>
+     * starting from index <code>offset</code>, using the layout described in
+     * {@link #shapValues(ExplanationDataset, boolean, DoublePointer)}.
+     *
+     * The native kernels write into a per-thread buffer that is reused across calls, from which the SHAP values are
+     * copied into <code>out</code> at once; no memory is allocated once that buffer is large enough.
+     *
+     * @param dataset An instance of <code>ExplanationDataset</code>, which is not closed by this method.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param out The array receiving the SHAP values.
+     * @param offset The index in <code>out</code> at which the SHAP values of the first row are written.
+     */
+    public void shapValues(ExplanationDataset dataset, boolean approximate, double[] out, int offset) {
+        long size = getOutputSize(dataset);
+        if (offset < 0 || out.length - offset < size) {
+            throw new IllegalArgumentException(
+                    "Output array has " + (out.length - offset) + " values remaining, " + size + " required"
+            );
+        }
+
+        if (size > SCRATCH_PHI_CAPACITY) {
+            try (DoublePointer phi = new DoublePointer(size)) {
+                shapValues(dataset, approximate, phi);
+                phi.get(out, offset, (int) size);
+            }
+            return;
+        }
+
+        DoublePointer phi = scratchPhi.get();
+        if (phi == null || phi.capacity() < size) {
+            long capacity = Math.min(Math.max(size, phi == null ? 0 : 2 * phi.capacity()), SCRATCH_PHI_CAPACITY);
+            if (phi != null) phi.close();
+            phi = new DoublePointer(capacity);
+            scratchPhi.set(phi);
+        }
+
+        shapValues(dataset, approximate, phi.position(0));
+        phi.get(out, offset, (int) size);
+    }
+
+    /**
+     * @param dataset An instance of <code>ExplanationDataset</code>.
+     * @return The number of SHAP values computed for <code>dataset</code>, i.e. <code>(M + 1)</code> per row, including
+     *         the bias term, for each output of the model.
+     */
+    public long getOutputSize(ExplanationDataset dataset) {
+        requireNativeEngine();
+        return (long) dataset.getNumRows() * (dataset.getNumCols() + 1) * treeEnsemble.num_outputs();
+    }
+
     /**
      * Compute the SHAP values for a given <code>ExplanationDataset</code> using the exact algorithm.
      * @param dataset An instance of <code>ExplanationDataset</code>.
@@ -93,17 +334,316 @@ public class TreeExplainer {
      * @param checkMissing Whether to check missing values in <code>matrix</code>. If set to false, all values in
      *                     <code>matrix</code> are assumed to be non-missing (i.e. not <code>NaN</code>.)
      * @return A 2d matrix containing the SHAP values, which should be of the same shape as the input <code>matrix</code>.
+     * @throws IllegalArgumentException If the model has multiple outputs, see
+     *         {@link #shapValuesByOutput(double[][], boolean, boolean)} instead.
      */
     public double[][] shapValues(double [][] matrix, boolean approximate, boolean checkMissing) {
         assert matrix.length > 0;
+        checkSingleOutput();
+
+        if (engine == Engine.JAVA) {
+            int numFeatures = matrix[0].length;
+            double[] phi = computeJavaShapValues(matrix, approximate, checkMissing, null);
 
-        if (treeEnsemble.num_outputs() != 1) {
-            throw new IllegalArgumentException("Currently only supporting models with num_outputs == 1");
+            double[][] values = new double[matrix.length][];
+            for (int i = 0; i < matrix.length; ++i) {
+                values[i] = Arrays.copyOfRange(phi, i * (numFeatures + 1), i * (numFeatures + 1) + numFeatures);
+            }
+            return values;
         }
 
+        ExplanationListener listener = this.listener;
+        long start = listener == null ? 0 : System.nanoTime();
         ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, checkMissing);
+        if (listener == null) {
+            return shapValues(dataset, approximate);
+        }
+
+        return shapValues(dataset, approximate, System.nanoTime() - start, dataset.getNativeBytes());
+    }
+
+    /**
+     * Compute the SHAP values for a given matrix of single precision feature vectors, in single precision, writing
+     * them into <code>out</code> starting from index <code>offset</code>, using the layout described in
+     * {@link #shapValues(ExplanationDataset, boolean, DoublePointer)}.
+     *
+     * The single precision kernels run over a copy of the trees compiled in single precision (see
+     * {@link FloatTreeEnsemble}), which is created by the first call. Both the trees and the unique paths of the Tree
+     * SHAP algorithm take half the memory of the double precision kernels, at the cost of a relative error of about
+     * <code>1e-6</code> in the SHAP values. Features are compared with thresholds rounded to single precision, as
+     * done by models trained in single precision, e.g. by XGBoost or LightGBM.
+     *
+     * Only the {@link FeatureDependence#TREE_PATH_DEPENDENT} feature dependence is supported. The rows are explained
+     * in parallel if multiple threads are configured. With {@link Engine#JAVA}, the feature vectors are explained in
+     * double precision, and the SHAP values are rounded to single precision.
+     *
+     * @param matrix The 2d matrix from which the SHAP values are computed. Each row in this matrix should correspond
+     *               to a feature vector.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param checkMissing Whether to check missing values in <code>matrix</code>. If set to false, all values in
+     *                     <code>matrix</code> are assumed to be non-missing (i.e. not <code>NaN</code>.)
+     * @param out The array receiving the SHAP values, which must have at least <code>(M + 1) * K</code> values per row
+     *            remaining from <code>offset</code>.
+     * @param offset The index in <code>out</code> at which the SHAP values of the first row are written.
+     */
+    public void shapValues(float[][] matrix, boolean approximate, boolean checkMissing, float[] out, int offset) {
+        assert matrix.length > 0;
+        if (!approximate && featureDependence != FeatureDependence.TREE_PATH_DEPENDENT) {
+            throw new IllegalStateException("Single precision SHAP values require the TREE_PATH_DEPENDENT feature dependence");
+        }
+
+        int nRows = matrix.length;
+        int numFeatures = matrix[0].length;
+        int rowStride = (numFeatures + 1) * getNumOutputs();
+        long size = (long) nRows * rowStride;
+        if (offset < 0 || out.length - offset < size) {
+            throw new IllegalArgumentException(
+                    "Output array has " + (out.length - offset) + " values remaining, " + size + " required"
+            );
+        }
+
+        if (engine == Engine.JAVA) {
+            double[][] doubleMatrix = new double[nRows][];
+            for (int i = 0; i < nRows; ++i) {
+                doubleMatrix[i] = new double[matrix[i].length];
+                for (int j = 0; j < matrix[i].length; ++j) {
+                    doubleMatrix[i][j] = matrix[i][j];
+                }
+            }
+
+            double[] phi = computeJavaShapValues(doubleMatrix, approximate, checkMissing, null);
+            for (int i = 0; i < phi.length; ++i) {
+                out[offset + i] = (float) phi[i];
+            }
+            return;
+        }
+
+        FloatTreeEnsemble trees = getFloatEnsemble();
+        try (FloatPointer x = new FloatPointer((long) nRows * numFeatures);
+             FloatPointer phi = new FloatPointer(size)) {
+            for (int i = 0; i < nRows; ++i) {
+                if (matrix[i].length != numFeatures) {
+                    throw new IllegalArgumentException(
+                            "Row " + i + " has " + matrix[i].length + " features, expecting " + numFeatures
+                    );
+                }
+                x.position((long) i * numFeatures).put(matrix[i]);
+            }
+            x.position(0);
+
+            // the kernel zero-initializes its output
+            forEachRange(nRows, (begin, end) ->
+                    TreeShap.dense_tree_shap_float(trees, x.getPointer((long) begin * numFeatures), end - begin,
+                            numFeatures, checkMissing, approximate, phi.getPointer((long) begin * rowStride))
+            );
+
+            phi.get(out, offset, (int) size);
+        }
+    }
+
+    /**
+     * Compute the SHAP values for a given matrix of single precision feature vectors, in single precision.
+     * @param matrix The 2d matrix from which the SHAP values are computed. Each row in this matrix should correspond
+     *               to a feature vector.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param checkMissing Whether to check missing values in <code>matrix</code>. If set to false, all values in
+     *                     <code>matrix</code> are assumed to be non-missing (i.e. not <code>NaN</code>.)
+     * @return A 2d matrix containing the SHAP values, which should be of the same shape as the input <code>matrix</code>.
+     * @throws IllegalArgumentException If the model has multiple outputs, see
+     *         {@link #shapValues(float[][], boolean, boolean, float[], int)} instead.
+     * @see #shapValues(float[][], boolean, boolean, float[], int)
+     */
+    public float[][] shapValues(float[][] matrix, boolean approximate, boolean checkMissing) {
+        assert matrix.length > 0;
+        checkSingleOutput();
+
+        int numFeatures = matrix[0].length;
+        float[] phi = new float[matrix.length * (numFeatures + 1)];
+        shapValues(matrix, approximate, checkMissing, phi, 0);
+
+        float[][] values = new float[matrix.length][];
+        for (int i = 0; i < matrix.length; ++i) {
+            values[i] = Arrays.copyOfRange(phi, i * (numFeatures + 1), i * (numFeatures + 1) + numFeatures);
+        }
+        return values;
+    }
+
+    /**
+     * Compute SHAP values for a given single precision feature vector: <code>vector</code>, in single precision.
+     * @param vector A feature vector compatible with the tree ensemble model.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param checkMissing Whether to check missing values in the feature vector (<code>NaN</code>'s)
+     * @return An array containing SHAP values, which is of the same length of the input <code>vector</code>.
+     * @see #shapValues(float[][], boolean, boolean, float[], int)
+     */
+    public float[] shapValues(float[] vector, boolean approximate, boolean checkMissing) {
+        float[][] matrix = {vector};
+
+        return shapValues(matrix, approximate, checkMissing)[0];
+    }
+
+    /**
+     * Compute the SHAP values for a given sparse dataset, in the dense layout described in
+     * {@link #shapValues(ExplanationDataset, boolean, DoublePointer)}. Each row is scattered into a dense scratch
+     * vector by the native code right before being explained, so the input is marshalled in time proportional to its
+     * number of entries; see {@link #sparseShapValues(SparseExplanationDataset, boolean)} for a sparse output as well.
+     *
+     * Only the {@link FeatureDependence#TREE_PATH_DEPENDENT} feature dependence is supported. The rows are explained
+     * in parallel if multiple threads are configured.
+     *
+     * @param dataset A sparse dataset, which is not closed by this method.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @return The SHAP values of all rows, including the bias terms, <code>(M + 1) * K</code> values per row.
+     */
+    public double[] shapValues(SparseExplanationDataset dataset, boolean approximate) {
+        return sparseExplainer.shapValues(dataset, approximate);
+    }
+
+    /**
+     * Compute the SHAP values for a given sparse dataset, in a sparse layout which only holds the features with a
+     * non-zero SHAP value, and the bias terms (see {@link SparseShapValues}). Only the features split on by the trees
+     * can have a non-zero SHAP value, so both the input and the output of a row are marshalled in time independent of
+     * the number of features.
+     *
+     * @param dataset A sparse dataset, which is not closed by this method.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @return The sparse SHAP values of all rows.
+     * @see #shapValues(SparseExplanationDataset, boolean)
+     */
+    public SparseShapValues sparseShapValues(SparseExplanationDataset dataset, boolean approximate) {
+        return sparseExplainer.sparseShapValues(dataset, approximate);
+    }
+
+    /**
+     * Compute the SHAP values of every output of the model for a given <code>ExplanationDataset</code>, in a single
+     * pass over the trees.
+     * @param dataset An instance of <code>ExplanationDataset</code>, which is not closed by this method.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @return The SHAP values in a 3d array of shape <code>[rows][K][M + 1]</code>, where <code>K</code> is the number
+     *         of outputs of the model and <code>M = dataset.getNumCols()</code>; the last value of each output is the
+     *         bias term.
+     */
+    public double[][][] shapValuesByOutput(ExplanationDataset dataset, boolean approximate) {
+        double[] phi = new double[(int) getOutputSize(dataset)];
+        shapValues(dataset, approximate, phi, 0);
+
+        return byOutput(phi, dataset.getNumRows(), dataset.getNumCols() + 1, treeEnsemble.num_outputs());
+    }
+
+    /**
+     * Transpose flat SHAP values from the native layout, i.e. <code>[rows][M + 1][K]</code> where the outputs of each
+     * feature are interleaved, to <code>[rows][K][M + 1]</code>.
+     */
+    private static double[][][] byOutput(double[] phi, int nRows, int width, int numOutputs) {
+        double[][][] values = new double[nRows][numOutputs][width];
+        int offset = 0;
+        for (int i = 0; i < nRows; ++i) {
+            for (int j = 0; j < width; ++j) {
+                for (int k = 0; k < numOutputs; ++k) {
+                    values[i][k][j] = phi[offset++];
+                }
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Compute the SHAP values of every output of the model for a given 2-dimensional matrix: <code>matrix</code>.
+     * @param matrix The 2d matrix from which the SHAP values are computed. Each row in this matrix should correspond
+     *               to a feature vector.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param checkMissing Whether to check missing values in <code>matrix</code>. If set to false, all values in
+     *                     <code>matrix</code> are assumed to be non-missing (i.e. not <code>NaN</code>.)
+     * @return The SHAP values in a 3d array, as described in {@link #shapValuesByOutput(ExplanationDataset, boolean)}.
+     */
+    public double[][][] shapValuesByOutput(double[][] matrix, boolean approximate, boolean checkMissing) {
+        assert matrix.length > 0;
+
+        if (engine == Engine.JAVA) {
+            double[] phi = computeJavaShapValues(matrix, approximate, checkMissing, null);
+            return byOutput(phi, matrix.length, matrix[0].length + 1, javaEnsemble.getNumOutputs());
+        }
+
+        try (ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, checkMissing)) {
+            return shapValuesByOutput(dataset, approximate);
+        }
+    }
+
+    /**
+     * @return The number of outputs of the model, e.g. the number of classes of a multiclass classifier.
+     */
+    public int getNumOutputs() {
+        checkOpen();
+        return engine == Engine.JAVA ? javaEnsemble.getNumOutputs() : treeEnsemble.num_outputs();
+    }
+
+    /**
+     * @return The implementation of the Tree SHAP algorithms used by this explainer.
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return The number of trees of the model.
+     */
+    public int getNumTrees() {
+        checkOpen();
+        return engine == Engine.JAVA ? javaEnsemble.getNumTrees() : treeEnsemble.tree_limit();
+    }
+
+    /**
+     * @return The maximum number of nodes of a tree of the model, for which each tree is padded in the
+     *         <code>.shap4j</code> format.
+     */
+    public int getMaxNodes() {
+        checkOpen();
+        return engine == Engine.JAVA ? javaEnsemble.getMaxNodes() : treeEnsemble.max_nodes();
+    }
+
+    /**
+     * @return The native memory held by the model, in bytes: the arrays of the trees (see
+     *         {@link TreeEnsemble#getNativeBytes()}) and the ensembles compiled from them, if any. This is 0 with
+     *         {@link Engine#JAVA}, whose trees are held on the Java heap.
+     */
+    public long getNativeFootprint() {
+        checkOpen();
+        if (engine == Engine.JAVA) {
+            return 0;
+        }
+
+        long bytes = treeEnsemble.getNativeBytes();
+        CompiledTreeEnsemble compiled = compiledEnsemble;
+        FastTreeShapEnsemble fast = fastEnsemble;
+        FloatTreeEnsemble floats;
+        synchronized (this) {
+            floats = floatEnsemble;
+        }
+        if (compiled != null) bytes += compiled.native_bytes();
+        if (fast != null) bytes += fast.native_bytes();
+        if (floats != null) bytes += floats.native_bytes();
+        return bytes;
+    }
+
+    /**
+     * Set the listener notified after each batch explained by {@link #shapValues(double[][], boolean, boolean)},
+     * {@link #shapValues(ExplanationDataset, boolean)}, {@link #explain(double[][], boolean, ModelTransform, boolean)}
+     * and {@link #explain(ExplanationDataset, boolean, ModelTransform)} with the native engine, with the timings of
+     * its phases and the native memory it used (see {@link ExplanationMetrics}). Without listener, no clock is read
+     * and no metric is computed.
+     * @param listener The listener, or <code>null</code> to disable the instrumentation, which is the default.
+     * @see TreeExplainerMetrics
+     */
+    public void setListener(ExplanationListener listener) {
+        this.listener = listener;
+    }
 
-        return shapValues(dataset, approximate);
+    /**
+     * @return The listener set by {@link #setListener(ExplanationListener)}, or <code>null</code> if there is none.
+     */
+    public ExplanationListener getListener() {
+        return listener;
     }
 
     /**
@@ -146,47 +686,1292 @@ public class TreeExplainer {
     }
 
     /**
-     * Create a <code>TreeExplainer</code> from a resource file of the <code>.shap4j</code> format.
-     * @param resource The path to the resource file, e.g. <code>"/boston.shap4j"</code> if the file is located under
-     *                 <code>src/java/main/resources</code>.
-     * @return An <code>TreeExplainer</code> instance corresponding to the tree model contained by the resource file.
-     * @throws IOException
-     * @see <a href="https://github.com/xydrolase/shap4j-data-converter">shap4j-data-converter to create the .shap4j file</a>
+     * Compute the SHAP interaction values for a given <code>ExplanationDataset</code>, writing them into the native
+     * buffer <code>out</code> starting from its current position.
+     *
+     * The interaction values of each row form a symmetric <code>(M + 1) x (M + 1)</code> matrix, where
+     * <code>M = dataset.getNumCols()</code>, and are laid out row-major: the interaction value between features
+     * <code>j</code> and <code>l</code> for output <code>k</code> of row <code>i</code> is stored at
+     * <code>out[((i * (M + 1) + j) * (M + 1) + l) * num_outputs + k]</code>. The main effects are on the diagonal, and
+     * the bias term at <code>[M][M]</code>, so that each row of a matrix sums up to the SHAP value of its feature.
+     *
+     * Computing interaction values is about <code>2 M</code> times more expensive than computing SHAP values. With
+     * multiple threads (see {@link #setNumThreads(int)}), the rows are explained in parallel as for SHAP values; if
+     * there are fewer rows than threads, the features on which the interactions are conditioned are split across the
+     * threads instead, in which case the diagonal terms may differ from a single-threaded run by rounding errors.
+     *
+     * Interaction values are only supported with {@link FeatureDependence#TREE_PATH_DEPENDENT}.
+     *
+     * @param dataset An instance of <code>ExplanationDataset</code>, which is not closed by this method.
+     * @param out The native buffer receiving the interaction values, which must hold at least
+     *            {@link #getInteractionOutputSize(ExplanationDataset)} values from its position.
      */
-    public static TreeExplainer fromResource(String resource) throws IOException {
-        try(InputStream is = TreeExplainer.class.getResourceAsStream(resource)) {
-            int bytesRemaining = is.available();
-            int readOffset = 0;
-            byte[] data = new byte[bytesRemaining];
+    public void shapInteractionValues(ExplanationDataset dataset, DoublePointer out) {
+        requireNativeEngine();
+        if (featureDependence != FeatureDependence.TREE_PATH_DEPENDENT) {
+            throw new IllegalStateException("SHAP interaction values require the TREE_PATH_DEPENDENT feature dependence");
+        }
 
-            while (bytesRemaining > 0) {
-                int bytesRead = is.read(data, readOffset, bytesRemaining);
-                if (bytesRead == -1) {
-                    // InputStream.read() returns -1 if it reaches the end of the stream.
-                    bytesRemaining = 0;
-                } else {
-                    bytesRemaining -= bytesRead;
-                    readOffset += bytesRead;
-                }
-            }
+        long size = getInteractionOutputSize(dataset);
+        if (out.capacity() > 0 && out.capacity() - out.position() < size) {
+            throw new IllegalArgumentException(
+                    "Output buffer has " + (out.capacity() - out.position()) + " values remaining, " + size + " required"
+            );
+        }
 
-            return new TreeExplainer(data);
+        // the off-diagonal interaction values are added to the output, which therefore starts from zero
+        long limit = out.limit();
+        out.limit(out.position() + size).zero();
+        out.limit(limit);
+
+        computeInteractionValues(dataset, out);
+    }
+
+    /**
+     * Compute the SHAP interaction values for a given <code>ExplanationDataset</code>.
+     * @param dataset An instance of <code>ExplanationDataset</code>, which is not closed by this method.
+     * @return The interaction values, in the layout described in
+     *         {@link #shapInteractionValues(ExplanationDataset, DoublePointer)}.
+     */
+    public double[] shapInteractionValues(ExplanationDataset dataset) {
+        long size = getInteractionOutputSize(dataset);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    size + " interaction values do not fit in an array, use a DoublePointer instead"
+            );
         }
-        catch (NullPointerException e) {
-            return null;
+
+        try (DoublePointer out = new DoublePointer(size)) {
+            shapInteractionValues(dataset, out);
+
+            double[] values = new double[(int) size];
+            out.get(values);
+            return values;
         }
     }
 
     /**
-     * Create a <code>TreeExplainer</code> from a local file of the <code>.shap4j</code> format.
-     * @param filePath The file path to the <code>.shap4j</code> file.
-     * @return An <code>TreeExplainer</code> instance corresponding to the tree model contained by the local file.
-     * @throws IOException
-     * @see <a href="https://github.com/xydrolase/shap4j-data-converter">shap4j-data-converter to create the .shap4j file</a>
+     * Compute the SHAP interaction values for a given 2-dimensional matrix: <code>matrix</code>.
+     * @param matrix The 2d matrix from which the interaction values are computed. Each row in this matrix should
+     *               correspond to a feature vector.
+     * @param checkMissing Whether to check missing values in <code>matrix</code>. If set to false, all values in
+     *                     <code>matrix</code> are assumed to be non-missing (i.e. not <code>NaN</code>.)
+     * @return The interaction values, in the layout described in
+     *         {@link #shapInteractionValues(ExplanationDataset, DoublePointer)}.
      */
-    public static TreeExplainer fromFile(String filePath) throws IOException {
-        byte[] data = Files.readAllBytes(new File(filePath).toPath());
+    public double[] shapInteractionValues(double[][] matrix, boolean checkMissing) {
+        assert matrix.length > 0;
+        requireNativeEngine();
 
-        return new TreeExplainer(data);
+        try (ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, checkMissing)) {
+            return shapInteractionValues(dataset);
+        }
+    }
+
+    /**
+     * @param dataset An instance of <code>ExplanationDataset</code>.
+     * @return The number of SHAP interaction values computed for <code>dataset</code>, i.e. <code>(M + 1)^2</code>
+     *         per row for each output of the model.
+     */
+    public long getInteractionOutputSize(ExplanationDataset dataset) {
+        requireNativeEngine();
+        long width = dataset.getNumCols() + 1;
+        return dataset.getNumRows() * width * width * treeEnsemble.num_outputs();
+    }
+
+    /**
+     * Compute the predictions of the model for a given <code>ExplanationDataset</code>.
+     * @param dataset An instance of <code>ExplanationDataset</code>, which is not closed by this method.
+     * @param transform The transform applied to the raw output of the model.
+     * @return The predictions, laid out row-major with <code>num_outputs</code> values per row, i.e. one prediction
+     *         per row for models with a single output.
+     */
+    public double[] predict(ExplanationDataset dataset, ModelTransform transform) {
+        requireNativeEngine();
+        int nRows = dataset.getNumRows();
+        int numOutputs = treeEnsemble.num_outputs();
+
+        try (DoublePointer predictions = new DoublePointer((long) nRows * numOutputs)) {
+            // dense_tree_predict adds to the predictions, which therefore start from zero
+            predictions.zero();
+
+            forEachSlice(dataset, (slice, rowOffset) ->
+                    TreeShap.dense_tree_predict(predictions.getPointer((long) rowOffset * numOutputs),
+                            doubleEnsemble(), slice, transform.getCode(), slice.isCheckMissing())
+            );
+
+            double[] values = new double[nRows * numOutputs];
+            predictions.get(values);
+            return values;
+        }
+    }
+
+    /**
+     * Compute the predictions of the model for a given 2-dimensional matrix: <code>matrix</code>.
+     * @param matrix The 2d matrix for which the predictions are computed. Each row in this matrix should correspond to
+     *               a feature vector.
+     * @param transform The transform applied to the raw output of the model.
+     * @param checkMissing Whether to check missing values in <code>matrix</code>. If set to false, all values in
+     *                     <code>matrix</code> are assumed to be non-missing (i.e. not <code>NaN</code>.)
+     * @return The predictions, laid out as in {@link #predict(ExplanationDataset, ModelTransform)}.
+     */
+    public double[] predict(double[][] matrix, ModelTransform transform, boolean checkMissing) {
+        assert matrix.length > 0;
+
+        if (engine == Engine.JAVA) {
+            int numOutputs = javaEnsemble.getNumOutputs();
+            double[] predictions = new double[matrix.length * numOutputs];
+            forEachJavaRow(matrix.length, (kernel, i) -> {
+                kernel.predict(matrix[i], checkMissing, predictions, i * numOutputs);
+                for (int k = i * numOutputs; k < (i + 1) * numOutputs; ++k) {
+                    predictions[k] = transform.apply(predictions[k]);
+                }
+            });
+            return predictions;
+        }
+
+        try (ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, checkMissing)) {
+            return predict(dataset, transform);
+        }
+    }
+
+    /**
+     * Compute both the predictions and the SHAP values for a given <code>ExplanationDataset</code>, with a single
+     * native call per slice of rows (see {@link #setNumThreads(int)}).
+     *
+     * The SHAP values always explain the raw output of the model, whatever <code>transform</code> is: the SHAP values
+     * of a row (including the bias term) sum up to its prediction with {@link ModelTransform#IDENTITY}. They are
+     * computed with the feature dependence of this explainer; only rows (and not background rows) are explained in
+     * parallel.
+     *
+     * @param dataset An instance of <code>ExplanationDataset</code>, which is not closed by this method.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param transform The transform applied to the raw output of the model for the predictions.
+     * @return The predictions and SHAP values of all rows.
+     */
+    public Explanation explain(ExplanationDataset dataset, boolean approximate, ModelTransform transform) {
+        return explain(dataset, approximate, transform, 0, 0);
+    }
+
+    /**
+     * Same as {@link #explain(ExplanationDataset, boolean, ModelTransform)}, reporting to the listener the time and
+     * memory taken by the caller to marshal <code>dataset</code>, if any, which is then released by the caller.
+     */
+    private Explanation explain(ExplanationDataset dataset, boolean approximate, ModelTransform transform,
+                                long marshalNanos, long marshalBytes) {
+        requireNativeEngine();
+        ExplanationListener listener = this.listener;
+        long start = listener == null ? 0 : System.nanoTime();
+        int nRows = dataset.getNumRows();
+        int numFeatures = dataset.getNumCols();
+        int numOutputs = treeEnsemble.num_outputs();
+        long rowStride = (long) (numFeatures + 1) * numOutputs;
+
+        FeatureDependence dependence = approximate ? FeatureDependence.TREE_PATH_DEPENDENT : featureDependence;
+        ExplanationDataset data = attachBackground(dataset, dependence);
+
+        try (DoublePointer predictions = new DoublePointer((long) nRows * numOutputs);
+             DoublePointer phi = new DoublePointer(nRows * rowStride)) {
+            // both outputs are zero-initialized by the native code
+            forEachSlice(data, (slice, rowOffset) ->
+                    TreeShap.dense_tree_predict_and_shap(predictions.getPointer((long) rowOffset * numOutputs),
+                            phi.getPointer(rowOffset * rowStride), doubleEnsemble(), compiledEnsemble, fastEnsemble,
+                            contributionCache, slice, dependence.getCode(), transform.getCode(), approximate,
+                            rowBlock, treeBlock, slice.isCheckMissing())
+            );
+            long kernelEnd = listener == null ? 0 : System.nanoTime();
+
+            double[] predictionValues = new double[nRows * numOutputs];
+            double[] shapValues = new double[(int) (nRows * rowStride)];
+            predictions.get(predictionValues);
+            phi.get(shapValues);
+
+            if (listener != null) {
+                long outputBytes = (nRows * rowStride + (long) nRows * numOutputs) * Double.BYTES;
+                report(listener, "explain", nRows, approximate, marshalNanos, kernelEnd - start,
+                        System.nanoTime() - kernelEnd, marshalBytes + outputBytes, marshalBytes + outputBytes);
+            }
+            return new Explanation(nRows, numFeatures, numOutputs, predictionValues, shapValues);
+        } finally {
+            if (data != dataset) data.close();
+        }
+    }
+
+    /**
+     * Compute both the predictions and the SHAP values for a given 2-dimensional matrix: <code>matrix</code>, which
+     * is copied to the native memory only once.
+     * @param matrix The 2d matrix to be explained. Each row in this matrix should correspond to a feature vector.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param transform The transform applied to the raw output of the model for the predictions.
+     * @param checkMissing Whether to check missing values in <code>matrix</code>. If set to false, all values in
+     *                     <code>matrix</code> are assumed to be non-missing (i.e. not <code>NaN</code>.)
+     * @return The predictions and SHAP values of all rows.
+     * @see #explain(ExplanationDataset, boolean, ModelTransform)
+     */
+    public Explanation explain(double[][] matrix, boolean approximate, ModelTransform transform,
+                               boolean checkMissing) {
+        assert matrix.length > 0;
+
+        if (engine == Engine.JAVA) {
+            int numOutputs = javaEnsemble.getNumOutputs();
+            double[] predictions = new double[matrix.length * numOutputs];
+            double[] phi = computeJavaShapValues(matrix, approximate, checkMissing, predictions);
+            for (int k = 0; k < predictions.length; ++k) {
+                predictions[k] = transform.apply(predictions[k]);
+            }
+            return new Explanation(matrix.length, matrix[0].length, numOutputs, predictions, phi);
+        }
+
+        ExplanationListener listener = this.listener;
+        long start = listener == null ? 0 : System.nanoTime();
+        try (ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, checkMissing)) {
+            if (listener == null) {
+                return explain(dataset, approximate, transform);
+            }
+            return explain(dataset, approximate, transform, System.nanoTime() - start, dataset.getNativeBytes());
+        }
+    }
+
+    /**
+     * Compute the <code>k</code> largest SHAP values (in absolute value) of each row of a given
+     * <code>ExplanationDataset</code> for one output of the model, with their features, the bias term and the sum of
+     * the other SHAP values.
+     *
+     * The SHAP values are computed as in {@link #shapValues(ExplanationDataset, boolean, DoublePointer)}, and the top
+     * features are selected natively, so that only <code>k</code> SHAP values per row are copied back, and none is
+     * sorted in Java.
+     *
+     * @param dataset An instance of <code>ExplanationDataset</code>, which is not closed by this method.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param k The number of features selected per row, which is capped by the number of features.
+     * @param output The output of the model whose SHAP values are selected, i.e. 0 for models with a single output.
+     * @return The top SHAP values of all rows.
+     */
+    public TopKShapValues topKShapValues(ExplanationDataset dataset, boolean approximate, int k, int output) {
+        requireNativeEngine();
+        int numOutputs = treeEnsemble.num_outputs();
+        checkTopK(k, output, numOutputs);
+
+        int nRows = dataset.getNumRows();
+        int numFeatures = dataset.getNumCols();
+        int topK = Math.min(k, numFeatures);
+        long rowStride = (long) (numFeatures + 1) * numOutputs;
+
+        TopKShapValues top = new TopKShapValues(nRows, numFeatures, output, topK);
+        try (DoublePointer phi = new DoublePointer(nRows * rowStride);
+             IntPointer indices = new IntPointer((long) nRows * topK);
+             DoublePointer values = new DoublePointer((long) nRows * topK);
+             DoublePointer bias = new DoublePointer(nRows);
+             DoublePointer remainder = new DoublePointer(nRows)) {
+            phi.zero();
+            computeShapValues(dataset, approximate, phi);
+
+            forEachRange(nRows, (begin, end) ->
+                    TreeShap.dense_tree_top_k(phi.getPointer(begin * rowStride), end - begin, numFeatures,
+                            numOutputs, output, topK, indices.getPointer((long) begin * topK),
+                            values.getPointer((long) begin * topK), bias.getPointer(begin),
+                            remainder.getPointer(begin))
+            );
+
+            indices.get(top.getFeatureIndex());
+            values.get(top.getValues());
+            bias.get(top.getBias());
+            remainder.get(top.getRemainder());
+        }
+        return top;
+    }
+
+    /**
+     * Compute the <code>k</code> largest SHAP values (in absolute value) of each row of a given 2-dimensional matrix:
+     * <code>matrix</code> for one output of the model.
+     * @param matrix The 2d matrix to be explained. Each row in this matrix should correspond to a feature vector.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param checkMissing Whether to check missing values in <code>matrix</code>. If set to false, all values in
+     *                     <code>matrix</code> are assumed to be non-missing (i.e. not <code>NaN</code>.)
+     * @param k The number of features selected per row, which is capped by the number of features.
+     * @param output The output of the model whose SHAP values are selected, i.e. 0 for models with a single output.
+     * @return The top SHAP values of all rows.
+     * @see #topKShapValues(ExplanationDataset, boolean, int, int)
+     */
+    public TopKShapValues topKShapValues(double[][] matrix, boolean approximate, boolean checkMissing, int k,
+                                         int output) {
+        assert matrix.length > 0;
+
+        if (engine == Engine.JAVA) {
+            requireTreePathDependent(approximate, "the JAVA engine");
+            int numFeatures = matrix[0].length;
+            int numOutputs = javaEnsemble.getNumOutputs();
+            checkTopK(k, output, numOutputs);
+
+            TopKShapValues top = new TopKShapValues(matrix.length, numFeatures, output, Math.min(k, numFeatures));
+            forEachRange(matrix.length, (begin, end) -> {
+                JavaTreeShap kernel = javaKernels.get();
+                double[] phi = new double[(numFeatures + 1) * numOutputs];
+
+                for (int i = begin; i < end; ++i) {
+                    if (matrix[i].length != numFeatures) {
+                        throw new IllegalArgumentException(
+                                "Row " + i + " has " + matrix[i].length + " features, expecting " + numFeatures
+                        );
+                    }
+
+                    if (approximate) {
+                        kernel.saabasValues(matrix[i], checkMissing, phi, 0);
+                    } else {
+                        kernel.shapValues(matrix[i], checkMissing, phi, 0);
+                    }
+                    top.setRow(i, phi, 0, numOutputs);
+                }
+            });
+            return top;
+        }
+
+        try (ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, checkMissing)) {
+            return topKShapValues(dataset, approximate, k, output);
+        }
+    }
+
+    /**
+     * Compute the SHAP values of a feature vector together with the contributions of each tree to them, so that the
+     * vector can be re-explained after changing a few of its features, e.g. in a what-if analysis, by recomputing only
+     * the trees splitting on these features with {@link #reexplain(IncrementalExplanation, int[], double[])}.
+     * @param vector A feature vector compatible with the tree ensemble model.
+     * @param approximate Run the approximate Saabas algorithm instead of the tree path dependent algorithm.
+     * @param checkMissing Whether to check missing values in the feature vector (<code>NaN</code>'s).
+     * @return The explanation of the feature vector.
+     * @throws IllegalStateException If <code>approximate</code> is false and the feature dependence is not
+     *         {@link FeatureDependence#TREE_PATH_DEPENDENT}.
+     */
+    public IncrementalExplanation explainIncrementally(double[] vector, boolean approximate, boolean checkMissing) {
+        return incrementalExplainer.explainIncrementally(vector, approximate, checkMissing);
+    }
+
+    /**
+     * Re-explain the feature vector of a previous explanation after changing some of its features. Only the trees
+     * splitting on the changed features are explained, see {@link #getFeatureTreeIndex(int)}; the contributions of
+     * the other trees are taken from the previous explanation. The result is the same as explaining the new feature
+     * vector from scratch with {@link #explainIncrementally(double[], boolean, boolean)}.
+     * @param previous An explanation computed by this explainer, which is left unchanged.
+     * @param features The indices of the changed features.
+     * @param values The new values of the changed features.
+     * @return The explanation of the new feature vector.
+     * @throws IllegalStateException If the previous explanation is exact and the feature dependence is not
+     *         {@link FeatureDependence#TREE_PATH_DEPENDENT}.
+     */
+    public IncrementalExplanation reexplain(IncrementalExplanation previous, int[] features, double[] values) {
+        return incrementalExplainer.reexplain(previous, features, values);
+    }
+
+    /**
+     * Re-explain the feature vector of a previous explanation after changing some of its features, which are found
+     * by comparing the feature vectors.
+     * @param previous An explanation computed by this explainer, which is left unchanged.
+     * @param vector The new feature vector.
+     * @return The explanation of the new feature vector.
+     * @see #reexplain(IncrementalExplanation, int[], double[])
+     */
+    public IncrementalExplanation reexplain(IncrementalExplanation previous, double[] vector) {
+        return incrementalExplainer.reexplain(previous, vector);
+    }
+
+    /**
+     * @param numFeatures The number of features <code>M</code> of the explained feature vectors.
+     * @return The index of the trees splitting on each feature, built on the first call for a number of features.
+     */
+    public FeatureTreeIndex getFeatureTreeIndex(int numFeatures) {
+        return incrementalExplainer.getFeatureTreeIndex(numFeatures);
+    }
+
+    /**
+     * Summarize the SHAP values of a given <code>ExplanationDataset</code> into a new {@link ShapSummary}, without
+     * histogram.
+     * @param dataset An instance of <code>ExplanationDataset</code>, which is not closed by this method.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @return The summary of the SHAP values of all rows.
+     * @see #summarize(ExplanationDataset, boolean, ShapSummary)
+     */
+    public ShapSummary summarize(ExplanationDataset dataset, boolean approximate) {
+        requireNativeEngine();
+        ShapSummary summary = new ShapSummary(dataset.getNumCols(), getNumOutputs());
+        summarize(dataset, approximate, summary);
+        return summary;
+    }
+
+    /**
+     * Add the SHAP values of a given <code>ExplanationDataset</code> to <code>summary</code>, e.g. to compute the
+     * global feature importance over a stream of batches of rows.
+     *
+     * The SHAP values are computed as in {@link #shapValues(ExplanationDataset, boolean, DoublePointer)}, and reduced
+     * natively a few rows at a time, so that only the <code>O(M)</code> statistics of each slice of rows (see
+     * {@link #setNumThreads(int)}) are copied back and merged into <code>summary</code>.
+     *
+     * @param dataset An instance of <code>ExplanationDataset</code>, which is not closed by this method.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param summary The summary to which the SHAP values of all rows are added.
+     * @throws IllegalArgumentException If the shape of <code>summary</code> does not match the dataset or the model.
+     */
+    public void summarize(ExplanationDataset dataset, boolean approximate, ShapSummary summary) {
+        summarizer.summarize(dataset, approximate, summary);
+    }
+
+    /**
+     * Summarize the SHAP values of a given 2-dimensional matrix: <code>matrix</code> into a new {@link ShapSummary},
+     * without histogram.
+     * @param matrix The 2d matrix to be explained. Each row in this matrix should correspond to a feature vector.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param checkMissing Whether to check missing values in <code>matrix</code>. If set to false, all values in
+     *                     <code>matrix</code> are assumed to be non-missing (i.e. not <code>NaN</code>.)
+     * @return The summary of the SHAP values of all rows.
+     */
+    public ShapSummary summarize(double[][] matrix, boolean approximate, boolean checkMissing) {
+        assert matrix.length > 0;
+
+        ShapSummary summary = new ShapSummary(matrix[0].length, getNumOutputs());
+        summarize(matrix, approximate, checkMissing, summary);
+        return summary;
+    }
+
+    /**
+     * Add the SHAP values of a given 2-dimensional matrix: <code>matrix</code> to <code>summary</code>. With the
+     * {@link Engine#JAVA} engine, each range of rows is reduced into its own summary as it is explained, which is then
+     * merged into <code>summary</code>.
+     * @param matrix The 2d matrix to be explained. Each row in this matrix should correspond to a feature vector.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param checkMissing Whether to check missing values in <code>matrix</code>. If set to false, all values in
+     *                     <code>matrix</code> are assumed to be non-missing (i.e. not <code>NaN</code>.)
+     * @param summary The summary to which the SHAP values of all rows are added.
+     * @see #summarize(ExplanationDataset, boolean, ShapSummary)
+     */
+    public void summarize(double[][] matrix, boolean approximate, boolean checkMissing, ShapSummary summary) {
+        summarizer.summarize(matrix, approximate, checkMissing, summary);
+    }
+
+    /**
+     * Explain a stream of feature vectors, e.g. read from files larger than the heap, in chunks of
+     * <code>chunkRows</code> rows, emitting the predictions and SHAP values of each chunk to <code>consumer</code> as
+     * soon as the chunk is explained.
+     *
+     * The rows are copied into two native input buffers of <code>chunkRows</code> rows each, which are used in turns:
+     * while a chunk is explained (and then consumed) on the calling thread, the next chunk is read from
+     * <code>rows</code> and copied to the other buffer on a background thread. The memory used is therefore bounded by
+     * the size of the chunks, whatever the number of rows. Chunks are explained as in
+     * {@link #explain(ExplanationDataset, boolean, ModelTransform)}, and are consumed in order, on the calling thread.
+     *
+     * @param rows The feature vectors to be explained, each with <code>numFeatures</code> values. The iterator is only
+     *             used by one thread at a time, but not always the calling thread.
+     * @param numFeatures The number of features of the feature vectors.
+     * @param chunkRows The (maximum) number of rows per chunk, only the last chunk having fewer rows.
+     * @param approximate Run the approximate Saabas algorithm instead of the exact algorithm.
+     * @param transform The transform applied to the raw output of the model for the predictions.
+     * @param checkMissing Whether to check missing values in the feature vectors.
+     * @param consumer The consumer of the explanation of each chunk, along with the index of the first row of the
+     *                 chunk in the stream.
+     * @return The total number of rows explained.
+     * @throws IllegalArgumentException If a feature vector does not have <code>numFeatures</code> values, in which case
+     *         the chunks before it have already been consumed.
+     */
+    public long explainStream(Iterator<double[]> rows, int numFeatures, int chunkRows, boolean approximate,
+                              ModelTransform transform, boolean checkMissing, ObjLongConsumer<Explanation> consumer) {
+        return streamExplainer.explainStream(rows, numFeatures, chunkRows, approximate, transform, checkMissing,
+                consumer);
+    }
+
+    /**
+     * Explain a stream of feature vectors in chunks, see
+     * {@link #explainStream(Iterator, int, int, boolean, ModelTransform, boolean, ObjLongConsumer)}.
+     * @return The total number of rows explained.
+     */
+    public long explainStream(Stream<double[]> rows, int numFeatures, int chunkRows, boolean approximate,
+                              ModelTransform transform, boolean checkMissing, ObjLongConsumer<Explanation> consumer) {
+        return explainStream(rows.iterator(), numFeatures, chunkRows, approximate, transform, checkMissing, consumer);
+    }
+
+    /**
+     * Create a new {@link ExplanationSession}, which explains one feature vector at a time with preallocated native
+     * buffers. This is the fastest way to explain single feature vectors, e.g. when serving online requests. Sessions
+     * always use {@link FeatureDependence#TREE_PATH_DEPENDENT}.
+     * @param numFeatures The number of features of the feature vectors to be explained.
+     * @return A new session, which must be closed after use and must not be shared across threads.
+     */
+    public ExplanationSession newSession(int numFeatures) {
+        requireNativeEngine();
+        return new ExplanationSession(this, doubleEnsemble(), compiledEnsemble, fastEnsemble, contributionCache,
+                numFeatures);
+    }
+
+    /**
+     * Repack the trees into a compact, depth-first layout with precomputed cover ratios (see
+     * {@link CompiledTreeEnsemble}), which is then used by the exact {@link FeatureDependence#TREE_PATH_DEPENDENT}
+     * algorithm, including in sessions created afterwards. The SHAP values are identical to those computed without
+     * compiling, but fewer cache lines are touched per node, which pays off on large ensembles.
+     *
+     * Compiling copies the trees, and is best done once, right after loading the model.
+     */
+    public synchronized void compile() {
+        requireNativeEngine();
+        if (compiledEnsemble == null) {
+            compiledEnsemble = new CompiledTreeEnsemble(treeEnsemble);
+        }
+    }
+
+    /**
+     * @return Whether {@link #compile()} has been called.
+     */
+    public boolean isCompiled() {
+        return compiledEnsemble != null;
+    }
+
+    /**
+     * Precompute the weights of the exact {@link FeatureDependence#TREE_PATH_DEPENDENT} algorithm for each leaf of the
+     * trees (see {@link FastTreeShapEnsemble}), so that each row is then explained in a single traversal of each tree
+     * instead of a recursion over all its paths. This takes precedence over {@link #compile()}, and is used by all the
+     * methods computing SHAP values (except interaction values, single precision and sparse datasets), including in
+     * sessions created afterwards. The SHAP values are equal to those computed otherwise up to rounding.
+     *
+     * The tables take <code>2^d</code> values per leaf, for the <code>d</code> distinct features on its path; the
+     * trees whose tables do not fit in <code>memoryBudget</code> fall back to a leaner algorithm. Precomputing pays
+     * off when explaining many more rows than the trees have leaves, and is best done once, right after loading the
+     * model.
+     *
+     * @param memoryBudget The maximum size of the precomputed tables, in bytes, or a negative value to discard the
+     *                     precomputed ensemble. A new ensemble replaces the current one, whose native memory is
+     *                     released at once: it must not be replaced while explanations are running, nor while the
+     *                     sessions created with it are in use.
+     */
+    public synchronized void compileFastTreeShap(long memoryBudget) {
+        requireNativeEngine();
+        FastTreeShapEnsemble previous = fastEnsemble;
+        fastEnsemble = memoryBudget < 0 ? null : new FastTreeShapEnsemble(treeEnsemble, memoryBudget);
+
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * @return The ensemble precomputed by {@link #compileFastTreeShap(long)}, e.g. to read the number of trees with
+     *         precomputed tables, or <code>null</code> if there is none.
+     */
+    public FastTreeShapEnsemble getFastTreeShapEnsemble() {
+        return fastEnsemble;
+    }
+
+    /**
+     * Cache the contribution of each tree to the SHAP values of the exact {@link FeatureDependence#TREE_PATH_DEPENDENT}
+     * algorithm by decision signature (see {@link ContributionCache}), so that it is computed only once for all the
+     * rows taking the same branches in the tree. The cache takes precedence over {@link #compileFastTreeShap(long)}
+     * and {@link #compile()}, and is used by all
+     * the methods computing SHAP values (except interaction values, single precision and sparse datasets), including
+     * in sessions created afterwards. The SHAP values are identical to those computed without cache.
+     *
+     * The cache pays off when many rows share the same decisions, e.g. with bucketed or categorical features; otherwise
+     * computing the signatures of the rows only adds to the cost of explaining them.
+     *
+     * @param capacity The maximum number of contributions held by the cache, over all trees, or 0 to disable the
+     *                 cache. A new, empty cache replaces the current one, whose native memory is released at once:
+     *                 it must not be replaced while explanations are running, nor while the sessions created with it
+     *                 are in use.
+     */
+    public synchronized void setContributionCache(long capacity) {
+        requireNativeEngine();
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative, got " + capacity);
+        }
+
+        ContributionCache previous = contributionCache;
+        contributionCache = capacity == 0 ? null : new ContributionCache(treeEnsemble, capacity);
+
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * @return The contribution cache set by {@link #setContributionCache(long)}, e.g. to read its hit and miss
+     *         counters, or <code>null</code> if there is none.
+     */
+    public ContributionCache getContributionCache() {
+        return contributionCache;
+    }
+
+    /**
+     * Release the native memory held by this explainer: its trees, the ensembles compiled from them, its contribution
+     * cache and its background dataset, and shut its threads down. The explainer (and the sessions created by it) must
+     * not be in use, and any later use, including by these sessions, throws an <code>IllegalStateException</code>. The
+     * sessions still need to be closed to release their own buffers. Closing an explainer twice has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        if (engine == Engine.NATIVE) {
+            if (compiledEnsemble != null) compiledEnsemble.close();
+            if (fastEnsemble != null) fastEnsemble.close();
+            if (contributionCache != null) contributionCache.close();
+            if (floatEnsemble != null) floatEnsemble.close();
+            if (background != null) background.close();
+            compiledEnsemble = null;
+            fastEnsemble = null;
+            contributionCache = null;
+            floatEnsemble = null;
+            background = null;
+            treeEnsemble.close();
+        }
+    }
+
+    /**
+     * @return Whether {@link #close()} has been called.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Set the number of threads used to explain an <code>ExplanationDataset</code> with multiple rows. The rows are
+     * split into contiguous slices, each of which is explained on its own thread; since every row is explained
+     * independently, the SHAP values are identical to those computed with a single thread.
+     * @param numThreads The number of threads, which must be positive. Defaults to 1, i.e. no parallelism.
+     */
+    public synchronized void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be positive, got " + numThreads);
+        }
+
+        if (numThreads != this.numThreads && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * @return The number of threads used to explain an <code>ExplanationDataset</code> with multiple rows.
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Explain batches in tree-major order, in tiles of <code>rowBlock</code> rows by <code>treeBlock</code> trees: the
+     * nodes of a tile of trees then stay in cache while the rows of the tile are explained, instead of the whole
+     * ensemble being streamed through the cache for every row. This pays off on ensembles which do not fit in the CPU
+     * caches, and applies to the approximate Saabas algorithm and to the exact
+     * {@link FeatureDependence#TREE_PATH_DEPENDENT} algorithm (including over a compiled ensemble, but not with a
+     * contribution cache nor FastTreeSHAP). Each row still adds the contributions of the trees in order, so the SHAP
+     * values are identical to those computed without blocking.
+     *
+     * The tiles should be small enough for the nodes of <code>treeBlock</code> trees and the SHAP values of
+     * <code>rowBlock</code> rows to fit in the L2 cache together, e.g. 64 rows by 32 trees of depth 8.
+     *
+     * @param rowBlock The number of rows of a tile, or 0 to disable blocking.
+     * @param treeBlock The number of trees of a tile, or 0 to disable blocking.
+     */
+    public synchronized void setBlockSize(int rowBlock, int treeBlock) {
+        requireNativeEngine();
+        if (rowBlock < 0 || treeBlock < 0 || (rowBlock == 0) != (treeBlock == 0)) {
+            throw new IllegalArgumentException(
+                    "rowBlock and treeBlock must be both positive or both 0, got " + rowBlock + " and " + treeBlock
+            );
+        }
+
+        this.rowBlock = rowBlock;
+        this.treeBlock = treeBlock;
+    }
+
+    /**
+     * @return The number of rows of the tiles set by {@link #setBlockSize(int, int)}, or 0 if blocking is disabled.
+     */
+    public int getRowBlock() {
+        return rowBlock;
+    }
+
+    /**
+     * @return The number of trees of the tiles set by {@link #setBlockSize(int, int)}, or 0 if blocking is disabled.
+     */
+    public int getTreeBlock() {
+        return treeBlock;
+    }
+
+    /**
+     * Set the feature dependence assumed by the exact algorithms. {@link FeatureDependence#INDEPENDENT} requires a
+     * background dataset, see {@link #setBackground(double[][], boolean)}. The approximate Saabas algorithm and {@link ExplanationSession}'s
+     * always use {@link FeatureDependence#TREE_PATH_DEPENDENT}.
+     * @param featureDependence The feature dependence. Defaults to {@link FeatureDependence#TREE_PATH_DEPENDENT}.
+     */
+    public void setFeatureDependence(FeatureDependence featureDependence) {
+        this.featureDependence = featureDependence;
+    }
+
+    /**
+     * @return The feature dependence assumed by the exact algorithms.
+     */
+    public FeatureDependence getFeatureDependence() {
+        return featureDependence;
+    }
+
+    /**
+     * Set the background (reference) dataset used by the {@link FeatureDependence#INDEPENDENT} algorithm. The
+     * background is copied to the native memory once, and reused by all subsequent explanations; it must not be
+     * replaced while explanations are running.
+     *
+     * An <code>ExplanationDataset</code> with its own background (see
+     * {@link ExplanationDataset#withBackground(ExplanationDataset)}) is explained against that background instead.
+     *
+     * With {@link FeatureDependence#INDEPENDENT} and multiple threads (see {@link #setNumThreads(int)}), datasets with
+     * fewer rows than threads are explained by splitting the background rows across the threads instead of the rows,
+     * in which case the SHAP values may differ from a single-threaded run by rounding errors.
+     *
+     * @param background The background dataset, whose rows must be compatible with the tree ensemble model, or
+     *                   <code>null</code> to release the current background.
+     * @param checkMissing Whether to check missing values in <code>background</code>.
+     */
+    public synchronized void setBackground(double[][] background, boolean checkMissing) {
+        requireNativeEngine();
+        ExplanationDataset previous = this.background;
+        this.background = background == null ? null : ExplanationDataset.fromMatrix(background, checkMissing);
+
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    private void checkSingleOutput() {
+        if (getNumOutputs() != 1) {
+            throw new IllegalArgumentException(
+                    "Expecting a model with a single output, got " + getNumOutputs() + " outputs"
+            );
+        }
+    }
+
+    /**
+     * Check that the exact algorithm explains with the {@link FeatureDependence#TREE_PATH_DEPENDENT} feature
+     * dependence, which is the only one supported by <code>feature</code>; the approximate algorithm ignores it.
+     * @param feature The feature of this explainer requiring it, e.g. "sparse datasets".
+     */
+    void requireTreePathDependent(boolean approximate, String feature) {
+        if (!approximate && featureDependence != FeatureDependence.TREE_PATH_DEPENDENT) {
+            throw new IllegalStateException(
+                    "The TREE_PATH_DEPENDENT feature dependence is required by " + feature + ", got "
+                            + featureDependence
+            );
+        }
+    }
+
+    static void checkTopK(int k, int output, int numOutputs) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive, got " + k);
+        }
+        if (output < 0 || output >= numOutputs) {
+            throw new IllegalArgumentException("Output " + output + " out of range [0, " + numOutputs + ")");
+        }
+    }
+
+    void requireNativeEngine() {
+        if (engine != Engine.NATIVE) {
+            throw new UnsupportedOperationException("Only supported by the NATIVE engine, this explainer uses " + engine);
+        }
+        checkOpen();
+    }
+
+    void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("This explainer is closed");
+        }
+    }
+
+    /**
+     * @return The tree ensemble, whose single precision arrays (if any) are widened on the first call, for the double
+     *         precision kernels.
+     */
+    TreeEnsemble doubleEnsemble() {
+        return treeEnsemble.widen();
+    }
+
+    /**
+     * @return The tree ensemble, whose integer arrays (children, features) and shape may be read without widening it.
+     */
+    TreeEnsemble getTreeEnsemble() {
+        return treeEnsemble;
+    }
+
+    /**
+     * @return The compiled ensemble, or <code>null</code> if the trees are not compiled, see {@link #compile()}.
+     */
+    CompiledTreeEnsemble getCompiledEnsemble() {
+        return compiledEnsemble;
+    }
+
+    /**
+     * @return The pure-Java kernel of the current thread.
+     */
+    JavaTreeShap getJavaKernel() {
+        return javaKernels.get();
+    }
+
+    private synchronized FloatTreeEnsemble getFloatEnsemble() {
+        checkOpen();
+        if (floatEnsemble == null) {
+            floatEnsemble = new FloatTreeEnsemble(treeEnsemble);
+        }
+        return floatEnsemble;
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(numThreads);
+        }
+        return pool;
+    }
+
+    /**
+     * Report the metrics of an explained batch to <code>listener</code>, with an upper bound of the nodes visited by
+     * the recursive algorithms, see {@link ExplanationMetrics#getNodesVisited()}.
+     */
+    private void report(ExplanationListener listener, String operation, int nRows, boolean approximate,
+                        long marshalNanos, long kernelNanos, long copyNanos, long bytesAllocated, long bytesFreed) {
+        int numTrees = treeEnsemble.tree_limit();
+        long nodesPerRow;
+        if (approximate) {
+            nodesPerRow = (long) numTrees * (treeEnsemble.max_depth() + 1);
+        } else {
+            if (numTreeNodes < 0) {
+                numTreeNodes = TreeShap.num_tree_nodes(treeEnsemble);
+            }
+            nodesPerRow = numTreeNodes;
+            ExplanationDataset background = this.background;
+            if (featureDependence == FeatureDependence.INDEPENDENT && background != null) {
+                nodesPerRow *= background.getNumRows();
+            }
+        }
+
+        listener.onExplained(new ExplanationMetrics(operation, nRows, marshalNanos, kernelNanos, copyNanos,
+                (long) nRows * numTrees, nRows * nodesPerRow, bytesAllocated, bytesFreed));
+    }
+
+    /**
+     * Run the native Tree SHAP algorithms over <code>dataset</code>, adding the results to <code>phi</code>, which
+     * must hold at least <code>(M + 1) * num_outputs</code> zero-initialized values per row.
+     */
+    private void computeShapValues(ExplanationDataset dataset, boolean approximate, DoublePointer phi) {
+        long rowStride = (long) (dataset.getNumCols() + 1) * treeEnsemble.num_outputs();
+        FeatureDependence dependence = approximate ? FeatureDependence.TREE_PATH_DEPENDENT : featureDependence;
+        ExplanationDataset data = attachBackground(dataset, dependence);
+
+        try {
+            if (dependence == FeatureDependence.INDEPENDENT && numThreads > 1
+                    && data.getNumRows() < numThreads && data.getNumBackgroundRows() > 1) {
+                computeIndependentShapValues(data, phi);
+            } else {
+                // each slice writes to its own (disjoint) region of phi
+                forEachSlice(data, (slice, rowOffset) ->
+                        runKernel(slice, approximate, dependence,
+                                rowOffset == 0 ? phi : phi.getPointer(rowOffset * rowStride))
+                );
+            }
+        } finally {
+            if (data != dataset) data.close();
+        }
+    }
+
+    /**
+     * Run the interventional Tree SHAP algorithm over <code>dataset</code>, splitting its background rows (rather than
+     * its rows) across threads. The results of each slice of the background are averaged over the slice, and are
+     * therefore weighted by the size of the slice when combined into <code>phi</code>.
+     */
+    private void computeIndependentShapValues(ExplanationDataset dataset, DoublePointer phi) {
+        int numBackgroundRows = dataset.getNumBackgroundRows();
+        int threads = Math.min(numThreads, numBackgroundRows);
+        int sliceRows = (numBackgroundRows + threads - 1) / threads;
+        int numPartials = (numBackgroundRows + sliceRows - 1) / sliceRows;
+        int size = (int) (dataset.getNumRows() * (long) (dataset.getNumCols() + 1) * treeEnsemble.num_outputs());
+
+        List<ExplanationDataset> slices = new ArrayList<>(numPartials);
+        try (DoublePointer partials = new DoublePointer((long) numPartials * size)) {
+            partials.zero();
+
+            List<Callable<Void>> tasks = new ArrayList<>(numPartials);
+            for (int p = 0; p < numPartials; ++p) {
+                int rowOffset = p * sliceRows;
+                final ExplanationDataset slice = dataset.sliceBackground(rowOffset,
+                        Math.min(sliceRows, numBackgroundRows - rowOffset));
+                final DoublePointer partial = partials.getPointer((long) p * size);
+
+                slices.add(slice);
+                tasks.add(() -> {
+                    runKernel(slice, false, FeatureDependence.INDEPENDENT, partial);
+                    return null;
+                });
+            }
+            invokeAll(tasks);
+
+            double[] values = new double[size];
+            double[] partial = new double[size];
+            for (int p = 0; p < numPartials; ++p) {
+                double weight = (double) slices.get(p).getNumBackgroundRows() / numBackgroundRows;
+                partials.position((long) p * size).get(partial);
+                for (int i = 0; i < size; ++i) {
+                    values[i] += partial[i] * weight;
+                }
+            }
+            phi.put(values);
+        } finally {
+            for (ExplanationDataset slice : slices) {
+                slice.close();
+            }
+        }
+    }
+
+    /**
+     * Attach the background dataset of this explainer to <code>dataset</code> if it is required by
+     * <code>dependence</code> and <code>dataset</code> does not have its own background.
+     */
+    ExplanationDataset attachBackground(ExplanationDataset dataset, FeatureDependence dependence) {
+        if (!dependence.requiresBackground() || dataset.getNumBackgroundRows() > 0) {
+            return dataset;
+        }
+
+        ExplanationDataset background = this.background;
+        if (background == null) {
+            throw new IllegalStateException("Feature dependence " + dependence + " requires a background dataset");
+        }
+        return dataset.withBackground(background);
+    }
+
+    /**
+     * Run the native Tree SHAP interaction algorithm over <code>dataset</code>, adding the results to <code>out</code>,
+     * which must hold at least <code>(M + 1)^2 * num_outputs</code> zero-initialized values per row.
+     */
+    private void computeInteractionValues(ExplanationDataset dataset, DoublePointer out) {
+        int nRows = dataset.getNumRows();
+        int numFeatures = dataset.getNumCols();
+        int numOutputs = treeEnsemble.num_outputs();
+
+        if (numThreads <= 1 || nRows >= numThreads) {
+            long rowStride = (long) (numFeatures + 1) * (numFeatures + 1) * numOutputs;
+            forEachSlice(dataset, (slice, rowOffset) ->
+                    TreeShap.dense_tree_shap(doubleEnsemble(), slice,
+                            rowOffset == 0 ? out : out.getPointer(rowOffset * rowStride),
+                            TREE_PATH_DEPENDENT_FEATURE, IDENTITY_TRANSFORM, true, slice.isCheckMissing())
+            );
+            return;
+        }
+
+        // too few rows to keep all threads busy: split the features on which the interactions are conditioned instead.
+        // each thread writes the (disjoint) rows of the interaction matrices of its features, and accumulates its own
+        // part of the diagonals, which are summed up once all threads are done.
+        int threads = Math.min(numThreads, numFeatures);
+        int sliceFeatures = (numFeatures + threads - 1) / threads;
+        int numPartials = (numFeatures + sliceFeatures - 1) / sliceFeatures;
+        long partialSize = (long) nRows * (numFeatures + 1) * numOutputs;
+
+        try (DoublePointer diag = new DoublePointer(numPartials * partialSize)) {
+            diag.zero();
+
+            List<Callable<Void>> tasks = new ArrayList<>(numPartials);
+            for (int p = 0; p < numPartials; ++p) {
+                final int featureBegin = p * sliceFeatures;
+                final int featureEnd = Math.min(featureBegin + sliceFeatures, numFeatures);
+                final DoublePointer partialDiag = diag.getPointer(p * partialSize);
+                final boolean withShap = p == 0;
+
+                tasks.add(() -> {
+                    TreeShap.dense_tree_interactions_path_dependent_range(doubleEnsemble(), dataset, out, partialDiag,
+                            featureBegin, featureEnd, withShap, dataset.isCheckMissing());
+                    return null;
+                });
+            }
+            invokeAll(tasks);
+
+            TreeShap.dense_tree_interactions_set_diagonal(doubleEnsemble(), dataset, out, diag, numPartials);
+        }
+    }
+
+    /**
+     * Run the pure-Java Tree SHAP algorithms over the rows of <code>matrix</code>, also computing the raw predictions
+     * into <code>predictions</code> unless it is <code>null</code>.
+     * @return The SHAP values, in the native layout.
+     */
+    private double[] computeJavaShapValues(double[][] matrix, boolean approximate, boolean checkMissing,
+                                           double[] predictions) {
+        requireTreePathDependent(approximate, "the JAVA engine");
+
+        int numOutputs = javaEnsemble.getNumOutputs();
+        int rowStride = (matrix[0].length + 1) * numOutputs;
+        double[] phi = new double[matrix.length * rowStride];
+
+        forEachJavaRow(matrix.length, (kernel, i) -> {
+            if (matrix[i].length != matrix[0].length) {
+                throw new IllegalArgumentException(
+                        "Row " + i + " has " + matrix[i].length + " features, expecting " + matrix[0].length
+                );
+            }
+
+            if (approximate) {
+                kernel.saabasValues(matrix[i], checkMissing, phi, i * rowStride);
+            } else {
+                kernel.shapValues(matrix[i], checkMissing, phi, i * rowStride);
+            }
+            if (predictions != null) {
+                kernel.predict(matrix[i], checkMissing, predictions, i * numOutputs);
+            }
+        });
+
+        return phi;
+    }
+
+    /**
+     * A computation of the pure-Java engine over a single row, with the kernel of the current thread.
+     */
+    private interface RowTask {
+        void run(JavaTreeShap kernel, int row);
+    }
+
+    /**
+     * Run <code>task</code> over rows <code>[0, nRows)</code> with {@link #forEachRange}, with the kernel of each
+     * thread.
+     */
+    private void forEachJavaRow(int nRows, RowTask task) {
+        forEachRange(nRows, (begin, end) -> {
+            JavaTreeShap kernel = javaKernels.get();
+            for (int i = begin; i < end; ++i) {
+                task.run(kernel, i);
+            }
+        });
+    }
+
+    /**
+     * A computation over the rows <code>[begin, end)</code> of a matrix.
+     */
+    interface RangeTask {
+        void run(int begin, int end);
+    }
+
+    /**
+     * Run <code>task</code> over rows <code>[0, nRows)</code>, either at once on the calling thread, or over contiguous
+     * ranges of rows in parallel if multiple threads are configured, as {@link #forEachSlice} does.
+     */
+    void forEachRange(int nRows, RangeTask task) {
+        int threads = Math.min(numThreads, nRows);
+
+        if (threads <= 1) {
+            task.run(0, nRows);
+            return;
+        }
+
+        int sliceRows = (nRows + threads - 1) / threads;
+
+        List<Callable<Void>> tasks = new ArrayList<>(threads);
+        for (int rowOffset = 0; rowOffset < nRows; rowOffset += sliceRows) {
+            final int begin = rowOffset;
+            final int end = Math.min(rowOffset + sliceRows, nRows);
+
+            tasks.add(() -> {
+                task.run(begin, end);
+                return null;
+            });
+        }
+        invokeAll(tasks);
+    }
+
+    /**
+     * A native computation over the rows of a slice of a dataset, starting at row <code>rowOffset</code>.
+     */
+    interface SliceTask {
+        void run(ExplanationDataset slice, int rowOffset);
+    }
+
+    /**
+     * Run <code>task</code> over <code>dataset</code>, either at once on the calling thread, or over contiguous slices
+     * of rows in parallel if multiple threads are configured.
+     */
+    void forEachSlice(ExplanationDataset dataset, SliceTask task) {
+        int nRows = dataset.getNumRows();
+        int threads = Math.min(numThreads, nRows);
+
+        if (threads <= 1) {
+            task.run(dataset, 0);
+            return;
+        }
+
+        int sliceRows = (nRows + threads - 1) / threads;
+
+        List<ExplanationDataset> slices = new ArrayList<>(threads);
+        List<Callable<Void>> tasks = new ArrayList<>(threads);
+        for (int rowOffset = 0; rowOffset < nRows; rowOffset += sliceRows) {
+            final ExplanationDataset slice = dataset.slice(rowOffset, Math.min(sliceRows, nRows - rowOffset));
+            final int sliceOffset = rowOffset;
+
+            slices.add(slice);
+            tasks.add(() -> {
+                task.run(slice, sliceOffset);
+                return null;
+            });
+        }
+
+        try {
+            invokeAll(tasks);
+        } finally {
+            for (ExplanationDataset slice : slices) {
+                slice.close();
+            }
+        }
+    }
+
+    /**
+     * Run <code>tasks</code> in parallel on the thread pool, and wait for all of them to complete.
+     */
+    private void invokeAll(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> future : getPool().invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while explaining the dataset", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to explain the dataset", e.getCause());
+        }
+    }
+
+    private void runKernel(ExplanationDataset dataset, boolean approximate, FeatureDependence dependence,
+                           DoublePointer phi) {
+        CompiledTreeEnsemble compiled = compiledEnsemble;
+        FastTreeShapEnsemble fast = fastEnsemble;
+        ContributionCache cache = contributionCache;
+
+        int rows = rowBlock;
+        int trees = treeBlock;
+        boolean checkMissing = dataset.isCheckMissing();
+
+        if (rows > 0 && (approximate || (cache == null && fast == null
+                && dependence == FeatureDependence.TREE_PATH_DEPENDENT))) {
+            TreeShap.dense_tree_shap_blocked(doubleEnsemble(), compiled, dataset, phi, approximate, rows, trees, null,
+                    checkMissing);
+        } else if (approximate) {
+            TreeShap.dense_tree_saabas(phi, doubleEnsemble(), dataset, checkMissing);
+        } else if (cache != null && dependence == FeatureDependence.TREE_PATH_DEPENDENT) {
+            TreeShap.dense_tree_shap_cached(doubleEnsemble(), cache, dataset, phi, null, checkMissing);
+        } else if (fast != null && dependence == FeatureDependence.TREE_PATH_DEPENDENT) {
+            TreeShap.dense_tree_shap_fast(fast, dataset, phi, null, checkMissing);
+        } else if (compiled != null && dependence == FeatureDependence.TREE_PATH_DEPENDENT) {
+            TreeShap.dense_tree_shap_compiled(compiled, dataset, phi, null, checkMissing);
+        } else {
+            TreeShap.dense_tree_shap(doubleEnsemble(), dataset, phi,
+                    dependence.getCode(), IDENTITY_TRANSFORM, false, checkMissing
+            );
+        }
+    }
+
+    /**
+     * Create a <code>TreeExplainer</code> from a resource file of the <code>.shap4j</code> format.
+     * @param resource The path to the resource file, e.g. <code>"/boston.shap4j"</code> if the file is located under
+     *                 <code>src/java/main/resources</code>.
+     * @return An <code>TreeExplainer</code> instance corresponding to the tree model contained by the resource file.
+     * @throws IOException
+     * @see <a href="https://github.com/xydrolase/shap4j-data-converter">shap4j-data-converter to create the .shap4j file</a>
+     */
+    public static TreeExplainer fromResource(String resource) throws IOException {
+        try(InputStream is = TreeExplainer.class.getResourceAsStream(resource)) {
+            int bytesRemaining = is.available();
+            int readOffset = 0;
+            byte[] data = new byte[bytesRemaining];
+
+            while (bytesRemaining > 0) {
+                int bytesRead = is.read(data, readOffset, bytesRemaining);
+                if (bytesRead == -1) {
+                    // InputStream.read() returns -1 if it reaches the end of the stream.
+                    bytesRemaining = 0;
+                } else {
+                    bytesRemaining -= bytesRead;
+                    readOffset += bytesRead;
+                }
+            }
+
+            return new TreeExplainer(data);
+        }
+        catch (NullPointerException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Create a <code>TreeExplainer</code> from a local file of the <code>.shap4j</code> format.
+     * @param filePath The file path to the <code>.shap4j</code> file.
+     * @return An <code>TreeExplainer</code> instance corresponding to the tree model contained by the local file.
+     * @throws IOException
+     * @see <a href="https://github.com/xydrolase/shap4j-data-converter">shap4j-data-converter to create the .shap4j file</a>
+     */
+    public static TreeExplainer fromFile(String filePath) throws IOException {
+        byte[] data = Files.readAllBytes(new File(filePath).toPath());
+
+        return new TreeExplainer(data);
+    }
+
+    /**
+     * Create a <code>TreeExplainer</code> from a local file of the <code>.shap4j</code> format, by memory-mapping the
+     * file. Unlike {@link #fromFile(String)}, the model is neither read to the heap nor copied to native memory: the
+     * tree ensemble points straight into the mapped file, so loading is fast and explainers (even across processes)
+     * loading the same file share a single copy of the model in the page cache. A compact (version 2) file is
+     * expanded into native memory instead, see {@link CompactModel}: the native code explains padded trees, so the
+     * expanded model takes <code>numTrees * maxNodes</code> nodes of 4 integers and <code>2 + numOutputs</code>
+     * doubles each, however small the file is (see {@link #getNativeFootprint()}).
+     * @param path The path to the <code>.shap4j</code> file, which must not be modified while the explainer is in use.
+     * @return An <code>TreeExplainer</code> instance corresponding to the tree model contained by the local file.
+     * @throws IOException
+     * @see <a href="https://github.com/xydrolase/shap4j-data-converter">shap4j-data-converter to create the .shap4j file</a>
+     */
+    public static TreeExplainer fromPath(Path path) throws IOException {
+        return fromPath(path, Engine.NATIVE);
+    }
+
+    /**
+     * Same as {@link #fromPath(Path)}, running the Tree SHAP algorithms with the given engine. With
+     * {@link Engine#JAVA}, the trees are copied from the mapped file to the Java heap, and the file is not referenced
+     * afterwards.
+     * @param path The path to the <code>.shap4j</code> file.
+     * @param engine The implementation of the Tree SHAP algorithms, see {@link #TreeExplainer(byte[], Engine)}.
+     * @return An <code>TreeExplainer</code> instance corresponding to the tree model contained by the local file.
+     * @throws IOException
+     */
+    public static TreeExplainer fromPath(Path path, Engine engine) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large for the .shap4j format: " + path);
+            }
+
+            // the mapping remains valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (engine == Engine.JAVA) {
+                return new TreeExplainer(JavaTreeEnsemble.fromBuffer(buffer));
+            }
+            return new TreeExplainer(TreeEnsemble.fromBuffer(buffer));
+        }
+    }
+
+    /**
+     * Create a <code>TreeExplainer</code> of the trees in <code>[fromTree, toTree)</code> of a compact (version 2)
+     * <code>.shap4j</code> model, without decoding the other trees. The SHAP values and predictions are additive
+     * across trees, so a large ensemble can e.g. be explained by several explainers of disjoint ranges of trees,
+     * whose results add up to those of the model: only the range starting at tree 0 has the base offset of the model,
+     * the other ranges have a base offset of 0.
+     *
+     * The trees of the range are expanded into native memory, padded to the largest of them: the explainer takes
+     * <code>(toTree - fromTree) * maxNodes</code> nodes of 4 integers and <code>2 + numOutputs</code> doubles each,
+     * where <code>maxNodes</code> is the size of the largest tree of the range (see {@link #getNativeFootprint()}).
+     * Splitting an unbalanced ensemble into ranges of trees of similar sizes therefore takes less memory as well.
+     * @param rawData The content of a version 2 <code>.shap4j</code> file, see {@link CompactModel#fromPadded(byte[])}.
+     * @param fromTree The index of the first tree to explain.
+     * @param toTree The index past the last tree to explain.
+     * @return An explainer of the range of trees.
+     */
+    public static TreeExplainer fromTrees(byte[] rawData, int fromTree, int toTree) {
+        return new TreeExplainer(TreeEnsemble.fromBytes(rawData, fromTree, toTree));
     }
 }
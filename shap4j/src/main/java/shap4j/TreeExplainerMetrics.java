@@ -0,0 +1,182 @@
+package shap4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@link ExplanationListener} accumulating the metrics of all the batches explained by a {@link TreeExplainer},
+ * which can be exposed as a JMX MBean, e.g. to be monitored with JConsole or exported by a JMX agent.
+ *
+ * All methods are thread-safe; the counters are updated without locking, so that batches explained concurrently do
+ * not contend on the listener.
+ *
+ * @see #register(TreeExplainer, String)
+ */
+public class TreeExplainerMetrics implements ExplanationListener, TreeExplainerMetricsMBean {
+    private final TreeExplainer explainer;
+    private volatile ObjectName objectName = null;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder marshalNanos = new LongAdder();
+    private final LongAdder kernelNanos = new LongAdder();
+    private final LongAdder copyNanos = new LongAdder();
+    private final LongAdder treesVisited = new LongAdder();
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder nativeBytesAllocated = new LongAdder();
+    private final LongAdder nativeBytesFreed = new LongAdder();
+
+    /**
+     * Create the metrics of an explainer, which must then be set as its listener, see
+     * {@link TreeExplainer#setListener(ExplanationListener)}.
+     * @param explainer The explainer, whose model is described by the metrics.
+     */
+    public TreeExplainerMetrics(TreeExplainer explainer) {
+        this.explainer = explainer;
+    }
+
+    /**
+     * Create the metrics of an explainer, set them as its listener, and register them with the platform MBean server
+     * under the name <code>shap4j:type=TreeExplainer,name=&lt;name&gt;</code>.
+     * @param explainer The explainer.
+     * @param name The name of the explainer in the MBean name, e.g. the name of its model.
+     * @return The registered metrics.
+     * @throws IllegalArgumentException If the name is invalid or already registered.
+     */
+    public static TreeExplainerMetrics register(TreeExplainer explainer, String name) {
+        TreeExplainerMetrics metrics = new TreeExplainerMetrics(explainer);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName("shap4j:type=TreeExplainer,name=" + ObjectName.quote(name));
+            server.registerMBean(metrics, objectName);
+            metrics.objectName = objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Failed to register the metrics of " + name, e);
+        }
+
+        explainer.setListener(metrics);
+        return metrics;
+    }
+
+    /**
+     * Unregister these metrics from the platform MBean server, if registered by
+     * {@link #register(TreeExplainer, String)}, and detach them from the explainer, if still its listener.
+     */
+    public void unregister() {
+        ObjectName name = objectName;
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                throw new IllegalStateException("Failed to unregister " + name, e);
+            }
+            objectName = null;
+        }
+
+        if (explainer.getListener() == this) {
+            explainer.setListener(null);
+        }
+    }
+
+    /**
+     * @return The name under which these metrics are registered, or <code>null</code> if they are not.
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    @Override
+    public void onExplained(ExplanationMetrics metrics) {
+        batches.increment();
+        rows.add(metrics.getNumRows());
+        marshalNanos.add(metrics.getMarshalNanos());
+        kernelNanos.add(metrics.getKernelNanos());
+        copyNanos.add(metrics.getCopyNanos());
+        treesVisited.add(metrics.getTreesVisited());
+        nodesVisited.add(metrics.getNodesVisited());
+        nativeBytesAllocated.add(metrics.getNativeBytesAllocated());
+        nativeBytesFreed.add(metrics.getNativeBytesFreed());
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getMarshalNanos() {
+        return marshalNanos.sum();
+    }
+
+    @Override
+    public long getKernelNanos() {
+        return kernelNanos.sum();
+    }
+
+    @Override
+    public long getCopyNanos() {
+        return copyNanos.sum();
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        long totalNanos = getMarshalNanos() + getKernelNanos() + getCopyNanos();
+        return totalNanos == 0 ? 0 : getRows() * 1e9 / totalNanos;
+    }
+
+    @Override
+    public long getTreesVisited() {
+        return treesVisited.sum();
+    }
+
+    @Override
+    public long getNodesVisited() {
+        return nodesVisited.sum();
+    }
+
+    @Override
+    public long getNativeBytesAllocated() {
+        return nativeBytesAllocated.sum();
+    }
+
+    @Override
+    public long getNativeBytesFreed() {
+        return nativeBytesFreed.sum();
+    }
+
+    @Override
+    public long getModelNativeBytes() {
+        return explainer.getNativeFootprint();
+    }
+
+    @Override
+    public int getNumTrees() {
+        return explainer.getNumTrees();
+    }
+
+    @Override
+    public int getMaxNodes() {
+        return explainer.getMaxNodes();
+    }
+
+    @Override
+    public void reset() {
+        batches.reset();
+        rows.reset();
+        marshalNanos.reset();
+        kernelNanos.reset();
+        copyNanos.reset();
+        treesVisited.reset();
+        nodesVisited.reset();
+        nativeBytesAllocated.reset();
+        nativeBytesFreed.reset();
+    }
+}
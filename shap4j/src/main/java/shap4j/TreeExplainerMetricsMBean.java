@@ -0,0 +1,76 @@
+package shap4j;
+
+/**
+ * The JMX interface of {@link TreeExplainerMetrics}.
+ */
+public interface TreeExplainerMetricsMBean {
+    /**
+     * @return The number of explained batches.
+     */
+    long getBatches();
+
+    /**
+     * @return The number of explained feature vectors.
+     */
+    long getRows();
+
+    /**
+     * @return The time spent copying feature vectors to the native memory, in nanoseconds.
+     */
+    long getMarshalNanos();
+
+    /**
+     * @return The time spent in the native kernels, in nanoseconds.
+     */
+    long getKernelNanos();
+
+    /**
+     * @return The time spent copying results back to the JVM, in nanoseconds.
+     */
+    long getCopyNanos();
+
+    /**
+     * @return The number of explained feature vectors per second, over all the phases of all batches.
+     */
+    double getRowsPerSecond();
+
+    /**
+     * @return The number of trees visited.
+     */
+    long getTreesVisited();
+
+    /**
+     * @return The number of tree nodes visited by the recursive algorithms.
+     */
+    long getNodesVisited();
+
+    /**
+     * @return The native memory allocated for the batches, in bytes.
+     */
+    long getNativeBytesAllocated();
+
+    /**
+     * @return The native memory released after the batches, in bytes.
+     */
+    long getNativeBytesFreed();
+
+    /**
+     * @return The native memory held by the model, in bytes (see {@link TreeExplainer#getNativeFootprint()}).
+     */
+    long getModelNativeBytes();
+
+    /**
+     * @return The number of trees of the model.
+     */
+    int getNumTrees();
+
+    /**
+     * @return The maximum number of nodes of a tree of the model.
+     */
+    int getMaxNodes();
+
+    /**
+     * Reset all the counters to 0.
+     */
+    void reset();
+}
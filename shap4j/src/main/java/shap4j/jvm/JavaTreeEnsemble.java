@@ -0,0 +1,191 @@
+package shap4j.jvm;
+
+import shap4j.CompactModel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A tree ensemble held in primitive arrays on the Java heap, for the pure-Java {@link JavaTreeShap} engine. It is
+ * loaded from the same <code>.shap4j</code> formats as the native <code>TreeEnsemble</code>, and keeps its layout: the
+ * nodes of tree <code>t</code> are stored at indices <code>[t * maxNodes, (t + 1) * maxNodes)</code> of each array.
+ */
+public final class JavaTreeEnsemble {
+    // see TreeEnsemble.FLAG_FLOAT32, which is not referenced so that the native library is never loaded
+    private static final int FLAG_FLOAT32 = 1;
+
+    final int numTrees;
+    final int maxDepth;
+    final int maxNodes;
+    final int numOutputs;
+    final double baseOffset;
+
+    final int[] childrenLeft;
+    final int[] childrenRight;
+    final int[] childrenDefault;
+    final int[] features;
+    final double[] thresholds;
+    final double[] values;
+    final double[] nodeSampleWeights;
+
+    private JavaTreeEnsemble(int numTrees, int maxDepth, int maxNodes, int numOutputs, double baseOffset,
+                             int[] childrenLeft, int[] childrenRight, int[] childrenDefault, int[] features,
+                             double[] thresholds, double[] values, double[] nodeSampleWeights) {
+        this.numTrees = numTrees;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.numOutputs = numOutputs;
+        this.baseOffset = baseOffset;
+        this.childrenLeft = childrenLeft;
+        this.childrenRight = childrenRight;
+        this.childrenDefault = childrenDefault;
+        this.features = features;
+        this.thresholds = thresholds;
+        this.values = values;
+        this.nodeSampleWeights = nodeSampleWeights;
+    }
+
+    /**
+     * Load a tree ensemble from binary data in the <code>.shap4j</code> format.
+     * @param rawData The binary data of the tree ensemble.
+     * @return The tree ensemble.
+     */
+    public static JavaTreeEnsemble fromBytes(byte[] rawData) {
+        return fromBuffer(ByteBuffer.wrap(rawData));
+    }
+
+    /**
+     * Load a tree ensemble from a buffer (either direct or not) holding binary data in the <code>.shap4j</code>
+     * format, from index 0. The arrays are copied to the Java heap, so the buffer is not referenced afterwards.
+     * @param buffer The buffer holding the binary data of the tree ensemble.
+     * @return The tree ensemble.
+     */
+    public static JavaTreeEnsemble fromBuffer(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.nativeOrder());
+        int version = CompactModel.getVersion(view);
+        if (version == CompactModel.VERSION) {
+            return fromCompact(CompactModel.wrap(view));
+        }
+        if (version != 1) {
+            throw new IllegalArgumentException("Unsupported .shap4j version " + version);
+        }
+        view.position(8);
+
+        int numTrees = view.getInt();
+        int maxDepth = view.getInt();
+        int maxNodes = view.getInt();
+        int numOutputs = view.getInt();
+        int offsetIntArrays = view.getInt();
+        int offsetDoubleArrays = view.getInt();
+        double baseOffset = view.getDouble();
+        // byte 40 may already hold the first children of a version 1 file without flags
+        boolean float32 = offsetIntArrays >= 44 && (view.getInt() & FLAG_FLOAT32) != 0;
+
+        int numElements = numTrees * maxNodes;
+
+        long requiredSize = offsetDoubleArrays + (float32 ? 4L : 8L) * numElements * (2 + numOutputs);
+        if (view.capacity() < requiredSize) {
+            throw new IllegalArgumentException(
+                    "Truncated .shap4j data: " + view.capacity() + " bytes, expecting " + requiredSize
+            );
+        }
+
+        view.position(offsetIntArrays);
+        IntBuffer ints = view.asIntBuffer();
+        int[] childrenLeft = getInts(ints, numElements);
+        int[] childrenRight = getInts(ints, numElements);
+        int[] childrenDefault = getInts(ints, numElements);
+        int[] features = getInts(ints, numElements);
+
+        view.position(offsetDoubleArrays);
+        double[] thresholds;
+        double[] values;
+        double[] nodeSampleWeights;
+        if (float32) {
+            FloatBuffer floats = view.asFloatBuffer();
+            thresholds = getFloats(floats, numElements);
+            values = getFloats(floats, numElements * numOutputs);
+            nodeSampleWeights = getFloats(floats, numElements);
+        } else {
+            DoubleBuffer doubles = view.asDoubleBuffer();
+            thresholds = getDoubles(doubles, numElements);
+            values = getDoubles(doubles, numElements * numOutputs);
+            nodeSampleWeights = getDoubles(doubles, numElements);
+        }
+
+        return new JavaTreeEnsemble(numTrees, maxDepth, maxNodes, numOutputs, baseOffset, childrenLeft,
+                childrenRight, childrenDefault, features, thresholds, values, nodeSampleWeights);
+    }
+
+    private static JavaTreeEnsemble fromCompact(CompactModel model) {
+        int numTrees = model.getNumTrees();
+        int maxNodes = model.getMaxNodes();
+        int numElements = numTrees * maxNodes;
+
+        int[] childrenLeft = new int[numElements];
+        int[] childrenRight = new int[numElements];
+        int[] childrenDefault = new int[numElements];
+        int[] features = new int[numElements];
+        double[] thresholds = new double[numElements];
+        double[] values = new double[numElements * model.getNumOutputs()];
+        double[] nodeSampleWeights = new double[numElements];
+        model.expand(0, numTrees, IntBuffer.wrap(childrenLeft), IntBuffer.wrap(childrenRight),
+                IntBuffer.wrap(childrenDefault), IntBuffer.wrap(features), DoubleBuffer.wrap(thresholds),
+                DoubleBuffer.wrap(values), DoubleBuffer.wrap(nodeSampleWeights));
+
+        return new JavaTreeEnsemble(numTrees, model.getMaxDepth(), maxNodes, model.getNumOutputs(),
+                model.getBaseOffset(), childrenLeft, childrenRight, childrenDefault, features, thresholds, values,
+                nodeSampleWeights);
+    }
+
+    private static int[] getInts(IntBuffer buffer, int numElements) {
+        int[] array = new int[numElements];
+        buffer.get(array);
+        return array;
+    }
+
+    private static double[] getDoubles(DoubleBuffer buffer, int numElements) {
+        double[] array = new double[numElements];
+        buffer.get(array);
+        return array;
+    }
+
+    private static double[] getFloats(FloatBuffer buffer, int numElements) {
+        double[] array = new double[numElements];
+        for (int i = 0; i < numElements; ++i) {
+            array[i] = buffer.get();
+        }
+        return array;
+    }
+
+    /**
+     * @return The number of trees.
+     */
+    public int getNumTrees() {
+        return numTrees;
+    }
+
+    /**
+     * @return The maximum depth of the trees.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return The maximum number of nodes of a tree, for which each tree is padded.
+     */
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * @return The number of outputs of the model.
+     */
+    public int getNumOutputs() {
+        return numOutputs;
+    }
+}
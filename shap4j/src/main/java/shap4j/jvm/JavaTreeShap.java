@@ -0,0 +1,284 @@
+package shap4j.jvm;
+
+import java.util.Arrays;
+
+/**
+ * A pure-Java implementation of the path dependent Tree SHAP and Saabas algorithms, ported from
+ * <code>tree_shap.h</code>, which runs without any native library.
+ *
+ * An instance owns the scratch space of the algorithms (the unique paths, stored as a struct of arrays), which is
+ * allocated once and reused across calls. Instances are therefore not thread-safe: use one instance per thread.
+ *
+ * All methods explain a single feature vector <code>x</code> of <code>M</code> features, writing
+ * <code>(M + 1) * K</code> values into <code>out</code> from <code>offset</code>, where <code>K</code> is the number of
+ * outputs of the model, in the same layout as the native kernels: the value of feature <code>j</code> for output
+ * <code>k</code> is written at <code>out[offset + j * K + k]</code>, and the bias term as feature <code>M</code>.
+ */
+public final class JavaTreeShap {
+    private final JavaTreeEnsemble trees;
+
+    // the unique paths of all the recursion levels, see PathElement in tree_shap.h
+    private final int[] pathFeatureIndex;
+    private final double[] pathZeroFraction;
+    private final double[] pathOneFraction;
+    private final double[] pathWeight;
+
+    // the state of the current call, kept in fields rather than passed down the recursion
+    private double[] x;
+    private boolean checkMissing;
+    private double[] phi;
+    private int phiOffset;
+    private int treeOffset;
+
+    /**
+     * @param trees The tree ensemble to be explained.
+     */
+    public JavaTreeShap(JavaTreeEnsemble trees) {
+        this.trees = trees;
+
+        int maxd = trees.maxDepth + 2; // need a bit more space than the max depth
+        int size = (maxd * (maxd + 1)) / 2;
+        this.pathFeatureIndex = new int[size];
+        this.pathZeroFraction = new double[size];
+        this.pathOneFraction = new double[size];
+        this.pathWeight = new double[size];
+    }
+
+    /**
+     * Compute the SHAP values of <code>x</code> with the path dependent Tree SHAP algorithm.
+     * @param x The feature vector.
+     * @param checkMissing Whether to treat <code>NaN</code>'s in <code>x</code> as missing values.
+     * @param out The array receiving the SHAP values, which are overwritten.
+     * @param offset The index in <code>out</code> at which the SHAP values are written.
+     */
+    public void shapValues(double[] x, boolean checkMissing, double[] out, int offset) {
+        int numOutputs = trees.numOutputs;
+        int biasOffset = offset + x.length * numOutputs;
+        Arrays.fill(out, offset, biasOffset + numOutputs, 0);
+        begin(x, checkMissing, out, offset);
+
+        // aggregate the effect of explaining each tree
+        // (this works because of the linearity property of Shapley values)
+        for (int t = 0; t < trees.numTrees; ++t) {
+            treeOffset = t * trees.maxNodes;
+
+            // update the reference value with the expected value of the tree's predictions
+            for (int k = 0; k < numOutputs; ++k) {
+                out[biasOffset + k] += trees.values[treeOffset * numOutputs + k];
+            }
+
+            treeShapRecursive(0, 0, 0, 1, 1, -1);
+        }
+
+        // apply the base offset to the bias term
+        for (int k = 0; k < numOutputs; ++k) {
+            out[biasOffset + k] += trees.baseOffset;
+        }
+        end();
+    }
+
+    /**
+     * Compute the SHAP values of <code>x</code> with the approximate Saabas algorithm.
+     * @param x The feature vector.
+     * @param checkMissing Whether to treat <code>NaN</code>'s in <code>x</code> as missing values.
+     * @param out The array receiving the SHAP values, which are overwritten.
+     * @param offset The index in <code>out</code> at which the SHAP values are written.
+     */
+    public void saabasValues(double[] x, boolean checkMissing, double[] out, int offset) {
+        int numOutputs = trees.numOutputs;
+        int biasOffset = offset + x.length * numOutputs;
+        Arrays.fill(out, offset, biasOffset + numOutputs, 0);
+
+        for (int t = 0; t < trees.numTrees; ++t) {
+            int treeOffset = t * trees.maxNodes;
+            int node = 0;
+
+            while (trees.childrenLeft[treeOffset + node] >= 0) {
+                int pos = treeOffset + node;
+                int feature = trees.features[pos];
+                int next = nextNode(x, checkMissing, pos);
+
+                // assign credit to this feature as the difference in values at the current node vs. the next node
+                for (int k = 0; k < numOutputs; ++k) {
+                    out[offset + feature * numOutputs + k] += trees.values[(treeOffset + next) * numOutputs + k]
+                            - trees.values[pos * numOutputs + k];
+                }
+                node = next;
+            }
+        }
+
+        for (int k = 0; k < numOutputs; ++k) {
+            out[biasOffset + k] += trees.baseOffset;
+        }
+    }
+
+    /**
+     * Compute the raw predictions (margins) of the model for <code>x</code>.
+     * @param x The feature vector.
+     * @param checkMissing Whether to treat <code>NaN</code>'s in <code>x</code> as missing values.
+     * @param out The array receiving the <code>K</code> predictions, which are overwritten.
+     * @param offset The index in <code>out</code> at which the predictions are written.
+     */
+    public void predict(double[] x, boolean checkMissing, double[] out, int offset) {
+        int numOutputs = trees.numOutputs;
+        Arrays.fill(out, offset, offset + numOutputs, trees.baseOffset);
+
+        for (int t = 0; t < trees.numTrees; ++t) {
+            int treeOffset = t * trees.maxNodes;
+            int node = 0;
+            while (trees.childrenLeft[treeOffset + node] >= 0) {
+                node = nextNode(x, checkMissing, treeOffset + node);
+            }
+
+            int valuesOffset = (treeOffset + node) * numOutputs;
+            for (int k = 0; k < numOutputs; ++k) {
+                out[offset + k] += trees.values[valuesOffset + k];
+            }
+        }
+    }
+
+    private int nextNode(double[] x, boolean checkMissing, int pos) {
+        double value = x[trees.features[pos]];
+        if (checkMissing && Double.isNaN(value)) {
+            return trees.childrenDefault[pos];
+        } else if (value <= trees.thresholds[pos]) {
+            return trees.childrenLeft[pos];
+        } else {
+            return trees.childrenRight[pos];
+        }
+    }
+
+    private void begin(double[] x, boolean checkMissing, double[] phi, int phiOffset) {
+        this.x = x;
+        this.checkMissing = checkMissing;
+        this.phi = phi;
+        this.phiOffset = phiOffset;
+    }
+
+    private void end() {
+        // do not hold on to the arrays of the caller
+        this.x = null;
+        this.phi = null;
+    }
+
+    /**
+     * Port of tree_shap_recursive, without conditioning. The unique path of the current level starts at index
+     * <code>parentPath + uniqueDepth + 1</code> of the path arrays, right after the unique path of the parent.
+     */
+    private void treeShapRecursive(int node, int uniqueDepth, int parentPath, double parentZeroFraction,
+                                   double parentOneFraction, int parentFeatureIndex) {
+        int numOutputs = trees.numOutputs;
+        int pos = treeOffset + node;
+
+        // extend the unique path
+        int path = parentPath + uniqueDepth + 1;
+        System.arraycopy(pathFeatureIndex, parentPath, pathFeatureIndex, path, uniqueDepth + 1);
+        System.arraycopy(pathZeroFraction, parentPath, pathZeroFraction, path, uniqueDepth + 1);
+        System.arraycopy(pathOneFraction, parentPath, pathOneFraction, path, uniqueDepth + 1);
+        System.arraycopy(pathWeight, parentPath, pathWeight, path, uniqueDepth + 1);
+        extendPath(path, uniqueDepth, parentZeroFraction, parentOneFraction, parentFeatureIndex);
+
+        int splitIndex = trees.features[pos];
+
+        // leaf node
+        if (trees.childrenRight[pos] < 0) {
+            int valuesOffset = pos * numOutputs;
+            for (int i = 1; i <= uniqueDepth; ++i) {
+                double w = unwoundPathSum(path, uniqueDepth, i);
+                int phiIndex = phiOffset + pathFeatureIndex[path + i] * numOutputs;
+                double scale = w * (pathOneFraction[path + i] - pathZeroFraction[path + i]);
+                for (int k = 0; k < numOutputs; ++k) {
+                    phi[phiIndex + k] += scale * trees.values[valuesOffset + k];
+                }
+            }
+            return;
+        }
+
+        // internal node: find which branch is "hot" (meaning x would follow it)
+        int hotIndex = nextNode(x, checkMissing, pos);
+        int coldIndex = hotIndex == trees.childrenLeft[pos] ? trees.childrenRight[pos] : trees.childrenLeft[pos];
+        double w = trees.nodeSampleWeights[pos];
+        double hotZeroFraction = trees.nodeSampleWeights[treeOffset + hotIndex] / w;
+        double coldZeroFraction = trees.nodeSampleWeights[treeOffset + coldIndex] / w;
+        double incomingZeroFraction = 1;
+        double incomingOneFraction = 1;
+
+        // see if we have already split on this feature,
+        // if so we undo that split so we can redo it for this node
+        int pathIndex = 0;
+        for (; pathIndex <= uniqueDepth; ++pathIndex) {
+            if (pathFeatureIndex[path + pathIndex] == splitIndex) break;
+        }
+        if (pathIndex != uniqueDepth + 1) {
+            incomingZeroFraction = pathZeroFraction[path + pathIndex];
+            incomingOneFraction = pathOneFraction[path + pathIndex];
+            unwindPath(path, uniqueDepth, pathIndex);
+            uniqueDepth -= 1;
+        }
+
+        treeShapRecursive(hotIndex, uniqueDepth + 1, path, hotZeroFraction * incomingZeroFraction,
+                incomingOneFraction, splitIndex);
+        treeShapRecursive(coldIndex, uniqueDepth + 1, path, coldZeroFraction * incomingZeroFraction, 0,
+                splitIndex);
+    }
+
+    // extend our decision path with a fraction of one and zero extensions
+    private void extendPath(int path, int uniqueDepth, double zeroFraction, double oneFraction, int featureIndex) {
+        pathFeatureIndex[path + uniqueDepth] = featureIndex;
+        pathZeroFraction[path + uniqueDepth] = zeroFraction;
+        pathOneFraction[path + uniqueDepth] = oneFraction;
+        pathWeight[path + uniqueDepth] = uniqueDepth == 0 ? 1 : 0;
+        for (int i = uniqueDepth - 1; i >= 0; i--) {
+            pathWeight[path + i + 1] += oneFraction * pathWeight[path + i] * (i + 1) / (double) (uniqueDepth + 1);
+            pathWeight[path + i] = zeroFraction * pathWeight[path + i] * (uniqueDepth - i)
+                    / (double) (uniqueDepth + 1);
+        }
+    }
+
+    // undo a previous extension of the decision path
+    private void unwindPath(int path, int uniqueDepth, int pathIndex) {
+        double oneFraction = pathOneFraction[path + pathIndex];
+        double zeroFraction = pathZeroFraction[path + pathIndex];
+        double nextOnePortion = pathWeight[path + uniqueDepth];
+
+        for (int i = uniqueDepth - 1; i >= 0; --i) {
+            if (oneFraction != 0) {
+                double tmp = pathWeight[path + i];
+                pathWeight[path + i] = nextOnePortion * (uniqueDepth + 1) / ((i + 1) * oneFraction);
+                nextOnePortion = tmp - pathWeight[path + i] * zeroFraction * (uniqueDepth - i)
+                        / (double) (uniqueDepth + 1);
+            } else {
+                pathWeight[path + i] = (pathWeight[path + i] * (uniqueDepth + 1))
+                        / (zeroFraction * (uniqueDepth - i));
+            }
+        }
+
+        for (int i = pathIndex; i < uniqueDepth; ++i) {
+            pathFeatureIndex[path + i] = pathFeatureIndex[path + i + 1];
+            pathZeroFraction[path + i] = pathZeroFraction[path + i + 1];
+            pathOneFraction[path + i] = pathOneFraction[path + i + 1];
+        }
+    }
+
+    // determine what the total permutation weight would be if
+    // we unwound a previous extension in the decision path
+    private double unwoundPathSum(int path, int uniqueDepth, int pathIndex) {
+        double oneFraction = pathOneFraction[path + pathIndex];
+        double zeroFraction = pathZeroFraction[path + pathIndex];
+        double nextOnePortion = pathWeight[path + uniqueDepth];
+        double total = 0;
+
+        if (oneFraction != 0) {
+            for (int i = uniqueDepth - 1; i >= 0; --i) {
+                double tmp = nextOnePortion / ((i + 1) * oneFraction);
+                total += tmp;
+                nextOnePortion = pathWeight[path + i] - tmp * zeroFraction * (uniqueDepth - i);
+            }
+        } else {
+            for (int i = uniqueDepth - 1; i >= 0; --i) {
+                total += pathWeight[path + i] / (zeroFraction * (uniqueDepth - i));
+            }
+        }
+        return total * (uniqueDepth + 1);
+    }
+}
@@ -0,0 +1,44 @@
+package shap4j.shap;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.annotation.ByRef;
+import org.bytedeco.javacpp.annotation.Cast;
+import org.bytedeco.javacpp.annotation.Const;
+import org.bytedeco.javacpp.annotation.Platform;
+
+/**
+ * A tree ensemble repacked for the exact Tree SHAP algorithm. Each tree is stored without padding as a depth-first
+ * array of nodes, each holding its threshold, feature, right child and the ratio of its cover to the cover of its
+ * parent, so that visiting a node touches a single cache line.
+ *
+ * The compiled ensemble is a copy of the original ensemble, which it does not reference; its native memory is
+ * released when it is closed or garbage collected.
+ */
+@Platform(include="shap4j/shap/tree_shap_ext.h")
+public class CompiledTreeEnsemble extends Pointer {
+    static {
+        Loader.load();
+    }
+
+    /**
+     * Compile a tree ensemble.
+     * @param ensemble The tree ensemble to be compiled.
+     */
+    public CompiledTreeEnsemble(TreeEnsemble ensemble) {
+        allocate();
+        compile(ensemble.widen());
+    }
+    private native void allocate();
+    private native void compile(@Const @ByRef TreeEnsemble trees);
+
+    /**
+     * @return The total number of nodes of the compiled trees.
+     */
+    public native @Cast("unsigned") int num_nodes();
+
+    /**
+     * @return The size of the native memory held by this ensemble, in bytes.
+     */
+    public native @Cast("unsigned long long") long native_bytes();
+}
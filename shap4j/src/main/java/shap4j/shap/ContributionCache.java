@@ -0,0 +1,71 @@
+package shap4j.shap;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.annotation.ByRef;
+import org.bytedeco.javacpp.annotation.Cast;
+import org.bytedeco.javacpp.annotation.Const;
+import org.bytedeco.javacpp.annotation.Platform;
+
+/**
+ * A bounded cache of the contributions of each tree of an ensemble to the SHAP values of the exact
+ * <code>TREE_PATH_DEPENDENT</code> algorithm (see {@link TreeShap#dense_tree_shap_cached}).
+ *
+ * The contribution of a tree to the SHAP values of a row only depends on the branch taken by the row at each internal
+ * node of the tree, so that rows with the same decisions, e.g. with bucketed or categorical features, share the same
+ * contribution. Contributions are keyed by the bitset of these decisions, which is much cheaper to compute than the
+ * contribution itself, and each tree holds at most <code>capacity / num_trees</code> of them, evicted first-in,
+ * first-out. The hit and miss counters help sizing the cache.
+ *
+ * The cache is thread-safe, and does not reference the ensemble; its native memory is released when it is closed or
+ * garbage collected.
+ */
+@Platform(include="shap4j/shap/tree_shap_ext.h")
+public class ContributionCache extends Pointer {
+    static {
+        Loader.load();
+    }
+
+    /**
+     * Create an empty cache for a tree ensemble.
+     * @param ensemble The tree ensemble whose contributions are cached.
+     * @param capacity The maximum number of contributions held by the cache, over all trees.
+     */
+    public ContributionCache(TreeEnsemble ensemble, long capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+        }
+
+        allocate();
+        init(ensemble, capacity);
+    }
+    private native void allocate();
+    private native void init(@Const @ByRef TreeEnsemble trees, @Cast("long long") long capacity);
+
+    /**
+     * @return The number of contributions found in the cache since it was created or cleared.
+     */
+    public native @Cast("long long") long hits();
+
+    /**
+     * @return The number of contributions computed because they were not found in the cache since it was created or
+     *         cleared.
+     */
+    public native @Cast("long long") long misses();
+
+    /**
+     * @return The number of contributions held by the cache.
+     */
+    public native @Cast("long long") long size();
+
+    /**
+     * @return The maximum number of contributions held by the cache, rounded down to a multiple of the number of trees
+     *         (and at least one per tree).
+     */
+    public native @Cast("long long") long capacity();
+
+    /**
+     * Remove all contributions from the cache, and reset its counters.
+     */
+    public native void clear();
+}
@@ -5,6 +5,11 @@ import org.bytedeco.javacpp.annotation.ByRef;
 import org.bytedeco.javacpp.annotation.Const;
 import org.bytedeco.javacpp.annotation.Platform;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
 @Platform(include="shap4j/shap/tree_shap.h")
 public class ExplanationDataset extends Pointer {
     static {
@@ -13,37 +18,68 @@ public class ExplanationDataset extends Pointer {
 
     private int numRows;
     private int numCols;
+    private int numBackgroundRows;
+
+    // the native buffers owned by this dataset, which are released when the dataset is closed
+    private Pointer[] ownedPointers = {};
+    // the dataset owning the native buffers, if this instance is a view created by slice() or withBackground()
+    private ExplanationDataset parent = null;
+    // the dataset owning the background (R) buffers, if set by withBackground()
+    private ExplanationDataset background = null;
+    // the caller-owned direct buffer backing X, if created by wrap(), kept reachable for the lifetime of the dataset
+    private DoubleBuffer buffer = null;
+    // whether the native kernels detect the missing values of the rows, if the dataset has no X_missing flags
+    private boolean checkMissing = false;
+
+    // Java handles on the X and X_missing buffers, kept to fill rows without creating new handles. xMissingPtr is
+    // null if the dataset has no flags, in which case the missing values are detected by the native kernels
+    private DoublePointer xPtr;
+    private BoolPointer xMissingPtr;
 
     private ExplanationDataset() {
         allocate();
     }
     private native void allocate();
 
-    private PointerScope scope = null;
-
-    // TODO: check memory leak: do we need to deallocate the pointers manually?
     private ExplanationDataset(DoublePointer X, BoolPointer X_missing, DoublePointer y, DoublePointer R,
                                BoolPointer R_missing, int num_X, int M, int num_R) {
-        scope = new PointerScope();
-
         this.numRows = num_X;
         this.numCols = M;
+        this.numBackgroundRows = num_R;
+        this.xPtr = X;
+        this.xMissingPtr = X_missing;
 
-        // attach all non-null pointers to a local scope, so that when ExplanationDataset is closed, all attached
-        // pointers are closed/released accordingly as well.
-        if (X != null) scope.attach(X);
-        if (X_missing != null) scope.attach(X_missing);
-        if (y != null) scope.attach(y);
-        if (R != null) scope.attach(R);
-        if (R_missing != null) scope.attach(R_missing);
+        // keep track of all the pointers, so that when ExplanationDataset is closed, all of them are closed/released
+        // accordingly as well. Note that a PointerScope is not used here, as it would remain open on the current
+        // thread for the lifetime of the dataset, and capture any other pointer allocated in the meantime.
+        this.ownedPointers = new Pointer[] {X, X_missing, y, R, R_missing};
 
         allocate(X, X_missing, y, R, R_missing, num_X, M, num_R);
     }
 
+    private ExplanationDataset(ExplanationDataset parent, int rowOffset, int numRows, DoublePointer R,
+                               BoolPointer R_missing, int numBackgroundRows) {
+        this.parent = parent;
+        this.numRows = numRows;
+        this.numCols = parent.numCols;
+        this.numBackgroundRows = numBackgroundRows;
+        this.checkMissing = parent.checkMissing;
+
+        long offset = (long) rowOffset * numCols;
+        DoublePointer y = parent.y();
+
+        this.xPtr = parent.X().position(offset);
+        this.xMissingPtr = parent.xMissingPtr == null ? null : parent.X_missing().position(offset);
+
+        allocate(xPtr, xMissingPtr, y == null ? null : y.position(rowOffset),
+                 R, R_missing, numRows, numCols, numBackgroundRows);
+    }
+
     @Override
     public void close() {
-        // release all pointers attached to the current scope;
-        if (scope != null) scope.close();
+        for (Pointer pointer : ownedPointers) {
+            if (pointer != null) pointer.close();
+        }
         super.close();
     }
 
@@ -54,7 +90,158 @@ public class ExplanationDataset extends Pointer {
 
     native DoublePointer X(); private native void X(DoublePointer setter);
     native BoolPointer X_missing(); private native void X_missing(BoolPointer setter);
+    native DoublePointer y(); private native void y(DoublePointer setter);
+    native DoublePointer R(); private native void R(DoublePointer setter);
+    native BoolPointer R_missing(); private native void R_missing(BoolPointer setter);
+    native int num_R(); private native void num_R(int setter);
+
+    /**
+     * Create a view over the rows <code>[rowOffset, rowOffset + numRows)</code> of this dataset. The view shares the
+     * native buffers of this dataset, so no data is copied; it must not be used after this dataset is closed.
+     * @param rowOffset The index of the first row of the view.
+     * @param numRows The number of rows in the view.
+     * @return An <code>ExplanationDataset</code> backed by a contiguous slice of the rows of this dataset.
+     */
+    public ExplanationDataset slice(int rowOffset, int numRows) {
+        if (rowOffset < 0 || numRows < 0 || rowOffset + numRows > this.numRows) {
+            throw new IndexOutOfBoundsException(
+                    "Slice [" + rowOffset + ", " + (rowOffset + numRows) + ") out of bounds for " + this.numRows + " rows"
+            );
+        }
+
+        return new ExplanationDataset(this, rowOffset, numRows, R(), R_missing(), numBackgroundRows);
+    }
+
+    /**
+     * Create a view over all the rows of this dataset, which uses the rows of <code>background</code> as the background
+     * (reference) dataset of the interventional Tree SHAP algorithms. Neither dataset is copied, so the same background
+     * can be shared by many datasets once it has been copied to the native memory; the view must not be used after
+     * either dataset is closed. The missing values of a background without flags are detected once, when it is first
+     * attached to a dataset, as the interventional algorithms read the flags of all the background rows.
+     * @param background The background dataset, whose rows must have the same number of features as this dataset.
+     * @return An <code>ExplanationDataset</code> with the rows of this dataset and the background of
+     *         <code>background</code>.
+     */
+    public ExplanationDataset withBackground(ExplanationDataset background) {
+        if (background.numCols != numCols) {
+            throw new IllegalArgumentException(
+                    "Expecting a background with " + numCols + " features, got " + background.numCols
+            );
+        }
+
+        ExplanationDataset view = new ExplanationDataset(this, 0, numRows, background.X(), background.missingFlags(),
+                background.numRows);
+        view.background = background;
+        return view;
+    }
+
+    /**
+     * Create a view over all the rows of this dataset, restricted to the background rows
+     * <code>[rowOffset, rowOffset + numRows)</code> of this dataset.
+     * @param rowOffset The index of the first background row of the view.
+     * @param numRows The number of background rows in the view.
+     * @return An <code>ExplanationDataset</code> backed by the rows of this dataset and a contiguous slice of its
+     *         background.
+     * @see #withBackground(ExplanationDataset)
+     */
+    public ExplanationDataset sliceBackground(int rowOffset, int numRows) {
+        if (rowOffset < 0 || numRows <= 0 || rowOffset + numRows > numBackgroundRows) {
+            throw new IndexOutOfBoundsException(
+                    "Slice [" + rowOffset + ", " + (rowOffset + numRows) + ") out of bounds for " + numBackgroundRows
+                            + " background rows"
+            );
+        }
+
+        long offset = (long) rowOffset * numCols;
+        return new ExplanationDataset(this, 0, this.numRows, R().position(offset), R_missing().position(offset),
+                numRows);
+    }
+
+    /**
+     * @return The flags of the missing values of the rows of this dataset, which are detected (according to
+     *         {@link #isCheckMissing()}) and kept on the first call if the dataset has none.
+     */
+    private synchronized BoolPointer missingFlags() {
+        if (xMissingPtr == null) {
+            long size = (long) numRows * numCols;
+            BoolPointer flags = new BoolPointer(size);
+            TreeShap.fill_missing(xPtr, flags, (int) size, checkMissing);
+
+            Pointer[] pointers = Arrays.copyOf(ownedPointers, ownedPointers.length + 1);
+            pointers[ownedPointers.length] = flags;
+            ownedPointers = pointers;
+            xMissingPtr = flags;
+            X_missing(flags);
+        }
+        return xMissingPtr;
+    }
+
+    /**
+     * Create an <code>ExplanationDataset</code> of the given shape, whose native buffers are allocated but not
+     * initialized. The rows are expected to be filled through {@link #setRow(int, double[], boolean)}, so the dataset
+     * can be reused to explain different feature vectors without allocating new native memory.
+     * @param numRows The number of rows (feature vectors) of the dataset.
+     * @param numCols The number of columns (features) of the dataset.
+     * @return An <code>ExplanationDataset</code> with uninitialized rows.
+     */
+    public static ExplanationDataset empty(int numRows, int numCols) {
+        assert numRows > 0 && numCols > 0;
+
+        long size = (long) numRows * numCols;
+        return new ExplanationDataset(new DoublePointer(size), new BoolPointer(size), null, null, null,
+                numRows, numCols, 0);
+    }
 
+    /**
+     * Copy a feature vector into the row <code>rowIndex</code> of this dataset, through a single copy to the native
+     * memory. Missing values are detected in native code, without any per-element call from Java.
+     * @param rowIndex The index of the row to be set.
+     * @param row The feature vector, which must have exactly <code>getNumCols()</code> values.
+     * @param checkMissing Whether to check missing values (<code>NaN</code>'s) in <code>row</code>. If set to false,
+     *                     all values are assumed to be non-missing. A dataset without flags (see
+     *                     {@link #fromMatrix(double[][], boolean)}) detects the missing values of all its rows in the
+     *                     same way, so this must be {@link #isCheckMissing()}.
+     */
+    public void setRow(int rowIndex, double[] row, boolean checkMissing) {
+        if (row.length != numCols) {
+            throw new IllegalArgumentException("Expecting " + numCols + " features, got " + row.length);
+        }
+        if (rowIndex < 0 || rowIndex >= numRows) {
+            throw new IndexOutOfBoundsException("Row " + rowIndex + " out of bounds for " + numRows + " rows");
+        }
+        if (xMissingPtr == null && checkMissing != this.checkMissing) {
+            throw new IllegalArgumentException(
+                    "Dataset without missing value flags was created with checkMissing = " + this.checkMissing
+            );
+        }
+
+        long offset = (long) rowIndex * numCols;
+        long xPosition = xPtr.position();
+        if (xMissingPtr == null) {
+            xPtr.position(xPosition + offset).put(row, 0, numCols);
+            xPtr.position(xPosition);
+            return;
+        }
+
+        long xMissingPosition = xMissingPtr.position();
+
+        xPtr.position(xPosition + offset).put(row, 0, numCols);
+        xMissingPtr.position(xMissingPosition + offset);
+        TreeShap.fill_missing(xPtr, xMissingPtr, numCols, checkMissing);
+
+        xPtr.position(xPosition);
+        xMissingPtr.position(xMissingPosition);
+    }
+
+    /**
+     * Create an <code>ExplanationDataset</code> from a copy of the rows of <code>matrix</code> in the native memory.
+     * The dataset has no missing value flags: the missing values of each row are detected by the native kernels when
+     * the row is explained, unless <code>checkMissing</code> is false.
+     * @param matrix The feature vectors, which must all have the same number of features.
+     * @param checkMissing Whether to check missing values (<code>NaN</code>'s) in <code>matrix</code>. If set to false,
+     *                     all values are assumed to be non-missing.
+     * @return An <code>ExplanationDataset</code> with the rows of <code>matrix</code>.
+     */
     public static ExplanationDataset fromMatrix(double[][] matrix, boolean checkMissing) {
         assert matrix.length > 0;
 
@@ -63,26 +250,114 @@ public class ExplanationDataset extends Pointer {
         int Xsize = num_X * M;
 
         DoublePointer XPtr = new DoublePointer(Xsize);
-        BoolPointer XmissingPtr = new BoolPointer(Xsize);
-
-        // if checkMissing is false, we just pretend that none of the X elements are missing (nan)
-        if (!checkMissing) {
-            BoolPointer.memset(XmissingPtr, 0, Xsize);
-        }
 
         int offset = 0;
         for (int i = 0; i < num_X; ++i, offset += M) {
             XPtr.position(offset).put(matrix[i], 0, M);
+        }
+        XPtr.position(0L);
+
+        ExplanationDataset dataset = new ExplanationDataset(XPtr, null, null, null, null, num_X, M, 0);
+        dataset.checkMissing = checkMissing;
+        return dataset;
+    }
 
-            if (checkMissing) {
-                for (int j = 0; j < M; ++j) {
-                    XmissingPtr.put(offset + j, Double.isNaN(matrix[i][j]));
-                }
-            }
+    /**
+     * Create an <code>ExplanationDataset</code> over the row-major feature vectors of a direct buffer, without copying
+     * them: the native kernels read the features from the memory of the buffer, starting from its current position,
+     * which must be aligned on 8 bytes. No native memory is allocated: as in {@link #fromMatrix(double[][], boolean)},
+     * the missing values of each row are detected by the native kernels when the row is explained.
+     *
+     * The buffer is owned by the caller: it is referenced by the dataset, so that it is not garbage collected before
+     * the dataset, but it is neither copied nor released when the dataset is closed. Features written to the buffer
+     * afterwards, including missing values, are seen by the subsequent explanations.
+     * @param buffer A direct buffer in the native byte order, with at least <code>numRows * numCols</code> values
+     *               remaining. Note that the double buffers of <code>ByteBuffer.allocateDirect()</code> are big-endian
+     *               unless the byte buffer was set to the native order first.
+     * @param numRows The number of rows (feature vectors) of the dataset.
+     * @param numCols The number of columns (features) of the dataset.
+     * @param checkMissing Whether to check missing values (<code>NaN</code>'s) in <code>buffer</code>. If set to false,
+     *                     all values are assumed to be non-missing.
+     * @return An <code>ExplanationDataset</code> backed by the memory of <code>buffer</code>.
+     */
+    public static ExplanationDataset wrap(DoubleBuffer buffer, int numRows, int numCols, boolean checkMissing) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Only direct buffers can be wrapped, see fromMatrix() instead");
         }
+        // the native kernels read the raw memory of the buffer, whatever its byte order
+        if (buffer.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException(
+                    "Expecting a buffer in the native byte order " + ByteOrder.nativeOrder() + ", got " + buffer.order()
+            );
+        }
+        if (numRows <= 0 || numCols <= 0) {
+            throw new IllegalArgumentException(
+                    "Expecting a positive number of rows and columns, got " + numRows + " x " + numCols
+            );
+        }
+
+        long size = (long) numRows * numCols;
+        if (size > Integer.MAX_VALUE || buffer.remaining() < size) {
+            throw new IllegalArgumentException(
+                    "Buffer has " + buffer.remaining() + " values remaining, " + size + " required"
+            );
+        }
+
+        // slice() starts the view at the position of the buffer, as DoublePointer(DoubleBuffer) does not handle
+        // non-zero positions reliably. The pointer wraps the address of the buffer, so no memory is allocated for X
+        DoubleBuffer view = buffer.slice();
+        DoublePointer XPtr = new DoublePointer(view);
+        // a double buffer created from a byte buffer at an odd position keeps its (unaligned) address
+        if (XPtr.address() % Double.BYTES != 0) {
+            throw new IllegalArgumentException(
+                    "Expecting a buffer aligned on " + Double.BYTES + " bytes, got address " + XPtr.address()
+            );
+        }
+
+        ExplanationDataset dataset = new ExplanationDataset(XPtr, null, null, null, null, numRows, numCols, 0);
+        dataset.ownedPointers = new Pointer[] {};
+        dataset.checkMissing = checkMissing;
+        dataset.buffer = view;
+        return dataset;
+    }
 
-        // reset position for X
-        return new ExplanationDataset(XPtr.position(0L), XmissingPtr, null, null, null, num_X, M, 0);
+    /**
+     * Create an <code>ExplanationDataset</code> over the row-major feature vectors of a direct byte buffer, without
+     * copying them, as in {@link #wrap(DoubleBuffer, int, int, boolean)}. The doubles are read in the native byte
+     * order, starting from the current position of the buffer, whose address must be aligned on 8 bytes.
+     * @param buffer A direct buffer in the native byte order, with at least <code>8 * numRows * numCols</code> bytes
+     *               remaining.
+     * @param numRows The number of rows (feature vectors) of the dataset.
+     * @param numCols The number of columns (features) of the dataset.
+     * @param checkMissing Whether to check missing values (<code>NaN</code>'s) in <code>buffer</code>. If set to false,
+     *                     all values are assumed to be non-missing.
+     * @return An <code>ExplanationDataset</code> backed by the memory of <code>buffer</code>.
+     */
+    public static ExplanationDataset wrap(ByteBuffer buffer, int numRows, int numCols, boolean checkMissing) {
+        // the double buffer has the byte order of the byte buffer, which is checked by wrap(DoubleBuffer)
+        return wrap(buffer.asDoubleBuffer(), numRows, numCols, checkMissing);
+    }
+
+    /**
+     * @return The size of the native buffers owned by this dataset, in bytes, which are released when it is closed:
+     *         none for a view, nor for the features of a wrapped buffer, which is owned by the caller.
+     */
+    public long getNativeBytes() {
+        long bytes = 0;
+        for (Pointer pointer : ownedPointers) {
+            if (pointer != null) bytes += pointer.capacity() * pointer.sizeof();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Whether the native kernels check the missing values (<code>NaN</code>'s) of the rows of this dataset, if
+     *         it has no missing value flags, as created by {@link #fromMatrix(double[][], boolean)} or
+     *         {@link #wrap(DoubleBuffer, int, int, boolean)}. The flags of the datasets created by
+     *         {@link #empty(int, int)} are set row by row instead.
+     */
+    public boolean isCheckMissing() {
+        return checkMissing;
     }
 
     public int getNumRows() {
@@ -92,4 +367,11 @@ public class ExplanationDataset extends Pointer {
     public int getNumCols() {
         return numCols;
     }
+
+    /**
+     * @return The number of rows of the background dataset, or 0 if this dataset has no background.
+     */
+    public int getNumBackgroundRows() {
+        return numBackgroundRows;
+    }
 }
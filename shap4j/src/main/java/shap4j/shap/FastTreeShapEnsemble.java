@@ -0,0 +1,59 @@
+package shap4j.shap;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.annotation.ByRef;
+import org.bytedeco.javacpp.annotation.Cast;
+import org.bytedeco.javacpp.annotation.Const;
+import org.bytedeco.javacpp.annotation.Platform;
+
+/**
+ * A tree ensemble prepared for the exact <code>TREE_PATH_DEPENDENT</code> algorithm with FastTreeSHAP (see
+ * {@link TreeShap#dense_tree_shap_fast}), which trades memory for speed on large batches.
+ *
+ * For each leaf with <code>d</code> distinct features on its path, a table of <code>2^d</code> weights is precomputed
+ * once (FastTreeSHAP v2), after which each row is explained by a single traversal of each tree. Tables are built for
+ * the trees in order as long as their total size fits the memory budget; the other trees are explained by the
+ * recursive algorithm with the shared leaf sums of FastTreeSHAP v1, which needs no extra memory. The SHAP values are
+ * equal to those of the recursive algorithm up to rounding.
+ *
+ * The ensemble is a copy of the original ensemble, which it does not reference; its native memory is released when it
+ * is closed or garbage collected.
+ */
+@Platform(include="shap4j/shap/tree_shap_ext.h")
+public class FastTreeShapEnsemble extends Pointer {
+    static {
+        Loader.load();
+    }
+
+    /**
+     * Prepare a tree ensemble for FastTreeSHAP.
+     * @param ensemble The tree ensemble.
+     * @param memoryBudget The maximum size of the precomputed tables, in bytes.
+     */
+    public FastTreeShapEnsemble(TreeEnsemble ensemble, long memoryBudget) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("memoryBudget must not be negative, got " + memoryBudget);
+        }
+
+        allocate();
+        compile(ensemble.widen(), memoryBudget);
+    }
+    private native void allocate();
+    private native void compile(@Const @ByRef TreeEnsemble trees, @Cast("long long") long memory_budget);
+
+    /**
+     * @return The number of trees with precomputed tables (FastTreeSHAP v2), the others using FastTreeSHAP v1.
+     */
+    public native @Cast("unsigned") int num_v2_trees();
+
+    /**
+     * @return The size of the precomputed tables, in bytes.
+     */
+    public native @Cast("unsigned long long") long table_bytes();
+
+    /**
+     * @return The size of the native memory held by this ensemble, in bytes.
+     */
+    public native @Cast("unsigned long long") long native_bytes();
+}
@@ -0,0 +1,52 @@
+package shap4j.shap;
+
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.annotation.ByRef;
+import org.bytedeco.javacpp.annotation.Cast;
+import org.bytedeco.javacpp.annotation.Const;
+import org.bytedeco.javacpp.annotation.Platform;
+
+/**
+ * A tree ensemble compiled as a {@link CompiledTreeEnsemble}, with its thresholds, cover ratios and values rounded to
+ * single precision, for the single precision Tree SHAP kernels (see {@link TreeShap#dense_tree_shap_float}).
+ *
+ * The compiled ensemble is a copy of the original ensemble, which it does not reference; its native memory is
+ * released when it is closed or garbage collected. An ensemble stored in single precision (see
+ * {@link TreeEnsemble#FLAG_FLOAT32}) is compiled from its single precision arrays, without widening it.
+ */
+@Platform(include="shap4j/shap/tree_shap_ext.h")
+public class FloatTreeEnsemble extends Pointer {
+    static {
+        Loader.load();
+    }
+
+    /**
+     * Compile a tree ensemble in single precision.
+     * @param ensemble The tree ensemble to be compiled.
+     */
+    public FloatTreeEnsemble(TreeEnsemble ensemble) {
+        allocate();
+        FloatPointer[] singles = ensemble.getSingles();
+        if (singles != null) {
+            compile(ensemble, singles[0], singles[1], singles[2]);
+        } else {
+            compile(ensemble);
+        }
+    }
+    private native void allocate();
+    private native void compile(@Const @ByRef TreeEnsemble trees);
+    private native void compile(@Const @ByRef TreeEnsemble trees, @Const FloatPointer thresholds_in,
+                                @Const FloatPointer values_in, @Const FloatPointer node_sample_weights_in);
+
+    /**
+     * @return The total number of nodes of the compiled trees.
+     */
+    public native @Cast("unsigned") int num_nodes();
+
+    /**
+     * @return The size of the native memory held by this ensemble, in bytes.
+     */
+    public native @Cast("unsigned long long") long native_bytes();
+}
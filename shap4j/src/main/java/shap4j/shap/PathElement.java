@@ -0,0 +1,25 @@
+package shap4j.shap;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.annotation.Platform;
+
+/**
+ * A native array of <code>PathElement</code>'s, used as preallocated scratch space for the unique paths maintained by
+ * the recursive Tree SHAP algorithm.
+ */
+@Platform(include="shap4j/shap/tree_shap.h")
+public class PathElement extends Pointer {
+    static {
+        Loader.load();
+    }
+
+    /**
+     * Allocate a native array of <code>PathElement</code>'s large enough to explain any tree of the given ensemble.
+     * @param ensemble The tree ensemble to be explained with this array.
+     */
+    public PathElement(TreeEnsemble ensemble) {
+        allocateArray(TreeShap.unique_path_size(ensemble.max_depth()));
+    }
+    private native void allocateArray(long size);
+}
@@ -4,11 +4,12 @@ import org.bytedeco.javacpp.*;
 import org.bytedeco.javacpp.annotation.ByRef;
 import org.bytedeco.javacpp.annotation.Const;
 import org.bytedeco.javacpp.annotation.Platform;
+import shap4j.CompactModel;
 
-import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.file.Files;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 
 @Platform(include="shap4j/shap/tree_shap.h")
 public class TreeEnsemble extends Pointer {
@@ -16,6 +17,26 @@ public class TreeEnsemble extends Pointer {
         Loader.load();
     }
 
+    /**
+     * The flag set in the header (at byte 40) of a <code>.shap4j</code> file whose thresholds, values and node sample
+     * weights are stored in single precision (4 bytes each) instead of double precision. Byte 40 is not reserved in
+     * version 1 files, so the flags are only read when the arrays start at byte 44 or later
+     * (<code>offsetIntArrays &gt;= 44</code>); files whose arrays start earlier are always in double precision.
+     *
+     * The arrays of such a file are not copied when the model is loaded (and stay in the file if it is memory-mapped):
+     * the single precision kernels build their ensemble straight from them, whereas the double precision kernels need
+     * them widened into a native copy, which is only made when first needed, see {@link #widen()}.
+     */
+    public static final int FLAG_FLOAT32 = 1;
+
+    // the memory blocks backing the arrays of this ensemble; the native struct only holds raw pointers into these
+    // blocks, so they must be referenced here to prevent them from being deallocated (or unmapped) while in use.
+    private Object[] buffers = {};
+    // the single precision thresholds, values and node sample weights of a FLAG_FLOAT32 model, or null
+    private FloatPointer[] singles = null;
+    // the native double precision copy of the single precision arrays, once widened
+    private volatile DoublePointer widened = null;
+
     private TreeEnsemble() {
         allocate();
     }
@@ -45,9 +66,26 @@ public class TreeEnsemble extends Pointer {
     public native int num_outputs(); private native void num_outputs(int setter);
     public native int tree_limit(); private native void tree_limit(int setter);
     public native int max_nodes(); private native void max_nodes(int setter);
+    public native int max_depth(); private native void max_depth(int setter);
     native IntPointer children_left(); private native void children_left(IntPointer setter);
     native IntPointer children_right(); private native void children_right(IntPointer setter);
 
+    native DoublePointer base_offset(); private native void base_offset(DoublePointer setter);
+    private native DoublePointer thresholds(); private native void thresholds(DoublePointer setter);
+    private native DoublePointer values(); private native void values(DoublePointer setter);
+    private native DoublePointer node_sample_weights(); private native void node_sample_weights(DoublePointer setter);
+
+    /**
+     * @param output The index of an output of the model.
+     * @return The base offset added to the predictions (and to the bias term of the SHAP values) of the output.
+     */
+    public double getBaseOffset(int output) {
+        if (output < 0 || output >= num_outputs()) {
+            throw new IndexOutOfBoundsException("Output " + output + " out of range [0, " + num_outputs() + ")");
+        }
+        return base_offset().get(output);
+    }
+
     public int getChildrenLeft(int treeIndex, int nodeIndex) {
         return children_left().get(treeIndex * max_nodes() + nodeIndex);
     }
@@ -56,27 +94,160 @@ public class TreeEnsemble extends Pointer {
         return children_right().get(treeIndex * max_nodes() + nodeIndex);
     }
 
+    /**
+     * @return The size of the arrays of the trees, i.e. <code>max_nodes * tree_limit</code> nodes of 4 integers and
+     *         <code>2 + num_outputs</code> doubles (or floats, for a model stored in single precision which has not
+     *         been widened) each, and the base offsets, in bytes. Note that these arrays may point into a
+     *         memory-mapped file rather than into native memory allocated for the ensemble.
+     */
+    public long getNativeBytes() {
+        int realBytes = singles != null && widened == null ? Float.BYTES : Double.BYTES;
+        return (long) tree_limit() * max_nodes() * (4L * Integer.BYTES + (2L + num_outputs()) * realBytes)
+                + (long) num_outputs() * Double.BYTES;
+    }
+
+    /**
+     * @return Whether the thresholds, values and node sample weights of this ensemble are stored in single precision,
+     *         see {@link #FLAG_FLOAT32}.
+     */
+    public boolean isSinglePrecision() {
+        return singles != null;
+    }
+
+    /**
+     * @return The single precision thresholds, values and node sample weights of this ensemble, laid out as their
+     *         double precision counterparts, or <code>null</code> if it is not stored in single precision.
+     */
+    FloatPointer[] getSingles() {
+        return singles;
+    }
+
+    /**
+     * Make the double precision thresholds, values and node sample weights of this ensemble available to the native
+     * kernels, by widening them into a native copy on the first call if the ensemble is stored in single precision.
+     * Every kernel taking a <code>TreeEnsemble</code> needs them, except those of {@link FloatTreeEnsemble}.
+     * @return This ensemble.
+     */
+    public TreeEnsemble widen() {
+        if (singles != null && widened == null) {
+            widenSingles();
+        }
+        return this;
+    }
+
+    private synchronized void widenSingles() {
+        if (widened != null) return;
+
+        // widen through buffers over the native memory, rather than one native call per element
+        long numElements = (long) tree_limit() * max_nodes();
+        long[] sizes = {numElements, numElements * num_outputs(), numElements};
+        DoublePointer doubles = new DoublePointer((2L + num_outputs()) * numElements);
+        DoublePointer[] arrays = new DoublePointer[3];
+        long offset = 0;
+        for (int a = 0; a < 3; ++a) {
+            arrays[a] = getDoublePointer(doubles, (int) offset, (int) sizes[a]);
+            DoubleBuffer out = arrays[a].asBuffer();
+            FloatBuffer in = singles[a].asBuffer();
+            for (int i = 0; i < sizes[a]; ++i) {
+                out.put(i, in.get(i));
+            }
+            offset += sizes[a];
+        }
+
+        thresholds(arrays[0]);
+        values(arrays[1]);
+        node_sample_weights(arrays[2]);
+        widened = doubles;
+    }
+
     public native void free();
 
-    private static IntPointer getIntPointer(BytePointer base, int position, int numElements) {
+    /**
+     * Release the native memory of this ensemble, including the copy of the <code>.shap4j</code> data made by
+     * {@link #fromBytes(byte[])}. The ensemble must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        for (Object buffer : buffers) {
+            if (buffer instanceof Pointer) ((Pointer) buffer).close();
+        }
+        buffers = new Object[] {};
+        if (widened != null) widened.close();
+        super.close();
+    }
+
+    private static IntPointer getIntPointer(Pointer base, int position, int numElements) {
         IntPointer ptr = new IntPointer(base);
         return ptr.position(position).limit(position + numElements);
     }
 
-    private static DoublePointer getDoublePointer(BytePointer base, int position, int numElements) {
+    private static DoublePointer getDoublePointer(Pointer base, int position, int numElements) {
         DoublePointer ptr = new DoublePointer(base);
         return ptr.position(position).limit(position + numElements);
     }
 
+    private static FloatPointer getFloatPointer(Pointer base, int position, int numElements) {
+        FloatPointer ptr = new FloatPointer(base);
+        return ptr.position(position).limit(position + numElements);
+    }
+
+    /**
+     * Load a tree ensemble from its <code>.shap4j</code> representation, which is copied to native memory. A compact
+     * (version 2) model is expanded into the padded layout of the native code, see {@link CompactModel}.
+     * @param rawData The content of a <code>.shap4j</code> file.
+     * @return The tree ensemble.
+     */
     public static TreeEnsemble fromBytes(byte[] rawData) {
-        ByteBuffer buffer = ByteBuffer.wrap(rawData).order(ByteOrder.nativeOrder());
+        if (CompactModel.getVersion(ByteBuffer.wrap(rawData)) == CompactModel.VERSION) {
+            CompactModel model = CompactModel.wrap(ByteBuffer.wrap(rawData));
+            return fromCompact(model, 0, model.getNumTrees());
+        }
+
+        // allocate a native memory block, and copy the java array to the native memory block
+        BytePointer rawDataPtr = new BytePointer(rawData.length);
+        rawDataPtr.put(rawData, 0, rawData.length);
+
+        return fromNative(ByteBuffer.wrap(rawData), rawDataPtr, rawDataPtr);
+    }
+
+    /**
+     * Load a tree ensemble from its <code>.shap4j</code> representation held by a direct buffer, e.g. a memory-mapped
+     * file. The arrays of the ensemble point straight into <code>buffer</code>, so no data is copied; the buffer is
+     * referenced by the ensemble, and must not be modified while the ensemble is in use. A compact (version 2) model
+     * is expanded into native memory instead, padded as a version 1 model (see {@link #getNativeBytes()}), and the
+     * buffer is not referenced afterwards.
+     * @param buffer A direct buffer holding the content of a <code>.shap4j</code> file from index 0.
+     * @return The tree ensemble.
+     */
+    public static TreeEnsemble fromBuffer(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("The buffer of a tree ensemble must be direct");
+        }
+        if (CompactModel.getVersion(buffer) == CompactModel.VERSION) {
+            CompactModel model = CompactModel.wrap(buffer);
+            return fromCompact(model, 0, model.getNumTrees());
+        }
+
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
 
-        byte[] magicBytes = new byte[4];
-        buffer.get(magicBytes, 0, 4);
-        int version = buffer.getInt();
+        return fromNative(buffer.duplicate(), new BytePointer(view), buffer);
+    }
+
+    /**
+     * Create a tree ensemble from the <code>.shap4j</code> data held by <code>buffer</code>, whose arrays point into
+     * <code>rawDataPtr</code>, a native copy of (or view over) the same data.
+     * @param owner The object owning the memory pointed to by <code>rawDataPtr</code>, kept alive by the ensemble.
+     */
+    private static TreeEnsemble fromNative(ByteBuffer buffer, BytePointer rawDataPtr, Object owner) {
+        buffer.position(0);
+        buffer.order(ByteOrder.nativeOrder());
 
-        assert new String(magicBytes).equals("SHAP");
-        assert version == 1;
+        int version = CompactModel.getVersion(buffer);
+        if (version != 1) {
+            throw new IllegalArgumentException("Unsupported .shap4j version " + version);
+        }
+        buffer.position(8);
 
         int numTrees = buffer.getInt();
         int maxDepth = buffer.getInt();
@@ -85,14 +256,23 @@ public class TreeEnsemble extends Pointer {
         int offsetIntArrays = buffer.getInt();
         int offsetDoubleArrays = buffer.getInt();
         double baseOffset = buffer.getDouble();
-        DoublePointer ptrBaseOffset = new DoublePointer(1);
-        ptrBaseOffset.put(baseOffset);
+        // byte 40 may already hold the first children of a version 1 file without flags
+        int flags = offsetIntArrays >= 44 ? buffer.getInt() : 0;
+        boolean float32 = (flags & FLAG_FLOAT32) != 0;
+        // the native code expects one base offset per output; the format stores a single one, shared by all outputs
+        DoublePointer ptrBaseOffset = new DoublePointer(numOutputs);
+        for (int k = 0; k < numOutputs; ++k) {
+            ptrBaseOffset.put(k, baseOffset);
+        }
 
         int numElements = numTrees * maxNodes;
 
-        // allocate a native memory block, and copy the java array to the native memory block
-        BytePointer rawDataPtr = new BytePointer(rawData.length);
-        rawDataPtr.put(rawData, 0, rawData.length);
+        long requiredSize = offsetDoubleArrays + (float32 ? 4L : 8L) * numElements * (2 + numOutputs);
+        if (buffer.capacity() < requiredSize) {
+            throw new IllegalArgumentException(
+                    "Truncated .shap4j data: " + buffer.capacity() + " bytes, expecting " + requiredSize
+            );
+        }
 
         // create pointers pointing to different sections of the memory block (allocated through rawDataPtr)
         IntPointer childrenLeft = getIntPointer(rawDataPtr, offsetIntArrays >> 2, numElements);
@@ -100,13 +280,83 @@ public class TreeEnsemble extends Pointer {
         IntPointer childrenDefault = getIntPointer(rawDataPtr, (int) childrenRight.limit(), numElements);
         IntPointer features = getIntPointer(rawDataPtr, (int) childrenDefault.limit(), numElements);
 
-        DoublePointer thresholds = getDoublePointer(rawDataPtr, offsetDoubleArrays >> 3, numElements);
-        DoublePointer values = getDoublePointer(rawDataPtr, (int) thresholds.limit(), numElements * numOutputs);
-        DoublePointer nodeSampleWeight = getDoublePointer(rawDataPtr, (int) values.limit(), numElements);
+        DoublePointer thresholds = null;
+        DoublePointer values = null;
+        DoublePointer nodeSampleWeight = null;
+        FloatPointer[] singles = null;
+        if (float32) {
+            // the double precision arrays are only set once widened, see widen()
+            FloatPointer singleThresholds = getFloatPointer(rawDataPtr, offsetDoubleArrays >> 2, numElements);
+            FloatPointer singleValues = getFloatPointer(rawDataPtr, (int) singleThresholds.limit(),
+                    numElements * numOutputs);
+            FloatPointer singleWeights = getFloatPointer(rawDataPtr, (int) singleValues.limit(), numElements);
+            singles = new FloatPointer[] {singleThresholds, singleValues, singleWeights};
+        } else {
+            thresholds = getDoublePointer(rawDataPtr, offsetDoubleArrays >> 3, numElements);
+            values = getDoublePointer(rawDataPtr, (int) thresholds.limit(), numElements * numOutputs);
+            nodeSampleWeight = getDoublePointer(rawDataPtr, (int) values.limit(), numElements);
+        }
 
-        return new TreeEnsemble(
+        TreeEnsemble ensemble = new TreeEnsemble(
                 childrenLeft, childrenRight, childrenDefault, features, thresholds, values, nodeSampleWeight,
                 maxDepth, numTrees, ptrBaseOffset, maxNodes, numOutputs
         );
+        ensemble.buffers = new Object[] {owner, rawDataPtr, ptrBaseOffset};
+        ensemble.singles = singles;
+
+        return ensemble;
+    }
+
+    /**
+     * Load the trees in <code>[fromTree, toTree)</code> of a compact (version 2) model, e.g. to explain the first
+     * iterations of a boosted ensemble, or to split a large ensemble across explainers. Only these trees are decoded,
+     * and they are padded to the largest of them rather than to the largest tree of the model.
+     * @param rawData The content of a version 2 <code>.shap4j</code> file, see {@link CompactModel#fromPadded(byte[])}.
+     * @param fromTree The index of the first tree to load.
+     * @param toTree The index past the last tree to load.
+     * @return The tree ensemble, whose base offset is the base offset of the model if <code>fromTree</code> is 0, or 0
+     *         otherwise, so that the predictions (and SHAP values) of disjoint ranges covering all the trees add up to
+     *         those of the model.
+     * @throws IllegalArgumentException If the data is not a version 2 model, whose index is required.
+     */
+    public static TreeEnsemble fromBytes(byte[] rawData, int fromTree, int toTree) {
+        return fromCompact(CompactModel.wrap(ByteBuffer.wrap(rawData)), fromTree, toTree);
+    }
+
+    /**
+     * Expand the trees in <code>[fromTree, toTree)</code> of a compact model into newly allocated native arrays. Only
+     * the range starting at the first tree has the base offset of the model.
+     */
+    private static TreeEnsemble fromCompact(CompactModel model, int fromTree, int toTree) {
+        int numTrees = toTree - fromTree;
+        int maxNodes = model.getMaxNodes(fromTree, toTree);
+        int numOutputs = model.getNumOutputs();
+        int numElements = numTrees * maxNodes;
+
+        DoublePointer ptrBaseOffset = new DoublePointer(numOutputs);
+        for (int k = 0; k < numOutputs; ++k) {
+            ptrBaseOffset.put(k, fromTree == 0 ? model.getBaseOffset() : 0);
+        }
+
+        IntPointer ints = new IntPointer(4L * numElements);
+        DoublePointer doubles = new DoublePointer((2L + numOutputs) * numElements);
+        IntPointer childrenLeft = getIntPointer(ints, 0, numElements);
+        IntPointer childrenRight = getIntPointer(ints, numElements, numElements);
+        IntPointer childrenDefault = getIntPointer(ints, 2 * numElements, numElements);
+        IntPointer features = getIntPointer(ints, 3 * numElements, numElements);
+        DoublePointer thresholds = getDoublePointer(doubles, 0, numElements);
+        DoublePointer values = getDoublePointer(doubles, numElements, numElements * numOutputs);
+        DoublePointer nodeSampleWeight = getDoublePointer(doubles, (int) values.limit(), numElements);
+
+        model.expand(fromTree, toTree, childrenLeft.asBuffer(), childrenRight.asBuffer(), childrenDefault.asBuffer(),
+                features.asBuffer(), thresholds.asBuffer(), values.asBuffer(), nodeSampleWeight.asBuffer());
+
+        TreeEnsemble ensemble = new TreeEnsemble(
+                childrenLeft, childrenRight, childrenDefault, features, thresholds, values, nodeSampleWeight,
+                model.getMaxDepth(fromTree, toTree), numTrees, ptrBaseOffset, maxNodes, numOutputs
+        );
+        ensemble.buffers = new Object[] {ints, doubles, ptrBaseOffset};
+
+        return ensemble;
     }
 }
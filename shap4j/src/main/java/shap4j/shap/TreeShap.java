@@ -1,12 +1,17 @@
 package shap4j.shap;
 
+import org.bytedeco.javacpp.BoolPointer;
 import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.LongPointer;
 import org.bytedeco.javacpp.Loader;
 import org.bytedeco.javacpp.annotation.ByRef;
+import org.bytedeco.javacpp.annotation.Cast;
 import org.bytedeco.javacpp.annotation.Const;
 import org.bytedeco.javacpp.annotation.Platform;
 
-@Platform(include="shap4j/shap/tree_shap.h")
+@Platform(include="shap4j/shap/tree_shap_ext.h")
 public class TreeShap {
     static {
         Loader.load();
@@ -15,9 +20,165 @@ public class TreeShap {
                                               @Const @ByRef ExplanationDataset data,
                                               DoublePointer out_contribs,
                                               @Const int feature_dependence,
-                                              int model_transform, boolean interactions);
+                                              int model_transform, boolean interactions,
+                                              boolean check_missing);
 
     public static native void dense_tree_saabas(DoublePointer out_contribs,
                                                 @Const @ByRef TreeEnsemble trees,
-                                                @Const @ByRef ExplanationDataset data);
+                                                @Const @ByRef ExplanationDataset data,
+                                                boolean check_missing);
+
+    public static native void dense_tree_predict(DoublePointer out,
+                                                 @Const @ByRef TreeEnsemble trees,
+                                                 @Const @ByRef ExplanationDataset data,
+                                                 @Cast("unsigned") int model_transform,
+                                                 boolean check_missing);
+
+    public static native void dense_tree_predict_and_shap(DoublePointer out_preds,
+                                                          DoublePointer out_contribs,
+                                                          @Const @ByRef TreeEnsemble trees,
+                                                          @Const CompiledTreeEnsemble compiled,
+                                                          @Const FastTreeShapEnsemble fast,
+                                                          ContributionCache cache,
+                                                          @Const @ByRef ExplanationDataset data,
+                                                          @Const int feature_dependence,
+                                                          @Cast("unsigned") int model_transform,
+                                                          boolean approximate,
+                                                          @Cast("unsigned") int row_block,
+                                                          @Cast("unsigned") int tree_block,
+                                                          boolean check_missing);
+
+    public static native void dense_tree_shap_summary(@Const @ByRef TreeEnsemble trees,
+                                                      @Const CompiledTreeEnsemble compiled,
+                                                      @Const FastTreeShapEnsemble fast,
+                                                      ContributionCache cache,
+                                                      @Const @ByRef ExplanationDataset data,
+                                                      boolean check_missing,
+                                                      @Const int feature_dependence,
+                                                      boolean approximate,
+                                                      @Cast("unsigned") int chunk_rows,
+                                                      @Cast("unsigned") int tree_block,
+                                                      DoublePointer out_stats,
+                                                      @Cast("unsigned") int num_bins,
+                                                      double hist_lower,
+                                                      double hist_upper,
+                                                      @Cast("long long*") LongPointer out_hist);
+
+    public static native void dense_tree_top_k(@Const DoublePointer contribs,
+                                               @Cast("unsigned") int num_rows,
+                                               @Cast("unsigned") int M,
+                                               @Cast("unsigned") int num_outputs,
+                                               @Cast("unsigned") int output,
+                                               @Cast("unsigned") int top_k,
+                                               IntPointer out_indices,
+                                               DoublePointer out_values,
+                                               DoublePointer out_bias,
+                                               DoublePointer out_remainder);
+
+    public static native void dense_tree_shap_cached(@Const @ByRef TreeEnsemble trees,
+                                                     @ByRef ContributionCache cache,
+                                                     @Const @ByRef ExplanationDataset data,
+                                                     DoublePointer out_contribs,
+                                                     PathElement unique_path_data,
+                                                     boolean check_missing);
+
+    public static native void dense_tree_shap_blocked(@Const @ByRef TreeEnsemble trees,
+                                                      @Const CompiledTreeEnsemble compiled,
+                                                      @Const @ByRef ExplanationDataset data,
+                                                      DoublePointer out_contribs,
+                                                      boolean approximate,
+                                                      @Cast("unsigned") int row_block,
+                                                      @Cast("unsigned") int tree_block,
+                                                      PathElement unique_path_data,
+                                                      boolean check_missing);
+
+    public static native void dense_tree_shap_fast(@Const @ByRef FastTreeShapEnsemble trees,
+                                                   @Const @ByRef ExplanationDataset data,
+                                                   DoublePointer out_contribs,
+                                                   PathElement unique_path_data,
+                                                   boolean check_missing);
+
+    public static native void dense_tree_shap_compiled(@Const @ByRef CompiledTreeEnsemble trees,
+                                                       @Const @ByRef ExplanationDataset data,
+                                                       DoublePointer out_contribs,
+                                                       PathElement unique_path_data,
+                                                       boolean check_missing);
+
+    public static native void dense_tree_shap_float(@Const @ByRef FloatTreeEnsemble trees,
+                                                    @Const FloatPointer x,
+                                                    @Cast("unsigned") int num_rows,
+                                                    @Cast("unsigned") int num_cols,
+                                                    boolean check_missing,
+                                                    boolean approximate,
+                                                    FloatPointer out_contribs);
+
+    public static native void sparse_tree_shap(@Const @ByRef TreeEnsemble trees,
+                                               @Const CompiledTreeEnsemble compiled,
+                                               @Const IntPointer indptr,
+                                               @Const IntPointer indices,
+                                               @Const DoublePointer values,
+                                               @Cast("unsigned") int num_rows,
+                                               @Cast("unsigned") int num_cols,
+                                               boolean absent_missing,
+                                               boolean approximate,
+                                               DoublePointer out_contribs);
+
+    public static native @Cast("unsigned") int sparse_tree_shap_sparse_output(@Const @ByRef TreeEnsemble trees,
+                                                                              @Const CompiledTreeEnsemble compiled,
+                                                                              @Const IntPointer indptr,
+                                                                              @Const IntPointer indices,
+                                                                              @Const DoublePointer values,
+                                                                              @Cast("unsigned") int num_rows,
+                                                                              @Cast("unsigned") int num_cols,
+                                                                              boolean absent_missing,
+                                                                              boolean approximate,
+                                                                              IntPointer out_indptr,
+                                                                              IntPointer out_indices,
+                                                                              DoublePointer out_values,
+                                                                              @Cast("unsigned") int capacity);
+
+    public static native @Cast("unsigned long long") long num_tree_nodes(@Const @ByRef TreeEnsemble trees);
+
+    public static native @Cast("unsigned") int num_used_features(@Const @ByRef TreeEnsemble trees,
+                                                                 @Cast("unsigned") int num_cols);
+
+    public static native void dense_tree_path_dependent_scratch(@Const @ByRef TreeEnsemble trees,
+                                                                @Const @ByRef ExplanationDataset data,
+                                                                DoublePointer out_contribs,
+                                                                PathElement unique_path_data,
+                                                                boolean check_missing);
+
+    public static native void dense_tree_interactions_path_dependent_range(@Const @ByRef TreeEnsemble trees,
+                                                                           @Const @ByRef ExplanationDataset data,
+                                                                           DoublePointer out_contribs,
+                                                                           DoublePointer diag_contribs,
+                                                                           @Cast("unsigned") int feature_begin,
+                                                                           @Cast("unsigned") int feature_end,
+                                                                           boolean with_shap,
+                                                                           boolean check_missing);
+
+    public static native void dense_tree_interactions_set_diagonal(@Const @ByRef TreeEnsemble trees,
+                                                                   @Const @ByRef ExplanationDataset data,
+                                                                   DoublePointer out_contribs,
+                                                                   @Const DoublePointer diag_contribs,
+                                                                   @Cast("unsigned") int num_partials);
+
+    public static native void feature_tree_index(@Const @ByRef TreeEnsemble trees,
+                                                 @Cast("unsigned") int num_cols,
+                                                 IntPointer indptr,
+                                                 IntPointer tree_ids);
+
+    public static native void tree_shap_per_tree(@Const @ByRef TreeEnsemble trees,
+                                                 @Const @ByRef ExplanationDataset data,
+                                                 @Const IntPointer tree_ids,
+                                                 @Cast("unsigned") int num_trees,
+                                                 boolean approximate,
+                                                 DoublePointer out_contribs,
+                                                 PathElement unique_path_data,
+                                                 boolean check_missing);
+
+    public static native void fill_missing(@Const DoublePointer x, BoolPointer x_missing, @Cast("unsigned") int n,
+                                           boolean check_missing);
+
+    public static native @Cast("unsigned") int unique_path_size(@Cast("unsigned") int max_depth);
 }
@@ -0,0 +1,1937 @@
+/**
+ * Extensions of tree_shap.h used by shap4j.
+ *
+ * tree_shap.h is kept identical to the upstream implementation in https://github.com/slundberg/shap, so that it can
+ * be updated easily; kernels and helpers specific to shap4j are defined in this file instead.
+ */
+
+#ifndef SHAP4J_TREE_SHAP_EXT_H
+#define SHAP4J_TREE_SHAP_EXT_H
+
+#include <atomic>
+#include <cmath>
+#include <deque>
+#include <memory>
+#include <mutex>
+#include <string>
+#include <unordered_map>
+#include <vector>
+
+#include "tree_shap.h"
+
+/**
+ * The number of PathElement's needed by tree_shap_recursive to explain a tree of (at most) the given depth.
+ */
+inline unsigned unique_path_size(const unsigned max_depth) {
+    const unsigned maxd = max_depth + 2; // need a bit more space than the max depth
+    return (maxd * (maxd + 1)) / 2;
+}
+
+/**
+ * Set x_missing[i] to whether x[i] is missing (NaN) for the n values of x, or to false if check_missing is false.
+ */
+inline void fill_missing(const tfloat *x, bool *x_missing, const unsigned n, const bool check_missing) {
+    if (check_missing) {
+        for (unsigned i = 0; i < n; ++i) x_missing[i] = std::isnan(x[i]);
+    } else {
+        std::fill(x_missing, x_missing + n, false);
+    }
+}
+
+/**
+ * The missing value flags of the rows of a dataset. A dataset without flags (whose X_missing is NULL) does not store a
+ * flag per value: the missing values of its rows are detected when they are explained, into flags of at most max_rows
+ * rows at a time, or are all false if check_missing is false. The flags of a dataset with X_missing are used as is.
+ */
+class MissingFlags {
+public:
+    MissingFlags(const ExplanationDataset &data, const bool check_missing, const unsigned max_rows = 1)
+        : data(data), check_missing(check_missing), begin(0),
+          flags(data.X_missing == NULL ? new bool[std::max(max_rows, 1U) * data.M]() : NULL) {}
+
+    /**
+     * Detect the missing values of the rows [begin, end) of the dataset, at most max_rows rows.
+     */
+    void fill(const unsigned begin, const unsigned end) {
+        this->begin = begin;
+        if (flags && check_missing) fill_missing(data.X + begin * data.M, flags.get(), (end - begin) * data.M, true);
+    }
+
+    /**
+     * The flags of the row i of the dataset, which must be one of the rows of the last call to fill().
+     */
+    bool *row(const unsigned i) const {
+        return flags ? flags.get() + (i - begin) * data.M : data.X_missing + i * data.M;
+    }
+
+    /**
+     * Same as data.get_x_instance, after detecting the missing values of the row i.
+     */
+    void get_x_instance(ExplanationDataset &instance, const unsigned i) {
+        fill(i, i + 1);
+        instance.M = data.M;
+        instance.X = data.X + i * data.M;
+        instance.X_missing = row(i);
+        instance.num_X = 1;
+    }
+
+private:
+    const ExplanationDataset &data;
+    const bool check_missing;
+    unsigned begin;
+    std::unique_ptr<bool[]> flags;
+};
+
+/**
+ * Run kernel(chunk, begin) over chunks of the rows of data, starting at row begin, each with the flags of its missing
+ * values, so that the kernels of tree_shap.h, which read the flags of all the rows of their dataset, can explain a
+ * dataset without flags. A dataset with flags is passed as a single chunk. A kernel whose rows depend on each other
+ * must set chunk_rows to data.num_X.
+ */
+template<typename Kernel>
+void for_each_flagged_chunk(const ExplanationDataset &data, const bool check_missing, const unsigned chunk_rows,
+                            Kernel kernel) {
+    if (data.X_missing != NULL || data.num_X == 0) {
+        kernel(data, 0);
+        return;
+    }
+
+    const unsigned rows = std::max(std::min(chunk_rows, data.num_X), 1U);
+    MissingFlags missing(data, check_missing, rows);
+    for (unsigned begin = 0; begin < data.num_X; begin += rows) {
+        const unsigned end = std::min(begin + rows, data.num_X);
+        missing.fill(begin, end);
+        ExplanationDataset chunk(data.X + begin * data.M, missing.row(begin),
+                                 data.y == NULL ? NULL : data.y + begin, data.R, data.R_missing, end - begin, data.M,
+                                 data.num_R);
+        kernel(chunk, begin);
+    }
+}
+
+/**
+ * The number of rows whose missing values are detected at a time by the overloads of the kernels of tree_shap.h.
+ */
+const unsigned MISSING_CHUNK_ROWS = 256;
+
+/**
+ * Same as dense_tree_predict in tree_shap.h, over a dataset with or without flags (see MissingFlags).
+ */
+inline void dense_tree_predict(tfloat *out, const TreeEnsemble &trees, const ExplanationDataset &data,
+                               unsigned model_transform, const bool check_missing) {
+    for_each_flagged_chunk(data, check_missing, MISSING_CHUNK_ROWS,
+                           [&](const ExplanationDataset &chunk, const unsigned begin) {
+        dense_tree_predict(out + begin * trees.num_outputs, trees, chunk, model_transform);
+    });
+}
+
+/**
+ * Same as dense_tree_saabas in tree_shap.h, over a dataset with or without flags (see MissingFlags).
+ */
+inline void dense_tree_saabas(tfloat *out_contribs, const TreeEnsemble& trees, const ExplanationDataset &data,
+                              const bool check_missing) {
+    for_each_flagged_chunk(data, check_missing, MISSING_CHUNK_ROWS,
+                           [&](const ExplanationDataset &chunk, const unsigned begin) {
+        dense_tree_saabas(out_contribs + begin * (data.M + 1) * trees.num_outputs, trees, chunk);
+    });
+}
+
+/**
+ * Same as dense_tree_shap in tree_shap.h, over a dataset with or without flags (see MissingFlags). The background of
+ * the independent algorithm must have flags.
+ */
+inline void dense_tree_shap(const TreeEnsemble& trees, const ExplanationDataset &data, tfloat *out_contribs,
+                            const int feature_dependence, unsigned model_transform, bool interactions,
+                            const bool check_missing) {
+    const unsigned row_size = (interactions ? data.M + 1 : 1) * (data.M + 1) * trees.num_outputs;
+    // the merged tree of the global algorithm is built from all the rows at once
+    const unsigned chunk_rows = feature_dependence == FEATURE_DEPENDENCE::global_path_dependent
+                                ? data.num_X : MISSING_CHUNK_ROWS;
+    for_each_flagged_chunk(data, check_missing, chunk_rows,
+                           [&](const ExplanationDataset &chunk, const unsigned begin) {
+        dense_tree_shap(trees, chunk, out_contribs + begin * row_size, feature_dependence, model_transform,
+                        interactions);
+    });
+}
+
+/**
+ * Same as tree_shap, except that the unique path data is preallocated by the caller, and must hold at least
+ * unique_path_size(tree.max_depth) elements.
+ */
+inline void tree_shap(const TreeEnsemble& tree, const ExplanationDataset &data, tfloat *out_contribs,
+                      int condition, unsigned condition_feature, PathElement *unique_path_data) {
+
+    // update the reference value with the expected value of the tree's predictions
+    if (condition == 0) {
+        for (unsigned j = 0; j < tree.num_outputs; ++j) {
+            out_contribs[data.M * tree.num_outputs + j] += tree.values[j];
+        }
+    }
+
+    tree_shap_recursive(
+        tree.num_outputs, tree.children_left, tree.children_right, tree.children_default,
+        tree.features, tree.thresholds, tree.values, tree.node_sample_weights, data.X,
+        data.X_missing, out_contribs, 0, 0, unique_path_data, 1, 1, -1, condition,
+        condition_feature, 1
+    );
+}
+
+/**
+ * Same as dense_tree_path_dependent with the identity transform, except that the unique path data is preallocated
+ * by the caller and reused across all the trees and rows. The dataset may have no flags (see MissingFlags).
+ */
+void dense_tree_path_dependent_scratch(const TreeEnsemble& trees, const ExplanationDataset &data,
+                                       tfloat *out_contribs, PathElement *unique_path_data,
+                                       const bool check_missing) {
+    tfloat *instance_out_contribs;
+    TreeEnsemble tree;
+    ExplanationDataset instance;
+    MissingFlags missing(data, check_missing);
+
+    // build explanation for each sample
+    for (unsigned i = 0; i < data.num_X; ++i) {
+        instance_out_contribs = out_contribs + i * (data.M + 1) * trees.num_outputs;
+        missing.get_x_instance(instance, i);
+
+        // aggregate the effect of explaining each tree
+        // (this works because of the linearity property of Shapley values)
+        for (unsigned j = 0; j < trees.tree_limit; ++j) {
+            trees.get_tree(tree, j);
+            tree_shap(tree, instance, instance_out_contribs, 0, 0, unique_path_data);
+        }
+
+        // apply the base offset to the bias term
+        for (unsigned j = 0; j < trees.num_outputs; ++j) {
+            instance_out_contribs[data.M * trees.num_outputs + j] += trees.base_offset[j];
+        }
+    }
+}
+
+/**
+ * A node of a compiled tree. The nodes of a compiled tree are stored depth-first (pre-order), so that the left child
+ * of a node always directly follows it, and all the attributes needed to visit a node share the same cache line.
+ */
+struct CompiledNode {
+    tfloat threshold;
+    tfloat cover_ratio; // node_sample_weights[node] / node_sample_weights[parent], or 1 for the root
+    int right;          // the index of the right child, or -1 for a leaf
+    int feature;
+    bool default_left;
+};
+
+/**
+ * A tree ensemble repacked for the Tree SHAP algorithm: the trees are stored one after another without padding, each
+ * as a depth-first array of nodes, with the values of the nodes in a separate array in the same order.
+ */
+struct CompiledTreeEnsemble {
+    CompiledNode *nodes;
+    tfloat *values;
+    unsigned *tree_offsets; // the index of the root of each tree in nodes, followed by the total number of nodes
+    tfloat *base_offset;
+    unsigned tree_limit;
+    unsigned max_depth;
+    unsigned num_outputs;
+
+    CompiledTreeEnsemble() : nodes(NULL), values(NULL), tree_offsets(NULL), base_offset(NULL),
+                             tree_limit(0), max_depth(0), num_outputs(0) {}
+
+    ~CompiledTreeEnsemble() {
+        release();
+    }
+
+    unsigned num_nodes() const {
+        return tree_offsets == NULL ? 0 : tree_offsets[tree_limit];
+    }
+
+    unsigned long long native_bytes() const {
+        if (tree_offsets == NULL) return 0;
+        return static_cast<unsigned long long>(num_nodes()) * (sizeof(CompiledNode) + num_outputs * sizeof(tfloat))
+               + (tree_limit + 1) * sizeof(unsigned) + num_outputs * sizeof(tfloat);
+    }
+
+    void compile(const TreeEnsemble &trees) {
+        compile(trees, trees.thresholds, trees.values, trees.node_sample_weights);
+    }
+
+    /**
+     * Same as compile(trees), except that the thresholds, values and node sample weights of the trees are read from
+     * the given arrays (laid out as in TreeEnsemble), e.g. in single precision, instead of those of trees.
+     */
+    template<typename T>
+    void compile(const TreeEnsemble &trees, const T *thresholds_in, const T *values_in,
+                 const T *node_sample_weights_in) {
+        release();
+        tree_limit = trees.tree_limit;
+        max_depth = trees.max_depth;
+        num_outputs = trees.num_outputs;
+
+        // the nodes pending a visit, with their parents in the original tree and in the compiled tree
+        int *stack = new int[3 * trees.max_nodes];
+
+        // count the nodes reachable from the root of each tree, ignoring the padding
+        tree_offsets = new unsigned[tree_limit + 1];
+        unsigned total_nodes = 0;
+        for (unsigned t = 0; t < tree_limit; ++t) {
+            TreeEnsemble tree;
+            trees.get_tree(tree, t);
+            tree_offsets[t] = total_nodes;
+
+            unsigned stack_size = 0;
+            stack[stack_size++] = 0;
+            while (stack_size > 0) {
+                const int node = stack[--stack_size];
+                ++total_nodes;
+                if (tree.children_right[node] >= 0) {
+                    stack[stack_size++] = tree.children_right[node];
+                    stack[stack_size++] = tree.children_left[node];
+                }
+            }
+        }
+        tree_offsets[tree_limit] = total_nodes;
+
+        nodes = new CompiledNode[total_nodes];
+        values = new tfloat[total_nodes * num_outputs];
+        base_offset = new tfloat[num_outputs];
+        std::copy(trees.base_offset, trees.base_offset + num_outputs, base_offset);
+
+        // copy the nodes in pre-order, pushing the right child before the left child so that the whole left subtree
+        // is visited first: the index of a right child is therefore only known when it is visited
+        for (unsigned t = 0; t < tree_limit; ++t) {
+            TreeEnsemble tree;
+            trees.get_tree(tree, t);
+            const T *node_thresholds = thresholds_in + t * trees.max_nodes;
+            const T *node_values = values_in + t * trees.max_nodes * num_outputs;
+            const T *node_weights = node_sample_weights_in + t * trees.max_nodes;
+            CompiledNode *tree_nodes = nodes + tree_offsets[t];
+            tfloat *tree_values = values + tree_offsets[t] * num_outputs;
+
+            unsigned stack_size = 0;
+            unsigned pos = 0;
+            stack[0] = 0;
+            stack[1] = -1;
+            stack[2] = -1;
+            stack_size = 3;
+            while (stack_size > 0) {
+                stack_size -= 3;
+                const int node = stack[stack_size];
+                const int parent = stack[stack_size + 1];
+                const int parent_pos = stack[stack_size + 2];
+
+                CompiledNode &compiled = tree_nodes[pos];
+                compiled.threshold = node_thresholds[node];
+                compiled.feature = tree.features[node];
+                compiled.right = -1;
+                compiled.default_left = tree.children_default[node] == tree.children_left[node];
+                std::copy(node_values + node * num_outputs, node_values + (node + 1) * num_outputs,
+                          tree_values + pos * num_outputs);
+
+                if (parent < 0) {
+                    compiled.cover_ratio = 1;
+                } else {
+                    compiled.cover_ratio = static_cast<tfloat>(node_weights[node]) / node_weights[parent];
+                    if (node == tree.children_right[parent]) tree_nodes[parent_pos].right = pos;
+                }
+
+                if (tree.children_right[node] >= 0) {
+                    stack[stack_size++] = tree.children_right[node];
+                    stack[stack_size++] = node;
+                    stack[stack_size++] = pos;
+                    stack[stack_size++] = tree.children_left[node];
+                    stack[stack_size++] = node;
+                    stack[stack_size++] = pos;
+                }
+                ++pos;
+            }
+        }
+
+        delete[] stack;
+    }
+
+    void release() {
+        delete[] nodes;
+        delete[] values;
+        delete[] tree_offsets;
+        delete[] base_offset;
+        nodes = NULL;
+        values = NULL;
+        tree_offsets = NULL;
+        base_offset = NULL;
+    }
+
+private:
+    CompiledTreeEnsemble(const CompiledTreeEnsemble &);
+    CompiledTreeEnsemble &operator=(const CompiledTreeEnsemble &);
+};
+
+/**
+ * Same as tree_shap_recursive (without conditioning), over a compiled tree. The arithmetic is the same as in
+ * tree_shap_recursive, so that the results are identical.
+ *
+ * If shared_cold_sum is true, the leaves are explained as in FastTreeSHAP v1 instead: the unwound path sums of all the
+ * features which x does not follow (i.e. with a one fraction of 0) only differ by a factor 1 / zero_fraction, which
+ * their scale cancels, so that they all share the same scale, computed once per leaf. The results are then only equal
+ * up to rounding.
+ */
+template<bool shared_cold_sum = false>
+inline void tree_shap_recursive_compiled(const unsigned num_outputs, const CompiledNode *nodes, const tfloat *values,
+                                         const tfloat *x, const bool *x_missing, tfloat *phi,
+                                         unsigned node_index, unsigned unique_depth,
+                                         PathElement *parent_unique_path, tfloat parent_zero_fraction,
+                                         tfloat parent_one_fraction, int parent_feature_index) {
+    const CompiledNode &node = nodes[node_index];
+
+    // extend the unique path
+    PathElement *unique_path = parent_unique_path + unique_depth + 1;
+    std::copy(parent_unique_path, parent_unique_path + unique_depth + 1, unique_path);
+    extend_path(unique_path, unique_depth, parent_zero_fraction, parent_one_fraction, parent_feature_index);
+    const unsigned split_index = node.feature;
+
+    // leaf node
+    if (node.right < 0) {
+        const tfloat *leaf_values = values + node_index * num_outputs;
+        bool has_cold_scale = false;
+        tfloat cold_scale = 0;
+        for (unsigned i = 1; i <= unique_depth; ++i) {
+            const PathElement &el = unique_path[i];
+            const unsigned phi_offset = el.feature_index * num_outputs;
+            tfloat scale;
+            if (shared_cold_sum && el.one_fraction == 0) {
+                // unwound_path_sum(unique_path, unique_depth, i) * (0 - el.zero_fraction)
+                if (!has_cold_scale) {
+                    for (unsigned k = 0; k < unique_depth; ++k) {
+                        cold_scale += unique_path[k].pweight / (unique_depth - k);
+                    }
+                    cold_scale *= -static_cast<tfloat>(unique_depth + 1);
+                    has_cold_scale = true;
+                }
+                scale = cold_scale;
+            } else {
+                const tfloat w = unwound_path_sum(unique_path, unique_depth, i);
+                scale = w * (el.one_fraction - el.zero_fraction);
+            }
+            for (unsigned j = 0; j < num_outputs; ++j) {
+                phi[phi_offset + j] += scale * leaf_values[j];
+            }
+        }
+
+    // internal node
+    } else {
+        // find which branch is "hot" (meaning x would follow it); the left child always follows its parent
+        const unsigned left_index = node_index + 1;
+        const unsigned right_index = node.right;
+        bool hot_left;
+        if (x_missing[split_index]) {
+            hot_left = node.default_left;
+        } else {
+            hot_left = x[split_index] <= node.threshold;
+        }
+        const unsigned hot_index = hot_left ? left_index : right_index;
+        const unsigned cold_index = hot_left ? right_index : left_index;
+        const tfloat hot_zero_fraction = nodes[hot_index].cover_ratio;
+        const tfloat cold_zero_fraction = nodes[cold_index].cover_ratio;
+        tfloat incoming_zero_fraction = 1;
+        tfloat incoming_one_fraction = 1;
+
+        // see if we have already split on this feature,
+        // if so we undo that split so we can redo it for this node
+        unsigned path_index = 0;
+        for (; path_index <= unique_depth; ++path_index) {
+            if (static_cast<unsigned>(unique_path[path_index].feature_index) == split_index) break;
+        }
+        if (path_index != unique_depth + 1) {
+            incoming_zero_fraction = unique_path[path_index].zero_fraction;
+            incoming_one_fraction = unique_path[path_index].one_fraction;
+            unwind_path(unique_path, unique_depth, path_index);
+            unique_depth -= 1;
+        }
+
+        tree_shap_recursive_compiled<shared_cold_sum>(
+            num_outputs, nodes, values, x, x_missing, phi, hot_index, unique_depth + 1, unique_path,
+            hot_zero_fraction * incoming_zero_fraction, incoming_one_fraction, split_index
+        );
+
+        tree_shap_recursive_compiled<shared_cold_sum>(
+            num_outputs, nodes, values, x, x_missing, phi, cold_index, unique_depth + 1, unique_path,
+            cold_zero_fraction * incoming_zero_fraction, 0, split_index
+        );
+    }
+}
+
+/**
+ * Same as dense_tree_path_dependent with the identity transform, over a compiled tree ensemble. The unique path data
+ * is allocated once per call if unique_path_data is NULL, or preallocated by the caller otherwise, in which case it
+ * must hold at least unique_path_size(trees.max_depth) elements. The dataset may have no flags (see MissingFlags).
+ */
+void dense_tree_shap_compiled(const CompiledTreeEnsemble& trees, const ExplanationDataset &data,
+                              tfloat *out_contribs, PathElement *unique_path_data, const bool check_missing) {
+    PathElement *owned_unique_path_data = NULL;
+    if (unique_path_data == NULL) {
+        owned_unique_path_data = new PathElement[unique_path_size(trees.max_depth)];
+        unique_path_data = owned_unique_path_data;
+    }
+    MissingFlags missing(data, check_missing);
+
+    // build explanation for each sample
+    for (unsigned i = 0; i < data.num_X; ++i) {
+        tfloat *instance_out_contribs = out_contribs + i * (data.M + 1) * trees.num_outputs;
+        const tfloat *x = data.X + i * data.M;
+        missing.fill(i, i + 1);
+        const bool *x_missing = missing.row(i);
+
+        // aggregate the effect of explaining each tree
+        // (this works because of the linearity property of Shapley values)
+        for (unsigned j = 0; j < trees.tree_limit; ++j) {
+            const CompiledNode *tree_nodes = trees.nodes + trees.tree_offsets[j];
+            const tfloat *tree_values = trees.values + trees.tree_offsets[j] * trees.num_outputs;
+
+            // update the reference value with the expected value of the tree's predictions
+            for (unsigned k = 0; k < trees.num_outputs; ++k) {
+                instance_out_contribs[data.M * trees.num_outputs + k] += tree_values[k];
+            }
+
+            tree_shap_recursive_compiled(
+                trees.num_outputs, tree_nodes, tree_values, x, x_missing, instance_out_contribs, 0, 0,
+                unique_path_data, 1, 1, -1
+            );
+        }
+
+        // apply the base offset to the bias term
+        for (unsigned k = 0; k < trees.num_outputs; ++k) {
+            instance_out_contribs[data.M * trees.num_outputs + k] += trees.base_offset[k];
+        }
+    }
+
+    delete[] owned_unique_path_data;
+}
+
+/**
+ * Same as dense_tree_saabas if approximate is true, or as dense_tree_path_dependent with the identity transform (over
+ * the compiled tree ensemble if not NULL) otherwise, but in tree-major order: the rows are explained in tiles of
+ * row_block rows by tree_block trees, so that the nodes of a tile of trees stay in cache across the rows of the tile
+ * instead of streaming the whole ensemble through the cache for every row. Each row still adds the contributions of
+ * the trees in order, so that the results are identical to those of the row-major kernels.
+ *
+ * The unique path data is allocated once per call if unique_path_data is NULL, or preallocated by the caller
+ * otherwise, in which case it must hold at least unique_path_size(trees.max_depth) elements. The dataset may have no
+ * flags (see MissingFlags), in which case the missing values of each tile of rows are detected once.
+ */
+void dense_tree_shap_blocked(const TreeEnsemble& trees, const CompiledTreeEnsemble *compiled,
+                             const ExplanationDataset &data, tfloat *out_contribs, const bool approximate,
+                             const unsigned row_block, const unsigned tree_block, PathElement *unique_path_data,
+                             const bool check_missing) {
+    const unsigned num_outputs = trees.num_outputs;
+    const unsigned rows_per_tile = std::max(row_block, 1U);
+    const unsigned trees_per_tile = std::max(tree_block, 1U);
+    PathElement *owned_unique_path_data = NULL;
+    if (unique_path_data == NULL) {
+        owned_unique_path_data = new PathElement[unique_path_size(trees.max_depth)];
+        unique_path_data = owned_unique_path_data;
+    }
+    TreeEnsemble tree;
+    ExplanationDataset instance;
+    MissingFlags missing(data, check_missing, std::min(rows_per_tile, data.num_X));
+
+    for (unsigned row_begin = 0; row_begin < data.num_X; row_begin += rows_per_tile) {
+        const unsigned row_end = std::min(row_begin + rows_per_tile, data.num_X);
+        missing.fill(row_begin, row_end);
+
+        for (unsigned tree_begin = 0; tree_begin < trees.tree_limit; tree_begin += trees_per_tile) {
+            const unsigned tree_end = std::min(tree_begin + trees_per_tile, trees.tree_limit);
+
+            for (unsigned i = row_begin; i < row_end; ++i) {
+                tfloat *instance_out_contribs = out_contribs + i * (data.M + 1) * num_outputs;
+                data.get_x_instance(instance, i);
+                instance.X_missing = missing.row(i);
+
+                for (unsigned j = tree_begin; j < tree_end; ++j) {
+                    if (approximate) {
+                        trees.get_tree(tree, j);
+                        tree_saabas(instance_out_contribs, tree, instance);
+                    } else if (compiled != NULL) {
+                        const CompiledNode *tree_nodes = compiled->nodes + compiled->tree_offsets[j];
+                        const tfloat *tree_values = compiled->values + compiled->tree_offsets[j] * num_outputs;
+                        for (unsigned k = 0; k < num_outputs; ++k) {
+                            instance_out_contribs[data.M * num_outputs + k] += tree_values[k];
+                        }
+                        tree_shap_recursive_compiled(
+                            num_outputs, tree_nodes, tree_values, instance.X, instance.X_missing,
+                            instance_out_contribs, 0, 0, unique_path_data, 1, 1, -1
+                        );
+                    } else {
+                        trees.get_tree(tree, j);
+                        tree_shap(tree, instance, instance_out_contribs, 0, 0, unique_path_data);
+                    }
+                }
+            }
+        }
+
+        // apply the base offset to the bias term
+        for (unsigned i = row_begin; i < row_end; ++i) {
+            tfloat *instance_out_contribs = out_contribs + i * (data.M + 1) * num_outputs;
+            for (unsigned k = 0; k < num_outputs; ++k) {
+                instance_out_contribs[data.M * num_outputs + k] += trees.base_offset[k];
+            }
+        }
+    }
+
+    delete[] owned_unique_path_data;
+}
+
+/**
+ * A leaf of a tree explained with FastTreeSHAP v2: the d distinct features of its path, in order of first occurrence
+ * from the root (their "slots"), their zero fractions (the product of the cover ratios of the edges splitting on them),
+ * and its table of 2^d weights, indexed by subsets of slots.
+ */
+struct FastLeaf {
+    unsigned num_features;
+    unsigned features_offset; // the index of the first feature (and zero fraction) of the leaf
+    unsigned long long table_offset; // the index of the first weight of the table of the leaf
+};
+
+/**
+ * A tree ensemble prepared for the exact tree path dependent algorithm with FastTreeSHAP (Yang, 2021), trading memory
+ * for speed on large batches.
+ *
+ * The SHAP values of a tree are those of the games of its leaves: for a leaf with value v and path features F (with
+ * zero fractions z), the features A which x follows along the path (all its splits on them), and the others C = F \ A,
+ * the Shapley value of a feature i of F is
+ *
+ *     -v * Z(C) * H(A)                 if i is in C,
+ *     v * (1 - z_i) * Z(C) * H(A \ i)  if i is in A,
+ *
+ * where Z(C) is the product of the zero fractions of C, and H(B) the sum over all subsets S of B of
+ * |S|! (|F| - |S| - 1)! / |F|! times the product of the zero fractions of B \ S. H only depends on the leaf, so that
+ * its 2^|F| values are precomputed once (FastTreeSHAP v2); a row is then explained with a single traversal of the
+ * tree, in O(L * D) rather than O(L * D^2) for a tree of L leaves and depth D.
+ *
+ * The tables are built for the trees in order, as long as their total size fits the memory budget; the other trees
+ * are explained by the recursive algorithm over the compiled ensemble, with the shared cold sum of FastTreeSHAP v1,
+ * which needs no extra memory.
+ */
+struct FastTreeShapEnsemble {
+    CompiledTreeEnsemble compiled;
+    std::vector<bool> tree_v2;           // whether each tree has precomputed tables
+    std::vector<int> node_slots;         // the slot of the feature of each internal (compiled) node in v2 trees
+    std::vector<int> node_leaves;        // the index of the FastLeaf of each leaf (compiled) node in v2 trees, or -1
+    std::vector<FastLeaf> leaves;
+    std::vector<unsigned> leaf_features;
+    std::vector<tfloat> leaf_zero_fractions;
+    std::vector<tfloat> tables;
+
+    unsigned num_v2_trees() const {
+        return static_cast<unsigned>(std::count(tree_v2.begin(), tree_v2.end(), true));
+    }
+
+    unsigned long long table_bytes() const {
+        return tables.size() * sizeof(tfloat);
+    }
+
+    unsigned long long native_bytes() const {
+        return compiled.native_bytes() + table_bytes() + tree_v2.size() / 8
+               + (node_slots.size() + node_leaves.size()) * sizeof(int) + leaves.size() * sizeof(FastLeaf)
+               + leaf_features.size() * sizeof(unsigned) + leaf_zero_fractions.size() * sizeof(tfloat);
+    }
+
+    void compile(const TreeEnsemble &trees, const long long memory_budget) {
+        compiled.compile(trees);
+        const unsigned total_nodes = compiled.num_nodes();
+        tree_v2.assign(compiled.tree_limit, false);
+        node_slots.assign(total_nodes, -1);
+        node_leaves.assign(total_nodes, -1);
+        leaves.clear();
+        leaf_features.clear();
+        leaf_zero_fractions.clear();
+        tables.clear();
+
+        std::vector<unsigned> path_features;
+        std::vector<tfloat> path_zero_fractions;
+        // the slots of a path are stored in 32 bits, which is far beyond any practical memory budget anyway
+        if (compiled.max_depth >= 32) return;
+
+        for (unsigned t = 0; t < compiled.tree_limit; ++t) {
+            const unsigned root = compiled.tree_offsets[t];
+            const unsigned long long tree_size = table_size(root, root, path_features);
+            if ((tables.size() + tree_size) * sizeof(tfloat) > static_cast<unsigned long long>(memory_budget)) {
+                continue;
+            }
+
+            tree_v2[t] = true;
+            path_features.clear();
+            path_zero_fractions.clear();
+            build(root, root, path_features, path_zero_fractions);
+        }
+    }
+
+private:
+    /**
+     * The number of weights of the tables of the leaves under node (an absolute index, whereas the right children are
+     * relative to the root of their tree), whose path from the root has the given features.
+     */
+    unsigned long long table_size(const unsigned root, const unsigned node,
+                                  std::vector<unsigned> &path_features) const {
+        const CompiledNode &n = compiled.nodes[node];
+        if (n.right < 0) return 1ULL << path_features.size();
+
+        const bool new_feature = std::find(path_features.begin(), path_features.end(),
+                                           static_cast<unsigned>(n.feature)) == path_features.end();
+        if (new_feature) path_features.push_back(n.feature);
+        const unsigned long long size = table_size(root, node + 1, path_features)
+                                        + table_size(root, root + n.right, path_features);
+        if (new_feature) path_features.pop_back();
+        return size;
+    }
+
+    void build(const unsigned root, const unsigned node, std::vector<unsigned> &path_features,
+               std::vector<tfloat> &path_zero_fractions) {
+        const CompiledNode &n = compiled.nodes[node];
+        if (n.right < 0) {
+            add_leaf(node, path_features, path_zero_fractions);
+            return;
+        }
+
+        unsigned slot = 0;
+        while (slot < path_features.size() && path_features[slot] != static_cast<unsigned>(n.feature)) ++slot;
+        const bool new_feature = slot == path_features.size();
+        if (new_feature) {
+            path_features.push_back(n.feature);
+            path_zero_fractions.push_back(1);
+        }
+        node_slots[node] = slot;
+
+        const unsigned children[2] = {node + 1, root + n.right};
+        for (unsigned c = 0; c < 2; ++c) {
+            const tfloat zero_fraction = path_zero_fractions[slot];
+            path_zero_fractions[slot] *= compiled.nodes[children[c]].cover_ratio;
+            build(root, children[c], path_features, path_zero_fractions);
+            path_zero_fractions[slot] = zero_fraction;
+        }
+
+        if (new_feature) {
+            path_features.pop_back();
+            path_zero_fractions.pop_back();
+        }
+    }
+
+    void add_leaf(const unsigned node, const std::vector<unsigned> &path_features,
+                  const std::vector<tfloat> &path_zero_fractions) {
+        const unsigned d = static_cast<unsigned>(path_features.size());
+        FastLeaf leaf;
+        leaf.num_features = d;
+        leaf.features_offset = static_cast<unsigned>(leaf_features.size());
+        leaf.table_offset = tables.size();
+        node_leaves[node] = static_cast<int>(leaves.size());
+        leaves.push_back(leaf);
+        leaf_features.insert(leaf_features.end(), path_features.begin(), path_features.end());
+        leaf_zero_fractions.insert(leaf_zero_fractions.end(), path_zero_fractions.begin(), path_zero_fractions.end());
+
+        // the Shapley weights |S|! (d - |S| - 1)! / d! = 1 / (d * binomial(d - 1, |S|))
+        std::vector<tfloat> weights(d + 1, 0);
+        tfloat binomial = 1;
+        for (unsigned k = 0; k < d; ++k) {
+            weights[k] = 1 / (d * binomial);
+            binomial = binomial * (d - 1 - k) / (k + 1);
+        }
+
+        // H(B) = sum_k weights[k] * e_{|B| - k}(z_B), with the elementary symmetric polynomials e of the zero
+        // fractions of B, each computed from those of B without its lowest slot
+        const unsigned num_subsets = 1U << d;
+        std::vector<tfloat> polynomials(static_cast<size_t>(num_subsets) * (d + 1), 0);
+        std::vector<unsigned char> sizes(num_subsets, 0);
+        polynomials[0] = 1;
+        tables.resize(tables.size() + num_subsets, 0);
+        tfloat *table = tables.data() + leaf.table_offset;
+        for (unsigned subset = 0; subset < num_subsets; ++subset) {
+            tfloat *e = polynomials.data() + static_cast<size_t>(subset) * (d + 1);
+            if (subset > 0) {
+                unsigned lowest = 0;
+                while (!(subset & (1U << lowest))) ++lowest;
+                const unsigned parent = subset & (subset - 1);
+                const tfloat *parent_e = polynomials.data() + static_cast<size_t>(parent) * (d + 1);
+                const tfloat z = path_zero_fractions[lowest];
+                sizes[subset] = sizes[parent] + 1;
+                const unsigned size = sizes[subset];
+                e[0] = parent_e[0];
+                for (unsigned m = 1; m <= size; ++m) e[m] = parent_e[m] + z * parent_e[m - 1];
+            }
+
+            const unsigned size = sizes[subset];
+            if (size < d) {
+                tfloat h = 0;
+                for (unsigned k = 0; k <= size; ++k) h += weights[k] * e[size - k];
+                table[subset] = h;
+            }
+        }
+    }
+};
+
+/**
+ * Explain the rows of data with the exact tree path dependent algorithm over a FastTreeShapEnsemble, adding the SHAP
+ * values to out_contribs (laid out as in dense_tree_shap). The unique path data of the trees without tables is
+ * allocated once per call if unique_path_data is NULL, or preallocated by the caller otherwise, in which case it must
+ * hold at least unique_path_size(trees.compiled.max_depth) elements. The dataset may have no flags (see MissingFlags).
+ */
+void dense_tree_shap_fast(const FastTreeShapEnsemble &trees, const ExplanationDataset &data, tfloat *out_contribs,
+                          PathElement *unique_path_data, const bool check_missing) {
+    const CompiledTreeEnsemble &compiled = trees.compiled;
+    const unsigned num_outputs = compiled.num_outputs;
+    PathElement *owned_unique_path_data = NULL;
+    if (unique_path_data == NULL) {
+        owned_unique_path_data = new PathElement[unique_path_size(compiled.max_depth)];
+        unique_path_data = owned_unique_path_data;
+    }
+    // the nodes pending a visit, with the slots of the features of their path which x does not follow
+    std::vector<std::pair<unsigned, unsigned> > stack;
+    stack.reserve(compiled.max_depth + 2);
+    MissingFlags missing(data, check_missing);
+
+    for (unsigned i = 0; i < data.num_X; ++i) {
+        tfloat *instance_out_contribs = out_contribs + i * (data.M + 1) * num_outputs;
+        const tfloat *x = data.X + i * data.M;
+        missing.fill(i, i + 1);
+        const bool *x_missing = missing.row(i);
+
+        for (unsigned t = 0; t < compiled.tree_limit; ++t) {
+            const unsigned root = compiled.tree_offsets[t];
+            const CompiledNode *tree_nodes = compiled.nodes + root;
+            const tfloat *tree_values = compiled.values + root * num_outputs;
+
+            // update the reference value with the expected value of the tree's predictions
+            for (unsigned k = 0; k < num_outputs; ++k) {
+                instance_out_contribs[data.M * num_outputs + k] += tree_values[k];
+            }
+
+            if (!trees.tree_v2[t]) {
+                tree_shap_recursive_compiled<true>(
+                    num_outputs, tree_nodes, tree_values, x, x_missing, instance_out_contribs, 0, 0,
+                    unique_path_data, 1, 1, -1
+                );
+                continue;
+            }
+
+            stack.push_back(std::make_pair(root, 0U));
+            while (!stack.empty()) {
+                const unsigned node = stack.back().first;
+                const unsigned cold_slots = stack.back().second;
+                stack.pop_back();
+                const CompiledNode &n = compiled.nodes[node];
+
+                if (n.right >= 0) {
+                    const bool hot_left = x_missing[n.feature] ? n.default_left : x[n.feature] <= n.threshold;
+                    const unsigned slot_bit = 1U << trees.node_slots[node];
+                    stack.push_back(std::make_pair(root + n.right,
+                                                   hot_left ? cold_slots | slot_bit : cold_slots));
+                    stack.push_back(std::make_pair(node + 1, hot_left ? cold_slots : cold_slots | slot_bit));
+                    continue;
+                }
+
+                const FastLeaf &leaf = trees.leaves[trees.node_leaves[node]];
+                const unsigned *features = trees.leaf_features.data() + leaf.features_offset;
+                const tfloat *zero_fractions = trees.leaf_zero_fractions.data() + leaf.features_offset;
+                const tfloat *table = trees.tables.data() + leaf.table_offset;
+                const tfloat *leaf_values = compiled.values + node * num_outputs;
+                const unsigned hot_slots = ((1U << leaf.num_features) - 1) & ~cold_slots;
+
+                tfloat cold_product = 1;
+                for (unsigned slot = 0; slot < leaf.num_features; ++slot) {
+                    if (cold_slots & (1U << slot)) cold_product *= zero_fractions[slot];
+                }
+
+                for (unsigned slot = 0; slot < leaf.num_features; ++slot) {
+                    tfloat scale;
+                    if (cold_slots & (1U << slot)) {
+                        scale = -cold_product * table[hot_slots];
+                    } else {
+                        scale = (1 - zero_fractions[slot]) * cold_product * table[hot_slots & ~(1U << slot)];
+                    }
+
+                    tfloat *feature_contribs = instance_out_contribs + features[slot] * num_outputs;
+                    for (unsigned k = 0; k < num_outputs; ++k) {
+                        feature_contribs[k] += scale * leaf_values[k];
+                    }
+                }
+            }
+        }
+
+        // apply the base offset to the bias term
+        for (unsigned k = 0; k < num_outputs; ++k) {
+            instance_out_contribs[data.M * num_outputs + k] += compiled.base_offset[k];
+        }
+    }
+
+    delete[] owned_unique_path_data;
+}
+
+/**
+ * The SHAP values of the features of a tree for a given decision signature, i.e. num_outputs values for each of the
+ * features, with the bias term excluded.
+ */
+struct CachedContribution {
+    std::vector<unsigned> features;
+    std::vector<tfloat> values;
+};
+
+/**
+ * A bounded cache of the contributions of each tree of an ensemble to the SHAP values of the tree path dependent
+ * algorithm, keyed by decision signature.
+ *
+ * In tree_shap_recursive, a row only matters through the branch it takes ("hot") at each internal node of the tree,
+ * including the nodes off its decision path. The signature of a row for a tree is therefore the bitset of these
+ * branches, in depth-first order, and rows with the same signature have the same contribution. Each tree holds at most
+ * capacity / num_trees contributions (and at least one), which are evicted first-in, first-out. All methods are
+ * thread-safe.
+ *
+ * The internal nodes of each tree are listed in depth-first order once by init, so that computing a signature is a
+ * single pass over this list, as cheap as tree_saabas, without any allocation once the key has grown to its size.
+ */
+struct ContributionCache {
+    unsigned num_trees;
+    unsigned tree_capacity;
+    std::vector<std::vector<unsigned> > tree_features; // the distinct split features of each tree
+    std::vector<std::vector<unsigned> > internal_nodes; // the internal nodes of each tree, in depth-first order
+    std::vector<std::unordered_map<std::string, CachedContribution> > entries;
+    std::vector<std::deque<std::string> > insertion_order;
+    std::mutex *locks;
+    std::atomic<long long> hit_count;
+    std::atomic<long long> miss_count;
+    std::atomic<long long> entry_count;
+
+    ContributionCache() : num_trees(0), tree_capacity(0), locks(NULL), hit_count(0), miss_count(0), entry_count(0) {}
+
+    ~ContributionCache() {
+        delete[] locks;
+    }
+
+    void init(const TreeEnsemble &trees, const long long capacity) {
+        num_trees = trees.tree_limit;
+        tree_capacity = static_cast<unsigned>(std::max(capacity / std::max(num_trees, 1u), 1LL));
+        tree_features.assign(num_trees, std::vector<unsigned>());
+        internal_nodes.assign(num_trees, std::vector<unsigned>());
+        entries.assign(num_trees, std::unordered_map<std::string, CachedContribution>());
+        insertion_order.assign(num_trees, std::deque<std::string>());
+        delete[] locks;
+        locks = new std::mutex[num_trees];
+
+        TreeEnsemble tree;
+        for (unsigned t = 0; t < num_trees; ++t) {
+            trees.get_tree(tree, t);
+            std::vector<unsigned> &nodes = internal_nodes[t];
+            std::vector<unsigned> stack(1, 0);
+            while (!stack.empty()) {
+                const unsigned node = stack.back();
+                stack.pop_back();
+                if (tree.children_right[node] < 0) continue;
+
+                nodes.push_back(node);
+                stack.push_back(tree.children_right[node]);
+                stack.push_back(tree.children_left[node]);
+            }
+
+            std::vector<unsigned> &features = tree_features[t];
+            for (unsigned n = 0; n < nodes.size(); ++n) {
+                features.push_back(tree.features[nodes[n]]);
+            }
+            std::sort(features.begin(), features.end());
+            features.erase(std::unique(features.begin(), features.end()), features.end());
+        }
+    }
+
+    /**
+     * Set key to the decision signature of the row (x, x_missing) for the tree t, whose nodes are those of tree.
+     */
+    void signature(const unsigned t, const TreeEnsemble &tree, const tfloat *x, const bool *x_missing,
+                   std::string &key) const {
+        const std::vector<unsigned> &nodes = internal_nodes[t];
+        key.assign((nodes.size() + 7) / 8, 0);
+        for (unsigned bit = 0; bit < nodes.size(); ++bit) {
+            const unsigned node = nodes[bit];
+            const unsigned feature = tree.features[node];
+            int hot_index;
+            if (x_missing[feature]) {
+                hot_index = tree.children_default[node];
+            } else if (x[feature] <= tree.thresholds[node]) {
+                hot_index = tree.children_left[node];
+            } else {
+                hot_index = tree.children_right[node];
+            }
+
+            if (hot_index == tree.children_left[node]) key[bit / 8] |= static_cast<char>(1 << (bit % 8));
+        }
+    }
+
+    /**
+     * Add the cached contribution of tree t for key to out_contribs (laid out as in dense_tree_shap for a single row)
+     * and return true, or return false if there is none.
+     */
+    bool add_cached(const unsigned t, const std::string &key, const unsigned num_outputs, tfloat *out_contribs) {
+        std::lock_guard<std::mutex> guard(locks[t]);
+        const auto entry = entries[t].find(key);
+        if (entry == entries[t].end()) {
+            ++miss_count;
+            return false;
+        }
+
+        const CachedContribution &contribution = entry->second;
+        for (unsigned n = 0; n < contribution.features.size(); ++n) {
+            for (unsigned k = 0; k < num_outputs; ++k) {
+                out_contribs[contribution.features[n] * num_outputs + k] += contribution.values[n * num_outputs + k];
+            }
+        }
+        ++hit_count;
+        return true;
+    }
+
+    void insert(const unsigned t, const std::string &key, CachedContribution &contribution) {
+        std::lock_guard<std::mutex> guard(locks[t]);
+        if (!entries[t].emplace(key, std::move(contribution)).second) return;
+
+        insertion_order[t].push_back(key);
+        if (insertion_order[t].size() > tree_capacity) {
+            entries[t].erase(insertion_order[t].front());
+            insertion_order[t].pop_front();
+        } else {
+            ++entry_count;
+        }
+    }
+
+    long long hits() const {
+        return hit_count;
+    }
+
+    long long misses() const {
+        return miss_count;
+    }
+
+    long long size() const {
+        return entry_count;
+    }
+
+    long long capacity() const {
+        return static_cast<long long>(tree_capacity) * num_trees;
+    }
+
+    void clear() {
+        for (unsigned t = 0; t < num_trees; ++t) {
+            std::lock_guard<std::mutex> guard(locks[t]);
+            entry_count -= entries[t].size();
+            entries[t].clear();
+            insertion_order[t].clear();
+        }
+        hit_count = 0;
+        miss_count = 0;
+    }
+};
+
+/**
+ * Same as dense_tree_path_dependent with the identity transform, except that the contribution of each tree is looked
+ * up in the cache by decision signature, and only computed (and then cached) on a miss. The cache must have been
+ * initialized with the same ensemble. The unique path data is allocated once per call if unique_path_data is NULL, or
+ * preallocated by the caller otherwise, in which case it must hold at least unique_path_size(trees.max_depth) elements.
+ * The dataset may have no flags (see MissingFlags).
+ */
+void dense_tree_shap_cached(const TreeEnsemble &trees, ContributionCache &cache, const ExplanationDataset &data,
+                            tfloat *out_contribs, PathElement *unique_path_data, const bool check_missing) {
+    PathElement *owned_unique_path_data = NULL;
+    if (unique_path_data == NULL) {
+        owned_unique_path_data = new PathElement[unique_path_size(trees.max_depth)];
+        unique_path_data = owned_unique_path_data;
+    }
+
+    const unsigned num_outputs = trees.num_outputs;
+    // the contribution of a single tree on a miss, of which only the features of the tree are ever non-zero
+    tfloat *tree_contribs = new tfloat[(data.M + 1) * num_outputs];
+    std::string key;
+    TreeEnsemble tree;
+    MissingFlags missing(data, check_missing);
+
+    for (unsigned i = 0; i < data.num_X; ++i) {
+        tfloat *instance_out_contribs = out_contribs + i * (data.M + 1) * num_outputs;
+        const tfloat *x = data.X + i * data.M;
+        missing.fill(i, i + 1);
+        const bool *x_missing = missing.row(i);
+
+        for (unsigned t = 0; t < trees.tree_limit; ++t) {
+            trees.get_tree(tree, t);
+
+            // update the reference value with the expected value of the tree's predictions
+            for (unsigned k = 0; k < num_outputs; ++k) {
+                instance_out_contribs[data.M * num_outputs + k] += tree.values[k];
+            }
+
+            cache.signature(t, tree, x, x_missing, key);
+            if (cache.add_cached(t, key, num_outputs, instance_out_contribs)) continue;
+
+            const std::vector<unsigned> &features = cache.tree_features[t];
+            for (unsigned n = 0; n < features.size(); ++n) {
+                tfloat *feature_contribs = tree_contribs + features[n] * num_outputs;
+                std::fill(feature_contribs, feature_contribs + num_outputs, 0);
+            }
+            tree_shap_recursive(
+                num_outputs, tree.children_left, tree.children_right, tree.children_default, tree.features,
+                tree.thresholds, tree.values, tree.node_sample_weights, x, x_missing, tree_contribs, 0, 0,
+                unique_path_data, 1, 1, -1, 0, 0, 1
+            );
+
+            // keep the features with a non-zero contribution (for any output) only
+            CachedContribution contribution;
+            for (unsigned n = 0; n < features.size(); ++n) {
+                const tfloat *feature_contribs = tree_contribs + features[n] * num_outputs;
+                bool non_zero = false;
+                for (unsigned k = 0; k < num_outputs; ++k) {
+                    instance_out_contribs[features[n] * num_outputs + k] += feature_contribs[k];
+                    non_zero = non_zero || feature_contribs[k] != 0;
+                }
+                if (non_zero) {
+                    contribution.features.push_back(features[n]);
+                    contribution.values.insert(contribution.values.end(), feature_contribs,
+                                               feature_contribs + num_outputs);
+                }
+            }
+            cache.insert(t, key, contribution);
+        }
+
+        // apply the base offset to the bias term
+        for (unsigned k = 0; k < num_outputs; ++k) {
+            instance_out_contribs[data.M * num_outputs + k] += trees.base_offset[k];
+        }
+    }
+
+    delete[] tree_contribs;
+    delete[] owned_unique_path_data;
+}
+
+/**
+ * Compute both the predictions of the ensemble with the given model transform (as dense_tree_predict), and the SHAP
+ * values of the identity transform with the given feature dependence, or the Saabas algorithm if approximate is true,
+ * in a single call. The first of the contribution cache, the FastTreeSHAP ensemble and the compiled tree ensemble which
+ * is not NULL is used by the tree path dependent algorithm. If row_block > 0, the Saabas algorithm and the tree path
+ * dependent algorithm without cache nor FastTreeSHAP run in tiles of row_block rows by tree_block trees (see
+ * dense_tree_shap_blocked). Unlike the kernels above, out_preds and out_contribs do not need to be zero-initialized.
+ * The dataset may have no flags (see MissingFlags).
+ */
+void dense_tree_predict_and_shap(tfloat *out_preds, tfloat *out_contribs, const TreeEnsemble& trees,
+                                 const CompiledTreeEnsemble *compiled, const FastTreeShapEnsemble *fast,
+                                 ContributionCache *cache, const ExplanationDataset &data,
+                                 const int feature_dependence, unsigned model_transform, bool approximate,
+                                 const unsigned row_block, const unsigned tree_block, const bool check_missing) {
+    std::fill(out_preds, out_preds + data.num_X * trees.num_outputs, 0);
+    std::fill(out_contribs, out_contribs + data.num_X * (data.M + 1) * trees.num_outputs, 0);
+
+    dense_tree_predict(out_preds, trees, data, model_transform, check_missing);
+    if (row_block > 0 && (approximate || (cache == NULL && fast == NULL
+                                          && feature_dependence == FEATURE_DEPENDENCE::tree_path_dependent))) {
+        dense_tree_shap_blocked(trees, compiled, data, out_contribs, approximate, row_block, tree_block, NULL,
+                                check_missing);
+    } else if (approximate) {
+        dense_tree_saabas(out_contribs, trees, data, check_missing);
+    } else if (cache != NULL && feature_dependence == FEATURE_DEPENDENCE::tree_path_dependent) {
+        dense_tree_shap_cached(trees, *cache, data, out_contribs, NULL, check_missing);
+    } else if (fast != NULL && feature_dependence == FEATURE_DEPENDENCE::tree_path_dependent) {
+        dense_tree_shap_fast(*fast, data, out_contribs, NULL, check_missing);
+    } else if (compiled != NULL && feature_dependence == FEATURE_DEPENDENCE::tree_path_dependent) {
+        dense_tree_shap_compiled(*compiled, data, out_contribs, NULL, check_missing);
+    } else {
+        dense_tree_shap(trees, data, out_contribs, feature_dependence, MODEL_TRANSFORM::identity, false,
+                        check_missing);
+    }
+}
+
+/**
+ * The part of dense_tree_interactions_path_dependent (with the identity transform) which conditions on the features in
+ * [feature_begin, feature_end) only, so that the conditioning loop can be split over multiple threads.
+ *
+ * The off-diagonal interaction values of the conditioned features are added to out_contribs, which has the same layout
+ * as in dense_tree_interactions_path_dependent. The diagonal terms are accumulated separately in diag_contribs, which
+ * holds (M + 1) * num_outputs values per row: the SHAP values if with_shap is true, minus the interaction values of
+ * the conditioned features. The diagonals are finally set with dense_tree_interactions_set_diagonal. The dataset may
+ * have no flags (see MissingFlags).
+ */
+void dense_tree_interactions_path_dependent_range(const TreeEnsemble& trees, const ExplanationDataset &data,
+                                                  tfloat *out_contribs, tfloat *diag_contribs,
+                                                  const unsigned feature_begin, const unsigned feature_end,
+                                                  const bool with_shap, const bool check_missing) {
+
+    // build a list of the unique features in the range for each tree
+    int *unique_features = new int[trees.tree_limit * trees.max_nodes];
+    std::fill(unique_features, unique_features + trees.tree_limit * trees.max_nodes, -1);
+    for (unsigned j = 0; j < trees.tree_limit; ++j) {
+        const int *features_row = trees.features + j * trees.max_nodes;
+        int *unique_features_row = unique_features + j * trees.max_nodes;
+        for (unsigned k = 0; k < trees.max_nodes; ++k) {
+            const int feature = features_row[k];
+            if (feature < (int) feature_begin || feature >= (int) feature_end) continue;
+
+            for (unsigned l = 0; l < trees.max_nodes; ++l) {
+                if (feature == unique_features_row[l]) break;
+                if (unique_features_row[l] < 0) {
+                    unique_features_row[l] = feature;
+                    break;
+                }
+            }
+        }
+    }
+
+    TreeEnsemble tree;
+    ExplanationDataset instance;
+    MissingFlags missing(data, check_missing);
+    const unsigned contrib_row_size = (data.M + 1) * trees.num_outputs;
+    tfloat *on_contribs = new tfloat[contrib_row_size];
+    tfloat *off_contribs = new tfloat[contrib_row_size];
+    for (unsigned i = 0; i < data.num_X; ++i) {
+        tfloat *instance_out_contribs = out_contribs + i * (data.M + 1) * contrib_row_size;
+        tfloat *instance_diag_contribs = diag_contribs + i * contrib_row_size;
+        missing.get_x_instance(instance, i);
+
+        for (unsigned j = 0; j < trees.tree_limit; ++j) {
+            trees.get_tree(tree, j);
+            if (with_shap) tree_shap(tree, instance, instance_diag_contribs, 0, 0);
+
+            const int *unique_features_row = unique_features + j * trees.max_nodes;
+            for (unsigned k = 0; k < trees.max_nodes; ++k) {
+                const int ind = unique_features_row[k];
+                if (ind < 0) break; // < 0 means we have seen all the features for this tree
+
+                // compute the shap value with this feature held on and off
+                std::fill(on_contribs, on_contribs + contrib_row_size, 0);
+                std::fill(off_contribs, off_contribs + contrib_row_size, 0);
+                tree_shap(tree, instance, on_contribs, 1, ind);
+                tree_shap(tree, instance, off_contribs, -1, ind);
+
+                // save the difference between on and off as the interaction value
+                for (unsigned l = 0; l < contrib_row_size; ++l) {
+                    const tfloat val = (on_contribs[l] - off_contribs[l]) / 2;
+                    instance_out_contribs[ind * contrib_row_size + l] += val;
+                    instance_diag_contribs[l] -= val;
+                }
+            }
+        }
+    }
+
+    delete[] on_contribs;
+    delete[] off_contribs;
+    delete[] unique_features;
+}
+
+/**
+ * Set the diagonals of the interaction values computed by dense_tree_interactions_path_dependent_range, given the
+ * num_partials partial diagonal terms stored one after another in diag_contribs, and apply the base offset.
+ */
+void dense_tree_interactions_set_diagonal(const TreeEnsemble& trees, const ExplanationDataset &data,
+                                          tfloat *out_contribs, const tfloat *diag_contribs,
+                                          const unsigned num_partials) {
+    const unsigned contrib_row_size = (data.M + 1) * trees.num_outputs;
+    const unsigned partial_size = data.num_X * contrib_row_size;
+
+    for (unsigned i = 0; i < data.num_X; ++i) {
+        tfloat *instance_out_contribs = out_contribs + i * (data.M + 1) * contrib_row_size;
+
+        for (unsigned j = 0; j < data.M + 1; ++j) {
+            const unsigned offset = j * contrib_row_size + j * trees.num_outputs;
+            for (unsigned k = 0; k < trees.num_outputs; ++k) {
+                const tfloat *diag = diag_contribs + i * contrib_row_size + j * trees.num_outputs + k;
+                tfloat sum = 0;
+                for (unsigned p = 0; p < num_partials; ++p) sum += diag[p * partial_size];
+                instance_out_contribs[offset + k] = sum;
+            }
+        }
+
+        // apply the base offset to the bias term
+        const unsigned last_ind = (data.M * (data.M + 1) + data.M) * trees.num_outputs;
+        for (unsigned j = 0; j < trees.num_outputs; ++j) {
+            instance_out_contribs[last_ind + j] += trees.base_offset[j];
+        }
+    }
+}
+
+/**
+ * A node of a single precision compiled tree, see CompiledNode.
+ */
+struct FloatNode {
+    float threshold;
+    float cover_ratio;
+    int right;
+    int feature;
+    bool default_left;
+};
+
+/**
+ * A single precision counterpart of PathElement.
+ */
+struct FloatPathElement {
+    int feature_index;
+    float zero_fraction;
+    float one_fraction;
+    float pweight;
+};
+
+/**
+ * A compiled tree ensemble (see CompiledTreeEnsemble) whose thresholds, cover ratios and values are rounded to single
+ * precision, which halves the memory touched per node and per unique path element. Models trained in single
+ * precision (e.g. by XGBoost or LightGBM) compare float features with float thresholds anyway.
+ */
+struct FloatTreeEnsemble {
+    FloatNode *nodes;
+    float *values;
+    unsigned *tree_offsets; // the index of the root of each tree in nodes, followed by the total number of nodes
+    float *base_offset;
+    unsigned tree_limit;
+    unsigned max_depth;
+    unsigned num_outputs;
+
+    FloatTreeEnsemble() : nodes(NULL), values(NULL), tree_offsets(NULL), base_offset(NULL),
+                          tree_limit(0), max_depth(0), num_outputs(0) {}
+
+    ~FloatTreeEnsemble() {
+        release();
+    }
+
+    unsigned num_nodes() const {
+        return tree_offsets == NULL ? 0 : tree_offsets[tree_limit];
+    }
+
+    unsigned long long native_bytes() const {
+        if (tree_offsets == NULL) return 0;
+        return static_cast<unsigned long long>(num_nodes()) * (sizeof(FloatNode) + num_outputs * sizeof(float))
+               + (tree_limit + 1) * sizeof(unsigned) + num_outputs * sizeof(float);
+    }
+
+    void compile(const TreeEnsemble &trees) {
+        compile(trees, trees.thresholds, trees.values, trees.node_sample_weights);
+    }
+
+    /**
+     * Same as compile(trees), except that the thresholds, values and node sample weights of the trees are read from
+     * the given arrays (laid out as in TreeEnsemble), e.g. those of a model stored in single precision, in which case
+     * the double precision arrays of trees are not used.
+     */
+    template<typename T>
+    void compile(const TreeEnsemble &trees, const T *thresholds_in, const T *values_in,
+                 const T *node_sample_weights_in) {
+        release();
+
+        // reuse the layout of the double precision compiled ensemble, and round its values
+        CompiledTreeEnsemble compiled;
+        compiled.compile(trees, thresholds_in, values_in, node_sample_weights_in);
+        tree_limit = compiled.tree_limit;
+        max_depth = compiled.max_depth;
+        num_outputs = compiled.num_outputs;
+
+        const unsigned total_nodes = compiled.num_nodes();
+        tree_offsets = new unsigned[tree_limit + 1];
+        std::copy(compiled.tree_offsets, compiled.tree_offsets + tree_limit + 1, tree_offsets);
+
+        nodes = new FloatNode[total_nodes];
+        for (unsigned i = 0; i < total_nodes; ++i) {
+            nodes[i].threshold = static_cast<float>(compiled.nodes[i].threshold);
+            nodes[i].cover_ratio = static_cast<float>(compiled.nodes[i].cover_ratio);
+            nodes[i].right = compiled.nodes[i].right;
+            nodes[i].feature = compiled.nodes[i].feature;
+            nodes[i].default_left = compiled.nodes[i].default_left;
+        }
+
+        values = new float[total_nodes * num_outputs];
+        std::copy(compiled.values, compiled.values + total_nodes * num_outputs, values);
+        base_offset = new float[num_outputs];
+        std::copy(compiled.base_offset, compiled.base_offset + num_outputs, base_offset);
+    }
+
+    void release() {
+        delete[] nodes;
+        delete[] values;
+        delete[] tree_offsets;
+        delete[] base_offset;
+        nodes = NULL;
+        values = NULL;
+        tree_offsets = NULL;
+        base_offset = NULL;
+    }
+
+private:
+    FloatTreeEnsemble(const FloatTreeEnsemble &);
+    FloatTreeEnsemble &operator=(const FloatTreeEnsemble &);
+};
+
+// single precision counterparts of extend_path, unwind_path and unwound_path_sum
+inline void extend_path_float(FloatPathElement *unique_path, unsigned unique_depth,
+                              float zero_fraction, float one_fraction, int feature_index) {
+    unique_path[unique_depth].feature_index = feature_index;
+    unique_path[unique_depth].zero_fraction = zero_fraction;
+    unique_path[unique_depth].one_fraction = one_fraction;
+    unique_path[unique_depth].pweight = (unique_depth == 0 ? 1.0f : 0.0f);
+    for (int i = unique_depth - 1; i >= 0; i--) {
+        unique_path[i + 1].pweight += one_fraction * unique_path[i].pweight * (i + 1)
+                                      / static_cast<float>(unique_depth + 1);
+        unique_path[i].pweight = zero_fraction * unique_path[i].pweight * (unique_depth - i)
+                                 / static_cast<float>(unique_depth + 1);
+    }
+}
+
+inline void unwind_path_float(FloatPathElement *unique_path, unsigned unique_depth, unsigned path_index) {
+    const float one_fraction = unique_path[path_index].one_fraction;
+    const float zero_fraction = unique_path[path_index].zero_fraction;
+    float next_one_portion = unique_path[unique_depth].pweight;
+
+    for (int i = unique_depth - 1; i >= 0; --i) {
+        if (one_fraction != 0) {
+            const float tmp = unique_path[i].pweight;
+            unique_path[i].pweight = next_one_portion * (unique_depth + 1)
+                                     / static_cast<float>((i + 1) * one_fraction);
+            next_one_portion = tmp - unique_path[i].pweight * zero_fraction * (unique_depth - i)
+                               / static_cast<float>(unique_depth + 1);
+        } else {
+            unique_path[i].pweight = (unique_path[i].pweight * (unique_depth + 1))
+                                     / static_cast<float>(zero_fraction * (unique_depth - i));
+        }
+    }
+
+    for (unsigned i = path_index; i < unique_depth; ++i) {
+        unique_path[i].feature_index = unique_path[i+1].feature_index;
+        unique_path[i].zero_fraction = unique_path[i+1].zero_fraction;
+        unique_path[i].one_fraction = unique_path[i+1].one_fraction;
+    }
+}
+
+inline float unwound_path_sum_float(const FloatPathElement *unique_path, unsigned unique_depth,
+                                    unsigned path_index) {
+    const float one_fraction = unique_path[path_index].one_fraction;
+    const float zero_fraction = unique_path[path_index].zero_fraction;
+    float next_one_portion = unique_path[unique_depth].pweight;
+    float total = 0;
+
+    if (one_fraction != 0) {
+        for (int i = unique_depth - 1; i >= 0; --i) {
+            const float tmp = next_one_portion / static_cast<float>((i + 1) * one_fraction);
+            total += tmp;
+            next_one_portion = unique_path[i].pweight - tmp * zero_fraction * (unique_depth - i);
+        }
+    } else {
+        for (int i = unique_depth - 1; i >= 0; --i) {
+            total += unique_path[i].pweight / (zero_fraction * (unique_depth - i));
+        }
+    }
+    return total * (unique_depth + 1);
+}
+
+/**
+ * Whether x (of a single precision feature vector) follows the left child of node; NaN's are missing values if
+ * check_missing is true.
+ */
+inline bool float_goes_left(const FloatNode &node, const float x, const bool check_missing) {
+    if (check_missing && std::isnan(x)) return node.default_left;
+    return x <= node.threshold;
+}
+
+/**
+ * Same as tree_shap_recursive_compiled, in single precision.
+ */
+inline void tree_shap_recursive_float(const unsigned num_outputs, const FloatNode *nodes, const float *values,
+                                      const float *x, const bool check_missing, float *phi,
+                                      unsigned node_index, unsigned unique_depth,
+                                      FloatPathElement *parent_unique_path, float parent_zero_fraction,
+                                      float parent_one_fraction, int parent_feature_index) {
+    const FloatNode &node = nodes[node_index];
+
+    // extend the unique path
+    FloatPathElement *unique_path = parent_unique_path + unique_depth + 1;
+    std::copy(parent_unique_path, parent_unique_path + unique_depth + 1, unique_path);
+    extend_path_float(unique_path, unique_depth, parent_zero_fraction, parent_one_fraction, parent_feature_index);
+    const unsigned split_index = node.feature;
+
+    // leaf node
+    if (node.right < 0) {
+        const float *leaf_values = values + node_index * num_outputs;
+        for (unsigned i = 1; i <= unique_depth; ++i) {
+            const float w = unwound_path_sum_float(unique_path, unique_depth, i);
+            const FloatPathElement &el = unique_path[i];
+            const unsigned phi_offset = el.feature_index * num_outputs;
+            const float scale = w * (el.one_fraction - el.zero_fraction);
+            for (unsigned j = 0; j < num_outputs; ++j) {
+                phi[phi_offset + j] += scale * leaf_values[j];
+            }
+        }
+
+    // internal node
+    } else {
+        const unsigned left_index = node_index + 1;
+        const unsigned right_index = node.right;
+        const bool hot_left = float_goes_left(node, x[split_index], check_missing);
+        const unsigned hot_index = hot_left ? left_index : right_index;
+        const unsigned cold_index = hot_left ? right_index : left_index;
+        const float hot_zero_fraction = nodes[hot_index].cover_ratio;
+        const float cold_zero_fraction = nodes[cold_index].cover_ratio;
+        float incoming_zero_fraction = 1;
+        float incoming_one_fraction = 1;
+
+        // see if we have already split on this feature,
+        // if so we undo that split so we can redo it for this node
+        unsigned path_index = 0;
+        for (; path_index <= unique_depth; ++path_index) {
+            if (static_cast<unsigned>(unique_path[path_index].feature_index) == split_index) break;
+        }
+        if (path_index != unique_depth + 1) {
+            incoming_zero_fraction = unique_path[path_index].zero_fraction;
+            incoming_one_fraction = unique_path[path_index].one_fraction;
+            unwind_path_float(unique_path, unique_depth, path_index);
+            unique_depth -= 1;
+        }
+
+        tree_shap_recursive_float(
+            num_outputs, nodes, values, x, check_missing, phi, hot_index, unique_depth + 1, unique_path,
+            hot_zero_fraction * incoming_zero_fraction, incoming_one_fraction, split_index
+        );
+
+        tree_shap_recursive_float(
+            num_outputs, nodes, values, x, check_missing, phi, cold_index, unique_depth + 1, unique_path,
+            cold_zero_fraction * incoming_zero_fraction, 0, split_index
+        );
+    }
+}
+
+/**
+ * Compute the SHAP values of num_rows single precision feature vectors of num_cols features, stored row-major in x,
+ * with the tree path dependent algorithm, or the Saabas algorithm if approximate is true. NaN's in x are treated as
+ * missing values if check_missing is true. out_contribs has the same layout as in dense_tree_shap, and does not need to
+ * be zero-initialized.
+ */
+void dense_tree_shap_float(const FloatTreeEnsemble &trees, const float *x, const unsigned num_rows,
+                           const unsigned num_cols, const bool check_missing, const bool approximate,
+                           float *out_contribs) {
+    const unsigned num_outputs = trees.num_outputs;
+    std::fill(out_contribs, out_contribs + num_rows * (num_cols + 1) * num_outputs, 0.0f);
+    FloatPathElement *unique_path_data = approximate ? NULL : new FloatPathElement[unique_path_size(trees.max_depth)];
+
+    for (unsigned i = 0; i < num_rows; ++i) {
+        float *instance_out_contribs = out_contribs + i * (num_cols + 1) * num_outputs;
+        const float *instance_x = x + i * num_cols;
+
+        for (unsigned j = 0; j < trees.tree_limit; ++j) {
+            const FloatNode *tree_nodes = trees.nodes + trees.tree_offsets[j];
+            const float *tree_values = trees.values + trees.tree_offsets[j] * num_outputs;
+
+            if (approximate) {
+                // same as tree_saabas: credit each feature with the change in value along the decision path
+                unsigned node_index = 0;
+                while (tree_nodes[node_index].right >= 0) {
+                    const FloatNode &node = tree_nodes[node_index];
+                    const unsigned next_index = float_goes_left(node, instance_x[node.feature], check_missing) ?
+                                                node_index + 1 : node.right;
+                    for (unsigned k = 0; k < num_outputs; ++k) {
+                        instance_out_contribs[node.feature * num_outputs + k] +=
+                                tree_values[next_index * num_outputs + k] - tree_values[node_index * num_outputs + k];
+                    }
+                    node_index = next_index;
+                }
+            } else {
+                // update the reference value with the expected value of the tree's predictions
+                for (unsigned k = 0; k < num_outputs; ++k) {
+                    instance_out_contribs[num_cols * num_outputs + k] += tree_values[k];
+                }
+
+                tree_shap_recursive_float(
+                    num_outputs, tree_nodes, tree_values, instance_x, check_missing, instance_out_contribs, 0, 0,
+                    unique_path_data, 1, 1, -1
+                );
+            }
+        }
+
+        // apply the base offset to the bias term
+        for (unsigned k = 0; k < num_outputs; ++k) {
+            instance_out_contribs[num_cols * num_outputs + k] += trees.base_offset[k];
+        }
+    }
+
+    delete[] unique_path_data;
+}
+
+/**
+ * The scratch space used to explain the rows of a sparse (CSR) dataset one at a time: each row is scattered into a
+ * dense feature vector, explained by the dense kernels, and its entries are reset afterwards, so that the cost of a row
+ * is proportional to its number of non-zero entries rather than to the number of features.
+ */
+struct SparseRowScratch {
+    tfloat *x;
+    bool *x_missing;
+    PathElement *unique_path_data;
+    const unsigned num_cols;
+    const bool absent_missing;
+
+    SparseRowScratch(const unsigned max_depth, const unsigned num_cols, const bool absent_missing)
+        : num_cols(num_cols), absent_missing(absent_missing) {
+        x = new tfloat[num_cols];
+        x_missing = new bool[num_cols];
+        unique_path_data = new PathElement[unique_path_size(max_depth)];
+        std::fill(x, x + num_cols, 0);
+        std::fill(x_missing, x_missing + num_cols, absent_missing);
+    }
+
+    ~SparseRowScratch() {
+        delete[] x;
+        delete[] x_missing;
+        delete[] unique_path_data;
+    }
+
+    /**
+     * Explain row i of the CSR dataset, adding its SHAP values to out_contribs, which holds (num_cols + 1) *
+     * num_outputs values. Explicit NaN entries are missing values.
+     */
+    void explain(const TreeEnsemble &trees, const CompiledTreeEnsemble *compiled, const int *indptr,
+                 const int *indices, const tfloat *values, const unsigned i, const bool approximate,
+                 tfloat *out_contribs) {
+        for (int n = indptr[i]; n < indptr[i + 1]; ++n) {
+            x[indices[n]] = values[n];
+            x_missing[indices[n]] = std::isnan(values[n]);
+        }
+
+        // the instance has flags, so that check_missing is not used
+        ExplanationDataset instance(x, x_missing, NULL, NULL, NULL, 1, num_cols, 0);
+        if (approximate) {
+            dense_tree_saabas(out_contribs, trees, instance);
+        } else if (compiled != NULL) {
+            dense_tree_shap_compiled(*compiled, instance, out_contribs, unique_path_data, true);
+        } else {
+            dense_tree_path_dependent_scratch(trees, instance, out_contribs, unique_path_data, true);
+        }
+
+        for (int n = indptr[i]; n < indptr[i + 1]; ++n) {
+            x[indices[n]] = 0;
+            x_missing[indices[n]] = absent_missing;
+        }
+    }
+
+private:
+    SparseRowScratch(const SparseRowScratch &);
+    SparseRowScratch &operator=(const SparseRowScratch &);
+};
+
+/**
+ * Set used[j] to whether feature j (of num_cols features) is split on by the trees, and return the number of such
+ * features.
+ */
+inline unsigned mark_used_features(const TreeEnsemble &trees, const unsigned num_cols, bool *used) {
+    std::fill(used, used + num_cols, false);
+    unsigned count = 0;
+    for (unsigned i = 0; i < trees.tree_limit * trees.max_nodes; ++i) {
+        const int feature = trees.features[i];
+        if (trees.children_right[i] >= 0 && feature >= 0 && static_cast<unsigned>(feature) < num_cols
+                && !used[feature]) {
+            used[feature] = true;
+            ++count;
+        }
+    }
+    return count;
+}
+
+/**
+ * The number of nodes reachable from the roots of the trees, i.e. the number of nodes visited by the tree path
+ * dependent algorithm for each row, ignoring the padding of the trees.
+ */
+unsigned long long num_tree_nodes(const TreeEnsemble &trees) {
+    int *stack = new int[trees.max_nodes];
+    unsigned long long count = 0;
+    for (unsigned t = 0; t < trees.tree_limit; ++t) {
+        const int *children_left = trees.children_left + t * trees.max_nodes;
+        const int *children_right = trees.children_right + t * trees.max_nodes;
+
+        unsigned stack_size = 0;
+        stack[stack_size++] = 0;
+        while (stack_size > 0) {
+            const int node = stack[--stack_size];
+            ++count;
+            if (children_right[node] >= 0) {
+                stack[stack_size++] = children_right[node];
+                stack[stack_size++] = children_left[node];
+            }
+        }
+    }
+    delete[] stack;
+    return count;
+}
+
+/**
+ * The number of distinct features split on by the trees, i.e. the maximum number of features (excluding the bias
+ * term) which can get a non-zero SHAP value.
+ */
+unsigned num_used_features(const TreeEnsemble &trees, const unsigned num_cols) {
+    bool *used = new bool[num_cols];
+    const unsigned count = mark_used_features(trees, num_cols, used);
+    delete[] used;
+    return count;
+}
+
+/**
+ * Compute the SHAP values of the num_rows rows of a sparse dataset of num_cols features, stored in the CSR format
+ * (indptr, indices, values), with the tree path dependent algorithm (over the compiled trees if compiled is not NULL),
+ * or the Saabas algorithm if approximate is true. The entries absent from a row are missing values if absent_missing
+ * is true, or zeros otherwise. out_contribs has the same (dense) layout as in dense_tree_shap, and does not need to be
+ * zero-initialized.
+ */
+void sparse_tree_shap(const TreeEnsemble &trees, const CompiledTreeEnsemble *compiled, const int *indptr,
+                      const int *indices, const tfloat *values, const unsigned num_rows, const unsigned num_cols,
+                      const bool absent_missing, const bool approximate, tfloat *out_contribs) {
+    const unsigned row_size = (num_cols + 1) * trees.num_outputs;
+    std::fill(out_contribs, out_contribs + num_rows * row_size, 0);
+
+    SparseRowScratch scratch(trees.max_depth, num_cols, absent_missing);
+    for (unsigned i = 0; i < num_rows; ++i) {
+        scratch.explain(trees, compiled, indptr, indices, values, i, approximate, out_contribs + i * row_size);
+    }
+}
+
+/**
+ * Same as sparse_tree_shap, with a sparse output: the SHAP values of the features of row i with a non-zero value for
+ * at least one output, followed by the bias term (as feature num_cols), are stored in CSR format, i.e. their features
+ * in out_indices[out_indptr[i]:out_indptr[i + 1]], and their num_outputs values each from
+ * out_values[out_indptr[i] * num_outputs]. out_indptr[0] is set to 0.
+ *
+ * Rows are explained until the output, which holds capacity entries, may not fit the next row, i.e. num_used_features
+ * + 1 entries; the number of rows explained is returned, so that the remaining rows can be explained by another call.
+ */
+unsigned sparse_tree_shap_sparse_output(const TreeEnsemble &trees, const CompiledTreeEnsemble *compiled,
+                                        const int *indptr, const int *indices, const tfloat *values,
+                                        const unsigned num_rows, const unsigned num_cols, const bool absent_missing,
+                                        const bool approximate, int *out_indptr, int *out_indices,
+                                        tfloat *out_values, const unsigned capacity) {
+    const unsigned num_outputs = trees.num_outputs;
+
+    // the features split on by the trees, in increasing order, followed by the bias term: only these entries of the
+    // dense SHAP values of a row can be non-zero, and need to be gathered and reset
+    bool *used = new bool[num_cols];
+    mark_used_features(trees, num_cols, used);
+    unsigned *candidates = new unsigned[num_cols + 1];
+    unsigned num_candidates = 0;
+    for (unsigned j = 0; j < num_cols; ++j) {
+        if (used[j]) candidates[num_candidates++] = j;
+    }
+    candidates[num_candidates++] = num_cols;
+    delete[] used;
+
+    tfloat *row_contribs = new tfloat[(num_cols + 1) * num_outputs];
+    std::fill(row_contribs, row_contribs + (num_cols + 1) * num_outputs, 0);
+
+    SparseRowScratch scratch(trees.max_depth, num_cols, absent_missing);
+    unsigned pos = 0;
+    unsigned i = 0;
+    out_indptr[0] = 0;
+    for (; i < num_rows && pos + num_candidates <= capacity; ++i) {
+        scratch.explain(trees, compiled, indptr, indices, values, i, approximate, row_contribs);
+
+        for (unsigned c = 0; c < num_candidates; ++c) {
+            tfloat *contribs = row_contribs + candidates[c] * num_outputs;
+            bool non_zero = candidates[c] == num_cols;
+            for (unsigned k = 0; k < num_outputs; ++k) {
+                if (contribs[k] != 0) non_zero = true;
+            }
+
+            if (non_zero) {
+                out_indices[pos] = candidates[c];
+                std::copy(contribs, contribs + num_outputs, out_values + pos * num_outputs);
+                ++pos;
+            }
+            std::fill(contribs, contribs + num_outputs, 0);
+        }
+        out_indptr[i + 1] = pos;
+    }
+
+    delete[] candidates;
+    delete[] row_contribs;
+    return i;
+}
+
+/**
+ * Explain the rows of data in chunks of chunk_rows rows, and reduce the SHAP values of each chunk into running
+ * statistics, so that the SHAP values of all rows are never materialized.
+ *
+ * The SHAP values are computed as in dense_tree_predict_and_shap. For each of the (M + 1) * num_outputs SHAP values of
+ * a row (in the layout of dense_tree_shap), its sum, sum of absolute values and sum of squares are added to
+ * out_stats, which holds these three arrays one after another. If num_bins > 0, out_hist holds num_bins counts per
+ * SHAP value, of a histogram with bins of equal width over [hist_lower, hist_upper), whose first and last bins also
+ * count the values below and above the range. Both outputs are added to, and are therefore initialized by the caller.
+ * If tree_block > 0, each chunk is explained in tiles of tree_block trees, as in dense_tree_predict_and_shap. The
+ * dataset may have no flags (see MissingFlags).
+ */
+void dense_tree_shap_summary(const TreeEnsemble& trees, const CompiledTreeEnsemble *compiled,
+                             const FastTreeShapEnsemble *fast, ContributionCache *cache,
+                             const ExplanationDataset &data, const bool check_missing,
+                             const int feature_dependence, const bool approximate,
+                             const unsigned chunk_rows, const unsigned tree_block, tfloat *out_stats,
+                             const unsigned num_bins, const tfloat hist_lower, const tfloat hist_upper,
+                             long long *out_hist) {
+    const unsigned row_size = (data.M + 1) * trees.num_outputs;
+    tfloat *sums = out_stats;
+    tfloat *abs_sums = out_stats + row_size;
+    tfloat *square_sums = out_stats + 2 * row_size;
+    const tfloat bin_scale = num_bins / (hist_upper - hist_lower);
+    tfloat *chunk_contribs = new tfloat[chunk_rows * row_size];
+    PathElement *unique_path_data = new PathElement[unique_path_size(trees.max_depth)];
+
+    for (unsigned begin = 0; begin < data.num_X; begin += chunk_rows) {
+        const unsigned num_rows = std::min(chunk_rows, data.num_X - begin);
+        ExplanationDataset chunk(data.X + begin * data.M,
+                                 data.X_missing == NULL ? NULL : data.X_missing + begin * data.M,
+                                 data.y == NULL ? NULL : data.y + begin, data.R, data.R_missing, num_rows, data.M,
+                                 data.num_R);
+
+        std::fill(chunk_contribs, chunk_contribs + num_rows * row_size, 0);
+        if (tree_block > 0 && (approximate || (cache == NULL && fast == NULL
+                                               && feature_dependence == FEATURE_DEPENDENCE::tree_path_dependent))) {
+            dense_tree_shap_blocked(trees, compiled, chunk, chunk_contribs, approximate, chunk_rows, tree_block,
+                                    unique_path_data, check_missing);
+        } else if (approximate) {
+            dense_tree_saabas(chunk_contribs, trees, chunk, check_missing);
+        } else if (cache != NULL && feature_dependence == FEATURE_DEPENDENCE::tree_path_dependent) {
+            dense_tree_shap_cached(trees, *cache, chunk, chunk_contribs, unique_path_data, check_missing);
+        } else if (fast != NULL && feature_dependence == FEATURE_DEPENDENCE::tree_path_dependent) {
+            dense_tree_shap_fast(*fast, chunk, chunk_contribs, unique_path_data, check_missing);
+        } else if (compiled != NULL && feature_dependence == FEATURE_DEPENDENCE::tree_path_dependent) {
+            dense_tree_shap_compiled(*compiled, chunk, chunk_contribs, unique_path_data, check_missing);
+        } else {
+            dense_tree_shap(trees, chunk, chunk_contribs, feature_dependence, MODEL_TRANSFORM::identity, false,
+                            check_missing);
+        }
+
+        for (unsigned i = 0; i < num_rows; ++i) {
+            const tfloat *row_contribs = chunk_contribs + i * row_size;
+            for (unsigned j = 0; j < row_size; ++j) {
+                const tfloat value = row_contribs[j];
+                sums[j] += value;
+                abs_sums[j] += std::abs(value);
+                square_sums[j] += value * value;
+            }
+
+            if (num_bins > 0) {
+                for (unsigned j = 0; j < row_size; ++j) {
+                    const tfloat position = (row_contribs[j] - hist_lower) * bin_scale;
+                    unsigned bin = 0;
+                    if (position >= num_bins) {
+                        bin = num_bins - 1;
+                    } else if (position > 0) {
+                        bin = static_cast<unsigned>(position);
+                    }
+                    ++out_hist[j * num_bins + bin];
+                }
+            }
+        }
+    }
+
+    delete[] chunk_contribs;
+    delete[] unique_path_data;
+}
+
+/**
+ * Select the top_k features with the largest absolute SHAP values for the given output, in each of the num_rows rows
+ * of contribs (laid out as in dense_tree_shap), in decreasing order of absolute value, and of feature index for ties.
+ * top_k must not exceed M.
+ *
+ * The features and SHAP values of row i are stored in out_indices and out_values, from index i * top_k. The bias term
+ * of row i is stored in out_bias[i], and the sum of the SHAP values of the features which are not selected in
+ * out_remainder[i].
+ */
+void dense_tree_top_k(const tfloat *contribs, const unsigned num_rows, const unsigned M, const unsigned num_outputs,
+                      const unsigned output, const unsigned top_k, int *out_indices, tfloat *out_values,
+                      tfloat *out_bias, tfloat *out_remainder) {
+    unsigned *features = new unsigned[M];
+
+    for (unsigned i = 0; i < num_rows; ++i) {
+        const tfloat *row_contribs = contribs + i * (M + 1) * num_outputs + output;
+
+        tfloat total = 0;
+        for (unsigned j = 0; j < M; ++j) {
+            features[j] = j;
+            total += row_contribs[j * num_outputs];
+        }
+
+        auto larger = [row_contribs, num_outputs](const unsigned a, const unsigned b) {
+            const tfloat abs_a = std::abs(row_contribs[a * num_outputs]);
+            const tfloat abs_b = std::abs(row_contribs[b * num_outputs]);
+            return abs_a > abs_b || (abs_a == abs_b && a < b);
+        };
+        std::partial_sort(features, features + top_k, features + M, larger);
+
+        tfloat selected = 0;
+        for (unsigned n = 0; n < top_k; ++n) {
+            const tfloat value = row_contribs[features[n] * num_outputs];
+            out_indices[i * top_k + n] = features[n];
+            out_values[i * top_k + n] = value;
+            selected += value;
+        }
+        out_bias[i] = row_contribs[M * num_outputs];
+        out_remainder[i] = total - selected;
+    }
+
+    delete[] features;
+}
+
+/**
+ * Build the inverted index from each of the num_cols features to the trees splitting on it, in the CSR format: the
+ * trees splitting on feature j are tree_ids[indptr[j], indptr[j + 1]), in increasing order. indptr holds num_cols + 1
+ * entries. If tree_ids is NULL, only indptr is filled, so that the caller can allocate tree_ids with indptr[num_cols]
+ * entries. Only the nodes reachable from the roots are considered, and features out of [0, num_cols) are ignored.
+ */
+void feature_tree_index(const TreeEnsemble &trees, const unsigned num_cols, int *indptr, int *tree_ids) {
+    int *stack = new int[trees.max_nodes];
+    // the last tree counted for each feature, so that a tree splitting several times on a feature is counted once
+    int *last_tree = new int[num_cols];
+    std::fill(last_tree, last_tree + num_cols, -1);
+    if (tree_ids == NULL) std::fill(indptr, indptr + num_cols + 1, 0);
+    int *next = tree_ids == NULL ? NULL : new int[num_cols];
+    if (next != NULL) std::copy(indptr, indptr + num_cols, next);
+
+    for (unsigned t = 0; t < trees.tree_limit; ++t) {
+        const int *children_left = trees.children_left + t * trees.max_nodes;
+        const int *children_right = trees.children_right + t * trees.max_nodes;
+        const int *features = trees.features + t * trees.max_nodes;
+
+        unsigned stack_size = 0;
+        stack[stack_size++] = 0;
+        while (stack_size > 0) {
+            const int node = stack[--stack_size];
+            if (children_left[node] < 0) continue;
+
+            const int feature = features[node];
+            if (feature >= 0 && static_cast<unsigned>(feature) < num_cols && last_tree[feature] != (int) t) {
+                last_tree[feature] = t;
+                if (next == NULL) {
+                    ++indptr[feature + 1];
+                } else {
+                    tree_ids[next[feature]++] = t;
+                }
+            }
+            stack[stack_size++] = children_right[node];
+            stack[stack_size++] = children_left[node];
+        }
+    }
+
+    if (next == NULL) {
+        for (unsigned j = 0; j < num_cols; ++j) indptr[j + 1] += indptr[j];
+    }
+    delete[] next;
+    delete[] last_tree;
+    delete[] stack;
+}
+
+/**
+ * Compute the contributions of each of the num_trees trees tree_ids to the SHAP values of the first row of data, with
+ * the tree path dependent algorithm, or the Saabas algorithm if approximate is true. The contributions of tree
+ * tree_ids[n] are stored in out_contribs from index n * (M + 1) * num_outputs, laid out as a row of dense_tree_shap
+ * without the base offset, and do not need to be zero-initialized. unique_path_data must hold at least
+ * unique_path_size(trees.max_depth) elements. The dataset may have no flags (see MissingFlags).
+ */
+void tree_shap_per_tree(const TreeEnsemble &trees, const ExplanationDataset &data, const int *tree_ids,
+                        const unsigned num_trees, const bool approximate, tfloat *out_contribs,
+                        PathElement *unique_path_data, const bool check_missing) {
+    const unsigned row_size = (data.M + 1) * trees.num_outputs;
+    std::fill(out_contribs, out_contribs + num_trees * row_size, 0);
+
+    TreeEnsemble tree;
+    ExplanationDataset instance;
+    MissingFlags missing(data, check_missing);
+    missing.get_x_instance(instance, 0);
+    for (unsigned n = 0; n < num_trees; ++n) {
+        trees.get_tree(tree, tree_ids[n]);
+        if (approximate) {
+            tree_saabas(out_contribs + n * row_size, tree, instance);
+        } else {
+            tree_shap(tree, instance, out_contribs + n * row_size, 0, 0, unique_path_data);
+        }
+    }
+}
+
+#endif
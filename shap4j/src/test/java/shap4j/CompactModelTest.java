@@ -0,0 +1,146 @@
+package shap4j;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import shap4j.shap.ExplanationDataset;
+import shap4j.shap.ShapUtils;
+import shap4j.shap.TreeEnsemble;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+public class CompactModelTest {
+    private byte[] padded;
+    private byte[] compact;
+    private double[][] matrix;
+
+    @BeforeEach
+    public void setUp() {
+        padded = ShapUtils.readResourceAsBytes("/boston.shap4j");
+        compact = CompactModel.fromPadded(padded);
+        Random random = new Random(73);
+        matrix = new double[20][13];
+        for (double[] row : matrix) {
+            for (int j = 0; j < row.length; ++j) {
+                row[j] = random.nextDouble() * 10;
+            }
+        }
+    }
+
+    @Test
+    public void testFromPadded() {
+        CompactModel model = CompactModel.wrap(ByteBuffer.wrap(compact));
+        assertEquals(100, model.getNumTrees());
+        assertEquals(6, model.getMaxDepth());
+        assertEquals(49, model.getMaxNodes());
+        assertEquals(1, model.getNumOutputs());
+        assertTrue(model.isIndex16());
+        assertFalse(model.isFloat32());
+        assertTrue(compact.length < padded.length);
+
+        assertThrows(IllegalArgumentException.class, () -> CompactModel.fromPadded(compact));
+        assertThrows(IllegalArgumentException.class, () -> CompactModel.wrap(ByteBuffer.wrap(padded)));
+        assertThrows(IllegalArgumentException.class,
+                () -> CompactModel.wrap(ByteBuffer.wrap(Arrays.copyOf(compact, compact.length - 8))));
+        assertThrows(IndexOutOfBoundsException.class, () -> model.getMaxNodes(50, 101));
+    }
+
+    @Test
+    public void testSameArrays() {
+        TreeEnsemble expected = TreeEnsemble.fromBytes(padded);
+        TreeEnsemble ensemble = TreeEnsemble.fromBytes(compact);
+        assertEquals(expected.tree_limit(), ensemble.tree_limit());
+        assertEquals(expected.max_nodes(), ensemble.max_nodes());
+        assertEquals(expected.max_depth(), ensemble.max_depth());
+
+        // the nodes past the end of each tree are padding, whose content may differ
+        CompactModel model = CompactModel.wrap(ByteBuffer.wrap(compact));
+        for (int t = 0; t < ensemble.tree_limit(); ++t) {
+            for (int i = 0; i < model.getNumNodes(t); ++i) {
+                assertEquals(expected.getChildrenLeft(t, i), ensemble.getChildrenLeft(t, i));
+                assertEquals(expected.getChildrenRight(t, i), ensemble.getChildrenRight(t, i));
+            }
+        }
+    }
+
+    @Test
+    public void testSameShapValues() throws IOException {
+        double[][] expected = new TreeExplainer(padded).shapValues(matrix, false, true);
+        assertArrayEquals(expected, new TreeExplainer(compact).shapValues(matrix, false, true));
+        assertArrayEquals(expected, new TreeExplainer(compact, Engine.JAVA).shapValues(matrix, false, true));
+
+        Path path = Files.createTempFile("boston", ".shap4j");
+        try {
+            Files.write(path, compact);
+            assertArrayEquals(expected, TreeExplainer.fromPath(path).shapValues(matrix, false, true));
+        } finally {
+            Files.delete(path);
+        }
+
+        byte[] float32 = CompactModel.fromPadded(ShapUtils.float32Model(padded));
+        assertTrue(CompactModel.wrap(ByteBuffer.wrap(float32)).isFloat32());
+        assertArrayEquals(new TreeExplainer(ShapUtils.float32Model(padded)).shapValues(matrix, false, true),
+                new TreeExplainer(float32).shapValues(matrix, false, true));
+    }
+
+    @Test
+    public void testSubsetOfTrees() {
+        double[][] expected = new TreeExplainer(padded).shapValues(matrix, false, true);
+        CompactModel model = CompactModel.wrap(ByteBuffer.wrap(compact));
+
+        TreeEnsemble first = TreeEnsemble.fromBytes(compact, 0, 30);
+        TreeEnsemble second = TreeEnsemble.fromBytes(compact, 30, 100);
+        assertEquals(30, first.tree_limit());
+        assertEquals(model.getMaxNodes(0, 30), first.max_nodes());
+        assertEquals(model.getMaxDepth(30, 100), second.max_depth());
+
+        assertEquals(model.getBaseOffset(), first.getBaseOffset(0));
+        assertEquals(0, second.getBaseOffset(0));
+
+        // the SHAP values of the features are additive across trees
+        double[][] firstValues = TreeExplainer.fromTrees(compact, 0, 30).shapValues(matrix, false, true);
+        double[][] secondValues = TreeExplainer.fromTrees(compact, 30, 100).shapValues(matrix, false, true);
+        for (int i = 0; i < matrix.length; ++i) {
+            for (int j = 0; j < matrix[i].length; ++j) {
+                assertEquals(expected[i][j], firstValues[i][j] + secondValues[i][j], 1e-9);
+            }
+        }
+
+        // so are the bias terms and the predictions, which count the base offset once
+        int size = matrix.length * (matrix[0].length + 1);
+        double[] expectedFlat = new double[size];
+        double[] firstFlat = new double[size];
+        double[] secondFlat = new double[size];
+        try (ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, true)) {
+            new TreeExplainer(padded).shapValues(dataset, false, expectedFlat, 0);
+            TreeExplainer.fromTrees(compact, 0, 30).shapValues(dataset, false, firstFlat, 0);
+            TreeExplainer.fromTrees(compact, 30, 100).shapValues(dataset, false, secondFlat, 0);
+        }
+        for (int n = 0; n < size; ++n) {
+            assertEquals(expectedFlat[n], firstFlat[n] + secondFlat[n], 1e-9);
+        }
+
+        double[] expectedPredictions = new TreeExplainer(padded).predict(matrix, ModelTransform.IDENTITY, true);
+        double[] firstPredictions = TreeExplainer.fromTrees(compact, 0, 30).predict(matrix, ModelTransform.IDENTITY,
+                true);
+        double[] secondPredictions = TreeExplainer.fromTrees(compact, 30, 100).predict(matrix,
+                ModelTransform.IDENTITY, true);
+        for (int i = 0; i < matrix.length; ++i) {
+            assertEquals(expectedPredictions[i], firstPredictions[i] + secondPredictions[i], 1e-9);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> TreeEnsemble.fromBytes(padded, 0, 30));
+        assertThrows(IndexOutOfBoundsException.class, () -> TreeEnsemble.fromBytes(compact, 30, 30));
+    }
+}
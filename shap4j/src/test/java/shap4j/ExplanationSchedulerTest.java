@@ -0,0 +1,159 @@
+package shap4j;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import shap4j.shap.ShapUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class ExplanationSchedulerTest {
+    private TreeExplainer explainer;
+    private double[][] matrix;
+
+    @BeforeEach
+    public void setUp() {
+        explainer = new TreeExplainer(ShapUtils.readResourceAsBytes("/boston.shap4j"));
+        Random random = new Random(79);
+        matrix = new double[200][13];
+        for (double[] row : matrix) {
+            for (int j = 0; j < row.length; ++j) {
+                row[j] = random.nextDouble() * 10;
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        double[][] expected = explainer.shapValues(matrix, false, true);
+
+        try (ExplanationScheduler scheduler = new ExplanationScheduler(explainer, false, true, 32, 5,
+                TimeUnit.MILLISECONDS, 2, 1000)) {
+            ExecutorService clients = Executors.newFixedThreadPool(4);
+            List<CompletableFuture<double[]>> futures = new ArrayList<>();
+            List<Future<CompletableFuture<double[]>>> submitted = new ArrayList<>();
+            for (double[] row : matrix) {
+                submitted.add(clients.submit(() -> scheduler.explainAsync(row)));
+            }
+            for (Future<CompletableFuture<double[]>> future : submitted) {
+                futures.add(future.get());
+            }
+            clients.shutdown();
+
+            for (int i = 0; i < matrix.length; ++i) {
+                assertArrayEquals(expected[i], futures.get(i).get(1, TimeUnit.MINUTES), 1e-12);
+            }
+
+            assertEquals(200, scheduler.getSubmittedRows());
+            assertEquals(200, scheduler.getExplainedRows());
+            assertEquals(0, scheduler.getFailedRows());
+            assertEquals(0, scheduler.getRejectedRows());
+            assertTrue(scheduler.getBatches() < 200);
+            assertTrue(scheduler.getMeanBatchSize() > 1);
+            assertTrue(scheduler.getMeanQueueNanos() > 0);
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        explainer.setListener(metrics -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try (ExplanationScheduler scheduler = new ExplanationScheduler(explainer, false, true, 4, 0,
+                TimeUnit.MILLISECONDS, 1, 8)) {
+            // the single worker is held by the listener, so the following vectors wait in the queue
+            CompletableFuture<double[]> first = scheduler.explainAsync(matrix[0]);
+            assertTrue(started.await(1, TimeUnit.MINUTES));
+            assertEquals(1, scheduler.getActiveBatches());
+
+            List<CompletableFuture<double[]>> queued = new ArrayList<>();
+            for (int i = 1; i <= 8; ++i) {
+                queued.add(scheduler.explainAsync(matrix[i]));
+            }
+            assertEquals(8, scheduler.getQueueDepth());
+            assertEquals(8, scheduler.getQueueCapacity());
+
+            CompletableFuture<double[]> rejected = scheduler.explainAsync(matrix[9]);
+            ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            assertEquals(1, scheduler.getRejectedRows());
+
+            release.countDown();
+            first.get(1, TimeUnit.MINUTES);
+            for (int i = 0; i < queued.size(); ++i) {
+                assertArrayEquals(explainer.shapValues(matrix[i + 1], false, true),
+                        queued.get(i).get(1, TimeUnit.MINUTES), 1e-12);
+            }
+            assertEquals(3, scheduler.getBatches());
+        }
+    }
+
+    @Test
+    public void testInvalidRequests() throws Exception {
+        try (ExplanationScheduler scheduler = new ExplanationScheduler(explainer, 16, 20, TimeUnit.MILLISECONDS)) {
+            // no division by zero before the first batch
+            assertEquals(0, scheduler.getMeanBatchSize());
+            assertEquals(0, scheduler.getMeanQueueNanos());
+
+            CompletableFuture<double[]> valid = scheduler.explainAsync(matrix[0]);
+            CompletableFuture<double[]> invalid = scheduler.explainAsync(new double[5]);
+
+            assertArrayEquals(explainer.shapValues(matrix[0], false, true), valid.get(1, TimeUnit.MINUTES), 1e-12);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> invalid.get(1, TimeUnit.MINUTES));
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+
+            // both vectors are in the same batch, of which only the valid one is explained
+            assertEquals(1, scheduler.getBatches());
+            assertEquals(1, scheduler.getExplainedRows());
+            assertEquals(1, scheduler.getFailedRows());
+            assertEquals(1, scheduler.getMeanBatchSize());
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new ExplanationScheduler(explainer, 0, 1, TimeUnit.MILLISECONDS));
+        TreeExplainer multiOutputExplainer = new TreeExplainer(
+                TreeExplainerTest.multiOutputModel(ShapUtils.readResourceAsBytes("/boston.shap4j"), -2));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ExplanationScheduler(multiOutputExplainer, 16, 1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        ExplanationScheduler scheduler = new ExplanationScheduler(explainer, 64, 1, TimeUnit.SECONDS);
+        List<CompletableFuture<double[]>> futures = new ArrayList<>();
+        for (double[] row : matrix) {
+            futures.add(scheduler.explainAsync(row));
+        }
+        scheduler.close();
+
+        // the vectors queued before closing are still explained
+        for (CompletableFuture<double[]> future : futures) {
+            assertTrue(future.isDone());
+            future.get();
+        }
+        ExecutionException e = assertThrows(ExecutionException.class, () -> scheduler.explainAsync(matrix[0]).get());
+        assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,107 @@
+package shap4j;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import shap4j.shap.ExplanationDataset;
+import shap4j.shap.ShapUtils;
+
+import java.util.Arrays;
+
+public class ExplanationSessionTest {
+    private TreeExplainer explainer;
+    private ExplanationSession session;
+
+    private double[][] X = {
+            {
+                    6.320e-03, 1.800e+01, 2.310e+00, 0.000e+00, 5.380e-01, 6.575e+00,
+                    6.520e+01, 4.090e+00, 1.000e+00, 2.960e+02, 1.530e+01, 3.969e+02,
+                    4.980e+00
+            },
+            {
+                    2.7310e-02, 0.0000e+00, 7.0700e+00, 0.0000e+00, 4.6900e-01,
+                    6.4210e+00, 7.8900e+01, 4.9671e+00, 2.0000e+00, 2.4200e+02,
+                    1.7800e+01, 3.9690e+02, 9.1400e+00
+            }
+    };
+
+    @BeforeEach
+    public void setUp() {
+        explainer = new TreeExplainer(ShapUtils.readResourceAsBytes("/boston.shap4j"));
+        session = explainer.newSession(X[0].length);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        session.close();
+    }
+
+    @Test
+    public void testSessionMatchesExplainer() {
+        // alternate between rows and algorithms, to make sure that no state leaks across calls
+        for (int k = 0; k < 3; ++k) {
+            for (double[] x : X) {
+                assertArrayEquals(explainer.shapValues(x, false), session.shapValues(x, false, false));
+                assertArrayEquals(explainer.shapValues(x, true, false), session.shapValues(x, true, false));
+            }
+        }
+    }
+
+    @Test
+    public void testSessionWithMissingValues() {
+        double[] x = X[1].clone();
+        x[5] = Double.NaN;
+
+        assertArrayEquals(explainer.shapValues(x, true), session.shapValues(x, false, true));
+        // missing flags are reset when the next vector has no missing values
+        assertArrayEquals(explainer.shapValues(X[1], true), session.shapValues(X[1], false, true));
+    }
+
+    @Test
+    public void testSessionIntoArray() {
+        assertEquals(X[0].length + 1, session.getOutputSize());
+
+        double[] out = new double[2 + session.getOutputSize()];
+        session.shapValues(X[0], false, false, out, 2);
+
+        double[] expected = new double[session.getOutputSize()];
+        explainer.shapValues(ExplanationDataset.fromMatrix(new double[][]{X[0]}, false), false, expected, 0);
+        assertArrayEquals(expected, Arrays.copyOfRange(out, 2, out.length));
+    }
+
+    @Test
+    public void testSessionAfterExplainerClosed() {
+        explainer.close();
+
+        assertThrows(IllegalStateException.class, () -> session.shapValues(X[0], false, false));
+        assertThrows(IllegalStateException.class, () -> session.shapValues(X[0], true, false, new double[14], 0));
+        assertThrows(IllegalStateException.class, () -> session.topKShapValues(X[0], false, false, 3, 0));
+    }
+
+    @Test
+    public void testInvalidVectorLength() {
+        assertThrows(IllegalArgumentException.class, () -> session.shapValues(new double[3], false, false));
+    }
+
+    @Test
+    public void testSessionTopKShapValues() {
+        for (double[] x : X) {
+            for (int k : new int[]{5, 2, 20}) {
+                TopKShapValues expected = explainer.topKShapValues(new double[][]{x}, false, false, k, 0);
+                TopKShapValues top = session.topKShapValues(x, false, false, k, 0);
+
+                assertEquals(Math.min(k, x.length), top.getK());
+                assertArrayEquals(expected.getFeatureIndex(), top.getFeatureIndex());
+                assertArrayEquals(expected.getValues(), top.getValues());
+                assertArrayEquals(expected.getBias(), top.getBias());
+                assertArrayEquals(expected.getRemainder(), top.getRemainder());
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> session.topKShapValues(X[0], false, false, 3, 1));
+    }
+}
@@ -0,0 +1,257 @@
+package shap4j;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import shap4j.shap.ShapUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ModelRegistryTest {
+    private byte[] boston;
+    private byte[] scaled;
+    private double[][] matrix;
+    private ModelRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        boston = ShapUtils.readResourceAsBytes("/boston.shap4j");
+        scaled = scaledModel(boston, 2);
+        Random random = new Random(71);
+        matrix = new double[10][13];
+        for (double[] row : matrix) {
+            for (int j = 0; j < row.length; ++j) {
+                row[j] = random.nextDouble() * 10;
+            }
+        }
+        registry = new ModelRegistry();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        registry.close();
+    }
+
+    @Test
+    public void testDeployAndAcquire() {
+        assertThrows(IllegalArgumentException.class, () -> registry.acquire("tenant"));
+
+        registry.deploy("tenant", boston).join();
+        double[][] expected = new TreeExplainer(boston).shapValues(matrix, false, true);
+        try (ModelRegistry.Lease lease = registry.acquire("tenant")) {
+            assertEquals("tenant", lease.getName());
+            assertEquals(64, lease.getDigest().length());
+            assertArrayEquals(expected, lease.getExplainer().shapValues(matrix, false, true));
+        }
+        assertEquals(1, registry.getNumLoadedModels());
+        assertEquals(1, registry.getNames().size());
+
+        assertThrows(CompletionException.class, () -> registry.deploy("tenant", new byte[]{1, 2, 3}).join());
+        // a failed deployment keeps the previous version
+        try (ModelRegistry.Lease lease = registry.acquire("tenant")) {
+            assertArrayEquals(expected, lease.getExplainer().shapValues(matrix, false, true));
+        }
+    }
+
+    @Test
+    public void testSwapWhileLeased() {
+        registry.deploy("tenant", boston).join();
+        ModelRegistry.Lease old = registry.acquire("tenant");
+        TreeExplainer oldExplainer = old.getExplainer();
+        double[][] expected = oldExplainer.shapValues(matrix, false, true);
+
+        registry.deploy("tenant", scaled).join();
+        try (ModelRegistry.Lease lease = registry.acquire("tenant")) {
+            assertNotEquals(old.getDigest(), lease.getDigest());
+            double[][] values = lease.getExplainer().shapValues(matrix, false, true);
+            assertEquals(2 * expected[0][0], values[0][0], 1e-9);
+        }
+        assertEquals(2, registry.getNumLoadedModels());
+
+        // the previous version remains usable until its last lease is closed
+        assertFalse(oldExplainer.isClosed());
+        assertArrayEquals(expected, oldExplainer.shapValues(matrix, false, true));
+        old.close();
+        old.close();
+        assertTrue(oldExplainer.isClosed());
+        assertThrows(IllegalStateException.class, old::getExplainer);
+        assertThrows(IllegalStateException.class, () -> oldExplainer.shapValues(matrix, false, true));
+        assertEquals(1, registry.getNumLoadedModels());
+    }
+
+    @Test
+    public void testDeduplication() {
+        registry.deploy("a", boston).join();
+        registry.deploy("b", boston.clone()).join();
+        assertEquals(1, registry.getNumLoadedModels());
+
+        TreeExplainer explainer;
+        try (ModelRegistry.Lease a = registry.acquire("a"); ModelRegistry.Lease b = registry.acquire("b")) {
+            explainer = a.getExplainer();
+            assertSame(explainer, b.getExplainer());
+            assertEquals(a.getDigest(), b.getDigest());
+        }
+
+        // the shared explainer is only closed once no name references it
+        assertTrue(registry.remove("a"));
+        assertFalse(registry.remove("a"));
+        assertFalse(explainer.isClosed());
+        registry.deploy("b", scaled).join();
+        assertTrue(explainer.isClosed());
+        assertEquals(1, registry.getNumLoadedModels());
+    }
+
+    @Test
+    public void testDeployPath() throws IOException {
+        Path path = Files.createTempFile("boston", ".shap4j");
+        try {
+            Files.write(path, boston);
+            double[][] expected = new TreeExplainer(boston).shapValues(matrix, false, true);
+
+            // a file is deduplicated with identical data deployed from memory
+            registry.deploy("a", path).join();
+            registry.deploy("b", boston).join();
+            assertEquals(1, registry.getNumLoadedModels());
+            try (ModelRegistry.Lease a = registry.acquire("a"); ModelRegistry.Lease b = registry.acquire("b")) {
+                assertEquals(a.getDigest(), b.getDigest());
+                assertArrayEquals(expected, a.getExplainer().shapValues(matrix, false, true));
+            }
+
+            // the engine of the registry is used for files as well
+            try (ModelRegistry javaRegistry = new ModelRegistry(Engine.JAVA, explainer -> { })) {
+                javaRegistry.deploy("a", path).join();
+                try (ModelRegistry.Lease lease = javaRegistry.acquire("a")) {
+                    assertEquals(Engine.JAVA, lease.getExplainer().getEngine());
+                    double[][] values = lease.getExplainer().shapValues(matrix, false, true);
+                    for (int i = 0; i < matrix.length; ++i) {
+                        assertArrayEquals(expected[i], values[i], 1e-9);
+                    }
+                }
+            }
+
+            assertThrows(CompletionException.class,
+                    () -> registry.deploy("c", path.resolveSibling("missing.shap4j")).join());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testConcurrentSwaps() throws Exception {
+        registry.deploy("tenant", boston).join();
+        double[][] expected = new TreeExplainer(boston).shapValues(matrix, false, true);
+
+        AtomicBoolean done = new AtomicBoolean(false);
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            results.add(readers.submit(() -> {
+                int count = 0;
+                while (!done.get()) {
+                    try (ModelRegistry.Lease lease = registry.acquire("tenant")) {
+                        double[][] values = lease.getExplainer().shapValues(matrix, false, true);
+                        double scale = values[0][0] / expected[0][0];
+                        assertTrue(Math.abs(scale - 1) < 1e-9 || Math.abs(scale - 2) < 1e-9);
+                        ++count;
+                    }
+                }
+                return count;
+            }));
+        }
+
+        for (int n = 0; n < 20; ++n) {
+            registry.deploy("tenant", n % 2 == 0 ? scaled : boston).join();
+        }
+        done.set(true);
+        readers.shutdown();
+        assertTrue(readers.awaitTermination(1, TimeUnit.MINUTES));
+        for (Future<Integer> result : results) {
+            assertTrue(result.get() > 0);
+        }
+        assertEquals(1, registry.getNumLoadedModels());
+    }
+
+    @Test
+    public void testClose() {
+        registry.deploy("tenant", boston).join();
+        ModelRegistry.Lease lease = registry.acquire("tenant");
+        registry.close();
+
+        assertThrows(IllegalStateException.class, () -> registry.acquire("tenant"));
+        assertThrows(IllegalStateException.class, () -> registry.deploy("tenant", boston));
+        assertTrue(registry.getNames().isEmpty());
+
+        TreeExplainer explainer = lease.getExplainer();
+        assertFalse(explainer.isClosed());
+        lease.close();
+        assertTrue(explainer.isClosed());
+        assertEquals(0, registry.getNumLoadedModels());
+    }
+
+    @Test
+    public void testCloseWhileDeploying() {
+        CountDownLatch loading = new CountDownLatch(1);
+        ModelRegistry slowRegistry = new ModelRegistry(Engine.NATIVE, explainer -> {
+            loading.countDown();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(slowRegistry.deploy("a", boston));
+        futures.add(slowRegistry.deploy("b", scaled));
+        futures.add(slowRegistry.deploy("a", scaled));
+        assertDoesNotThrow(() -> loading.await(1, TimeUnit.MINUTES));
+        slowRegistry.close();
+
+        // no deployment completes after close() returns, and none of the models outlives the registry
+        for (CompletableFuture<Void> future : futures) {
+            assertTrue(future.isDone());
+        }
+        assertTrue(futures.get(2).isCompletedExceptionally());
+        assertTrue(slowRegistry.getNames().isEmpty());
+        assertEquals(0, slowRegistry.getNumLoadedModels());
+    }
+
+    /**
+     * Scale the leaf values of a <code>.shap4j</code> model with a single output by <code>scale</code>.
+     */
+    private static byte[] scaledModel(byte[] rawData, double scale) {
+        byte[] copy = rawData.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(copy).order(ByteOrder.nativeOrder());
+        int numElements = buffer.getInt(8) * buffer.getInt(16);
+        int offsetValues = buffer.getInt(28) + 8 * numElements;
+        for (int n = 0; n < numElements; ++n) {
+            int offset = offsetValues + 8 * n;
+            buffer.putDouble(offset, buffer.getDouble(offset) * scale);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,60 @@
+package shap4j;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ShapSummaryTest {
+    @Test
+    public void testStatistics() {
+        // 2 features and 2 outputs, i.e. 6 values per row including the bias terms
+        ShapSummary summary = new ShapSummary(2, 2, 4, -2, 2);
+        summary.add(new double[]{1, -1, 0.5, 3, 0, 2}, 0);
+        summary.add(new double[]{9, -3, 1, 1.5, -5, 0, 2}, 1);
+
+        assertEquals(2, summary.getCount());
+        assertEquals(6, summary.getRowSize());
+        assertEquals(-2, summary.getSum(1, 1));
+        assertEquals(8, summary.getAbsSum(1, 1));
+        assertEquals(34, summary.getSquareSum(1, 1));
+        assertEquals(-1, summary.getMean(1, 1));
+        assertEquals(4, summary.getMeanAbs(1, 1));
+        assertEquals(16, summary.getVariance(1, 1));
+        assertEquals(2, summary.getMean(2, 1));
+        assertArrayEquals(new double[]{2, 1}, summary.getFeatureImportance(0));
+
+        // values out of [-2, 2) are counted by the first and last bins
+        assertArrayEquals(new long[]{0, 1, 0, 1}, summary.getHistogram(0, 1));
+        assertArrayEquals(new long[]{1, 0, 0, 1}, summary.getHistogram(1, 1));
+        assertArrayEquals(new long[]{0, 0, 0, 2}, summary.getHistogram(2, 1));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> summary.getSum(3, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> summary.getSum(0, 2));
+        assertThrows(IllegalArgumentException.class, () -> summary.add(new double[6], 1));
+        assertTrue(Double.isNaN(new ShapSummary(2, 1).getMean(0, 0)));
+    }
+
+    @Test
+    public void testMerge() {
+        ShapSummary first = new ShapSummary(1, 1, 2, 0, 1);
+        ShapSummary second = first.emptyCopy();
+        first.add(new double[]{0.25, 1}, 0);
+        second.add(new double[]{0.75, 1}, 0);
+        second.add(new double[]{-0.5, 1}, 0);
+
+        assertSame(first, first.merge(second));
+        assertEquals(3, first.getCount());
+        assertEquals(2, second.getCount());
+        assertEquals(0.5, first.getSum(0, 0));
+        assertEquals(1.5, first.getAbsSum(0, 0));
+        assertArrayEquals(new long[]{2, 1}, first.getHistogram(0, 0));
+
+        assertThrows(IllegalArgumentException.class, () -> first.merge(new ShapSummary(1, 1)));
+        assertThrows(IllegalArgumentException.class, () -> first.merge(new ShapSummary(2, 1, 2, 0, 1)));
+        assertThrows(IllegalArgumentException.class, () -> new ShapSummary(1, 1, 2, 1, 1));
+    }
+}
@@ -0,0 +1,36 @@
+package shap4j;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SparseExplanationDatasetTest {
+    @Test
+    public void testSparseExplanationDatasetFromCsr() {
+        // {{0, 2.0, 0}, {}, {1.0, 0, NaN}}
+        int[] indptr = {0, 1, 1, 3};
+        int[] indices = {1, 0, 2};
+        double[] values = {2.0, 1.0, Double.NaN};
+
+        try (SparseExplanationDataset dset = SparseExplanationDataset.fromCsr(3, indptr, indices, values, true)) {
+            assertEquals(3, dset.getNumRows());
+            assertEquals(3, dset.getNumCols());
+            assertEquals(3, dset.getNumEntries());
+            assertTrue(dset.isAbsentAsMissing());
+            assertEquals(1, dset.indptr().get(2));
+            assertEquals(2, dset.indices().get(2));
+            assertEquals(1.0, dset.values().get(1));
+        }
+    }
+
+    @Test
+    public void testInvalidCsr() {
+        assertThrows(IllegalArgumentException.class,
+                () -> SparseExplanationDataset.fromCsr(3, new int[]{1, 2}, new int[]{0, 1}, new double[2], false));
+        assertThrows(IllegalArgumentException.class,
+                () -> SparseExplanationDataset.fromCsr(3, new int[]{0, 2, 1}, new int[]{0, 1}, new double[2], false));
+        assertThrows(IllegalArgumentException.class,
+                () -> SparseExplanationDataset.fromCsr(3, new int[]{0, 2}, new int[]{0}, new double[2], false));
+        assertThrows(IllegalArgumentException.class,
+                () -> SparseExplanationDataset.fromCsr(3, new int[]{0, 2}, new int[]{0, 3}, new double[2], false));
+    }
+}
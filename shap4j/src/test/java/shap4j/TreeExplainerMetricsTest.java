@@ -0,0 +1,133 @@
+package shap4j;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import shap4j.shap.ExplanationDataset;
+import shap4j.shap.ShapUtils;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TreeExplainerMetricsTest {
+    private TreeExplainer explainer;
+    private double[][] matrix;
+
+    @BeforeEach
+    public void setUp() {
+        explainer = new TreeExplainer(ShapUtils.readResourceAsBytes("/boston.shap4j"));
+        Random random = new Random(67);
+        matrix = new double[20][13];
+        for (double[] row : matrix) {
+            for (int j = 0; j < row.length; ++j) {
+                row[j] = random.nextDouble() * 10;
+            }
+        }
+    }
+
+    @Test
+    public void testListener() {
+        List<ExplanationMetrics> reported = new ArrayList<>();
+        explainer.setListener(reported::add);
+
+        explainer.shapValues(matrix, false, true);
+        explainer.explain(matrix, true, ModelTransform.IDENTITY, false);
+        try (ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, false)) {
+            explainer.explain(dataset, false, ModelTransform.IDENTITY);
+        }
+        assertEquals(3, reported.size());
+
+        int numTrees = explainer.getNumTrees();
+        long datasetBytes = 20L * 13 * 8;
+        long shapBytes = 20L * 14 * 8;
+        long predictionBytes = 20L * 8;
+
+        ExplanationMetrics shapValues = reported.get(0);
+        assertEquals("shapValues", shapValues.getOperation());
+        assertEquals(20, shapValues.getNumRows());
+        assertTrue(shapValues.getMarshalNanos() > 0 && shapValues.getKernelNanos() > 0);
+        assertEquals(shapValues.getMarshalNanos() + shapValues.getKernelNanos() + shapValues.getCopyNanos(),
+                shapValues.getTotalNanos());
+        assertTrue(shapValues.getRowsPerSecond() > 0);
+        assertEquals(20L * numTrees, shapValues.getTreesVisited());
+        assertEquals(datasetBytes + shapBytes, shapValues.getNativeBytesAllocated());
+        assertEquals(datasetBytes + shapBytes, shapValues.getNativeBytesFreed());
+
+        // the exact algorithm visits every node, whereas Saabas visits at most one path per tree
+        ExplanationMetrics saabas = reported.get(1);
+        assertEquals("explain", saabas.getOperation());
+        assertEquals(20L * numTrees, saabas.getTreesVisited());
+        assertTrue(saabas.getNodesVisited() < shapValues.getNodesVisited());
+        assertEquals(datasetBytes + shapBytes + predictionBytes, saabas.getNativeBytesAllocated());
+
+        // a dataset marshalled by the caller is neither timed nor counted
+        ExplanationMetrics explain = reported.get(2);
+        assertEquals(0, explain.getMarshalNanos());
+        assertEquals(shapValues.getNodesVisited(), explain.getNodesVisited());
+        assertEquals(shapBytes + predictionBytes, explain.getNativeBytesAllocated());
+
+        explainer.setListener(null);
+        explainer.shapValues(matrix, false, true);
+        assertEquals(3, reported.size());
+    }
+
+    @Test
+    public void testNativeFootprint() {
+        long footprint = explainer.getNativeFootprint();
+        assertTrue(footprint >= (long) explainer.getNumTrees() * explainer.getMaxNodes() * (4 * 4 + 3 * 8));
+
+        explainer.compile();
+        assertTrue(explainer.getNativeFootprint() > footprint);
+        footprint = explainer.getNativeFootprint();
+        explainer.compileFastTreeShap(Long.MAX_VALUE);
+        assertTrue(explainer.getNativeFootprint()
+                > footprint + explainer.getFastTreeShapEnsemble().table_bytes());
+
+        TreeExplainer javaExplainer = new TreeExplainer(ShapUtils.readResourceAsBytes("/boston.shap4j"), Engine.JAVA);
+        assertEquals(0, javaExplainer.getNativeFootprint());
+        assertEquals(explainer.getNumTrees(), javaExplainer.getNumTrees());
+        assertEquals(explainer.getMaxNodes(), javaExplainer.getMaxNodes());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        TreeExplainerMetrics metrics = TreeExplainerMetrics.register(explainer, "boston test");
+        ObjectName name = metrics.getObjectName();
+        assertSame(metrics, explainer.getListener());
+        assertThrows(IllegalArgumentException.class, () -> TreeExplainerMetrics.register(explainer, "boston test"));
+
+        try {
+            explainer.shapValues(matrix, false, false);
+            explainer.shapValues(matrix, true, false);
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(2L, server.getAttribute(name, "Batches"));
+            assertEquals(40L, server.getAttribute(name, "Rows"));
+            assertEquals(40L * explainer.getNumTrees(), server.getAttribute(name, "TreesVisited"));
+            assertEquals(explainer.getNativeFootprint(), server.getAttribute(name, "ModelNativeBytes"));
+            assertEquals(server.getAttribute(name, "NativeBytesAllocated"),
+                    server.getAttribute(name, "NativeBytesFreed"));
+            assertTrue((Double) server.getAttribute(name, "RowsPerSecond") > 0);
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, metrics.getBatches());
+            assertEquals(0L, metrics.getKernelNanos());
+        } finally {
+            metrics.unregister();
+        }
+
+        assertNull(explainer.getListener());
+        assertNull(metrics.getObjectName());
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
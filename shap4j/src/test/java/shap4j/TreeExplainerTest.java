@@ -1,18 +1,35 @@
 package shap4j;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.apache.commons.io.IOUtils;
+import org.bytedeco.javacpp.DoublePointer;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import shap4j.jvm.JavaTreeEnsemble;
+import shap4j.shap.ContributionCache;
+import shap4j.shap.ExplanationDataset;
+import shap4j.shap.FastTreeShapEnsemble;
 import shap4j.shap.ShapUtils;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 public class TreeExplainerTest {
     private byte[] rawData;
@@ -114,4 +131,1116 @@ public class TreeExplainerTest {
         double[] shapValues = fileExplainer.shapValues(X[0], false);
         assertArrayEquals(expected[0], shapValues, 1e-6);
     }
+
+    @Test
+    public void testFromPath() throws IOException {
+        File tmpFile = Files.createTempFile("boston", ".shap4j").toFile();
+        tmpFile.deleteOnExit();
+        Files.write(tmpFile.toPath(), rawData);
+
+        TreeExplainer pathExplainer = TreeExplainer.fromPath(tmpFile.toPath());
+        TreeExplainer otherPathExplainer = TreeExplainer.fromPath(tmpFile.toPath());
+
+        assertArrayEquals(expected[0], pathExplainer.shapValues(X[0], false), 1e-6);
+        assertArrayEquals(expected[1], otherPathExplainer.shapValues(X[1], false), 1e-6);
+    }
+
+    @Test
+    public void testMultiThreadedShapValuesMatchSingleThreaded() {
+        double[][] matrix = randomMatrix(37, new Random(42));
+
+        double[][] serial = explainer.shapValues(matrix, false);
+        double[][] serialApproximate = explainer.shapValues(matrix, true, false);
+
+        explainer.setNumThreads(4);
+        assertEquals(4, explainer.getNumThreads());
+
+        double[][] parallel = explainer.shapValues(matrix, false);
+        double[][] parallelApproximate = explainer.shapValues(matrix, true, false);
+
+        for (int i = 0; i < matrix.length; ++i) {
+            // bit-identical results are expected, hence no tolerance
+            assertArrayEquals(serial[i], parallel[i]);
+            assertArrayEquals(serialApproximate[i], parallelApproximate[i]);
+        }
+    }
+
+    @Test
+    public void testShapValuesIntoArray() {
+        ExplanationDataset dataset = ExplanationDataset.fromMatrix(X, false);
+        int stride = X[0].length + 1;
+        assertEquals(2 * stride, explainer.getOutputSize(dataset));
+
+        // fill the array with garbage, which should be overwritten
+        double[] out = new double[3 + 2 * stride];
+        Arrays.fill(out, 42.0);
+
+        // reuse the same dataset and output array for multiple calls
+        for (int k = 0; k < 2; ++k) {
+            explainer.shapValues(dataset, false, out, 3);
+            assertFlatShapValues(expected, out, 3);
+        }
+        dataset.close();
+    }
+
+    @Test
+    public void testLargeShapValuesIntoArray() {
+        // more values than the per-thread scratch buffer holds, which are written through a buffer for the call
+        double[][] matrix = randomMatrix(5000, new Random(17));
+        double[][] expectedValues = explainer.shapValues(matrix, false);
+
+        double[] out = new double[5000 * (matrix[0].length + 1)];
+        try (ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, false)) {
+            explainer.shapValues(dataset, false, out, 0);
+        }
+        assertFlatShapValues(expectedValues, out, 0);
+    }
+
+    @Test
+    public void testShapValuesIntoDirectBuffer() {
+        ExplanationDataset dataset = ExplanationDataset.fromMatrix(X, false);
+        int stride = X[0].length + 1;
+
+        DoubleBuffer out = ByteBuffer.allocateDirect((1 + 2 * stride) * 8).order(ByteOrder.nativeOrder())
+                .asDoubleBuffer();
+        out.position(1);
+        explainer.shapValues(dataset, true, out);
+        assertEquals(1, out.position());
+
+        double[] values = new double[1 + 2 * stride];
+        out.position(0);
+        out.get(values);
+        assertFlatShapValues(approximateExpected, values, 1);
+
+        // the double buffers of direct byte buffers are big-endian by default, whatever the native byte order
+        ByteOrder otherOrder = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+                ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        DoubleBuffer nonNative = ByteBuffer.allocateDirect(2 * stride * 8).order(otherOrder).asDoubleBuffer();
+        assertThrows(IllegalArgumentException.class, () -> explainer.shapValues(dataset, true, nonNative));
+        DoubleBuffer defaultOrder = ByteBuffer.allocateDirect(2 * stride * 8).asDoubleBuffer();
+        if (defaultOrder.order() != ByteOrder.nativeOrder()) {
+            assertThrows(IllegalArgumentException.class, () -> explainer.shapValues(dataset, true, defaultOrder));
+        }
+        dataset.close();
+    }
+
+    @Test
+    public void testShapValuesIntoPointer() {
+        ExplanationDataset dataset = ExplanationDataset.fromMatrix(X, false);
+        int stride = X[0].length + 1;
+
+        DoublePointer out = new DoublePointer(2 + 2 * stride);
+        out.position(2);
+        explainer.shapValues(dataset, false, out);
+
+        double[] values = new double[2 + 2 * stride];
+        out.position(0).get(values);
+        assertFlatShapValues(expected, values, 2);
+
+        out.close();
+        dataset.close();
+    }
+
+    @Test
+    public void testShapValuesOfWrappedBuffer() {
+        int stride = X[0].length + 1;
+        ByteBuffer buffer = ByteBuffer.allocateDirect((1 + 2 * X[0].length) * 8).order(ByteOrder.nativeOrder());
+        buffer.position(8);
+        for (double[] row : X) {
+            for (double value : row) {
+                buffer.putDouble(value);
+            }
+        }
+        buffer.position(8);
+
+        double[] values = new double[2 * stride];
+        try (ExplanationDataset dataset = ExplanationDataset.wrap(buffer, 2, X[0].length, true)) {
+            explainer.shapValues(dataset, false, values, 0);
+            assertFlatShapValues(expected, values, 0);
+
+            // the features are read from the buffer, so missing values written to it take the default branches of
+            // the subsequent explanations
+            double[][] matrix = {X[0].clone(), X[1].clone()};
+            matrix[1][5] = Double.NaN;
+            buffer.putDouble(8 + (X[0].length + 5) * 8, Double.NaN);
+
+            try (ExplanationDataset copied = ExplanationDataset.fromMatrix(matrix, true)) {
+                assertArrayEquals(explainer.shapValues(copied), explainer.shapValues(dataset));
+            }
+        }
+    }
+
+    @Test
+    public void testShapValuesIntoUndersizedArray() {
+        ExplanationDataset dataset = ExplanationDataset.fromMatrix(X, false);
+        assertThrows(IllegalArgumentException.class, () -> explainer.shapValues(dataset, false, new double[27], 0));
+        dataset.close();
+    }
+
+    @Test
+    public void testShapInteractionValues() {
+        double[][] matrix = randomMatrix(5, new Random(3));
+        int width = X[0].length + 1;
+
+        ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, false);
+        assertEquals(matrix.length * width * width, explainer.getInteractionOutputSize(dataset));
+        double[] interactions = explainer.shapInteractionValues(dataset);
+        double[] shapValues = new double[matrix.length * width];
+        explainer.shapValues(dataset, false, shapValues, 0);
+        dataset.close();
+
+        for (int i = 0; i < matrix.length; ++i) {
+            for (int j = 0; j < width; ++j) {
+                // each row of an interaction matrix sums up to the SHAP value of its feature
+                double sum = 0;
+                for (int l = 0; l < width; ++l) {
+                    double value = interactions[(i * width + j) * width + l];
+                    assertEquals(interactions[(i * width + l) * width + j], value, 1e-6);
+                    sum += value;
+                }
+                assertEquals(shapValues[i * width + j], sum, 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testMultiThreadedShapInteractionValues() {
+        double[][] matrix = randomMatrix(9, new Random(5));
+        int width = X[0].length + 1;
+        double[] serial = explainer.shapInteractionValues(matrix, false);
+
+        // more rows than threads: rows are split across threads, with bit-identical results
+        explainer.setNumThreads(4);
+        assertArrayEquals(serial, explainer.shapInteractionValues(matrix, false));
+
+        // fewer rows than threads: features are split across threads, and only the diagonals may differ slightly
+        explainer.setNumThreads(16);
+        double[][] rows = Arrays.copyOf(matrix, 2);
+        double[] parallel = explainer.shapInteractionValues(rows, false);
+        assertEquals(2 * width * width, parallel.length);
+        for (int i = 0; i < parallel.length; ++i) {
+            if ((i / width) % width == i % width) {
+                assertEquals(serial[i], parallel[i], 1e-9);
+            } else {
+                assertEquals(serial[i], parallel[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testIndependentShapValues() {
+        double[][] background = randomMatrix(20, new Random(13));
+        double[][] matrix = randomMatrix(6, new Random(17));
+        int stride = X[0].length + 1;
+
+        explainer.setFeatureDependence(FeatureDependence.INDEPENDENT);
+        assertEquals(FeatureDependence.INDEPENDENT, explainer.getFeatureDependence());
+        assertThrows(IllegalStateException.class, () -> explainer.shapValues(matrix, false));
+
+        explainer.setBackground(background, false);
+        ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, false);
+        double[] serial = new double[matrix.length * stride];
+        explainer.shapValues(dataset, false, serial, 0);
+
+        // the bias term is the average prediction over the background, and the SHAP values of a row sum up to its
+        // prediction
+        double[] margins = explainer.predict(matrix, ModelTransform.IDENTITY, false);
+        double expectedValue = Arrays.stream(explainer.predict(background, ModelTransform.IDENTITY, false))
+                .average().getAsDouble();
+        for (int i = 0; i < matrix.length; ++i) {
+            assertEquals(expectedValue, serial[i * stride + stride - 1], 1e-6);
+            assertEquals(margins[i], Arrays.stream(serial, i * stride, (i + 1) * stride).sum(), 1e-6);
+        }
+
+        // more rows than threads: rows are split across threads, with bit-identical results
+        double[] parallel = new double[serial.length];
+        explainer.setNumThreads(3);
+        explainer.shapValues(dataset, false, parallel, 0);
+        assertArrayEquals(serial, parallel);
+
+        // fewer rows than threads: background rows are split across threads instead
+        explainer.setNumThreads(8);
+        explainer.shapValues(dataset, false, parallel, 0);
+        assertArrayEquals(serial, parallel, 1e-9);
+
+        assertThrows(IllegalStateException.class, () -> explainer.shapInteractionValues(dataset));
+        dataset.close();
+        explainer.setBackground(null, false);
+    }
+
+    @Test
+    public void testMultiOutputShapValues() {
+        // the first output is the boston model, the second output is the boston model scaled by -2
+        TreeExplainer multiOutputExplainer = new TreeExplainer(multiOutputModel(rawData, -2));
+        int numFeatures = X[0].length;
+        assertEquals(2, multiOutputExplainer.getNumOutputs());
+        assertThrows(IllegalArgumentException.class, () -> multiOutputExplainer.shapValues(X, false));
+
+        double[][][] values = multiOutputExplainer.shapValuesByOutput(X, false, false);
+        double[] predictions = multiOutputExplainer.predict(X, ModelTransform.IDENTITY, false);
+        assertEquals(2 * X.length, predictions.length);
+        for (int i = 0; i < X.length; ++i) {
+            assertEquals(2, values[i].length);
+            assertEquals(numFeatures + 1, values[i][0].length);
+            for (int j = 0; j < numFeatures; ++j) {
+                assertEquals(expected[i][j], values[i][0][j], 1e-6);
+                assertEquals(-2 * expected[i][j], values[i][1][j], 1e-5);
+            }
+            for (int k = 0; k < 2; ++k) {
+                assertEquals(predictions[i * 2 + k], Arrays.stream(values[i][k]).sum(), 1e-6);
+            }
+        }
+
+        // the flat layout interleaves the outputs of each feature, in rows explained in parallel or in a session
+        double[][] matrix = randomMatrix(11, new Random(29));
+        double[][][] serial = multiOutputExplainer.shapValuesByOutput(matrix, false, false);
+        multiOutputExplainer.setNumThreads(3);
+        ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, false);
+        double[] flat = new double[(int) multiOutputExplainer.getOutputSize(dataset)];
+        multiOutputExplainer.shapValues(dataset, false, flat, 0);
+        dataset.close();
+
+        try (ExplanationSession session = multiOutputExplainer.newSession(numFeatures)) {
+            assertEquals(2 * (numFeatures + 1), session.getOutputSize());
+            double[] sessionValues = new double[session.getOutputSize()];
+
+            for (int i = 0; i < matrix.length; ++i) {
+                session.shapValues(matrix[i], false, false, sessionValues, 0);
+                for (int j = 0; j <= numFeatures; ++j) {
+                    for (int k = 0; k < 2; ++k) {
+                        assertEquals(serial[i][k][j], flat[(i * (numFeatures + 1) + j) * 2 + k]);
+                        assertEquals(serial[i][k][j], sessionValues[j * 2 + k], 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompiledShapValues() {
+        double[][] matrix = randomMatrix(40, new Random(31));
+        TreeExplainer multiOutputExplainer = new TreeExplainer(multiOutputModel(rawData, 0.5));
+
+        double[][] serial = explainer.shapValues(matrix, false);
+        double[][][] multiOutputSerial = multiOutputExplainer.shapValuesByOutput(matrix, false, false);
+        Explanation explanation = explainer.explain(matrix, false, ModelTransform.IDENTITY, false);
+
+        assertFalse(explainer.isCompiled());
+        explainer.compile();
+        multiOutputExplainer.compile();
+        assertTrue(explainer.isCompiled());
+
+        // the compiled trees give bit-identical results, including through sessions and explain()
+        double[][] compiled = explainer.shapValues(matrix, false);
+        double[][][] multiOutputCompiled = multiOutputExplainer.shapValuesByOutput(matrix, false, false);
+        Explanation compiledExplanation = explainer.explain(matrix, false, ModelTransform.IDENTITY, false);
+        assertArrayEquals(explanation.getShapValues(), compiledExplanation.getShapValues());
+
+        try (ExplanationSession session = explainer.newSession(X[0].length)) {
+            for (int i = 0; i < matrix.length; ++i) {
+                assertArrayEquals(serial[i], compiled[i]);
+                assertArrayEquals(serial[i], session.shapValues(matrix[i], false, false));
+                for (int k = 0; k < 2; ++k) {
+                    assertArrayEquals(multiOutputSerial[i][k], multiOutputCompiled[i][k]);
+                }
+            }
+        }
+        assertArrayEquals(expected[0], explainer.shapValues(X[0], false), 1e-6);
+    }
+
+    @Test
+    public void testPredict() {
+        double[][] matrix = randomMatrix(25, new Random(7));
+        int stride = X[0].length + 1;
+
+        double[] margins = explainer.predict(matrix, ModelTransform.IDENTITY, false);
+        double[] probabilities = explainer.predict(matrix, ModelTransform.LOGISTIC, false);
+        assertEquals(matrix.length, margins.length);
+
+        ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, false);
+        double[] shapValues = new double[matrix.length * stride];
+        explainer.shapValues(dataset, false, shapValues, 0);
+        dataset.close();
+
+        for (int i = 0; i < matrix.length; ++i) {
+            // the SHAP values, including the bias term, sum up to the raw prediction
+            double sum = 0;
+            for (int j = 0; j < stride; ++j) {
+                sum += shapValues[i * stride + j];
+            }
+            assertEquals(sum, margins[i], 1e-6);
+            assertEquals(1 / (1 + Math.exp(-margins[i])), probabilities[i], 1e-12);
+        }
+
+        explainer.setNumThreads(3);
+        assertArrayEquals(margins, explainer.predict(matrix, ModelTransform.IDENTITY, false));
+    }
+
+    @Test
+    public void testExplain() {
+        double[][] matrix = randomMatrix(25, new Random(11));
+        int stride = X[0].length + 1;
+
+        for (boolean approximate : new boolean[]{false, true}) {
+            ExplanationDataset dataset = ExplanationDataset.fromMatrix(matrix, false);
+            double[] shapValues = new double[matrix.length * stride];
+            explainer.shapValues(dataset, approximate, shapValues, 0);
+            double[] predictions = explainer.predict(dataset, ModelTransform.LOGISTIC);
+
+            Explanation explanation = explainer.explain(dataset, approximate, ModelTransform.LOGISTIC);
+            assertEquals(matrix.length, explanation.getNumRows());
+            assertEquals(X[0].length, explanation.getNumFeatures());
+            assertEquals(1, explanation.getNumOutputs());
+            assertArrayEquals(predictions, explanation.getPredictions());
+            assertArrayEquals(shapValues, explanation.getShapValues());
+            assertArrayEquals(Arrays.copyOfRange(shapValues, stride, 2 * stride), explanation.getShapValues(1));
+
+            // the dataset is not closed by explain, and can be explained again in parallel
+            explainer.setNumThreads(4);
+            Explanation parallel = explainer.explain(dataset, approximate, ModelTransform.LOGISTIC);
+            assertArrayEquals(explanation.getPredictions(), parallel.getPredictions());
+            assertArrayEquals(explanation.getShapValues(), parallel.getShapValues());
+            explainer.setNumThreads(1);
+
+            dataset.close();
+        }
+
+        Explanation explanation = explainer.explain(X, false, ModelTransform.IDENTITY, false);
+        assertFlatShapValues(expected, explanation.getShapValues(), 0);
+    }
+
+    @Test
+    public void testJavaEngine() {
+        TreeExplainer javaExplainer = new TreeExplainer(rawData, Engine.JAVA);
+        assertEquals(Engine.JAVA, javaExplainer.getEngine());
+        assertEquals(Engine.NATIVE, explainer.getEngine());
+        assertEquals(1, javaExplainer.getNumOutputs());
+
+        assertArrayEquals(expected[0], javaExplainer.shapValues(X[0], false), 1e-6);
+        assertArrayEquals(approximateExpected[1], javaExplainer.shapValues(X[1], true, false), 1e-6);
+
+        // some values are missing, and some rows are explained in parallel
+        double[][] matrix = randomMatrix(40, new Random(13));
+        for (int i = 0; i < matrix.length; i += 3) {
+            matrix[i][i % matrix[i].length] = Double.NaN;
+        }
+
+        for (int numThreads : new int[]{1, 3}) {
+            javaExplainer.setNumThreads(numThreads);
+            for (boolean approximate : new boolean[]{false, true}) {
+                double[][] nativeValues = explainer.shapValues(matrix, approximate, true);
+                double[][] javaValues = javaExplainer.shapValues(matrix, approximate, true);
+                for (int i = 0; i < matrix.length; ++i) {
+                    assertArrayEquals(nativeValues[i], javaValues[i], 1e-9);
+                }
+
+                Explanation nativeExplanation = explainer.explain(matrix, approximate, ModelTransform.LOGISTIC, true);
+                Explanation javaExplanation = javaExplainer.explain(matrix, approximate, ModelTransform.LOGISTIC, true);
+                assertArrayEquals(nativeExplanation.getPredictions(), javaExplanation.getPredictions(), 1e-12);
+                assertArrayEquals(nativeExplanation.getShapValues(), javaExplanation.getShapValues(), 1e-9);
+            }
+
+            assertArrayEquals(explainer.predict(matrix, ModelTransform.IDENTITY, true),
+                    javaExplainer.predict(matrix, ModelTransform.IDENTITY, true), 1e-12);
+        }
+    }
+
+    @Test
+    public void testJavaEngineMultiOutput() {
+        byte[] multiOutputData = multiOutputModel(rawData, -2);
+        TreeExplainer nativeExplainer = new TreeExplainer(multiOutputData);
+        TreeExplainer javaExplainer = new TreeExplainer(multiOutputData, Engine.JAVA);
+        assertEquals(2, javaExplainer.getNumOutputs());
+        assertThrows(IllegalArgumentException.class, () -> javaExplainer.shapValues(X, false));
+
+        double[][] matrix = randomMatrix(9, new Random(17));
+        for (boolean approximate : new boolean[]{false, true}) {
+            double[][][] nativeValues = nativeExplainer.shapValuesByOutput(matrix, approximate, false);
+            double[][][] javaValues = javaExplainer.shapValuesByOutput(matrix, approximate, false);
+            for (int i = 0; i < matrix.length; ++i) {
+                for (int k = 0; k < 2; ++k) {
+                    assertArrayEquals(nativeValues[i][k], javaValues[i][k], 1e-9);
+                }
+            }
+        }
+        assertArrayEquals(nativeExplainer.predict(matrix, ModelTransform.IDENTITY, false),
+                javaExplainer.predict(matrix, ModelTransform.IDENTITY, false), 1e-12);
+    }
+
+    @Test
+    public void testJavaEngineUnsupportedOperations() {
+        TreeExplainer javaExplainer = new TreeExplainer(rawData, Engine.JAVA);
+
+        assertThrows(UnsupportedOperationException.class, () -> javaExplainer.newSession(X[0].length));
+        assertThrows(UnsupportedOperationException.class, javaExplainer::compile);
+        assertThrows(UnsupportedOperationException.class, () -> javaExplainer.shapInteractionValues(X, false));
+        assertThrows(UnsupportedOperationException.class, () -> javaExplainer.setBackground(X, false));
+        try (ExplanationDataset dataset = ExplanationDataset.fromMatrix(X, false)) {
+            assertThrows(UnsupportedOperationException.class, () -> javaExplainer.shapValues(dataset, false));
+            assertThrows(UnsupportedOperationException.class,
+                    () -> javaExplainer.predict(dataset, ModelTransform.IDENTITY));
+        }
+
+        javaExplainer.setFeatureDependence(FeatureDependence.INDEPENDENT);
+        assertThrows(IllegalStateException.class, () -> javaExplainer.shapValues(X, false));
+        // the approximate algorithm always uses the tree path dependent assumption
+        assertEquals(X.length, javaExplainer.shapValues(X, true, false).length);
+    }
+
+    @Test
+    public void testMissingValuesAcrossChunks() {
+        TreeExplainer javaExplainer = new TreeExplainer(rawData, Engine.JAVA);
+        // more rows than the native kernels detect missing values for at a time
+        double[][] matrix = randomMatrix(600, new Random(29));
+        for (int i = 0; i < matrix.length; i += 7) {
+            matrix[i][i % matrix[i].length] = Double.NaN;
+        }
+
+        for (boolean approximate : new boolean[]{false, true}) {
+            Explanation nativeExplanation = explainer.explain(matrix, approximate, ModelTransform.IDENTITY, true);
+            Explanation javaExplanation = javaExplainer.explain(matrix, approximate, ModelTransform.IDENTITY, true);
+            assertArrayEquals(javaExplanation.getPredictions(), nativeExplanation.getPredictions(), 1e-12);
+            assertArrayEquals(javaExplanation.getShapValues(), nativeExplanation.getShapValues(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testFloatShapValues() {
+        double[][] matrix = randomMatrix(30, new Random(19));
+        for (int i = 0; i < matrix.length; i += 4) {
+            matrix[i][i % matrix[i].length] = Double.NaN;
+        }
+        float[][] floatMatrix = toFloats(matrix);
+
+        for (boolean approximate : new boolean[]{false, true}) {
+            double[][] values = explainer.shapValues(matrix, approximate, true);
+            float[][] floatValues = explainer.shapValues(floatMatrix, approximate, true);
+            for (int i = 0; i < matrix.length; ++i) {
+                for (int j = 0; j < values[i].length; ++j) {
+                    assertEquals(values[i][j], floatValues[i][j], 1e-5);
+                }
+            }
+
+            // the rows explained in parallel are explained by the same kernel
+            explainer.setNumThreads(4);
+            float[][] parallel = explainer.shapValues(floatMatrix, approximate, true);
+            for (int i = 0; i < matrix.length; ++i) {
+                assertArrayEquals(floatValues[i], parallel[i]);
+            }
+            explainer.setNumThreads(1);
+
+            // the JAVA engine explains in double precision
+            float[][] javaValues = new TreeExplainer(rawData, Engine.JAVA).shapValues(floatMatrix, approximate, true);
+            for (int i = 0; i < matrix.length; ++i) {
+                assertArrayEquals(floatValues[i], javaValues[i], 1e-5f);
+            }
+        }
+
+        float[] bias = new float[2 * (X[0].length + 1)];
+        explainer.shapValues(toFloats(X), false, false, bias, 0);
+        for (int i = 0; i < X.length; ++i) {
+            assertArrayEquals(toFloats(expected)[i], explainer.shapValues(toFloats(X)[i], false, false), 1e-5f);
+            float sum = 0;
+            for (int j = 0; j <= X[0].length; ++j) sum += bias[i * (X[0].length + 1) + j];
+            assertEquals(explainer.predict(X, ModelTransform.IDENTITY, false)[i], sum, 1e-4);
+        }
+
+        explainer.setFeatureDependence(FeatureDependence.INDEPENDENT);
+        assertThrows(IllegalStateException.class, () -> explainer.shapValues(floatMatrix, false, false));
+        explainer.setFeatureDependence(FeatureDependence.TREE_PATH_DEPENDENT);
+    }
+
+    @Test
+    public void testFloat32Model() {
+        // a model stored in single precision is explained by both engines as its double precision counterpart
+        byte[] float32Data = float32Model(rawData);
+        assertEquals(rawData.length - 4 * 3 * 100 * 49, float32Data.length);
+
+        double[][] matrix = randomMatrix(20, new Random(23));
+        double[][] values = explainer.shapValues(matrix, false);
+        for (Engine engine : Engine.values()) {
+            TreeExplainer float32Explainer = new TreeExplainer(float32Data, engine);
+            double[][] float32Values = float32Explainer.shapValues(matrix, false);
+            for (int i = 0; i < matrix.length; ++i) {
+                assertArrayEquals(values[i], float32Values[i], 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testUnflaggedModelWithArraysAtByte40() {
+        // byte 40 is not reserved in version 1 files: a file whose children start there is in double precision, even
+        // though its first child (1) reads as FLAG_FLOAT32
+        ByteBuffer in = ByteBuffer.wrap(rawData).order(ByteOrder.nativeOrder());
+        int offsetIntArrays = in.getInt(24);
+        ByteBuffer out = ByteBuffer.allocate(rawData.length - (offsetIntArrays - 40)).order(ByteOrder.nativeOrder());
+        out.put(rawData, 0, 40);
+        out.put(rawData, offsetIntArrays, rawData.length - offsetIntArrays);
+        out.putInt(24, 40);
+        out.putInt(28, in.getInt(28) - (offsetIntArrays - 40));
+        assertEquals(1, out.getInt(40));
+
+        double[][] matrix = randomMatrix(5, new Random(29));
+        double[][] values = explainer.shapValues(matrix, false);
+        for (Engine engine : Engine.values()) {
+            assertArrayEquals(values, new TreeExplainer(out.array(), engine).shapValues(matrix, false));
+        }
+        assertArrayEquals(explainer.shapValues(matrix, false, true),
+                new TreeExplainer(CompactModel.fromPadded(out.array())).shapValues(matrix, false, true));
+    }
+
+    @Test
+    public void testSparseShapValues() {
+        // zero out about half of the entries of the matrix, which are absent from the sparse dataset
+        double[][] matrix = randomMatrix(21, new Random(31));
+        Random random = new Random(37);
+        for (double[] row : matrix) {
+            for (int j = 0; j < row.length; ++j) {
+                if (random.nextBoolean()) row[j] = 0;
+            }
+        }
+        matrix[5] = new double[matrix[5].length];
+        int stride = matrix[0].length + 1;
+
+        for (boolean absentAsMissing : new boolean[]{false, true}) {
+            // absent entries are explained either as zeros, or as missing values
+            double[][] dense = new double[matrix.length][];
+            for (int i = 0; i < matrix.length; ++i) {
+                dense[i] = matrix[i].clone();
+                for (int j = 0; j < dense[i].length; ++j) {
+                    if (absentAsMissing && dense[i][j] == 0) dense[i][j] = Double.NaN;
+                }
+            }
+
+            try (SparseExplanationDataset dataset = toCsr(matrix, absentAsMissing)) {
+                for (boolean approximate : new boolean[]{false, true}) {
+                    double[][] expectedValues = explainer.shapValues(dense, approximate, true);
+                    Explanation explanation = explainer.explain(dense, approximate, ModelTransform.IDENTITY, true);
+
+                    for (int numThreads : new int[]{1, 4}) {
+                        explainer.setNumThreads(numThreads);
+                        double[] values = explainer.shapValues(dataset, approximate);
+                        SparseShapValues sparseValues = explainer.sparseShapValues(dataset, approximate);
+                        assertEquals(matrix.length, sparseValues.getNumRows());
+
+                        for (int i = 0; i < matrix.length; ++i) {
+                            double[] rowValues = Arrays.copyOfRange(values, i * stride, (i + 1) * stride);
+                            assertArrayEquals(expectedValues[i], Arrays.copyOf(rowValues, stride - 1));
+                            assertArrayEquals(explanation.getShapValues(i), rowValues);
+                            assertArrayEquals(rowValues, sparseValues.getShapValues(i));
+
+                            // only the non-zero values are stored, followed by the bias term
+                            int[] indptr = sparseValues.getIndptr();
+                            assertEquals(stride - 1, sparseValues.getIndices()[indptr[i + 1] - 1]);
+                            for (int n = indptr[i]; n < indptr[i + 1] - 1; ++n) {
+                                assertTrue(sparseValues.getValues()[n] != 0);
+                            }
+                        }
+                    }
+                    explainer.setNumThreads(1);
+                }
+            }
+        }
+
+        explainer.setFeatureDependence(FeatureDependence.INDEPENDENT);
+        try (SparseExplanationDataset dataset = toCsr(matrix, false)) {
+            assertThrows(IllegalStateException.class, () -> explainer.sparseShapValues(dataset, false));
+        }
+    }
+
+    @Test
+    public void testShapSummary() {
+        double[][] matrix = randomMatrix(150, new Random(41));
+        int numFeatures = matrix[0].length;
+        TreeExplainer javaExplainer = new TreeExplainer(rawData, Engine.JAVA);
+
+        for (boolean approximate : new boolean[]{false, true}) {
+            Explanation explanation = explainer.explain(matrix, approximate, ModelTransform.IDENTITY, false);
+            ShapSummary expectedSummary = new ShapSummary(numFeatures, 1, 8, -1, 1);
+            for (int i = 0; i < matrix.length; ++i) {
+                expectedSummary.add(explanation.getShapValues(i), 0);
+            }
+
+            for (int numThreads : new int[]{1, 3}) {
+                explainer.setNumThreads(numThreads);
+                javaExplainer.setNumThreads(numThreads);
+
+                ShapSummary summary = new ShapSummary(numFeatures, 1, 8, -1, 1);
+                explainer.summarize(matrix, approximate, false, summary);
+                assertSummaryEquals(expectedSummary, summary);
+
+                ShapSummary javaSummary = new ShapSummary(numFeatures, 1, 8, -1, 1);
+                javaExplainer.summarize(matrix, approximate, false, javaSummary);
+                assertSummaryEquals(expectedSummary, javaSummary);
+            }
+        }
+
+        // batches are summarized into the same summary
+        ShapSummary summary = explainer.summarize(Arrays.copyOf(matrix, 100), false, false);
+        explainer.summarize(Arrays.copyOfRange(matrix, 100, matrix.length), false, false, summary);
+        assertEquals(matrix.length, summary.getCount());
+        assertEquals(0, summary.getNumBins());
+        assertThrows(IllegalStateException.class, () -> summary.getHistogram(0, 0));
+
+        double[][] values = explainer.shapValues(matrix, false);
+        double[] importance = new double[numFeatures];
+        for (double[] row : values) {
+            for (int j = 0; j < numFeatures; ++j) {
+                importance[j] += Math.abs(row[j]) / matrix.length;
+            }
+        }
+        assertArrayEquals(importance, summary.getFeatureImportance(0), 1e-9);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> explainer.summarize(matrix, false, false, new ShapSummary(numFeatures + 1, 1)));
+    }
+
+    private static void assertSummaryEquals(ShapSummary expected, ShapSummary actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        for (int j = 0; j <= expected.getNumFeatures(); ++j) {
+            for (int k = 0; k < expected.getNumOutputs(); ++k) {
+                assertEquals(expected.getSum(j, k), actual.getSum(j, k), 1e-6);
+                assertEquals(expected.getAbsSum(j, k), actual.getAbsSum(j, k), 1e-6);
+                assertEquals(expected.getSquareSum(j, k), actual.getSquareSum(j, k), 1e-6);
+                assertArrayEquals(expected.getHistogram(j, k), actual.getHistogram(j, k));
+            }
+        }
+    }
+
+    @Test
+    public void testTopKShapValues() {
+        double[][] matrix = randomMatrix(30, new Random(43));
+        int numFeatures = matrix[0].length;
+        TreeExplainer javaExplainer = new TreeExplainer(rawData, Engine.JAVA);
+        // a model whose second output is scaled, for which the top features are selected by output
+        TreeExplainer multiOutputExplainer = new TreeExplainer(multiOutputModel(rawData, -2));
+
+        for (int k : new int[]{1, 4, numFeatures, numFeatures + 5}) {
+            for (int numThreads : new int[]{1, 3}) {
+                explainer.setNumThreads(numThreads);
+                javaExplainer.setNumThreads(numThreads);
+
+                Explanation explanation = explainer.explain(matrix, false, ModelTransform.IDENTITY, false);
+                TopKShapValues top = explainer.topKShapValues(matrix, false, false, k, 0);
+                assertTopK(explanation, 0, Math.min(k, numFeatures), top);
+
+                TopKShapValues javaTop = javaExplainer.topKShapValues(matrix, false, false, k, 0);
+                assertArrayEquals(top.getFeatureIndex(), javaTop.getFeatureIndex());
+                assertArrayEquals(top.getValues(), javaTop.getValues(), 1e-6);
+                assertArrayEquals(top.getRemainder(), javaTop.getRemainder(), 1e-6);
+
+                Explanation multiOutputExplanation = multiOutputExplainer.explain(matrix, true,
+                        ModelTransform.IDENTITY, false);
+                assertTopK(multiOutputExplanation, 1, Math.min(k, numFeatures),
+                        multiOutputExplainer.topKShapValues(matrix, true, false, k, 1));
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> explainer.topKShapValues(matrix, false, false, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> explainer.topKShapValues(matrix, false, false, 3, 1));
+    }
+
+    private static void assertTopK(Explanation explanation, int output, int k, TopKShapValues top) {
+        int numFeatures = explanation.getNumFeatures();
+        int numOutputs = explanation.getNumOutputs();
+        assertEquals(k, top.getK());
+        assertEquals(explanation.getNumRows(), top.getNumRows());
+
+        for (int i = 0; i < explanation.getNumRows(); ++i) {
+            double[] phi = explanation.getShapValues(i);
+            // sort the features by decreasing absolute value, then by index
+            Integer[] features = new Integer[numFeatures];
+            for (int j = 0; j < numFeatures; ++j) features[j] = j;
+            Arrays.sort(features, (a, b) -> Double.compare(Math.abs(phi[b * numOutputs + output]),
+                    Math.abs(phi[a * numOutputs + output])));
+
+            double remainder = 0;
+            for (int n = 0; n < numFeatures; ++n) {
+                double value = phi[features[n] * numOutputs + output];
+                if (n < k) {
+                    assertEquals((int) features[n], top.getFeatureIndex(i)[n]);
+                    assertEquals(value, top.getValues(i)[n]);
+                } else {
+                    remainder += value;
+                }
+            }
+            assertEquals(phi[numFeatures * numOutputs + output], top.getBias()[i]);
+            assertEquals(remainder, top.getRemainder()[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void testContributionCache() {
+        // 60 rows repeating 6 distinct rows, with missing values, as with bucketed features
+        double[][] distinct = randomMatrix(6, new Random(47));
+        distinct[4][2] = Double.NaN;
+        double[][] matrix = new double[60][];
+        for (int i = 0; i < matrix.length; ++i) {
+            matrix[i] = distinct[(i * 7) % distinct.length];
+        }
+
+        for (boolean multiOutput : new boolean[]{false, true}) {
+            byte[] model = multiOutput ? multiOutputModel(rawData, 3) : rawData;
+            TreeExplainer explainer = new TreeExplainer(model);
+            long numTrees = JavaTreeEnsemble.fromBytes(model).getNumTrees();
+            Explanation expected = explainer.explain(matrix, false, ModelTransform.IDENTITY, true);
+            assertEquals(null, explainer.getContributionCache());
+
+            explainer.setContributionCache(100_000);
+            ContributionCache cache = explainer.getContributionCache();
+            for (int numThreads : new int[]{1, 3}) {
+                explainer.setNumThreads(numThreads);
+                Explanation explanation = explainer.explain(matrix, false, ModelTransform.IDENTITY, true);
+                assertArrayEquals(expected.getShapValues(), explanation.getShapValues(), 1e-9);
+                assertArrayEquals(expected.getPredictions(), explanation.getPredictions());
+            }
+
+            // each tree has at most one contribution per distinct row, and all others are hits
+            assertTrue(cache.misses() >= numTrees && cache.misses() <= numTrees * distinct.length);
+            assertEquals(2 * numTrees * matrix.length, cache.hits() + cache.misses());
+            assertEquals(cache.misses(), cache.size());
+
+            try (ExplanationSession session = explainer.newSession(distinct[0].length)) {
+                double[] values = new double[session.getOutputSize()];
+                session.shapValues(matrix[4], false, true, values, 0);
+                assertArrayEquals(expected.getShapValues(4), values, 1e-9);
+            }
+
+            // a cache smaller than the number of trees still holds one contribution per tree, and the replaced
+            // cache is released at once
+            explainer.setContributionCache(1);
+            assertTrue(cache.isNull());
+            cache = explainer.getContributionCache();
+            assertEquals(numTrees, cache.capacity());
+            explainer.setNumThreads(1);
+            explainer.explain(matrix, false, ModelTransform.IDENTITY, true);
+            assertEquals(numTrees, cache.size());
+            cache.clear();
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.hits() + cache.misses());
+
+            explainer.setContributionCache(0);
+            assertEquals(null, explainer.getContributionCache());
+            assertTrue(cache.isNull());
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> explainer.setContributionCache(-1));
+    }
+
+    @Test
+    public void testFastTreeShap() {
+        double[][] matrix = randomMatrix(40, new Random(59));
+        matrix[3][5] = Double.NaN;
+        matrix[17][0] = Double.NaN;
+
+        for (boolean multiOutput : new boolean[]{false, true}) {
+            byte[] model = multiOutput ? multiOutputModel(rawData, 3) : rawData;
+            TreeExplainer explainer = new TreeExplainer(model);
+            int numTrees = JavaTreeEnsemble.fromBytes(model).getNumTrees();
+            Explanation expected = explainer.explain(matrix, false, ModelTransform.IDENTITY, true);
+            ShapSummary expectedSummary = new ShapSummary(matrix[0].length, expected.getNumOutputs(), 8, -1, 1);
+            for (int i = 0; i < matrix.length; ++i) {
+                expectedSummary.add(expected.getShapValues(i), 0);
+            }
+            assertEquals(null, explainer.getFastTreeShapEnsemble());
+
+            explainer.compileFastTreeShap(Long.MAX_VALUE);
+            long tableBytes = explainer.getFastTreeShapEnsemble().table_bytes();
+            assertEquals(numTrees, explainer.getFastTreeShapEnsemble().num_v2_trees());
+
+            // all trees with tables, none of them, and only some of them
+            for (long memoryBudget : new long[]{Long.MAX_VALUE, 0, tableBytes / 2}) {
+                FastTreeShapEnsemble previous = explainer.getFastTreeShapEnsemble();
+                explainer.compileFastTreeShap(memoryBudget);
+                FastTreeShapEnsemble fast = explainer.getFastTreeShapEnsemble();
+                // the replaced ensemble is released at once
+                assertTrue(previous.isNull());
+                assertTrue(fast.table_bytes() <= memoryBudget);
+                assertEquals(memoryBudget == 0, fast.num_v2_trees() == 0);
+                assertEquals(memoryBudget == tableBytes / 2, fast.num_v2_trees() > 0 && fast.num_v2_trees() < numTrees);
+
+                for (int numThreads : new int[]{1, 3}) {
+                    explainer.setNumThreads(numThreads);
+                    Explanation explanation = explainer.explain(matrix, false, ModelTransform.IDENTITY, true);
+                    assertArrayEquals(expected.getShapValues(), explanation.getShapValues(), 1e-6);
+                    assertArrayEquals(expected.getPredictions(), explanation.getPredictions(), 1e-9);
+                }
+                explainer.setNumThreads(1);
+
+                ShapSummary summary = expectedSummary.emptyCopy();
+                explainer.summarize(matrix, false, true, summary);
+                assertSummaryEquals(expectedSummary, summary);
+                try (ExplanationSession session = explainer.newSession(matrix[0].length)) {
+                    double[] values = new double[session.getOutputSize()];
+                    session.shapValues(matrix[3], false, true, values, 0);
+                    assertArrayEquals(expected.getShapValues(3), values, 1e-6);
+                }
+            }
+
+            FastTreeShapEnsemble last = explainer.getFastTreeShapEnsemble();
+            explainer.compileFastTreeShap(-1);
+            assertEquals(null, explainer.getFastTreeShapEnsemble());
+            assertTrue(last.isNull());
+        }
+
+        TreeExplainer javaExplainer = new TreeExplainer(rawData, Engine.JAVA);
+        assertThrows(UnsupportedOperationException.class, () -> javaExplainer.compileFastTreeShap(0));
+    }
+
+    @Test
+    public void testBlockedExecution() {
+        double[][] matrix = randomMatrix(45, new Random(61));
+        matrix[9][4] = Double.NaN;
+        int numFeatures = matrix[0].length;
+
+        for (boolean multiOutput : new boolean[]{false, true}) {
+            for (boolean compiled : new boolean[]{false, true}) {
+                TreeExplainer explainer = new TreeExplainer(multiOutput ? multiOutputModel(rawData, 3) : rawData);
+                if (compiled) explainer.compile();
+
+                for (boolean approximate : new boolean[]{false, true}) {
+                    Explanation expected = explainer.explain(matrix, approximate, ModelTransform.LOGISTIC, true);
+                    ShapSummary expectedSummary = new ShapSummary(numFeatures, expected.getNumOutputs(), 8, -1, 1);
+                    explainer.summarize(matrix, approximate, true, expectedSummary);
+
+                    // tiles which divide the rows and trees, which do not, and which exceed them
+                    for (int[] blockSize : new int[][]{{1, 1}, {8, 7}, {64, 1000}}) {
+                        explainer.setBlockSize(blockSize[0], blockSize[1]);
+                        Explanation explanation = explainer.explain(matrix, approximate, ModelTransform.LOGISTIC, true);
+                        assertArrayEquals(expected.getShapValues(), explanation.getShapValues());
+                        assertArrayEquals(expected.getPredictions(), explanation.getPredictions());
+
+                        ShapSummary summary = expectedSummary.emptyCopy();
+                        explainer.summarize(matrix, approximate, true, summary);
+                        assertSummaryEquals(expectedSummary, summary);
+
+                        if (!multiOutput) {
+                            double[][] values = explainer.shapValues(matrix, approximate, true);
+                            for (int i = 0; i < matrix.length; ++i) {
+                                assertArrayEquals(Arrays.copyOf(expected.getShapValues(i), numFeatures), values[i]);
+                            }
+                        }
+                    }
+                    explainer.setBlockSize(0, 0);
+                }
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> explainer.setBlockSize(8, 0));
+        assertThrows(IllegalArgumentException.class, () -> explainer.setBlockSize(-1, 8));
+        TreeExplainer javaExplainer = new TreeExplainer(rawData, Engine.JAVA);
+        assertThrows(UnsupportedOperationException.class, () -> javaExplainer.setBlockSize(8, 8));
+    }
+
+    @Test
+    public void testExplainStream() {
+        double[][] matrix = randomMatrix(53, new Random(53));
+        matrix[7][3] = Double.NaN;
+        int numFeatures = matrix[0].length;
+        Explanation expected = explainer.explain(matrix, false, ModelTransform.LOGISTIC, true);
+        TreeExplainer javaExplainer = new TreeExplainer(rawData, Engine.JAVA);
+
+        for (TreeExplainer streamExplainer : new TreeExplainer[]{explainer, javaExplainer}) {
+            for (int chunkRows : new int[]{1, 10, 53, 100}) {
+                double[] predictions = new double[matrix.length];
+                double[] shapValues = new double[matrix.length * (numFeatures + 1)];
+                List<Long> offsets = new ArrayList<>();
+
+                long numRows = streamExplainer.explainStream(Arrays.stream(matrix), numFeatures, chunkRows, false,
+                        ModelTransform.LOGISTIC, true, (chunk, rowOffset) -> {
+                            assertEquals(Math.min(chunkRows, matrix.length - rowOffset), chunk.getNumRows());
+                            System.arraycopy(chunk.getPredictions(), 0, predictions, (int) rowOffset,
+                                    chunk.getNumRows());
+                            System.arraycopy(chunk.getShapValues(), 0, shapValues,
+                                    (int) rowOffset * (numFeatures + 1), chunk.getShapValues().length);
+                            offsets.add(rowOffset);
+                        });
+
+                assertEquals(matrix.length, numRows);
+                assertEquals((matrix.length + chunkRows - 1) / chunkRows, offsets.size());
+                assertArrayEquals(expected.getPredictions(), predictions, 1e-9);
+                assertArrayEquals(expected.getShapValues(), shapValues, 1e-6);
+            }
+        }
+
+        assertEquals(0, explainer.explainStream(Collections.<double[]>emptyIterator(), numFeatures, 10, false,
+                ModelTransform.IDENTITY, false, (chunk, rowOffset) -> { throw new AssertionError(); }));
+
+        // the chunks before an invalid row are consumed
+        double[][] invalid = Arrays.copyOf(matrix, 25);
+        invalid[21] = new double[numFeatures - 1];
+        List<Long> offsets = new ArrayList<>();
+        assertThrows(IllegalArgumentException.class, () -> explainer.explainStream(Arrays.stream(invalid),
+                numFeatures, 10, true, ModelTransform.IDENTITY, false, (chunk, rowOffset) -> offsets.add(rowOffset)));
+        assertEquals(Arrays.asList(0L, 10L), offsets);
+    }
+
+    @Test
+    public void testInvalidNumThreads() {
+        assertThrows(IllegalArgumentException.class, () -> explainer.setNumThreads(0));
+    }
+
+    private static void assertFlatShapValues(double[][] expected, double[] values, int offset) {
+        int stride = expected[0].length + 1;
+        for (int i = 0; i < expected.length; ++i) {
+            int rowOffset = offset + i * stride;
+            assertArrayEquals(expected[i], Arrays.copyOfRange(values, rowOffset, rowOffset + stride - 1), 1e-6);
+        }
+    }
+
+    @Test
+    public void testIncrementalReexplanation() {
+        double[][] matrix = randomMatrix(2, new Random(83));
+        FeatureTreeIndex index = explainer.getFeatureTreeIndex(13);
+        assertEquals(13, index.getNumFeatures());
+        for (int j = 0; j < 13; ++j) {
+            for (int t : index.getTrees(j)) {
+                assertTrue(t >= 0 && t < 100);
+            }
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> index.getTrees(13));
+
+        for (boolean approximate : new boolean[] {false, true}) {
+            IncrementalExplanation explanation = explainer.explainIncrementally(matrix[0], approximate, true);
+            assertEquals(100, explanation.getNumRecomputedTrees());
+            double[] expected = explainer.shapValues(matrix[0], approximate, true);
+            for (int j = 0; j < 13; ++j) {
+                assertEquals(expected[j], explanation.getShapValue(j, 0), 1e-9);
+            }
+
+            // change the features one or two at a time, until the vector is the second row
+            IncrementalExplanation current = explanation;
+            for (int j = 0; j < 13; j += 2) {
+                int[] features = j + 1 < 13 ? new int[] {j, j + 1} : new int[] {j};
+                double[] values = new double[features.length];
+                for (int n = 0; n < features.length; ++n) {
+                    values[n] = matrix[1][features[n]];
+                }
+
+                current = explainer.reexplain(current, features, values);
+                assertEquals(index.getTrees(features).length, current.getNumRecomputedTrees());
+                assertArrayEquals(explainer.explainIncrementally(current.getVector(), approximate, true)
+                        .getShapValues(), current.getShapValues());
+            }
+            assertArrayEquals(matrix[1], current.getVector());
+
+            // the previous explanation is unchanged, and comparing the vectors finds the changed features
+            assertArrayEquals(matrix[0], explanation.getVector());
+            double[] vector = matrix[0].clone();
+            vector[5] = matrix[1][5];
+            IncrementalExplanation changed = explainer.reexplain(explanation, vector);
+            assertEquals(index.getTrees(5).length, changed.getNumRecomputedTrees());
+            assertEquals(0, explainer.reexplain(explanation, matrix[0]).getNumRecomputedTrees());
+        }
+
+        IncrementalExplanation explanation = explainer.explainIncrementally(matrix[0], false, true);
+        assertThrows(IllegalArgumentException.class,
+                () -> explainer.reexplain(explanation, new int[] {0, 1}, new double[] {1}));
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> explainer.reexplain(explanation, new int[] {13}, new double[] {1}));
+        assertThrows(UnsupportedOperationException.class,
+                () -> new TreeExplainer(rawData, Engine.JAVA).explainIncrementally(matrix[0], false, true));
+
+        // the per-tree contributions are those of the tree path dependent algorithm, or of the Saabas algorithm
+        IncrementalExplanation approximate = explainer.explainIncrementally(matrix[0], true, true);
+        explainer.setFeatureDependence(FeatureDependence.INDEPENDENT);
+        assertThrows(IllegalStateException.class, () -> explainer.explainIncrementally(matrix[0], false, true));
+        assertThrows(IllegalStateException.class,
+                () -> explainer.reexplain(explanation, new int[] {5}, new double[] {1}));
+        double[] changedVector = matrix[0].clone();
+        changedVector[5] = 1;
+        assertArrayEquals(explainer.explainIncrementally(changedVector, true, true).getShapValues(),
+                explainer.reexplain(approximate, new int[] {5}, new double[] {1}).getShapValues(), 1e-12);
+        explainer.setFeatureDependence(FeatureDependence.TREE_PATH_DEPENDENT);
+    }
+
+    /**
+     * Convert a <code>.shap4j</code> model with a single output into a model with two outputs, the second of which is
+     * the first one scaled by <code>scale</code>.
+     */
+    static byte[] multiOutputModel(byte[] rawData, double scale) {
+        ByteBuffer in = ByteBuffer.wrap(rawData).order(ByteOrder.nativeOrder());
+        int numElements = in.getInt(8) * in.getInt(16);
+        int offsetDoubleArrays = in.getInt(28);
+
+        ByteBuffer out = ByteBuffer.allocate(offsetDoubleArrays + 8 * 4 * numElements).order(ByteOrder.nativeOrder());
+        out.put(rawData, 0, offsetDoubleArrays);
+        out.putInt(20, 2);
+
+        in.position(offsetDoubleArrays);
+        out.position(offsetDoubleArrays);
+        for (int n = 0; n < numElements; ++n) {
+            out.putDouble(in.getDouble());
+        }
+        for (int n = 0; n < numElements; ++n) {
+            double value = in.getDouble();
+            out.putDouble(value);
+            out.putDouble(value * scale);
+        }
+        for (int n = 0; n < numElements; ++n) {
+            out.putDouble(in.getDouble());
+        }
+        return out.array();
+    }
+
+    /**
+     * Convert a <code>.shap4j</code> model into a model whose double arrays are stored in single precision.
+     */
+    private static byte[] float32Model(byte[] rawData) {
+        ByteBuffer in = ByteBuffer.wrap(rawData).order(ByteOrder.nativeOrder());
+        int offsetDoubleArrays = in.getInt(28);
+        int numDoubles = (rawData.length - offsetDoubleArrays) / 8;
+
+        ByteBuffer out = ByteBuffer.allocate(offsetDoubleArrays + 4 * numDoubles).order(ByteOrder.nativeOrder());
+        out.put(rawData, 0, offsetDoubleArrays);
+        out.putInt(40, 1);
+
+        in.position(offsetDoubleArrays);
+        out.position(offsetDoubleArrays);
+        for (int n = 0; n < numDoubles; ++n) {
+            out.putFloat((float) in.getDouble());
+        }
+        return out.array();
+    }
+
+    private static SparseExplanationDataset toCsr(double[][] matrix, boolean absentAsMissing) {
+        int[] indptr = new int[matrix.length + 1];
+        int[] indices = new int[matrix.length * matrix[0].length];
+        double[] values = new double[indices.length];
+        for (int i = 0; i < matrix.length; ++i) {
+            indptr[i + 1] = indptr[i];
+            for (int j = 0; j < matrix[i].length; ++j) {
+                if (matrix[i][j] != 0) {
+                    indices[indptr[i + 1]] = j;
+                    values[indptr[i + 1]++] = matrix[i][j];
+                }
+            }
+        }
+        return SparseExplanationDataset.fromCsr(matrix[0].length, indptr, indices, values, absentAsMissing);
+    }
+
+    private static float[][] toFloats(double[][] matrix) {
+        float[][] floats = new float[matrix.length][];
+        for (int i = 0; i < matrix.length; ++i) {
+            floats[i] = new float[matrix[i].length];
+            for (int j = 0; j < matrix[i].length; ++j) {
+                floats[i][j] = (float) matrix[i][j];
+            }
+        }
+        return floats;
+    }
+
+    /**
+     * Generate a matrix of feature vectors by perturbing the rows of <code>X</code>.
+     */
+    private double[][] randomMatrix(int numRows, Random random) {
+        double[][] matrix = new double[numRows][];
+        for (int i = 0; i < numRows; ++i) {
+            matrix[i] = X[i % X.length].clone();
+            for (int j = 0; j < matrix[i].length; ++j) {
+                matrix[i][j] *= 0.5 + random.nextDouble();
+            }
+        }
+        return matrix;
+    }
 }
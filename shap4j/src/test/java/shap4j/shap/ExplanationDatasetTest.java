@@ -1,6 +1,11 @@
 package shap4j.shap;
 
 import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class ExplanationDatasetTest {
@@ -22,10 +27,10 @@ public class ExplanationDatasetTest {
 
         assertEquals(2.0, dset.X().get(1));
         assertTrue(Double.isNaN(dset.X().get(3)));
-        // all X_missing will be set to false, even if there are missing values
-        for (int i = 0; i < dset.X_missing().capacity(); ++i) {
-            assertFalse(dset.X_missing().get(i));
-        }
+        // no missing value flags are allocated, and all values are assumed to be non-missing
+        assertNull(dset.X_missing());
+        assertFalse(dset.isCheckMissing());
+        assertEquals(4 * 8, dset.getNativeBytes());
     }
 
     @Test
@@ -36,11 +41,7 @@ public class ExplanationDatasetTest {
         // data should be row-major
         assertEquals(2.0, dset.X().get(1));
         assertEquals(4.0, dset.X().get(4));
-
-        // all X_missing will be set to false, even if there are missing values
-        for (int i = 0; i < dset.X_missing().capacity(); ++i) {
-            assertFalse(dset.X_missing().get(i));
-        }
+        assertNull(dset.X_missing());
     }
 
     @Test
@@ -48,12 +49,146 @@ public class ExplanationDatasetTest {
         double[][] matrix = {{1.0, 2.0, 3.0, Double.NaN}, {4.0, 5.0, 6.0, 7.0}};
         ExplanationDataset dset = ExplanationDataset.fromMatrix(matrix, true);
 
-        for (int i = 0; i < dset.X_missing().capacity(); ++i) {
-            if (i != 3) {
-                assertFalse(dset.X_missing().get(i));
-            } else {
-                assertTrue(dset.X_missing().get(i));
-            }
+        // the missing values are detected by the native kernels, when the rows are explained
+        assertNull(dset.X_missing());
+        assertTrue(dset.isCheckMissing());
+        assertThrows(IllegalArgumentException.class, () -> dset.setRow(0, new double[4], false));
+        dset.setRow(0, new double[]{Double.NaN, 1.0, 2.0, 3.0}, true);
+        assertTrue(Double.isNaN(dset.X().get(0)));
+        assertEquals(7.0, dset.X().get(7));
+    }
+
+    @Test
+    public void testSlice() {
+        double[][] matrix = {{1.0, 2.0}, {3.0, Double.NaN}, {5.0, 6.0}};
+        ExplanationDataset dset = ExplanationDataset.fromMatrix(matrix, true);
+        ExplanationDataset slice = dset.slice(1, 2);
+
+        assertEquals(2, slice.getNumRows());
+        assertEquals(2, slice.getNumCols());
+        // the slice shares the native buffers of the parent dataset
+        assertEquals(3.0, slice.X().get(0));
+        assertEquals(6.0, slice.X().get(3));
+        assertNull(slice.X_missing());
+        assertTrue(slice.isCheckMissing());
+        assertEquals(0, slice.getNativeBytes());
+
+        assertThrows(IndexOutOfBoundsException.class, () -> dset.slice(2, 2));
+    }
+
+    @Test
+    public void testSetRow() {
+        ExplanationDataset dset = ExplanationDataset.empty(2, 3);
+        dset.setRow(1, new double[]{1.0, Double.NaN, 3.0}, true);
+        dset.setRow(0, new double[]{Double.NaN, 5.0, 6.0}, false);
+
+        assertEquals(5.0, dset.X().get(1));
+        assertEquals(3.0, dset.X().get(5));
+        assertFalse(dset.X_missing().get(0));
+        assertTrue(dset.X_missing().get(4));
+        assertFalse(dset.X_missing().get(5));
+        assertEquals(2 * 3 * 9, dset.getNativeBytes());
+
+        assertThrows(IllegalArgumentException.class, () -> dset.setRow(0, new double[2], false));
+        assertThrows(IndexOutOfBoundsException.class, () -> dset.setRow(2, new double[3], false));
+        dset.close();
+    }
+
+    @Test
+    public void testWrap() {
+        DoubleBuffer buffer = ByteBuffer.allocateDirect(7 * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        buffer.put(new double[]{42.0, 1.0, 2.0, Double.NaN, 4.0, 5.0, 6.0});
+        buffer.position(1);
+
+        ExplanationDataset dset = ExplanationDataset.wrap(buffer, 2, 3, true);
+        assertEquals(2, dset.getNumRows());
+        assertEquals(3, dset.getNumCols());
+        assertEquals(1, buffer.position());
+        assertEquals(1.0, dset.X().get(0));
+        assertEquals(6.0, dset.X().get(5));
+        // no native memory is allocated, not even for the missing value flags
+        assertNull(dset.X_missing());
+        assertEquals(0, dset.getNativeBytes());
+        assertTrue(dset.isCheckMissing());
+
+        // the features are not copied
+        buffer.put(4, Double.NaN);
+        assertTrue(Double.isNaN(dset.X().get(3)));
+
+        ExplanationDataset slice = dset.slice(1, 1);
+        assertEquals(5.0, slice.X().get(1));
+
+        slice.close();
+        dset.close();
+        // the buffer is owned by the caller, and still usable after the dataset is closed
+        assertEquals(6.0, buffer.get(6));
+    }
+
+    @Test
+    public void testWrapInvalidBuffers() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ExplanationDataset.wrap(DoubleBuffer.allocate(6), 2, 3, false));
+        assertThrows(IllegalArgumentException.class,
+                () -> ExplanationDataset.wrap(ByteBuffer.allocateDirect(6 * 8).asDoubleBuffer(), 2, 4, false));
+        assertThrows(IllegalArgumentException.class,
+                () -> ExplanationDataset.wrap(ByteBuffer.allocateDirect(6 * 8).order(ByteOrder.nativeOrder()),
+                        0, 3, false));
+
+        ByteOrder otherOrder = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+                ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        assertThrows(IllegalArgumentException.class,
+                () -> ExplanationDataset.wrap(ByteBuffer.allocateDirect(6 * 8).order(otherOrder), 2, 3, false));
+
+        // the double buffers of direct byte buffers are big-endian by default
+        DoubleBuffer defaultOrder = ByteBuffer.allocateDirect(6 * 8).asDoubleBuffer();
+        if (ByteOrder.nativeOrder() != defaultOrder.order()) {
+            assertThrows(IllegalArgumentException.class, () -> ExplanationDataset.wrap(defaultOrder, 2, 3, false));
         }
+        DoubleBuffer nonNative = ByteBuffer.allocateDirect(6 * 8).order(otherOrder).asDoubleBuffer();
+        assertThrows(IllegalArgumentException.class, () -> ExplanationDataset.wrap(nonNative, 2, 3, false));
+
+        ByteBuffer unaligned = ByteBuffer.allocateDirect(7 * 8).order(ByteOrder.nativeOrder());
+        unaligned.position(3);
+        assertThrows(IllegalArgumentException.class, () -> ExplanationDataset.wrap(unaligned, 2, 3, false));
+        unaligned.position(8);
+        ExplanationDataset.wrap(unaligned, 2, 3, false).close();
+    }
+
+    @Test
+    public void testWithBackground() {
+        ExplanationDataset dset = ExplanationDataset.fromMatrix(new double[][]{{1.0, 2.0}, {3.0, 4.0}}, false);
+        ExplanationDataset background = ExplanationDataset.fromMatrix(
+                new double[][]{{5.0, 6.0}, {7.0, Double.NaN}, {9.0, 10.0}}, true
+        );
+        assertEquals(0, dset.getNumBackgroundRows());
+
+        ExplanationDataset view = dset.withBackground(background);
+        assertEquals(2, view.getNumRows());
+        assertEquals(3, view.getNumBackgroundRows());
+        assertEquals(3.0, view.X().get(2));
+        assertEquals(7.0, view.R().get(2));
+        assertTrue(view.R_missing().get(3));
+
+        // slices of the rows keep the whole background, slices of the background keep all the rows
+        ExplanationDataset slice = view.slice(1, 1);
+        assertEquals(3, slice.getNumBackgroundRows());
+        assertEquals(3.0, slice.X().get(0));
+
+        ExplanationDataset backgroundSlice = view.sliceBackground(1, 2);
+        assertEquals(2, backgroundSlice.getNumRows());
+        assertEquals(2, backgroundSlice.getNumBackgroundRows());
+        assertEquals(7.0, backgroundSlice.R().get(0));
+        assertEquals(10.0, backgroundSlice.R().get(3));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> view.sliceBackground(2, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> dset.sliceBackground(0, 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> dset.withBackground(ExplanationDataset.empty(1, 3)));
+
+        backgroundSlice.close();
+        slice.close();
+        view.close();
+        background.close();
+        dset.close();
     }
 }
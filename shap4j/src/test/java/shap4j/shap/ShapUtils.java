@@ -2,6 +2,8 @@ package shap4j.shap;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class ShapUtils {
     public static byte[] readResourceAsBytes(String path) {
@@ -17,4 +19,23 @@ public class ShapUtils {
             return null;
         }
     }
+
+    /**
+     * Convert a <code>.shap4j</code> model into a model whose double arrays are stored in single precision.
+     */
+    public static byte[] float32Model(byte[] rawData) {
+        ByteBuffer in = ByteBuffer.wrap(rawData).order(ByteOrder.nativeOrder());
+        int offsetDoubleArrays = in.getInt(28);
+        int numDoubles = (rawData.length - offsetDoubleArrays) / 8;
+
+        ByteBuffer out = ByteBuffer.allocate(offsetDoubleArrays + 4 * numDoubles).order(ByteOrder.nativeOrder());
+        out.put(rawData, 0, offsetDoubleArrays);
+        out.putInt(40, TreeEnsemble.FLAG_FLOAT32);
+        in.position(offsetDoubleArrays);
+        out.position(offsetDoubleArrays);
+        for (int n = 0; n < numDoubles; ++n) {
+            out.putFloat((float) in.getDouble());
+        }
+        return out.array();
+    }
 }
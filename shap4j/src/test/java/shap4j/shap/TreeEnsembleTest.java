@@ -1,8 +1,14 @@
 package shap4j.shap;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 public class TreeEnsembleTest {
     @Test
     public void testTreeEnsembleFromBytes() {
@@ -16,4 +22,78 @@ public class TreeEnsembleTest {
         assertEquals(1, ensemble.getChildrenLeft(0, 0));
         assertEquals(3, ensemble.getChildrenLeft(0, 1));
     }
+
+    @Test
+    public void testTreeEnsembleFromBuffer() {
+        byte[] raw = ShapUtils.readResourceAsBytes("/boston.shap4j");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(raw.length);
+        buffer.put(raw);
+
+        TreeEnsemble ensemble = TreeEnsemble.fromBuffer(buffer);
+
+        assertEquals(1, ensemble.num_outputs());
+        assertEquals(49, ensemble.max_nodes());
+        assertEquals(100, ensemble.tree_limit());
+
+        assertEquals(1, ensemble.getChildrenLeft(0, 0));
+        assertEquals(3, ensemble.getChildrenLeft(0, 1));
+        assertEquals(4, ensemble.getChildrenRight(0, 1));
+    }
+
+    @Test
+    public void testTreeEnsembleFromHeapBuffer() {
+        byte[] raw = ShapUtils.readResourceAsBytes("/boston.shap4j");
+        assertThrows(IllegalArgumentException.class, () -> TreeEnsemble.fromBuffer(ByteBuffer.wrap(raw)));
+    }
+
+    @Test
+    public void testTruncatedTreeEnsemble() {
+        byte[] raw = ShapUtils.readResourceAsBytes("/boston.shap4j");
+        assertThrows(IllegalArgumentException.class, () -> TreeEnsemble.fromBytes(Arrays.copyOf(raw, 1000)));
+    }
+
+    @Test
+    public void testSinglePrecisionTreeEnsemble() {
+        byte[] raw = ShapUtils.readResourceAsBytes("/boston.shap4j");
+        TreeEnsemble ensemble = TreeEnsemble.fromBytes(ShapUtils.float32Model(raw));
+        assertTrue(ensemble.isSinglePrecision());
+        assertFalse(TreeEnsemble.fromBytes(raw).isSinglePrecision());
+
+        // the single precision kernels are built straight from the floats, without widening them
+        long singleBytes = ensemble.getNativeBytes();
+        FloatTreeEnsemble floats = new FloatTreeEnsemble(ensemble);
+        assertEquals(singleBytes, ensemble.getNativeBytes());
+        floats.close();
+
+        // the double precision copy is only allocated once, on the first call
+        assertEquals(ensemble, ensemble.widen());
+        assertEquals(singleBytes + 4L * 3 * 100 * 49, ensemble.getNativeBytes());
+        ensemble.widen();
+        assertEquals(singleBytes + 4L * 3 * 100 * 49, ensemble.getNativeBytes());
+        ensemble.close();
+    }
+
+    @Test
+    public void testCompiledTreeEnsemble() {
+        byte[] raw = ShapUtils.readResourceAsBytes("/boston.shap4j");
+        TreeEnsemble ensemble = TreeEnsemble.fromBytes(raw);
+
+        // the compiled trees only keep the nodes reachable from their roots, without any padding
+        int numNodes = 0;
+        for (int t = 0; t < ensemble.tree_limit(); ++t) {
+            numNodes += countNodes(ensemble, t, 0);
+        }
+
+        CompiledTreeEnsemble compiled = new CompiledTreeEnsemble(ensemble);
+        assertEquals(numNodes, compiled.num_nodes());
+        compiled.close();
+    }
+
+    private static int countNodes(TreeEnsemble ensemble, int tree, int node) {
+        if (ensemble.getChildrenRight(tree, node) < 0) {
+            return 1;
+        }
+        return 1 + countNodes(ensemble, tree, ensemble.getChildrenLeft(tree, node))
+                + countNodes(ensemble, tree, ensemble.getChildrenRight(tree, node));
+    }
 }